@@ -6,6 +6,11 @@
 
 package java.util.concurrent;
 
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.concurrent.locks.LockSupport;
 import java.util.function.BiConsumer;
 import java.util.function.BiFunction;
@@ -77,6 +82,19 @@ import java.util.function.Supplier;
  * {@link #getNow} that instead throw the CompletionException directly
  * in these cases.</li> </ul>
  *
+ * <p>Methods {@link #orTimeout}, {@link #completeOnTimeout} and
+ * {@link #delayedExecutor} share a single internal scheduler, by
+ * default a single-threaded {@link ScheduledThreadPoolExecutor}.
+ * Programs arming many timeouts that are usually cancelled may
+ * instead select a {@link HashedWheelScheduler} with a one
+ * millisecond tick by setting the {@linkplain System#getProperty
+ * system property}
+ * {@code java.util.concurrent.CompletableFuture.delayScheduler} to
+ * {@code wheel}, or any other {@link ScheduledExecutorService} by
+ * setting it to the name of a class with a public no-argument
+ * constructor, loaded using the system class loader. Upon any error
+ * in establishing this setting, the default is used.
+ *
  * <p>Subclasses of this class should normally override the "virtual
  * constructor" method {@link #newIncompleteFuture}, which establishes
  * the concrete type returned by CompletionStage methods. For example,
@@ -174,8 +192,9 @@ public class CompletableFuture<T> implements Future<T>, CompletionStage<T> {
      *   deal with races across both while pushing actions.  The
      *   second completion is a CoCompletion pointing to the first,
      *   shared so that at most one performs the action.  The
-     *   multiple-arity methods allOf and anyOf do this pairwise to
-     *   form trees of completions.
+     *   multiple-arity methods allOf, anyOf and completionOrder
+     *   instead push one FanInNode onto each source, all sharing a
+     *   single counter (see class FanIn).
      *
      * Note that the generic type parameters of methods vary according
      * to whether "this" is a source, dependent, or completion.
@@ -193,7 +212,12 @@ public class CompletableFuture<T> implements Future<T>, CompletionStage<T> {
      * that wake up waiting threads.  The mechanics are similar to
      * Treiber stack wait-nodes used in FutureTask, Phaser, and
      * SynchronousQueue. See their internal documentation for
-     * algorithmic details.
+     * algorithmic details.  Before pushing a Signaller, untimed
+     * waiters on multiprocessors spin for a while, since parking and
+     * unparking costs far more than waiting out results that arrive
+     * within microseconds. The number of spins adapts to recent
+     * experience, separately for each of a few groups of future
+     * classes (see method waitingGet).
      *
      * Without precautions, CompletableFutures would be prone to
      * garbage accumulation as chains of Completions build up, each
@@ -1274,63 +1298,6 @@ public class CompletableFuture<T> implements Future<T>, CompletionStage<T> {
         return d;
     }
 
-    @SuppressWarnings("serial")
-    static final class BiRelay<T,U> extends BiCompletion<T,U,Void> { // for And
-        BiRelay(CompletableFuture<Void> dep,
-                CompletableFuture<T> src,
-                CompletableFuture<U> snd) {
-            super(null, dep, src, snd);
-        }
-        final CompletableFuture<Void> tryFire(int mode) {
-            CompletableFuture<Void> d;
-            CompletableFuture<T> a;
-            CompletableFuture<U> b;
-            if ((d = dep) == null || !d.biRelay(a = src, b = snd))
-                return null;
-            src = null; snd = null; dep = null;
-            return d.postFire(a, b, mode);
-        }
-    }
-
-    boolean biRelay(CompletableFuture<?> a, CompletableFuture<?> b) {
-        Object r, s; Throwable x;
-        if (a == null || (r = a.result) == null ||
-            b == null || (s = b.result) == null)
-            return false;
-        if (result == null) {
-            if (r instanceof AltResult && (x = ((AltResult)r).ex) != null)
-                completeThrowable(x, r);
-            else if (s instanceof AltResult && (x = ((AltResult)s).ex) != null)
-                completeThrowable(x, s);
-            else
-                completeNull();
-        }
-        return true;
-    }
-
-    /** Recursively constructs a tree of completions. */
-    static CompletableFuture<Void> andTree(CompletableFuture<?>[] cfs,
-                                           int lo, int hi) {
-        CompletableFuture<Void> d = new CompletableFuture<Void>();
-        if (lo > hi) // empty
-            d.result = NIL;
-        else {
-            CompletableFuture<?> a, b;
-            int mid = (lo + hi) >>> 1;
-            if ((a = (lo == mid ? cfs[lo] :
-                      andTree(cfs, lo, mid))) == null ||
-                (b = (lo == hi ? a : (hi == mid+1) ? cfs[hi] :
-                      andTree(cfs, mid+1, hi)))  == null)
-                throw new NullPointerException();
-            if (!d.biRelay(a, b)) {
-                BiRelay<?,?> c = new BiRelay<>(d, a, b);
-                a.bipush(b, c);
-                c.tryFire(SYNC);
-            }
-        }
-        return d;
-    }
-
     /* ------------- Projected (Ored) BiCompletions -------------- */
 
     /** Pushes completion to this and b unless either done. */
@@ -1537,52 +1504,130 @@ public class CompletableFuture<T> implements Future<T>, CompletionStage<T> {
         return d;
     }
 
-    @SuppressWarnings("serial")
-    static final class OrRelay<T,U> extends BiCompletion<T,U,Object> { // for Or
-        OrRelay(CompletableFuture<Object> dep, CompletableFuture<T> src,
-                CompletableFuture<U> snd) {
-            super(null, dep, src, snd);
+    /* ------------- Counted fan-in -------------- */
+
+    /**
+     * Shared state for allOf, anyOf, and completionOrder. Rather than
+     * relaying through a tree of pairwise completions and
+     * intermediate futures, each incomplete source receives a single
+     * FanInNode, and arrivals update one counter: the number of
+     * remaining sources for AND, or the index of the next output for
+     * ORDER. For OR, the first arrival completes the dependent and
+     * then cleans the now-dead nodes off the stacks of the losing
+     * sources, which may otherwise never be popped.
+     */
+    static final class FanIn {
+        static final int AND = 0, OR = 1, ORDER = 2;
+        final int kind;
+        final CompletableFuture<?> dep;      // for AND and OR
+        final CompletableFuture<?>[] outs;   // for ORDER
+        CompletableFuture<?>[] srcs;         // nulled out when done
+        volatile int count;
+
+        FanIn(int kind, CompletableFuture<?>[] srcs,
+              CompletableFuture<?> dep, CompletableFuture<?>[] outs,
+              int count) {
+            this.kind = kind; this.srcs = srcs; this.dep = dep;
+            this.outs = outs; this.count = count;
         }
-        final CompletableFuture<Object> tryFire(int mode) {
-            CompletableFuture<Object> d;
-            CompletableFuture<T> a;
-            CompletableFuture<U> b;
-            if ((d = dep) == null || !d.orRelay(a = src, b = snd))
+
+        /**
+         * Arranges arrival upon completion of source a, or arrives
+         * now if a is already complete.
+         */
+        final void register(CompletableFuture<?> a) {
+            if (a.result != null)
+                arrive(a, SYNC);
+            else {
+                FanInNode c = new FanInNode(this, a);
+                while (a.result == null && !a.tryPushStack(c))
+                    lazySetNext(c, null); // clear on failure
+                if (a.result != null)
+                    c.tryFire(SYNC);
+            }
+        }
+
+        /**
+         * Records completion of source a, returning a dependent that
+         * may need propagation, as in Completion.tryFire.
+         */
+        final CompletableFuture<?> arrive(CompletableFuture<?> a, int mode) {
+            CompletableFuture<?> d;
+            if (kind == ORDER)
+                (d = outs[U.getAndAddInt(this, COUNT, 1)])
+                    .completeRelay(a.result);
+            else if (kind == OR) {
+                if ((d = dep).result != null || !d.completeRelay(a.result))
+                    return null;
+                CompletableFuture<?>[] as = srcs;
+                srcs = null;
+                cleanLosers(as);
+            }
+            else if (U.getAndAddInt(this, COUNT, -1) != 1)
                 return null;
-            src = null; snd = null; dep = null;
-            return d.postFire(a, b, mode);
+            else {                      // last arrival; report first failure
+                CompletableFuture<?>[] as = srcs;
+                srcs = null;
+                Object r; Throwable x;
+                if ((d = dep).result == null) {
+                    for (CompletableFuture<?> b : as) {
+                        if ((r = b.result) instanceof AltResult &&
+                            (x = ((AltResult)r).ex) != null) {
+                            d.completeThrowable(x, r);
+                            break;
+                        }
+                    }
+                    d.completeNull();
+                }
+            }
+            return d.postFire(null, mode);
         }
-    }
 
-    final boolean orRelay(CompletableFuture<?> a, CompletableFuture<?> b) {
-        Object r;
-        if (a == null || b == null ||
-            ((r = a.result) == null && (r = b.result) == null))
-            return false;
-        if (result == null)
-            completeRelay(r);
-        return true;
-    }
+        /** Unlinks dead nodes from incomplete sources. */
+        static void cleanLosers(CompletableFuture<?>[] as) {
+            if (as != null) {
+                for (CompletableFuture<?> b : as) {
+                    if (b.result == null && b.stack != null)
+                        b.cleanStack();
+                }
+            }
+        }
 
-    /** Recursively constructs a tree of completions. */
-    static CompletableFuture<Object> orTree(CompletableFuture<?>[] cfs,
-                                            int lo, int hi) {
-        CompletableFuture<Object> d = new CompletableFuture<Object>();
-        if (lo <= hi) {
-            CompletableFuture<?> a, b;
-            int mid = (lo + hi) >>> 1;
-            if ((a = (lo == mid ? cfs[lo] :
-                      orTree(cfs, lo, mid))) == null ||
-                (b = (lo == hi ? a : (hi == mid+1) ? cfs[hi] :
-                      orTree(cfs, mid+1, hi)))  == null)
-                throw new NullPointerException();
-            if (!d.orRelay(a, b)) {
-                OrRelay<?,?> c = new OrRelay<>(d, a, b);
-                a.orpush(b, c);
-                c.tryFire(SYNC);
+        final boolean isLive() {
+            return kind != OR || dep.result == null;
+        }
+
+        private static final long COUNT;
+        static {
+            try {
+                COUNT = U.objectFieldOffset
+                    (FanIn.class.getDeclaredField("count"));
+            } catch (ReflectiveOperationException e) {
+                throw new Error(e);
             }
         }
-        return d;
+    }
+
+    /** A Completion recording the arrival of a source at a FanIn. */
+    @SuppressWarnings("serial")
+    static final class FanInNode extends Completion {
+        FanIn fanIn; CompletableFuture<?> src;
+        FanInNode(FanIn fanIn, CompletableFuture<?> src) {
+            this.fanIn = fanIn; this.src = src;
+        }
+        final CompletableFuture<?> tryFire(int mode) {
+            FanIn f; CompletableFuture<?> a;
+            if ((f = fanIn) == null || (a = src) == null ||
+                a.result == null ||
+                !compareAndSetForkJoinTaskTag((short)0, (short)1))
+                return null;
+            fanIn = null; src = null;
+            return f.arrive(a, mode);
+        }
+        final boolean isLive() {
+            FanIn f = fanIn;
+            return f != null && f.isLive();
+        }
     }
 
     /* ------------- Zero-input Async forms -------------- */
@@ -1716,27 +1761,92 @@ public class CompletableFuture<T> implements Future<T>, CompletionStage<T> {
         final boolean isLive() { return thread != null; }
     }
 
+    /*
+     * Adaptive spinning. Each untimed wait spins up to a limit held
+     * in spinLimits, in a slot chosen by the class of the future, so
+     * that (for example) MinimalStages and application subclasses
+     * used for different purposes learn separately. The limit grows
+     * by half when a result arrives after more than half of it was
+     * used, and shrinks by a quarter when the waiter gives up and
+     * parks, so it settles near the typical wait of results that
+     * arrive soon, and decays toward MIN_SPINS when results usually
+     * come too late for spinning to help. Updates are unsynchronized
+     * since lost updates merely make the estimate slightly stale.
+     * Spins are decremented only with probability one half (using
+     * the secondary seed) as a cheap way to randomize durations.
+     */
+
+    /** Minimum, initial, and maximum adaptive spin limits */
+    static final int MIN_SPINS = 1 << 4;
+    static final int INITIAL_SPINS = 1 << 8;
+    static final int MAX_SPINS = 1 << 12;
+
+    /** Number of spin limit slots; must be a power of two */
+    static final int SPIN_SLOTS = 8;
+
+    /** Adaptive spin limits, indexed by hashes of future classes */
+    static final int[] spinLimits = new int[SPIN_SLOTS];
+    static { Arrays.fill(spinLimits, INITIAL_SPINS); }
+
+    /** Counts untimed waits that completed while spinning */
+    static final LongAdder spunWaits = new LongAdder();
+
+    /** Counts waits that pushed a Signaller in order to block */
+    static final LongAdder parkedWaits = new LongAdder();
+
     /**
      * Returns raw result after waiting, or null if interruptible and
      * interrupted.
+     *
+     * @param spinNanos if negative, spin adaptively (only on
+     * multiprocessors), else spin for this many nanoseconds
      */
-    private Object waitingGet(boolean interruptible) {
-        Signaller q = null;
-        boolean queued = false;
-        int spins = -1;
+    private Object waitingGet(boolean interruptible, long spinNanos) {
         Object r;
-        while ((r = result) == null) {
-            if (spins < 0)
-                spins = (Runtime.getRuntime().availableProcessors() > 1) ?
-                    1 << 8 : 0; // Use brief spin-wait on multiprocessors
-            else if (spins > 0) {
+        int slot = 0, limit = 0, spins = 0;
+        if (spinNanos < 0L) {
+            if (Runtime.getRuntime().availableProcessors() > 1) {
+                slot = getClass().hashCode() & (SPIN_SLOTS - 1);
+                if ((spins = limit = spinLimits[slot]) < MIN_SPINS)
+                    spins = limit = MIN_SPINS;
+            }
+            while ((r = result) == null && spins > 0) {
                 if (ThreadLocalRandom.nextSecondarySeed() >= 0)
                     --spins;
             }
-            else if (q == null)
+            if (r != null) {
+                if (limit - spins > (limit >>> 1) && limit < MAX_SPINS)
+                    spinLimits[slot] = Math.min(limit + (limit >>> 1),
+                                                MAX_SPINS);
+                spunWaits.increment();
+                postComplete();
+                return r;
+            }
+        }
+        else if (spinNanos > 0L) {
+            long deadline = System.nanoTime() + spinNanos;
+            while ((r = result) == null &&
+                   deadline - System.nanoTime() > 0L)
+                ;
+            if (r != null) {
+                spunWaits.increment();
+                postComplete();
+                return r;
+            }
+        }
+        Signaller q = null;
+        boolean queued = false;
+        while ((r = result) == null) {
+            if (q == null)
                 q = new Signaller(interruptible, 0L, 0L);
-            else if (!queued)
-                queued = tryPushStack(q);
+            else if (!queued) {
+                if (queued = tryPushStack(q)) {
+                    parkedWaits.increment();
+                    if (limit > MIN_SPINS)
+                        spinLimits[slot] = Math.max(limit - (limit >>> 2),
+                                                    MIN_SPINS);
+                }
+            }
             else if (interruptible && q.interruptControl < 0) {
                 q.thread = null;
                 cleanStack();
@@ -1779,8 +1889,10 @@ public class CompletableFuture<T> implements Future<T>, CompletionStage<T> {
         // We intentionally don't spin here (as waitingGet does) because
         // the call to nanoTime() above acts much like a spin.
         while ((r = result) == null) {
-            if (!queued)
-                queued = tryPushStack(q);
+            if (!queued) {
+                if (queued = tryPushStack(q))
+                    parkedWaits.increment();
+            }
             else if (q.interruptControl < 0 || q.nanos <= 0L) {
                 q.thread = null;
                 cleanStack();
@@ -1910,7 +2022,7 @@ public class CompletableFuture<T> implements Future<T>, CompletionStage<T> {
      */
     public T get() throws InterruptedException, ExecutionException {
         Object r;
-        return reportGet((r = result) == null ? waitingGet(true) : r);
+        return reportGet((r = result) == null ? waitingGet(true, -1L) : r);
     }
 
     /**
@@ -1949,7 +2061,36 @@ public class CompletableFuture<T> implements Future<T>, CompletionStage<T> {
      */
     public T join() {
         Object r;
-        return reportJoin((r = result) == null ? waitingGet(false) : r);
+        return reportJoin((r = result) == null ? waitingGet(false, -1L) : r);
+    }
+
+    /**
+     * Returns the result value when complete, or throws an
+     * (unchecked) exception if completed exceptionally, as does
+     * {@link #join}, but first spins for up to the given time
+     * waiting for completion before blocking, in place of the
+     * adaptive spinning otherwise performed. Spinning consumes a
+     * processor, so this method is appropriate only when the result
+     * is expected to arrive very soon (typically within a few
+     * microseconds) from another thread, and processors are not
+     * saturated.
+     *
+     * @param spinTime the maximum time to spin before blocking; if
+     *        zero or negative, blocks without spinning
+     * @param unit the time unit of the spinTime argument
+     * @return the result value
+     * @throws CancellationException if the computation was cancelled
+     * @throws CompletionException if this future completed
+     * exceptionally or a completion computation threw an exception
+     * @throws NullPointerException if unit is null
+     * @since 9
+     */
+    public T spinJoin(long spinTime, TimeUnit unit) {
+        long nanos = unit.toNanos(spinTime);
+        Object r;
+        if ((r = result) == null)
+            r = waitingGet(false, Math.max(nanos, 0L));
+        return reportJoin(r);
     }
 
     /**
@@ -2241,7 +2382,17 @@ public class CompletableFuture<T> implements Future<T>, CompletionStage<T> {
      * {@code null}
      */
     public static CompletableFuture<Void> allOf(CompletableFuture<?>... cfs) {
-        return andTree(cfs, 0, cfs.length - 1);
+        CompletableFuture<?>[] as = screenSources(cfs);
+        CompletableFuture<Void> d = new CompletableFuture<Void>();
+        int n = as.length;
+        if (n == 0)
+            d.result = NIL;
+        else {
+            FanIn f = new FanIn(FanIn.AND, as, d, null, n);
+            for (CompletableFuture<?> a : as)
+                f.register(a);
+        }
+        return d;
     }
 
     /**
@@ -2260,7 +2411,72 @@ public class CompletableFuture<T> implements Future<T>, CompletionStage<T> {
      * {@code null}
      */
     public static CompletableFuture<Object> anyOf(CompletableFuture<?>... cfs) {
-        return orTree(cfs, 0, cfs.length - 1);
+        CompletableFuture<?>[] as = screenSources(cfs);
+        CompletableFuture<Object> d = new CompletableFuture<Object>();
+        Object r;
+        for (CompletableFuture<?> a : as) {
+            if ((r = a.result) != null) {
+                d.result = encodeRelay(r);
+                return d;
+            }
+        }
+        if (as.length > 0) {
+            FanIn f = new FanIn(FanIn.OR, as, d, null, 0);
+            for (CompletableFuture<?> a : as) {
+                if (d.result != null)
+                    break;
+                f.register(a);
+            }
+            if (d.result != null)   // clean up after races with winner
+                FanIn.cleanLosers(as);
+        }
+        return d;
+    }
+
+    /**
+     * Returns a list of new CompletableFutures, one per given
+     * CompletableFuture, such that the i-th element of the list is
+     * completed with the same result (or exception, wrapped as in
+     * {@link #anyOf}) as the i-th of the given CompletableFutures to
+     * complete. So iterating through the list and joining each
+     * element in turn yields results in the order they become
+     * available. Each given CompletableFuture contributes a single
+     * dependent action, and no intermediate futures are created, so
+     * this is suitable for very large numbers of CompletableFutures.
+     *
+     * @param cfs the CompletableFutures
+     * @param <T> the type of the values
+     * @return an unmodifiable list of CompletableFutures completing
+     * in order with the results of the given CompletableFutures
+     * @throws NullPointerException if the collection or any of its
+     * elements are {@code null}
+     * @since 9
+     */
+    public static <T> List<CompletableFuture<T>> completionOrder(
+        Collection<? extends CompletableFuture<? extends T>> cfs) {
+        CompletableFuture<?>[] as =
+            screenSources(cfs.toArray(new CompletableFuture<?>[0]));
+        int n = as.length;
+        @SuppressWarnings("unchecked") CompletableFuture<T>[] outs =
+            (CompletableFuture<T>[]) new CompletableFuture<?>[n];
+        for (int i = 0; i < n; ++i)
+            outs[i] = new CompletableFuture<T>();
+        FanIn f = new FanIn(FanIn.ORDER, null, null, outs, 0);
+        for (CompletableFuture<?> a : as)
+            f.register(a);
+        return Collections.unmodifiableList(Arrays.asList(outs));
+    }
+
+    /**
+     * Returns a copy of the given sources, checking for nulls.
+     */
+    static CompletableFuture<?>[] screenSources(CompletableFuture<?>[] cfs) {
+        CompletableFuture<?>[] as = Arrays.copyOf(cfs, cfs.length);
+        for (CompletableFuture<?> a : as) {
+            if (a == null)
+                throw new NullPointerException();
+        }
+        return as;
     }
 
     /* ------------- Control and status methods -------------- */
@@ -2360,6 +2576,37 @@ public class CompletableFuture<T> implements Future<T>, CompletionStage<T> {
         return count;
     }
 
+    /**
+     * Returns an estimate of the total number of waits in methods
+     * {@code get}, {@code join}, and {@link #spinJoin} (across all
+     * CompletableFutures) that were satisfied while spinning, without
+     * blocking. This method is designed for use in monitoring and
+     * tuning, not for synchronization control.
+     *
+     * @return the number of waits satisfied by spinning
+     * @since 9
+     */
+    public static long getSpunWaitCount() {
+        return spunWaits.sum();
+    }
+
+    /**
+     * Returns an estimate of the total number of waits in methods
+     * {@code get}, {@code join}, and {@link #spinJoin} (across all
+     * CompletableFutures) that blocked, or were prepared to block,
+     * because the result did not arrive while spinning. Comparing
+     * this with {@link #getSpunWaitCount} indicates how often
+     * callers paid the cost of parking and unparking threads. This
+     * method is designed for use in monitoring and tuning, not for
+     * synchronization control.
+     *
+     * @return the number of waits that blocked
+     * @since 9
+     */
+    public static long getParkedWaitCount() {
+        return parkedWaits.sum();
+    }
+
     /**
      * Returns a string identifying this CompletableFuture, as well as
      * its completion state.  The state, in brackets, contains the
@@ -2602,6 +2849,182 @@ public class CompletableFuture<T> implements Future<T>, CompletionStage<T> {
         return new MinimalStage<U>(encodeThrowable(ex));
     }
 
+    /**
+     * Returns a new builder of synchronous stages that, once
+     * attached, execute as a single dependent of this
+     * CompletableFuture. Attaching a chain of stages built using
+     * {@code cf.fuse().thenApply(f).thenApply(g).thenAccept(h)
+     * .toCompletableFuture()} has the same effect as {@code
+     * cf.thenApply(f).thenApply(g).thenAccept(h)}, except that the
+     * intermediate CompletableFutures are never created, so a chain
+     * of any length costs a constant number of allocations and a
+     * single completion step. If any stage throws an exception, the
+     * remaining stages are skipped and the returned CompletableFuture
+     * completes exceptionally, just as the last of an unfused chain
+     * would.
+     *
+     * @return a new builder of fused stages
+     * @since 9
+     */
+    public FusedStages<T> fuse() {
+        return new FusedStages<T>(this);
+    }
+
+    /**
+     * A builder of synchronous stages that execute, in the order
+     * added, as a single dependent of the CompletableFuture
+     * supplying the builder via {@link CompletableFuture#fuse}.
+     * Builders are not thread-safe, and may be attached only once;
+     * upon attachment they can no longer be modified.
+     *
+     * @param <R> the result type of the most recently added stage
+     * @since 9
+     */
+    public static final class FusedStages<R> {
+        /*
+         * Stages are held in an array, tagged by kind, and attached
+         * by handing the array to a FusedFunction used in an
+         * ordinary UniApply, so no new Completion types are needed.
+         */
+        static final byte APPLY = 0, ACCEPT = 1, RUN = 2;
+
+        private final CompletableFuture<?> source;
+        private Object[] actions = new Object[8];
+        private byte[] kinds = new byte[8];
+        private int size;
+        private boolean attached;
+
+        FusedStages(CompletableFuture<?> source) { this.source = source; }
+
+        /**
+         * Appends a stage, checking builder state.
+         */
+        @SuppressWarnings("unchecked")
+        private <U> FusedStages<U> add(Object action, byte kind) {
+            if (action == null)
+                throw new NullPointerException();
+            if (attached)
+                throw new IllegalStateException();
+            int n = size;
+            if (n == actions.length) {
+                actions = Arrays.copyOf(actions, n << 1);
+                kinds = Arrays.copyOf(kinds, n << 1);
+            }
+            actions[n] = action;
+            kinds[n] = kind;
+            size = n + 1;
+            return (FusedStages<U>)this;
+        }
+
+        /**
+         * Adds a stage that applies the given function to the
+         * previous result, as in {@link CompletableFuture#thenApply}.
+         *
+         * @param fn the function to use to compute the next result
+         * @param <U> the function's return type
+         * @return this builder
+         * @throws IllegalStateException if already attached
+         */
+        public <U> FusedStages<U> thenApply(
+            Function<? super R,? extends U> fn) {
+            return add(fn, APPLY);
+        }
+
+        /**
+         * Adds a stage that performs the given action on the previous
+         * result, as in {@link CompletableFuture#thenAccept}.
+         *
+         * @param action the action to perform
+         * @return this builder
+         * @throws IllegalStateException if already attached
+         */
+        public FusedStages<Void> thenAccept(Consumer<? super R> action) {
+            return add(action, ACCEPT);
+        }
+
+        /**
+         * Adds a stage that runs the given action, as in {@link
+         * CompletableFuture#thenRun}.
+         *
+         * @param action the action to perform
+         * @return this builder
+         * @throws IllegalStateException if already attached
+         */
+        public FusedStages<Void> thenRun(Runnable action) {
+            return add(action, RUN);
+        }
+
+        /**
+         * Attaches the stages, returning a new CompletableFuture that
+         * is completed with the result of the last stage. Stages run
+         * in the thread completing the source, or the caller if it is
+         * already complete.
+         *
+         * @return the new CompletableFuture
+         * @throws IllegalStateException if already attached
+         */
+        public CompletableFuture<R> toCompletableFuture() {
+            return attach(null);
+        }
+
+        /**
+         * Attaches the stages, returning a new CompletableFuture that
+         * is completed with the result of the last stage, with all
+         * stages run by a single task using the supplied Executor.
+         *
+         * @param executor the executor to use for asynchronous execution
+         * @return the new CompletableFuture
+         * @throws IllegalStateException if already attached
+         */
+        public CompletableFuture<R> toCompletableFuture(Executor executor) {
+            return attach(screenExecutor(executor));
+        }
+
+        @SuppressWarnings("unchecked")
+        private CompletableFuture<R> attach(Executor e) {
+            if (attached)
+                throw new IllegalStateException();
+            attached = true;
+            FusedFunction f = new FusedFunction(actions, kinds, size);
+            actions = null;
+            kinds = null;
+            return (CompletableFuture<R>)
+                ((CompletableFuture<Object>)source).uniApplyStage(e, f);
+        }
+    }
+
+    /** Runs the stages of an attached FusedStages */
+    static final class FusedFunction implements Function<Object,Object> {
+        final Object[] actions;
+        final byte[] kinds;
+        final int size;
+        FusedFunction(Object[] actions, byte[] kinds, int size) {
+            this.actions = actions; this.kinds = kinds; this.size = size;
+        }
+        @SuppressWarnings("unchecked")
+        public Object apply(Object v) {
+            Object[] as = actions;
+            byte[] ks = kinds;
+            for (int i = 0, n = size; i < n; ++i) {
+                Object a = as[i];
+                switch (ks[i]) {
+                case FusedStages.APPLY:
+                    v = ((Function<Object,Object>)a).apply(v);
+                    break;
+                case FusedStages.ACCEPT:
+                    ((Consumer<Object>)a).accept(v);
+                    v = null;
+                    break;
+                default:
+                    ((Runnable)a).run();
+                    v = null;
+                    break;
+                }
+            }
+            return v;
+        }
+    }
+
     /**
      * Singleton delay scheduler, used only for starting and
      * cancelling tasks.
@@ -2621,11 +3044,33 @@ public class CompletableFuture<T> implements Future<T>, CompletionStage<T> {
             }
         }
 
-        static final ScheduledThreadPoolExecutor delayer;
+        static final ScheduledExecutorService delayer;
         static {
-            (delayer = new ScheduledThreadPoolExecutor(
-                1, new DaemonThreadFactory())).
-                setRemoveOnCancelPolicy(true);
+            ScheduledExecutorService d = null;
+            try {  // ignore exceptions in accessing/parsing properties
+                String sp = System.getProperty
+                    ("java.util.concurrent.CompletableFuture.delayScheduler");
+                if ("wheel".equals(sp))
+                    d = new HashedWheelScheduler(
+                        1L, TimeUnit.MILLISECONDS, 512,
+                        new DaemonThreadFactory());
+                else if (sp != null) {
+                    Class<?> c = ClassLoader.getSystemClassLoader()
+                        .loadClass(sp);
+                    if (ScheduledExecutorService.class.isAssignableFrom(c))
+                        d = (ScheduledExecutorService)c.newInstance();
+                }
+            } catch (Exception | LinkageError ignore) {
+                // use default; includes failures initializing the class
+            }
+            if (d == null) {
+                ScheduledThreadPoolExecutor e =
+                    new ScheduledThreadPoolExecutor(
+                        1, new DaemonThreadFactory());
+                e.setRemoveOnCancelPolicy(true);
+                d = e;
+            }
+            delayer = d;
         }
     }
 
@@ -2696,6 +3141,8 @@ public class CompletableFuture<T> implements Future<T>, CompletionStage<T> {
             throw new UnsupportedOperationException(); }
         public T join() {
             throw new UnsupportedOperationException(); }
+        public T spinJoin(long spinTime, TimeUnit unit) {
+            throw new UnsupportedOperationException(); }
         public boolean complete(T value) {
             throw new UnsupportedOperationException(); }
         public boolean completeExceptionally(Throwable ex) {
@@ -0,0 +1,1098 @@
+/*
+ * Written by Doug Lea with assistance from members of JCP JSR-166
+ * Expert Group and released to the public domain, as explained at
+ * http://creativecommons.org/publicdomain/zero/1.0/
+ */
+
+package java.util.concurrent;
+
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+import java.util.function.ToIntBiFunction;
+
+/**
+ * A bounded, concurrent cache of key-value mappings, backed by a
+ * {@link ConcurrentHashMap}.  A cache holds mappings up to a maximum
+ * total <em>weight</em>, by default one per mapping, and optionally
+ * expires mappings a fixed time after they were last written and/or
+ * last read.  When the maximum is exceeded, entries are evicted
+ * according to an admission policy that estimates the recent access
+ * frequency of each key, retaining frequently used entries in
+ * preference to those used only once or rarely.
+ *
+ * <p>Retrievals ({@code get}) do not block and do not contend with
+ * each other: each records its access in one of a set of lossy
+ * per-thread-group buffers, which are periodically drained in
+ * batches.  Updates record their effects in a queue that is drained
+ * in the same way.  Draining, along with eviction and expiration, is
+ * performed by whichever thread first succeeds in acquiring an
+ * internal lock when buffers fill or upon updates, so that the cost
+ * of maintaining the policy is amortized across operations rather
+ * than imposed upon every access.  As a consequence, a cache may
+ * transiently hold more than its maximum weight, and expired entries
+ * may remain in the cache (though never be returned by {@code get})
+ * until maintenance next occurs.  Method {@link #cleanUp} performs
+ * any pending maintenance immediately.
+ *
+ * <p>Like {@link ConcurrentHashMap}, this class does <em>not</em>
+ * allow {@code null} to be used as a key or value.  Retrievals
+ * reflect the results of the most recently <em>completed</em> update
+ * operations holding upon their onset, except that a mapping may be
+ * evicted or expire at any time.  The results of aggregate status
+ * methods such as {@code size} are typically useful only when the
+ * cache is not undergoing concurrent updates.
+ *
+ * @since 9
+ * @author Doug Lea
+ * @param <K> the type of keys maintained by this cache
+ * @param <V> the type of cached values
+ */
+public class ConcurrentCache<K,V> {
+
+    /*
+     * Overview:
+     *
+     * Mappings are held in a ConcurrentHashMap from keys to Nodes,
+     * each containing the current value and the bookkeeping fields
+     * needed by the eviction and expiration policies.  All updates
+     * to a key's Node are performed inside ConcurrentHashMap.compute
+     * (or remove), so they are serialized by its bin lock.  All
+     * policy data structures (deques, frequency sketch, timer wheel,
+     * weight totals) are instead guarded by evictionLock, and
+     * updated only by a thread performing "maintenance".  The main
+     * design problem is to communicate from the map to the policy
+     * without making readers or writers wait for that lock.
+     *
+     * Reads.  Each successful get offers its Node to a ReadBuffer:
+     * a small bounded ring buffer, lossy when full, from which the
+     * maintainer replays accesses into the policy.  As with the
+     * cells of Striped64 (and counter cells of ConcurrentHashMap),
+     * ReadBuffers are striped by ThreadLocalRandom probe, starting
+     * with a single buffer and doubling the array of buffers upon
+     * CAS contention, up to a bound based on the number of CPUs.
+     * Losing a read only makes the policy slightly less accurate.
+     * A reader finding its buffer full attempts maintenance.
+     *
+     * Writes.  Updates cannot be lost, so each one adds the affected
+     * Node(s) to writeBuffer, an unbounded ConcurrentLinkedQueue,
+     * and then attempts maintenance.  Rather than encoding specific
+     * operations, an entry in the write buffer just asks the
+     * maintainer to "reconcile" that node: to make the policy agree
+     * with the node's current state.  A node that is live but not
+     * yet in the policy is added; one that is in the policy has its
+     * weight adjusted and counts as accessed; a retired node
+     * (removed from the map) is removed from the policy if present.
+     * Because reconciliation reads the node's current state, it does
+     * not matter that buffered entries for the same node may be
+     * drained in a different order than the updates that produced
+     * them, and a retired node is never re-added.
+     *
+     * Policy.  Eviction follows W-TinyLFU (Einziger, Friedman and
+     * Manes, "TinyLFU: A Highly Efficient Cache Admission Policy").
+     * New entries enter a small LRU "window" (1% of the maximum
+     * weight).  Entries leaving the window become candidates for the
+     * main space, which is a segmented LRU with "probation" and
+     * "protected" (80%) segments; an entry in probation is promoted
+     * to protected when accessed again.  When the cache is over its
+     * maximum weight, a candidate competes against the LRU victim of
+     * probation, and the one with the lower estimated frequency is
+     * evicted.  Frequencies are estimated by a FrequencySketch, a
+     * 4-bit count-min sketch whose counters are periodically halved
+     * so that it reflects recent history.
+     *
+     * Expiration.  When enabled, each node in the policy is also
+     * scheduled on a hierarchical TimerWheel (as described by Varghese
+     * and Lauck) by its next possible expiration time.  Upon
+     * maintenance, the wheel is advanced to the current time, and
+     * nodes in buckets that have passed are either evicted, if they
+     * have indeed expired, or rescheduled, if they have since been
+     * read or written.  Reads record access times directly in nodes,
+     * so that get can itself reject expired entries without waiting
+     * for maintenance.
+     *
+     * Evictions remove a node from the map only if it is still
+     * mapped (via the conditional remove(key, node)), and always
+     * remove it from the policy, so they do not interfere with
+     * concurrent replacements of the same key.
+     */
+
+    /* ---------------- Constants -------------- */
+
+    /** Number of CPUS, to place bounds on buffer striping */
+    static final int NCPU = Runtime.getRuntime().availableProcessors();
+
+    /** The maximum number of read buffers; a power of two */
+    static final int MAX_READ_BUFFERS = 4 * ceilingPowerOfTwo(NCPU);
+
+    /** The percentage of the maximum weight used for the window */
+    static final int WINDOW_PERCENT = 1;
+
+    /** The percentage of the main space used for protected entries */
+    static final int PROTECTED_PERCENT = 80;
+
+    /** Queue types of nodes in the policy */
+    static final int NONE = 0, WINDOW = 1, PROBATION = 2, PROTECTED = 3;
+
+    static int ceilingPowerOfTwo(int x) {
+        return 1 << -Integer.numberOfLeadingZeros(x - 1);
+    }
+
+    /* ---------------- Nodes -------------- */
+
+    /**
+     * A cached mapping.  Fields other than those declared volatile
+     * are accessed only by the maintainer, under evictionLock.
+     */
+    static final class Node<K,V> {
+        final K key;
+        volatile V value;
+        volatile int weight;
+        volatile long writeTime;
+        volatile long accessTime;
+        volatile boolean retired;    // true when removed from the map
+
+        int queueType;               // NONE, WINDOW, PROBATION, PROTECTED
+        int policyWeight;            // weight as known to the policy
+        Node<K,V> prev, next;        // links in queue deques
+        long expiresAt;              // time at which scheduled in wheel
+        Node<K,V> prevInWheel, nextInWheel; // links in timer wheel
+
+        Node(K key, V value, int weight, long now) {
+            this.key = key;
+            this.value = value;
+            this.weight = weight;
+            this.writeTime = this.accessTime = now;
+        }
+
+        /** Creates a sentinel for a deque or wheel bucket */
+        Node() {
+            this.key = null;
+            prev = next = prevInWheel = nextInWheel = this;
+        }
+    }
+
+    /**
+     * A circular doubly-linked list of Nodes with a sentinel, in
+     * access order (least recently used first).
+     */
+    static final class AccessOrderDeque<K,V> {
+        final Node<K,V> head = new Node<K,V>();
+
+        Node<K,V> peekFirst() {
+            Node<K,V> p = head.next;
+            return (p == head) ? null : p;
+        }
+
+        Node<K,V> peekLast() {
+            Node<K,V> p = head.prev;
+            return (p == head) ? null : p;
+        }
+
+        void addLast(Node<K,V> p) {
+            Node<K,V> last = head.prev;
+            p.prev = last;
+            p.next = head;
+            last.next = p;
+            head.prev = p;
+        }
+
+        void remove(Node<K,V> p) {
+            Node<K,V> b = p.prev, a = p.next;
+            if (b != null) {
+                b.next = a;
+                a.prev = b;
+                p.prev = p.next = null;
+            }
+        }
+
+        void moveToBack(Node<K,V> p) {
+            if (head.prev != p) {
+                remove(p);
+                addLast(p);
+            }
+        }
+    }
+
+    /* ---------------- Read buffers -------------- */
+
+    /**
+     * A bounded, lossy, multiple-producer single-consumer ring
+     * buffer.  Producers claim slots by CASing writeCounter; the
+     * consumer (holding evictionLock) advances readCounter.
+     */
+    static final class ReadBuffer {
+        static final int SIZE = 16;  // must be power of two
+        static final int MASK = SIZE - 1;
+        final Object[] buffer = new Object[SIZE];
+        volatile long readCounter;
+        volatile long writeCounter;
+
+        static final int SUCCESS = 0, FULL = 1, FAILED = -1;
+
+        /**
+         * Tries to add e, returning SUCCESS, FULL, or FAILED if lost
+         * a race with another producer.
+         */
+        int offer(Object e) {
+            long t = writeCounter;
+            if (t - readCounter >= SIZE)
+                return FULL;
+            if (!U.compareAndSwapLong(this, WRITECOUNTER, t, t + 1))
+                return FAILED;
+            U.putOrderedObject(buffer, ((t & MASK) << ASHIFT) + ABASE, e);
+            return SUCCESS;
+        }
+
+        /**
+         * Removes and returns the next element, or null if empty
+         * or the next element is not yet published.
+         */
+        Object poll() {
+            long h = readCounter;
+            if (h == writeCounter)
+                return null;
+            long offset = ((h & MASK) << ASHIFT) + ABASE;
+            Object e = U.getObjectVolatile(buffer, offset);
+            if (e != null) {
+                U.putOrderedObject(buffer, offset, null);
+                U.putOrderedLong(this, READCOUNTER, h + 1);
+            }
+            return e;
+        }
+    }
+
+    /* ---------------- Frequency sketch -------------- */
+
+    /**
+     * A 4-bit count-min sketch of access frequencies, with four
+     * counters per key, each in a different long of the table and a
+     * different 16-counter group within it.  All counters are halved
+     * after a number of increments proportional to the table size,
+     * so that estimates favor recent accesses.  Accessed only under
+     * evictionLock.
+     */
+    static final class FrequencySketch {
+        static final long[] SEED = { // from CityHash and FNV
+            0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L,
+            0x9ae16a3b2f90404fL, 0xcbf29ce484222325L };
+        static final long RESET_MASK = 0x7777777777777777L;
+        static final long ONE_MASK = 0x1111111111111111L;
+
+        final long[] table;
+        final int tableMask;
+        final int sampleSize;
+        int size;
+
+        FrequencySketch(long maximum) {
+            int n = ceilingPowerOfTwo((int)Math.max(16L, Math.min(maximum, 1L << 20)));
+            table = new long[n];
+            tableMask = n - 1;
+            sampleSize = 10 * n;
+        }
+
+        /** Returns the estimated frequency of the given key, at most 15. */
+        int frequency(Object key) {
+            int hash = spread(key.hashCode());
+            int start = (hash & 3) << 2;
+            int freq = Integer.MAX_VALUE;
+            for (int i = 0; i < 4; i++) {
+                int index = indexOf(hash, i);
+                int count = (int)((table[index] >>> ((start + i) << 2)) & 0xfL);
+                freq = Math.min(freq, count);
+            }
+            return freq;
+        }
+
+        /** Increments the frequency of the given key, if not saturated. */
+        void increment(Object key) {
+            int hash = spread(key.hashCode());
+            int start = (hash & 3) << 2;
+            boolean added = false;
+            for (int i = 0; i < 4; i++) {
+                int index = indexOf(hash, i);
+                int offset = (start + i) << 2;
+                long mask = 0xfL << offset;
+                long c = table[index];
+                if ((c & mask) != mask) {
+                    table[index] = c + (1L << offset);
+                    added = true;
+                }
+            }
+            if (added && ++size == sampleSize)
+                reset();
+        }
+
+        /** Halves all counters, adjusting size for truncation. */
+        void reset() {
+            int odd = 0;
+            for (int i = 0; i < table.length; i++) {
+                odd += Long.bitCount(table[i] & ONE_MASK);
+                table[i] = (table[i] >>> 1) & RESET_MASK;
+            }
+            size = (size >>> 1) - (odd >>> 2);
+        }
+
+        int indexOf(int item, int i) {
+            long hash = (item + SEED[i]) * SEED[i];
+            hash += (hash >>> 32);
+            return ((int)hash) & tableMask;
+        }
+
+        static int spread(int x) {
+            x = ((x >>> 16) ^ x) * 0x45d9f3b;
+            x = ((x >>> 16) ^ x) * 0x45d9f3b;
+            return (x >>> 16) ^ x;
+        }
+    }
+
+    /* ---------------- Timer wheel -------------- */
+
+    /**
+     * A hierarchical timer wheel.  Level i has BUCKETS[i] buckets,
+     * each spanning SPANS[i] nanoseconds (rounded to powers of two,
+     * approximately 1 second, 1 minute, 1 hour, 1 day and 6 days),
+     * so that a node is placed in the finest level that can
+     * represent its remaining time.  Accessed only under
+     * evictionLock.
+     */
+    static final class TimerWheel<K,V> {
+        static final int[] BUCKETS = { 64, 64, 32, 4, 1 };
+        static final long[] SPANS = {
+            ceilingPowerOfTwo(TimeUnit.SECONDS.toNanos(1)), // 1.07s
+            ceilingPowerOfTwo(TimeUnit.MINUTES.toNanos(1)), // 1.14m
+            ceilingPowerOfTwo(TimeUnit.HOURS.toNanos(1)),   // 1.22h
+            ceilingPowerOfTwo(TimeUnit.DAYS.toNanos(1)),    // 1.63d
+            BUCKETS[3] * ceilingPowerOfTwo(TimeUnit.DAYS.toNanos(1)), // 6.5d
+            BUCKETS[3] * ceilingPowerOfTwo(TimeUnit.DAYS.toNanos(1)), // 6.5d
+        };
+        static final long[] SHIFT = new long[SPANS.length];
+        static {
+            for (int i = 0; i < SPANS.length; i++)
+                SHIFT[i] = Long.numberOfTrailingZeros(SPANS[i]);
+        }
+
+        static long ceilingPowerOfTwo(long x) {
+            return 1L << -Long.numberOfLeadingZeros(x - 1);
+        }
+
+        final Node<K,V>[][] wheel;
+        long nanos; // current time of the wheel
+
+        @SuppressWarnings("unchecked")
+        TimerWheel(long now) {
+            nanos = now;
+            wheel = (Node<K,V>[][])new Node<?,?>[BUCKETS.length][];
+            for (int i = 0; i < BUCKETS.length; i++) {
+                wheel[i] = (Node<K,V>[])new Node<?,?>[BUCKETS[i]];
+                for (int j = 0; j < BUCKETS[i]; j++)
+                    wheel[i][j] = new Node<K,V>();
+            }
+        }
+
+        /** Adds or moves p to the bucket for time p.expiresAt. */
+        void schedule(Node<K,V> p) {
+            unlink(p);
+            long time = p.expiresAt, duration = time - nanos;
+            if (duration < 0L) {        // already due; use current bucket
+                time = nanos;
+                duration = 0L;
+            }
+            Node<K,V> sentinel = wheel[BUCKETS.length - 1][0];
+            for (int i = 0; i < BUCKETS.length - 1; i++) {
+                if (duration < SPANS[i + 1]) {
+                    long ticks = time >>> SHIFT[i];
+                    sentinel = wheel[i][(int)(ticks & (BUCKETS[i] - 1))];
+                    break;
+                }
+            }
+            Node<K,V> last = sentinel.prevInWheel;
+            p.prevInWheel = last;
+            p.nextInWheel = sentinel;
+            last.nextInWheel = p;
+            sentinel.prevInWheel = p;
+        }
+
+        void unlink(Node<K,V> p) {
+            Node<K,V> b = p.prevInWheel, a = p.nextInWheel;
+            if (b != null) {
+                b.nextInWheel = a;
+                a.prevInWheel = b;
+                p.prevInWheel = p.nextInWheel = null;
+            }
+        }
+
+        /**
+         * Advances the wheel to time now, passing each node in a
+         * bucket that has elapsed to cache.expireOrReschedule.
+         */
+        void advance(long now, ConcurrentCache<K,V> cache) {
+            long previous = nanos;
+            nanos = now;
+            for (int i = 0; i < SHIFT.length - 1; i++) {
+                long previousTicks = previous >>> SHIFT[i];
+                long currentTicks = now >>> SHIFT[i];
+                long delta = currentTicks - previousTicks;
+                if (delta <= 0L)
+                    break;
+                Node<K,V>[] buckets = wheel[i];
+                int mask = buckets.length - 1;
+                int steps = (int)Math.min(1L + delta, (long)buckets.length);
+                int start = (int)(previousTicks & mask);
+                for (int j = start; j < start + steps; j++) {
+                    Node<K,V> sentinel = buckets[j & mask];
+                    Node<K,V> p = sentinel.nextInWheel;
+                    sentinel.prevInWheel = sentinel.nextInWheel = sentinel;
+                    while (p != sentinel) {
+                        Node<K,V> next = p.nextInWheel;
+                        p.prevInWheel = p.nextInWheel = null;
+                        cache.expireOrReschedule(p, now);
+                        p = next;
+                    }
+                }
+            }
+        }
+    }
+
+    /* ---------------- Fields -------------- */
+
+    /** The mappings */
+    final ConcurrentHashMap<K,Node<K,V>> data;
+
+    /** The weigher, or null if all weights are one */
+    final ToIntBiFunction<? super K, ? super V> weigher;
+
+    /** The expiration times, or zero if disabled */
+    final long expireAfterWriteNanos;
+    final long expireAfterAccessNanos;
+
+    /** Lock guarding the policy (all remaining fields) */
+    final ReentrantLock evictionLock = new ReentrantLock();
+
+    /** Nodes to reconcile with the policy */
+    final ConcurrentLinkedQueue<Node<K,V>> writeBuffer =
+        new ConcurrentLinkedQueue<Node<K,V>>();
+
+    /** Striped read buffers; lazily initialized. Size is a power of 2. */
+    volatile ReadBuffer[] readBuffers;
+
+    /** Spinlock (locked via CAS) for creating and resizing readBuffers */
+    volatile int readBuffersBusy;
+
+    final long maximum;
+    final long windowMaximum;
+    final long protectedMaximum;
+    volatile long weightedSize;  // volatile only for reads by weightedSize()
+    long windowWeightedSize;
+    long protectedWeightedSize;
+
+    final AccessOrderDeque<K,V> window = new AccessOrderDeque<K,V>();
+    final AccessOrderDeque<K,V> probation = new AccessOrderDeque<K,V>();
+    final AccessOrderDeque<K,V> protectedDeque = new AccessOrderDeque<K,V>();
+    final FrequencySketch sketch;
+    final TimerWheel<K,V> timerWheel;  // null if no expiration
+
+    /* ---------------- Public operations -------------- */
+
+    /**
+     * Creates a new, empty cache holding at most the given number of
+     * mappings, without expiration.
+     *
+     * @param maximumSize the maximum number of mappings
+     * @throws IllegalArgumentException if maximumSize is negative
+     */
+    public ConcurrentCache(long maximumSize) {
+        this(maximumSize, null, 0L, 0L, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Creates a new, empty cache holding mappings with at most the
+     * given total weight, and expiring mappings a given time after
+     * they were last written and/or accessed.
+     *
+     * @param maximumWeight the maximum total weight of all mappings
+     * @param weigher a function returning the weight of a mapping,
+     * which must be non-negative; or null if all mappings have weight one
+     * @param expireAfterWrite the time after creation or replacement
+     * of a value after which its mapping expires, or zero if mappings
+     * do not expire after writes
+     * @param expireAfterAccess the time after the last read or write
+     * of a value after which its mapping expires, or zero if mappings
+     * do not expire after accesses
+     * @param unit the time unit of the expiration arguments
+     * @throws IllegalArgumentException if maximumWeight or either
+     * expiration time is negative
+     * @throws NullPointerException if unit is null
+     */
+    public ConcurrentCache(long maximumWeight,
+                           ToIntBiFunction<? super K, ? super V> weigher,
+                           long expireAfterWrite,
+                           long expireAfterAccess,
+                           TimeUnit unit) {
+        if (maximumWeight < 0L || expireAfterWrite < 0L ||
+            expireAfterAccess < 0L)
+            throw new IllegalArgumentException();
+        if (unit == null)
+            throw new NullPointerException();
+        this.weigher = weigher;
+        this.expireAfterWriteNanos = unit.toNanos(expireAfterWrite);
+        this.expireAfterAccessNanos = unit.toNanos(expireAfterAccess);
+        this.maximum = maximumWeight;
+        long windowMax = maximumWeight * WINDOW_PERCENT / 100;
+        this.windowMaximum = (maximumWeight > 0L && windowMax == 0L) ? 1L : windowMax;
+        this.protectedMaximum = (maximumWeight - windowMaximum) * PROTECTED_PERCENT / 100;
+        this.sketch = new FrequencySketch(maximumWeight);
+        this.timerWheel = (expireAfterWriteNanos > 0L || expireAfterAccessNanos > 0L) ?
+            new TimerWheel<K,V>(System.nanoTime()) : null;
+        this.data = new ConcurrentHashMap<K,Node<K,V>>
+            ((int)Math.min(maximumWeight, 1L << 16));
+    }
+
+    /**
+     * Returns the value to which the specified key is mapped, or
+     * {@code null} if this cache contains no unexpired mapping for
+     * the key.
+     *
+     * @param key the key whose associated value is to be returned
+     * @return the cached value, or {@code null} if none
+     * @throws NullPointerException if the specified key is null
+     */
+    public V get(Object key) {
+        Node<K,V> p = data.get(key);
+        if (p == null)
+            return null;
+        long now = (timerWheel == null) ? 0L : System.nanoTime();
+        if (hasExpired(p, now)) {
+            tryMaintenance();
+            return null;
+        }
+        V v = p.value;
+        if (expireAfterAccessNanos > 0L)
+            p.accessTime = now;
+        recordRead(p);
+        return v;
+    }
+
+    /**
+     * Returns {@code true} if this cache contains an unexpired mapping
+     * for the specified key.  This method does not count as an
+     * access of the mapping.
+     *
+     * @param key key whose presence in this cache is to be tested
+     * @return {@code true} if this cache contains a mapping for the key
+     * @throws NullPointerException if the specified key is null
+     */
+    public boolean containsKey(Object key) {
+        Node<K,V> p = data.get(key);
+        return (p != null &&
+                !hasExpired(p, (timerWheel == null) ? 0L : System.nanoTime()));
+    }
+
+    /**
+     * If the specified key is not already associated with an
+     * unexpired value, attempts to compute its value using the given
+     * mapping function and enters it into this cache unless {@code
+     * null}.  As with {@link ConcurrentHashMap#computeIfAbsent}, the
+     * function is applied at most once per key, some attempted
+     * updates by other threads may be blocked while computation is
+     * in progress, and the function must not attempt to update this
+     * cache.
+     *
+     * @param key key with which the specified value is to be associated
+     * @param mappingFunction the function to compute a value
+     * @return the current (existing or computed) value associated with
+     *         the specified key, or null if the computed value is null
+     * @throws NullPointerException if the specified key or
+     *         mappingFunction is null
+     * @throws RuntimeException or Error if the mappingFunction does so,
+     *         in which case the mapping is left unestablished
+     */
+    public V computeIfAbsent(K key,
+                             Function<? super K, ? extends V> mappingFunction) {
+        if (mappingFunction == null)
+            throw new NullPointerException();
+        V v = get(key);
+        if (v != null)
+            return v;
+        @SuppressWarnings("unchecked")
+        Node<K,V>[] replaced = (Node<K,V>[])new Node<?,?>[1];
+        boolean[] created = new boolean[1];
+        Node<K,V> p = data.compute(key, (k, q) -> {
+            long now = System.nanoTime();
+            if (q != null) {
+                if (!hasExpired(q, now))
+                    return q;
+                replaced[0] = q;
+                q.retired = true;
+            }
+            V nv = mappingFunction.apply(k);
+            if (nv == null)
+                return null;
+            created[0] = true;
+            return new Node<K,V>(k, nv, weigh(k, nv), now);
+        });
+        if (replaced[0] != null)
+            writeBuffer.add(replaced[0]);
+        if (p == null) {
+            if (replaced[0] != null)
+                tryMaintenance();
+            return null;
+        }
+        if (created[0]) {
+            writeBuffer.add(p);
+            tryMaintenance();
+        }
+        else
+            recordRead(p);
+        return p.value;
+    }
+
+    /**
+     * Maps the specified key to the specified value in this cache.
+     *
+     * @param key key with which the specified value is to be associated
+     * @param value value to be associated with the specified key
+     * @return the previous unexpired value associated with {@code key},
+     *         or {@code null} if there was none
+     * @throws NullPointerException if the specified key or value is null
+     */
+    public V put(K key, V value) {
+        if (value == null)
+            throw new NullPointerException();
+        @SuppressWarnings("unchecked")
+        Node<K,V>[] replaced = (Node<K,V>[])new Node<?,?>[1];
+        @SuppressWarnings("unchecked")
+        V[] previous = (V[])new Object[1];
+        Node<K,V> p = data.compute(key, (k, q) -> {
+            long now = System.nanoTime();
+            if (q != null) {
+                if (!hasExpired(q, now)) {
+                    previous[0] = q.value;
+                    q.value = value;
+                    q.weight = weigh(k, value);
+                    q.writeTime = q.accessTime = now;
+                    return q;
+                }
+                replaced[0] = q;
+                q.retired = true;
+            }
+            return new Node<K,V>(k, value, weigh(k, value), now);
+        });
+        if (replaced[0] != null)
+            writeBuffer.add(replaced[0]);
+        writeBuffer.add(p);
+        tryMaintenance();
+        return previous[0];
+    }
+
+    /**
+     * Removes the mapping for a key from this cache if it is present.
+     *
+     * @param key key whose mapping is to be removed
+     * @return the previous unexpired value associated with {@code key},
+     *         or {@code null} if there was none
+     * @throws NullPointerException if the specified key is null
+     */
+    public V remove(Object key) {
+        Node<K,V> p = data.remove(key);
+        if (p == null)
+            return null;
+        p.retired = true;
+        writeBuffer.add(p);
+        tryMaintenance();
+        return hasExpired(p, (timerWheel == null) ? 0L : System.nanoTime()) ?
+            null : p.value;
+    }
+
+    /**
+     * Removes all of the mappings from this cache.
+     */
+    public void clear() {
+        for (K k : data.keySet()) {
+            Node<K,V> p = data.remove(k);
+            if (p != null) {
+                p.retired = true;
+                writeBuffer.add(p);
+            }
+        }
+        cleanUp();
+    }
+
+    /**
+     * Returns the number of mappings in this cache, which may include
+     * mappings that have expired or are pending eviction but have not
+     * yet been removed.
+     *
+     * @return the number of mappings in this cache
+     */
+    public int size() {
+        return data.size();
+    }
+
+    /**
+     * Returns the total weight of mappings in this cache as of the
+     * last maintenance.
+     *
+     * @return the total weight of mappings
+     */
+    public long weightedSize() {
+        return weightedSize;
+    }
+
+    /**
+     * Performs any pending maintenance: replays buffered accesses
+     * and updates into the eviction policy, removes expired
+     * mappings, and evicts mappings until the total weight is at
+     * most the maximum.
+     */
+    public void cleanUp() {
+        final ReentrantLock lock = evictionLock;
+        lock.lock();
+        try {
+            maintenance();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /* ---------------- Recording accesses -------------- */
+
+    /**
+     * Returns the weight of the given mapping.
+     */
+    final int weigh(K key, V value) {
+        ToIntBiFunction<? super K, ? super V> w;
+        if ((w = weigher) == null)
+            return 1;
+        int weight = w.applyAsInt(key, value);
+        if (weight < 0)
+            throw new IllegalArgumentException("negative weight");
+        return weight;
+    }
+
+    /**
+     * Returns true if p has expired as of time now.
+     */
+    final boolean hasExpired(Node<K,V> p, long now) {
+        long d;
+        return (((d = expireAfterWriteNanos) > 0L && now - p.writeTime >= d) ||
+                ((d = expireAfterAccessNanos) > 0L && now - p.accessTime >= d));
+    }
+
+    /**
+     * Returns the time at which p will expire unless accessed or
+     * written again.
+     */
+    final long expirationTime(Node<K,V> p) {
+        long ew = expireAfterWriteNanos, ea = expireAfterAccessNanos;
+        if (ea <= 0L)
+            return p.writeTime + ew;
+        long ta = p.accessTime + ea;
+        if (ew <= 0L)
+            return ta;
+        long tw = p.writeTime + ew;
+        return (tw - ta < 0L) ? tw : ta;
+    }
+
+    /**
+     * Offers p to a read buffer, expanding the set of buffers on
+     * contention, and attempting maintenance if the buffer is full.
+     * See Striped64.longAccumulate for the basic approach.
+     */
+    final void recordRead(Node<K,V> p) {
+        int h;
+        if ((h = ThreadLocalRandom.getProbe()) == 0) {
+            ThreadLocalRandom.localInit();      // force initialization
+            h = ThreadLocalRandom.getProbe();
+        }
+        for (;;) {
+            ReadBuffer[] bs; ReadBuffer b; int n;
+            if ((bs = readBuffers) == null || (n = bs.length) == 0) {
+                if (readBuffersBusy == 0 && readBuffers == bs &&
+                    U.compareAndSwapInt(this, READBUFFERSBUSY, 0, 1)) {
+                    try {
+                        if (readBuffers == bs)
+                            readBuffers = new ReadBuffer[] { new ReadBuffer() };
+                    } finally {
+                        readBuffersBusy = 0;
+                    }
+                }
+            }
+            else if ((b = bs[(n - 1) & h]) == null) {
+                if (readBuffersBusy == 0 &&
+                    U.compareAndSwapInt(this, READBUFFERSBUSY, 0, 1)) {
+                    try {
+                        if (readBuffers == bs && bs[(n - 1) & h] == null)
+                            bs[(n - 1) & h] = new ReadBuffer();
+                    } finally {
+                        readBuffersBusy = 0;
+                    }
+                }
+            }
+            else {
+                int r = b.offer(p);
+                if (r == ReadBuffer.SUCCESS)
+                    return;
+                if (r == ReadBuffer.FULL) {
+                    tryMaintenance();
+                    return;
+                }
+                if (n < MAX_READ_BUFFERS && readBuffers == bs &&
+                    readBuffersBusy == 0 &&
+                    U.compareAndSwapInt(this, READBUFFERSBUSY, 0, 1)) {
+                    try {
+                        if (readBuffers == bs) { // expand unless stale
+                            ReadBuffer[] rs = new ReadBuffer[n << 1];
+                            System.arraycopy(bs, 0, rs, 0, n);
+                            readBuffers = rs;
+                        }
+                    } finally {
+                        readBuffersBusy = 0;
+                    }
+                }
+                ThreadLocalRandom.advanceProbe(h);
+                return;                 // lossy; drop this read
+            }
+        }
+    }
+
+    /* ---------------- Maintenance -------------- */
+
+    /**
+     * Performs maintenance if the eviction lock is available.
+     */
+    final void tryMaintenance() {
+        final ReentrantLock lock = evictionLock;
+        if (lock.tryLock()) {
+            try {
+                maintenance();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Drains buffers, expires, and evicts.  Call only with
+     * evictionLock held.
+     */
+    final void maintenance() {
+        ReadBuffer[] bs;
+        if ((bs = readBuffers) != null) {
+            for (ReadBuffer b : bs) {
+                if (b != null) {
+                    Object e;
+                    for (int i = 0; i < ReadBuffer.SIZE &&
+                             (e = b.poll()) != null; ++i) {
+                        @SuppressWarnings("unchecked")
+                        Node<K,V> p = (Node<K,V>)e;
+                        onRead(p);
+                    }
+                }
+            }
+        }
+        for (Node<K,V> p; (p = writeBuffer.poll()) != null; )
+            reconcile(p);
+        if (timerWheel != null)
+            timerWheel.advance(System.nanoTime(), this);
+        evictEntries();
+    }
+
+    /**
+     * Records a buffered read of p.
+     */
+    final void onRead(Node<K,V> p) {
+        sketch.increment(p.key);
+        if (p.queueType != NONE && !p.retired) {
+            onAccess(p);
+            if (expireAfterAccessNanos > 0L) {
+                p.expiresAt = expirationTime(p);
+                timerWheel.schedule(p);
+            }
+        }
+    }
+
+    /**
+     * Makes the policy agree with the current state of p.
+     */
+    final void reconcile(Node<K,V> p) {
+        int type = p.queueType;
+        if (p.retired) {
+            if (type != NONE)
+                unlinkFromPolicy(p);
+            return;
+        }
+        int w = p.weight;
+        sketch.increment(p.key);
+        if (type == NONE) {
+            p.policyWeight = w;
+            weightedSize += w;
+            windowWeightedSize += w;
+            p.queueType = WINDOW;
+            window.addLast(p);
+        }
+        else {
+            int d = w - p.policyWeight;
+            p.policyWeight = w;
+            weightedSize += d;
+            if (type == WINDOW)
+                windowWeightedSize += d;
+            else if (type == PROTECTED)
+                protectedWeightedSize += d;
+            onAccess(p);
+        }
+        if (timerWheel != null) {
+            p.expiresAt = expirationTime(p);
+            timerWheel.schedule(p);
+        }
+    }
+
+    /**
+     * Moves an accessed node within the policy, promoting from
+     * probation to protected.
+     */
+    final void onAccess(Node<K,V> p) {
+        switch (p.queueType) {
+        case WINDOW:
+            window.moveToBack(p);
+            break;
+        case PROBATION:
+            probation.remove(p);
+            p.queueType = PROTECTED;
+            protectedDeque.addLast(p);
+            protectedWeightedSize += p.policyWeight;
+            demoteFromProtected();
+            break;
+        case PROTECTED:
+            protectedDeque.moveToBack(p);
+            break;
+        default:
+            break;
+        }
+    }
+
+    /**
+     * Demotes least recently used protected nodes to probation while
+     * the protected segment is over its maximum.
+     */
+    final void demoteFromProtected() {
+        while (protectedWeightedSize > protectedMaximum) {
+            Node<K,V> p = protectedDeque.peekFirst();
+            if (p == null)
+                break;
+            protectedDeque.remove(p);
+            protectedWeightedSize -= p.policyWeight;
+            p.queueType = PROBATION;
+            probation.addLast(p);
+        }
+    }
+
+    /**
+     * Removes p from all policy structures.
+     */
+    final void unlinkFromPolicy(Node<K,V> p) {
+        switch (p.queueType) {
+        case WINDOW:
+            window.remove(p);
+            windowWeightedSize -= p.policyWeight;
+            break;
+        case PROBATION:
+            probation.remove(p);
+            break;
+        case PROTECTED:
+            protectedDeque.remove(p);
+            protectedWeightedSize -= p.policyWeight;
+            break;
+        default:
+            return;
+        }
+        weightedSize -= p.policyWeight;
+        p.queueType = NONE;
+        if (timerWheel != null)
+            timerWheel.unlink(p);
+    }
+
+    /**
+     * Removes p from the map (if still mapped) and the policy.
+     */
+    final void evict(Node<K,V> p) {
+        if (data.remove(p.key, p))
+            p.retired = true;
+        unlinkFromPolicy(p);
+    }
+
+    /**
+     * Called by the timer wheel for nodes in elapsed buckets.
+     */
+    final void expireOrReschedule(Node<K,V> p, long now) {
+        if (hasExpired(p, now))
+            evict(p);
+        else {
+            p.expiresAt = expirationTime(p);
+            timerWheel.schedule(p);
+        }
+    }
+
+    /**
+     * Moves excess nodes from the window to probation, and then
+     * evicts until the cache is within its maximum weight, choosing
+     * between each candidate from the window and the probation
+     * victim according to their estimated frequencies.
+     */
+    final void evictEntries() {
+        int candidates = 0;
+        while (windowWeightedSize > windowMaximum) {
+            Node<K,V> p = window.peekFirst();
+            if (p == null)
+                break;
+            window.remove(p);
+            windowWeightedSize -= p.policyWeight;
+            p.queueType = PROBATION;
+            probation.addLast(p);
+            ++candidates;
+        }
+        while (weightedSize > maximum) {
+            Node<K,V> victim = probation.peekFirst();
+            if (victim == null &&
+                (victim = protectedDeque.peekFirst()) == null &&
+                (victim = window.peekFirst()) == null)
+                break;
+            Node<K,V> candidate = (candidates > 0) ? probation.peekLast() : null;
+            if (candidate == null || candidate == victim ||
+                victim.queueType != PROBATION)
+                evict(victim);
+            else if (sketch.frequency(candidate.key) >
+                     sketch.frequency(victim.key))
+                evict(victim);
+            else {
+                evict(candidate);
+                --candidates;
+            }
+        }
+    }
+
+    // Unsafe mechanics
+    private static final sun.misc.Unsafe U = sun.misc.Unsafe.getUnsafe();
+    private static final long READBUFFERSBUSY;
+    private static final long READCOUNTER;
+    private static final long WRITECOUNTER;
+    private static final int ABASE;
+    private static final int ASHIFT;
+
+    static {
+        try {
+            READBUFFERSBUSY = U.objectFieldOffset
+                (ConcurrentCache.class.getDeclaredField("readBuffersBusy"));
+            READCOUNTER = U.objectFieldOffset
+                (ReadBuffer.class.getDeclaredField("readCounter"));
+            WRITECOUNTER = U.objectFieldOffset
+                (ReadBuffer.class.getDeclaredField("writeCounter"));
+            ABASE = U.arrayBaseOffset(Object[].class);
+            int scale = U.arrayIndexScale(Object[].class);
+            if ((scale & (scale - 1)) != 0)
+                throw new Error("array index scale not a power of two");
+            ASHIFT = 31 - Integer.numberOfLeadingZeros(scale);
+        } catch (ReflectiveOperationException e) {
+            throw new Error(e);
+        }
+    }
+}
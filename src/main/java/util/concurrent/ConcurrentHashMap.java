@@ -22,6 +22,7 @@ import java.util.NoSuchElementException;
 import java.util.Set;
 import java.util.Spliterator;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.concurrent.locks.LockSupport;
 import java.util.concurrent.locks.ReentrantLock;
 import java.util.function.BiConsumer;
@@ -384,6 +385,81 @@ public class ConcurrentHashMap<K,V> extends AbstractMap<K,V>
      * many new TableStack nodes. (Thanks to Peter Levart for
      * suggesting use of a stack here.)
      *
+     * Maps created using newIncrementalResizeMap bound the number of
+     * bins that any one operation transfers (field
+     * maxTransferStride).  Each helping thread claims at most one
+     * stride of that size and then leaves, so a resize may remain
+     * open, with no active resizers, across many operations; in the
+     * meantime readers traverse forwarding nodes as usual.  In this
+     * mode, completion cannot rely on the last thread out of sizeCtl
+     * being the one that finishes the transfer, and we avoid the
+     * final O(n) recheck sweep, so threads instead record the number
+     * of bins moved in field transferDone.  The thread whose stride
+     * brings this to the table length commits the next table while
+     * still counted in sizeCtl, and the last thread out of sizeCtl
+     * after that resets sizeCtl to the new threshold.  Only updates
+     * that add elements (via addCount) or that encounter forwarding
+     * nodes take steps, so a resize started near the end of a burst
+     * of insertions may stay open (holding both tables) until the
+     * next such update.
+     *
+     * Method snapshot returns a SnapshotView: a read-only map
+     * reflecting the contents of the current table at (roughly) the
+     * point of the call, without copying anything up front.  Each
+     * snapshot has an array "saved" holding, per bin, a private copy
+     * of that bin's nodes (or a marker for an empty bin).  Live
+     * snapshots are listed in field snapshots, and every operation
+     * that changes a bin of a table with a live snapshot first
+     * preserves that bin's current contents (see preserveBin).  For
+     * a bin with a first node, this is done while holding its lock,
+     * just after checking that it is still the first node, which all
+     * mutative operations (including transfer and clear) already do.
+     * Operations that CAS a first node into an empty bin instead
+     * record the bin as empty just before doing so.  A snapshot
+     * reading a bin that has not yet been saved saves it itself in
+     * the same way, locking the first node if present, so that each
+     * bin is copied at most once, either when first modified or when
+     * first read by the snapshot.  Thus, a snapshot never reflects
+     * updates that start after it is created, while reflecting all
+     * those completed before; updates concurrent with creation may or
+     * may not be reflected.  The cost to updates when no snapshots
+     * are live is a single volatile read.  To avoid needing to track
+     * snapshots across tables, method snapshot first helps complete
+     * any resize in progress, and registers a snapshot only if no
+     * resize started in the meantime (so any resize that starts
+     * later will see the registration and preserve each bin before
+     * forwarding it).  A snapshot is deregistered when closed, or
+     * when all of its bins have been saved, which happens upon full
+     * traversal or when its table has been completely transferred
+     * by a resize.
+     *
+     * Maps created using newSeededHashMap compute hashes using
+     * secret random keys (class HashSeed, held in field hashSeed)
+     * rather than spread, to resist "hash flooding" by keys chosen to
+     * collide.  Well-seeded hashes make it very unlikely for a bin to
+     * accumulate TREEIFY_THRESHOLD nodes with distinct hashes, so
+     * when treeifyBin finds such a bin, it instead rehashes all keys
+     * using a new seed (see rehashTransfer), at most once per table
+     * length to bound the cost of repeated attacks.  (Bins of nodes
+     * with equal hashes are treeified as usual, since no seed could
+     * separate them.)  Rehashing uses the same claiming and sizeCtl
+     * protocol as resizing, but with a distinct stamp, into a table
+     * of the same length.  Because a rehashed key may move to any
+     * bin, forwarded bins hold RehashNodes that retain the former
+     * (no longer modifiable) contents, which readers and traversals
+     * use until the new table is installed, while updates
+     * encountering them help rehash and then wait for the new table,
+     * so that only rehashing threads access it until then.  The new
+     * seed is written before the new table, and all operations read
+     * the table before computing a hash.  So a thread seeing a seed
+     * newer than its table sees only RehashNodes in that table, but
+     * may have chosen the wrong bin, so RehashNode.find rechecks in
+     * the (by then complete) new table using the new seed whenever
+     * the hash it is given was not computed with the former seed.
+     * Updates recompute their hashes after waiting.  These rules
+     * cost nothing beyond a read of hashSeed in maps that are not
+     * seeded.
+     *
      * The traversal scheme also applies to partial traversals of
      * ranges of bins (via an alternate Traverser constructor)
      * to support partitioned aggregate operations.  Also, read-only
@@ -769,6 +845,18 @@ public class ConcurrentHashMap<K,V> extends AbstractMap<K,V>
      */
     private transient volatile int transferIndex;
 
+    /**
+     * The number of bins of the current table moved to the next
+     * table while resizing.
+     */
+    private transient volatile int transferDone;
+
+    /**
+     * If positive, the maximum number of bins that any one operation
+     * transfers while resizing. Zero (the default) for unbounded.
+     */
+    private transient volatile int maxTransferStride;
+
     /**
      * Spinlock (locked via CAS) used when resizing and/or creating CounterCells.
      */
@@ -779,6 +867,21 @@ public class ConcurrentHashMap<K,V> extends AbstractMap<K,V>
      */
     private transient volatile CounterCell[] counterCells;
 
+    /**
+     * The live snapshots (see SnapshotView), or null if none.
+     */
+    private transient volatile SnapshotView<K,V>[] snapshots;
+
+    /**
+     * The keys for seeded hashing, or null if not seeded.
+     */
+    private transient volatile HashSeed hashSeed;
+
+    /**
+     * Statistics counters, or null if statistics are not enabled.
+     */
+    private transient volatile StatsCounters stats;
+
     // views
     private transient KeySetView<K,V> keySet;
     private transient ValuesView<K,V> values;
@@ -902,9 +1005,9 @@ public class ConcurrentHashMap<K,V> extends AbstractMap<K,V>
      * @throws NullPointerException if the specified key is null
      */
     public V get(Object key) {
-        Node<K,V>[] tab; Node<K,V> e, p; int n, eh; K ek;
-        int h = spread(key.hashCode());
-        if ((tab = table) != null && (n = tab.length) > 0 &&
+        Node<K,V>[] tab = table; Node<K,V> e, p; int n, eh; K ek;
+        int h = hash(key);                  // read table before hashing
+        if (tab != null && (n = tab.length) > 0 &&
             (e = tabAt(tab, (n - 1) & h)) != null) {
             if ((eh = e.hash) == h) {
                 if ((ek = e.key) == key || (ek != null && key.equals(ek)))
@@ -979,23 +1082,31 @@ public class ConcurrentHashMap<K,V> extends AbstractMap<K,V>
     /** Implementation for put and putIfAbsent */
     final V putVal(K key, V value, boolean onlyIfAbsent) {
         if (key == null || value == null) throw new NullPointerException();
-        int hash = spread(key.hashCode());
+        Node<K,V>[] tab = table;            // read before hashing
+        int hash = hash(key);
         int binCount = 0;
-        for (Node<K,V>[] tab = table;;) {
+        for (;;) {
             Node<K,V> f; int n, i, fh;
             if (tab == null || (n = tab.length) == 0)
                 tab = initTable();
             else if ((f = tabAt(tab, i = (n - 1) & hash)) == null) {
+                if (snapshots != null)
+                    preserveBin(tab, i, null);
                 if (casTabAt(tab, i, null,
                              new Node<K,V>(hash, key, value, null)))
                     break;                   // no lock when adding to empty bin
             }
-            else if ((fh = f.hash) == MOVED)
+            else if ((fh = f.hash) == MOVED) {
                 tab = helpTransfer(tab, f);
+                if (f instanceof RehashNode)
+                    hash = hash(key); // new hash seed
+            }
             else {
                 V oldVal = null;
                 synchronized (f) {
                     if (tabAt(tab, i) == f) {
+                        if (snapshots != null)
+                            preserveBin(tab, i, f);
                         if (fh >= 0) {
                             binCount = 1;
                             for (Node<K,V> e = f;; ++binCount) {
@@ -1029,6 +1140,8 @@ public class ConcurrentHashMap<K,V> extends AbstractMap<K,V>
                         else if (f instanceof ReservationNode)
                             throw new IllegalStateException("Recursive update");
                     }
+                    else
+                        recordRevalidationRetry();
                 }
                 if (binCount != 0) {
                     if (binCount >= TREEIFY_THRESHOLD)
@@ -1075,19 +1188,25 @@ public class ConcurrentHashMap<K,V> extends AbstractMap<K,V>
      * non-null.  If resulting value is null, delete.
      */
     final V replaceNode(Object key, V value, Object cv) {
-        int hash = spread(key.hashCode());
-        for (Node<K,V>[] tab = table;;) {
+        Node<K,V>[] tab = table;            // read before hashing
+        int hash = hash(key);
+        for (;;) {
             Node<K,V> f; int n, i, fh;
             if (tab == null || (n = tab.length) == 0 ||
                 (f = tabAt(tab, i = (n - 1) & hash)) == null)
                 break;
-            else if ((fh = f.hash) == MOVED)
+            else if ((fh = f.hash) == MOVED) {
                 tab = helpTransfer(tab, f);
+                if (f instanceof RehashNode)
+                    hash = hash(key); // new hash seed
+            }
             else {
                 V oldVal = null;
                 boolean validated = false;
                 synchronized (f) {
                     if (tabAt(tab, i) == f) {
+                        if (snapshots != null)
+                            preserveBin(tab, i, f);
                         if (fh >= 0) {
                             validated = true;
                             for (Node<K,V> e = f, pred = null;;) {
@@ -1133,6 +1252,8 @@ public class ConcurrentHashMap<K,V> extends AbstractMap<K,V>
                         else if (f instanceof ReservationNode)
                             throw new IllegalStateException("Recursive update");
                     }
+                    else
+                        recordRevalidationRetry();
                 }
                 if (validated) {
                     if (oldVal != null) {
@@ -1160,12 +1281,21 @@ public class ConcurrentHashMap<K,V> extends AbstractMap<K,V>
             if (f == null)
                 ++i;
             else if ((fh = f.hash) == MOVED) {
-                tab = helpTransfer(tab, f);
+                Node<K,V>[] nt = helpTransfer(tab, f);
+                if (maxTransferStride > 0 && table == tab) {
+                    // finish incremental resize before restarting
+                    if (transferIndex <= 0)
+                        Thread.yield(); // remaining strides are claimed
+                    continue;
+                }
+                tab = nt;
                 i = 0; // restart
             }
             else {
                 synchronized (f) {
                     if (tabAt(tab, i) == f) {
+                        if (snapshots != null)
+                            preserveBin(tab, i, f);
                         Node<K,V> p = (fh >= 0 ? f :
                                        (f instanceof TreeBin) ?
                                        ((TreeBin<K,V>)f).first : null);
@@ -1175,6 +1305,8 @@ public class ConcurrentHashMap<K,V> extends AbstractMap<K,V>
                         }
                         setTabAt(tab, i++, null);
                     }
+                    else
+                        recordRevalidationRetry();
                 }
             }
         }
@@ -1657,15 +1789,18 @@ public class ConcurrentHashMap<K,V> extends AbstractMap<K,V>
     public V computeIfAbsent(K key, Function<? super K, ? extends V> mappingFunction) {
         if (key == null || mappingFunction == null)
             throw new NullPointerException();
-        int h = spread(key.hashCode());
+        Node<K,V>[] tab = table;            // read before hashing
+        int h = hash(key);
         V val = null;
         int binCount = 0;
-        for (Node<K,V>[] tab = table;;) {
+        for (;;) {
             Node<K,V> f; int n, i, fh;
             if (tab == null || (n = tab.length) == 0)
                 tab = initTable();
             else if ((f = tabAt(tab, i = (n - 1) & h)) == null) {
                 Node<K,V> r = new ReservationNode<K,V>();
+                if (snapshots != null)
+                    preserveBin(tab, i, null);
                 synchronized (r) {
                     if (casTabAt(tab, i, null, r)) {
                         binCount = 1;
@@ -1681,12 +1816,17 @@ public class ConcurrentHashMap<K,V> extends AbstractMap<K,V>
                 if (binCount != 0)
                     break;
             }
-            else if ((fh = f.hash) == MOVED)
+            else if ((fh = f.hash) == MOVED) {
                 tab = helpTransfer(tab, f);
+                if (f instanceof RehashNode)
+                    h = hash(key);    // new hash seed
+            }
             else {
                 boolean added = false;
                 synchronized (f) {
                     if (tabAt(tab, i) == f) {
+                        if (snapshots != null)
+                            preserveBin(tab, i, f);
                         if (fh >= 0) {
                             binCount = 1;
                             for (Node<K,V> e = f;; ++binCount) {
@@ -1724,6 +1864,8 @@ public class ConcurrentHashMap<K,V> extends AbstractMap<K,V>
                         else if (f instanceof ReservationNode)
                             throw new IllegalStateException("Recursive update");
                     }
+                    else
+                        recordRevalidationRetry();
                 }
                 if (binCount != 0) {
                     if (binCount >= TREEIFY_THRESHOLD)
@@ -1762,21 +1904,27 @@ public class ConcurrentHashMap<K,V> extends AbstractMap<K,V>
     public V computeIfPresent(K key, BiFunction<? super K, ? super V, ? extends V> remappingFunction) {
         if (key == null || remappingFunction == null)
             throw new NullPointerException();
-        int h = spread(key.hashCode());
+        Node<K,V>[] tab = table;            // read before hashing
+        int h = hash(key);
         V val = null;
         int delta = 0;
         int binCount = 0;
-        for (Node<K,V>[] tab = table;;) {
+        for (;;) {
             Node<K,V> f; int n, i, fh;
             if (tab == null || (n = tab.length) == 0)
                 tab = initTable();
             else if ((f = tabAt(tab, i = (n - 1) & h)) == null)
                 break;
-            else if ((fh = f.hash) == MOVED)
+            else if ((fh = f.hash) == MOVED) {
                 tab = helpTransfer(tab, f);
+                if (f instanceof RehashNode)
+                    h = hash(key);    // new hash seed
+            }
             else {
                 synchronized (f) {
                     if (tabAt(tab, i) == f) {
+                        if (snapshots != null)
+                            preserveBin(tab, i, f);
                         if (fh >= 0) {
                             binCount = 1;
                             for (Node<K,V> e = f, pred = null;; ++binCount) {
@@ -1821,6 +1969,8 @@ public class ConcurrentHashMap<K,V> extends AbstractMap<K,V>
                         else if (f instanceof ReservationNode)
                             throw new IllegalStateException("Recursive update");
                     }
+                    else
+                        recordRevalidationRetry();
                 }
                 if (binCount != 0)
                     break;
@@ -1855,16 +2005,19 @@ public class ConcurrentHashMap<K,V> extends AbstractMap<K,V>
                      BiFunction<? super K, ? super V, ? extends V> remappingFunction) {
         if (key == null || remappingFunction == null)
             throw new NullPointerException();
-        int h = spread(key.hashCode());
+        Node<K,V>[] tab = table;            // read before hashing
+        int h = hash(key);
         V val = null;
         int delta = 0;
         int binCount = 0;
-        for (Node<K,V>[] tab = table;;) {
+        for (;;) {
             Node<K,V> f; int n, i, fh;
             if (tab == null || (n = tab.length) == 0)
                 tab = initTable();
             else if ((f = tabAt(tab, i = (n - 1) & h)) == null) {
                 Node<K,V> r = new ReservationNode<K,V>();
+                if (snapshots != null)
+                    preserveBin(tab, i, null);
                 synchronized (r) {
                     if (casTabAt(tab, i, null, r)) {
                         binCount = 1;
@@ -1882,11 +2035,16 @@ public class ConcurrentHashMap<K,V> extends AbstractMap<K,V>
                 if (binCount != 0)
                     break;
             }
-            else if ((fh = f.hash) == MOVED)
+            else if ((fh = f.hash) == MOVED) {
                 tab = helpTransfer(tab, f);
+                if (f instanceof RehashNode)
+                    h = hash(key);    // new hash seed
+            }
             else {
                 synchronized (f) {
                     if (tabAt(tab, i) == f) {
+                        if (snapshots != null)
+                            preserveBin(tab, i, f);
                         if (fh >= 0) {
                             binCount = 1;
                             for (Node<K,V> e = f, pred = null;; ++binCount) {
@@ -1948,6 +2106,8 @@ public class ConcurrentHashMap<K,V> extends AbstractMap<K,V>
                         else if (f instanceof ReservationNode)
                             throw new IllegalStateException("Recursive update");
                     }
+                    else
+                        recordRevalidationRetry();
                 }
                 if (binCount != 0) {
                     if (binCount >= TREEIFY_THRESHOLD)
@@ -1984,26 +2144,34 @@ public class ConcurrentHashMap<K,V> extends AbstractMap<K,V>
     public V merge(K key, V value, BiFunction<? super V, ? super V, ? extends V> remappingFunction) {
         if (key == null || value == null || remappingFunction == null)
             throw new NullPointerException();
-        int h = spread(key.hashCode());
+        Node<K,V>[] tab = table;            // read before hashing
+        int h = hash(key);
         V val = null;
         int delta = 0;
         int binCount = 0;
-        for (Node<K,V>[] tab = table;;) {
+        for (;;) {
             Node<K,V> f; int n, i, fh;
             if (tab == null || (n = tab.length) == 0)
                 tab = initTable();
             else if ((f = tabAt(tab, i = (n - 1) & h)) == null) {
+                if (snapshots != null)
+                    preserveBin(tab, i, null);
                 if (casTabAt(tab, i, null, new Node<K,V>(h, key, value, null))) {
                     delta = 1;
                     val = value;
                     break;
                 }
             }
-            else if ((fh = f.hash) == MOVED)
+            else if ((fh = f.hash) == MOVED) {
                 tab = helpTransfer(tab, f);
+                if (f instanceof RehashNode)
+                    h = hash(key);    // new hash seed
+            }
             else {
                 synchronized (f) {
                     if (tabAt(tab, i) == f) {
+                        if (snapshots != null)
+                            preserveBin(tab, i, f);
                         if (fh >= 0) {
                             binCount = 1;
                             for (Node<K,V> e = f, pred = null;; ++binCount) {
@@ -2059,6 +2227,8 @@ public class ConcurrentHashMap<K,V> extends AbstractMap<K,V>
                         else if (f instanceof ReservationNode)
                             throw new IllegalStateException("Recursive update");
                     }
+                    else
+                        recordRevalidationRetry();
                 }
                 if (binCount != 0) {
                     if (binCount >= TREEIFY_THRESHOLD)
@@ -2072,6 +2242,289 @@ public class ConcurrentHashMap<K,V> extends AbstractMap<K,V>
         return val;
     }
 
+    // Batch operations
+
+    /**
+     * Retrieves the values to which each of the given keys is
+     * mapped, storing in {@code values[i]} the value for {@code
+     * keys[i]}, or {@code null} if there is no mapping for it.  Keys
+     * are hashed once and processed in order of the bins they occupy,
+     * so that lookups of keys in the same bin share a single read of
+     * that bin.  Each lookup has the same effect as {@link #get};
+     * however, the batch as a whole is not atomic: concurrent updates
+     * may be reflected in the values obtained for some keys but not
+     * others.
+     *
+     * @param keys the keys whose values are to be retrieved
+     * @param values the array into which the values are stored
+     * @return the number of keys found to be mapped
+     * @throws NullPointerException if either array, or any of the
+     *         keys, is null
+     * @throws IllegalArgumentException if {@code values} is shorter
+     *         than {@code keys}
+     * @since 9
+     */
+    public int getAll(K[] keys, V[] values) {
+        int m = batchLength(keys, values);
+        Node<K,V>[] tab; int n;
+        if ((tab = table) == null || (n = tab.length) == 0) {
+            for (K k : keys)
+                if (k == null) throw new NullPointerException();
+            Arrays.fill(values, 0, m, null);
+            return 0;
+        }
+        int[] hashes = new int[m];
+        long[] order = batchOrder(keys, hashes, n, hashSeed);
+        return getRange(tab, keys, values, hashes, order, 0, m);
+    }
+
+    /**
+     * Performs the equivalent of {@link #merge merge(keys[i],
+     * values[i], remappingFunction)} for each index {@code i} of the
+     * given keys.  Keys are hashed once and processed in order of
+     * the bins they occupy, so that updates to keys in the same bin
+     * are performed while holding the bin's lock only once.  Each
+     * merge is atomic, and merges of equal keys are performed in
+     * array order; however, the batch as a whole is not atomic:
+     * other threads may observe some but not all merges, and if the
+     * remapping function throws an exception, merges already
+     * performed remain in effect.  As with {@code merge}, the
+     * remapping function should be short and simple, and must not
+     * attempt to update any other mappings of this Map.
+     *
+     * @param keys the keys with which values are to be merged
+     * @param values the values to merge with, or to associate with
+     *        absent keys
+     * @param remappingFunction the function to recompute a value if
+     *        present
+     * @throws NullPointerException if either array, any of the keys
+     *         or values, or the remappingFunction is null
+     * @throws IllegalArgumentException if {@code values} is shorter
+     *         than {@code keys}
+     * @throws RuntimeException or Error if the remappingFunction does
+     *         so, in which case the mapping for that key is unchanged
+     * @since 9
+     */
+    public void mergeAll(K[] keys, V[] values,
+                         BiFunction<? super V, ? super V, ? extends V> remappingFunction) {
+        int m = batchLength(keys, values);
+        if (remappingFunction == null)
+            throw new NullPointerException();
+        for (int p = 0; p < m; ++p)
+            if (values[p] == null) throw new NullPointerException();
+        Node<K,V>[] tab;
+        if ((tab = table) == null || tab.length == 0)
+            tab = initTable();
+        HashSeed seed = hashSeed;
+        int[] hashes = new int[m];
+        long[] order = batchOrder(keys, hashes, tab.length, seed);
+        mergeRange(keys, values, hashes, order, 0, m, seed,
+                   remappingFunction);
+    }
+
+    /**
+     * Checks arguments of batch operations, returning the number of
+     * keys.
+     */
+    static int batchLength(Object[] keys, Object[] values) {
+        int m = keys.length;
+        if (values.length < m)
+            throw new IllegalArgumentException();
+        return m;
+    }
+
+    /**
+     * Computes the hashes of the given keys, and returns
+     * their positions sorted by bin index in a table of length n.
+     * Each element holds the bin index in its upper half and the
+     * position in its lower half, so that positions of keys in the
+     * same bin are contiguous and in increasing order.
+     */
+    static long[] batchOrder(Object[] keys, int[] hashes, int n,
+                             HashSeed seed) {
+        int m = hashes.length;
+        long[] order = new long[m];
+        for (int p = 0; p < m; ++p) {
+            Object k; int h;
+            if ((k = keys[p]) == null)
+                throw new NullPointerException();
+            hashes[p] = h = HashSeed.hash(seed, k);
+            order[p] = ((long)(h & (n - 1)) << 32) | p;
+        }
+        Arrays.sort(order);
+        return order;
+    }
+
+    /**
+     * Returns an index between lo and hi at which to split sorted
+     * batch positions without separating keys of the same bin, or
+     * lo if there is none.
+     */
+    static int batchSplit(long[] order, int lo, int hi) {
+        int mid = (lo + hi) >>> 1;
+        if (mid > lo) {
+            for (long b = order[mid - 1] >>> 32; mid < hi; ++mid) {
+                if ((order[mid] >>> 32) != b)
+                    return mid;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * Returns the value for the given key in the bin with first
+     * node e, or null if absent.  Same as the traversal in get.
+     */
+    static <K,V> V binValue(Node<K,V> e, int h, Object key) {
+        K ek; int eh;
+        if ((eh = e.hash) == h) {
+            if ((ek = e.key) == key || (ek != null && key.equals(ek)))
+                return e.val;
+        }
+        else if (eh < 0) {
+            Node<K,V> p;
+            return ((p = e.find(h, key)) != null) ? p.val : null;
+        }
+        while ((e = e.next) != null) {
+            if (e.hash == h &&
+                ((ek = e.key) == key || (ek != null && key.equals(ek))))
+                return e.val;
+        }
+        return null;
+    }
+
+    /**
+     * Implementation for getAll: looks up the keys at sorted
+     * positions lo (inclusive) to hi (exclusive) in the given table,
+     * reading each bin once.  Returns the number found.
+     */
+    static <K,V> int getRange(Node<K,V>[] tab, Object[] keys, V[] values,
+                              int[] hashes, long[] order, int lo, int hi) {
+        int found = 0, n = tab.length;
+        for (int k = lo; k < hi; ) {
+            int p = (int)order[k], i = hashes[p] & (n - 1);
+            Node<K,V> f = tabAt(tab, i);
+            do {
+                V v = (f == null) ? null : binValue(f, hashes[p], keys[p]);
+                if ((values[p] = v) != null)
+                    ++found;
+            } while (++k < hi && (hashes[p = (int)order[k]] & (n - 1)) == i);
+        }
+        return found;
+    }
+
+    /**
+     * Implementation for mergeAll: merges the keys at sorted
+     * positions lo (inclusive) to hi (exclusive).  Runs of keys
+     * falling in the same locked bin are merged by mergeBin; others
+     * (empty, forwarded, or reserved bins) by merge, as are all keys
+     * if the hash seed is no longer the one used to compute hashes.
+     */
+    final void mergeRange(K[] keys, V[] values, int[] hashes, long[] order,
+                          int lo, int hi, HashSeed seed,
+                          BiFunction<? super V, ? super V, ? extends V> remappingFunction) {
+        for (int k = lo; k < hi; ) {
+            Node<K,V>[] tab = table;
+            int p = (int)order[k], n, i, fh;
+            Node<K,V> f;
+            if (tab == null || (n = tab.length) == 0 || hashSeed != seed ||
+                (f = tabAt(tab, i = hashes[p] & (n - 1))) == null ||
+                ((fh = f.hash) < 0 && fh != TREEBIN)) {
+                merge(keys[p], values[p], remappingFunction);
+                ++k;
+            }
+            else
+                k = mergeBin(tab, i, f, keys, values, hashes, order, k, hi,
+                             remappingFunction);
+        }
+    }
+
+    /**
+     * Merges keys at sorted positions starting at k while they fall
+     * in bin i with first node f, holding its lock.  Stops early if
+     * f is no longer the first node, for example after removing it.
+     * Returns the position following the last key merged.
+     */
+    private final int mergeBin(Node<K,V>[] tab, int i, Node<K,V> f,
+                               K[] keys, V[] values, int[] hashes,
+                               long[] order, int k, int hi,
+                               BiFunction<? super V, ? super V, ? extends V> remappingFunction) {
+        int delta = 0, binCount = 0, n = tab.length;
+        try {
+            synchronized (f) {
+                if (tabAt(tab, i) == f) {
+                    if (snapshots != null)
+                        preserveBin(tab, i, f);
+                    for (int p, h; k < hi && tabAt(tab, i) == f &&
+                             ((h = hashes[p = (int)order[k]]) & (n - 1)) == i;
+                         ++k) {
+                        K key = keys[p];
+                        V value = values[p], val;
+                        if (f.hash >= 0) {
+                            binCount = 1;
+                            for (Node<K,V> e = f, pred = null;; ++binCount) {
+                                K ek;
+                                if (e.hash == h &&
+                                    ((ek = e.key) == key ||
+                                     (ek != null && key.equals(ek)))) {
+                                    val = remappingFunction.apply(e.val, value);
+                                    if (val != null)
+                                        e.val = val;
+                                    else {
+                                        --delta;
+                                        Node<K,V> en = e.next;
+                                        if (pred != null)
+                                            pred.next = en;
+                                        else
+                                            setTabAt(tab, i, en);
+                                    }
+                                    break;
+                                }
+                                pred = e;
+                                if ((e = e.next) == null) {
+                                    ++delta;
+                                    pred.next =
+                                        new Node<K,V>(h, key, value, null);
+                                    break;
+                                }
+                            }
+                        }
+                        else {
+                            binCount = 2;
+                            TreeBin<K,V> t = (TreeBin<K,V>)f;
+                            TreeNode<K,V> r = t.root;
+                            TreeNode<K,V> q = (r == null) ? null :
+                                r.findTreeNode(h, key, null);
+                            val = (q == null) ? value :
+                                remappingFunction.apply(q.val, value);
+                            if (val != null) {
+                                if (q != null)
+                                    q.val = val;
+                                else {
+                                    ++delta;
+                                    t.putTreeVal(h, key, val);
+                                }
+                            }
+                            else if (q != null) {
+                                --delta;
+                                if (t.removeTreeNode(q))
+                                    setTabAt(tab, i, untreeify(t.first));
+                            }
+                        }
+                    }
+                }
+                else
+                    recordRevalidationRetry();
+            }
+        } finally {
+            if (delta != 0)
+                addCount((long)delta, binCount);
+        }
+        if (binCount >= TREEIFY_THRESHOLD)
+            treeifyBin(tab, i);
+        return k;
+    }
+
     // Hashtable legacy methods
 
     /**
@@ -2137,6 +2590,178 @@ public class ConcurrentHashMap<K,V> extends AbstractMap<K,V>
         return (n < 0L) ? 0L : n; // ignore transient negative values
     }
 
+    /**
+     * Creates a new, empty map that spreads the cost of resizing
+     * across update operations.  In a map constructed in the usual
+     * way, a thread triggering or encountering a resize moves bins to
+     * the new table until none remain to be claimed, which for very
+     * large tables may take a long time.  In the returned map, each
+     * update operation moves at most {@code maxTransferBins} bins,
+     * so resizing instead proceeds incrementally over many
+     * operations, while retrievals consult both the old and new
+     * tables until the transfer is complete.  This bounds the pause
+     * incurred by any one update, at the expense of retaining both
+     * tables for longer.  Method {@link #pendingTransferBins} may be
+     * used to monitor progress.  This setting is not preserved upon
+     * serialization.
+     *
+     * @param initialCapacity The implementation performs internal
+     * sizing to accommodate this many elements.
+     * @param maxTransferBins the maximum number of bins moved to a
+     * new table by any one operation
+     * @param <K> the type of keys maintained by the new map
+     * @param <V> the type of mapped values
+     * @return the new map
+     * @throws IllegalArgumentException if the initial capacity is
+     * negative or maxTransferBins is not positive
+     * @since 9
+     */
+    public static <K,V> ConcurrentHashMap<K,V> newIncrementalResizeMap
+        (int initialCapacity, int maxTransferBins) {
+        if (maxTransferBins <= 0)
+            throw new IllegalArgumentException();
+        ConcurrentHashMap<K,V> map = new ConcurrentHashMap<K,V>(initialCapacity);
+        map.maxTransferStride = maxTransferBins;
+        return map;
+    }
+
+    /**
+     * Creates a new, empty map that resists degradation by large
+     * numbers of keys with colliding hashes, as may be supplied by an
+     * adversary (sometimes known as "hash flooding").  The returned
+     * map hashes keys using random keys chosen when it is created:
+     * {@code String} keys are hashed using a keyed hash function of
+     * their characters (ignoring {@link String#hashCode}), and the
+     * hash codes of other keys are combined with the random keys, so
+     * that keys colliding in this map cannot be predicted from their
+     * hash codes.  If the map nevertheless detects an implausible
+     * number of collisions, it rehashes all keys using new random
+     * keys.  During rehashing, retrievals proceed normally, but
+     * updates help rehash and may wait for it to complete.  Keys
+     * of types other than {@code String} with equal hash codes still
+     * collide, so should if possible implement {@link Comparable}.
+     * Hashing is somewhat slower in the returned map than in maps
+     * constructed in the usual way.  This setting is not preserved
+     * upon serialization.
+     *
+     * @param initialCapacity The implementation performs internal
+     * sizing to accommodate this many elements.
+     * @param <K> the type of keys maintained by the new map
+     * @param <V> the type of mapped values
+     * @return the new map
+     * @throws IllegalArgumentException if the initial capacity is
+     * negative
+     * @since 9
+     */
+    public static <K,V> ConcurrentHashMap<K,V> newSeededHashMap
+        (int initialCapacity) {
+        ConcurrentHashMap<K,V> map = new ConcurrentHashMap<K,V>(initialCapacity);
+        map.hashSeed = new HashSeed(0);
+        return map;
+    }
+
+    /**
+     * Returns an estimate of the number of bins of the current table
+     * that have not yet been moved to a new table, or zero if the
+     * map is not being resized.  This method is designed for use in
+     * monitoring progress of resizes, not for synchronization
+     * control.
+     *
+     * @return the estimated number of bins remaining to transfer
+     * @since 9
+     */
+    public int pendingTransferBins() {
+        Node<K,V>[] tab, nt; int n, r;
+        if ((nt = nextTable) == null || (tab = table) == null ||
+            nt.length != ((n = tab.length) << 1))
+            return 0;
+        return ((r = n - transferDone) < 0) ? 0 : (r > n) ? n : r;
+    }
+
+    /**
+     * Returns a read-only point-in-time view of this map.  The
+     * returned map reflects all updates to this map completed before
+     * this method was invoked, and none of those started after it
+     * returned; updates performed concurrently with this method may
+     * or may not be reflected.  Creating a snapshot does not copy
+     * any mappings.  Instead, mappings are copied into the snapshot
+     * on demand, bin by bin, either when an update first modifies a
+     * bin after the snapshot was created, or when the snapshot first
+     * accesses the bin.  So, unlike the weakly consistent iterators
+     * of {@link #entrySet()} and other views, iterators,
+     * spliterators, and serialized forms of a snapshot present a
+     * consistent view even while other threads update this map.
+     *
+     * <p>While a snapshot is open, updates to this map incur the
+     * additional cost of preserving the contents of bins that
+     * the snapshot has not yet accessed, and this map retains these
+     * copies for use by the snapshot.  A snapshot is closed
+     * automatically once all of its mappings have been copied (for
+     * example after a complete traversal), and should otherwise be
+     * closed using {@link SnapshotView#close} when no longer needed.
+     * If this map is being resized when this method is called, the
+     * caller helps complete the resize before creating the snapshot.
+     *
+     * @return a snapshot of this map
+     * @since 9
+     */
+    public SnapshotView<K,V> snapshot() {
+        for (;;) {
+            Node<K,V>[] tab = table, nt;
+            if (tab == null || tab.length == 0)
+                return new SnapshotView<K,V>(null, null, null, 0L);
+            if (sizeCtl < 0) {          // help complete resize, then retry
+                if ((nt = nextTable) != null)
+                    helpTransfer(tab, new ForwardingNode<K,V>(nt));
+                Thread.yield();
+            }
+            else {
+                SnapshotView<K,V> s = new SnapshotView<K,V>(this, tab, hashSeed,
+                                                            sumCount());
+                addSnapshot(s);
+                if (sizeCtl >= 0 && table == tab)
+                    return s;
+                removeSnapshot(s);      // lost race with a resize
+            }
+        }
+    }
+
+    /**
+     * Enables or disables recording of the statistics reported by
+     * {@link #getStats}.  Enabling statistics that are already
+     * enabled has no effect; otherwise, enabling them resets the
+     * recorded counts to zero.  While enabled, statistics are
+     * recorded only on relatively slow paths of internal operations,
+     * using {@link java.util.concurrent.atomic.LongAdder LongAdders}
+     * to avoid adding contention; while disabled, they incur
+     * essentially no overhead.
+     *
+     * @param enabled true to enable statistics, false to disable them
+     * @since 9
+     */
+    public void setStatsEnabled(boolean enabled) {
+        if (!enabled)
+            stats = null;
+        else if (stats == null)
+            U.compareAndSwapObject(this, STATS, null, new StatsCounters());
+    }
+
+    /**
+     * Returns statistics describing internal behavior of this map,
+     * including counts recorded since statistics were most recently
+     * enabled using {@link #setStatsEnabled}, which are zero if
+     * statistics are disabled.
+     *
+     * @return the current statistics
+     * @since 9
+     */
+    public Stats getStats() {
+        CounterCell[] as = counterCells;
+        Node<K,V>[] tab = table;
+        return new Stats(stats, (as == null) ? 0 : as.length,
+                         (tab == null) ? 0 : tab.length);
+    }
+
     /**
      * Creates a new {@link Set} backed by a ConcurrentHashMap
      * from the given type to {@code Boolean.TRUE}.
@@ -2223,6 +2848,61 @@ public class ConcurrentHashMap<K,V> extends AbstractMap<K,V>
         }
     }
 
+    /**
+     * A node inserted at head of bins during rehashing (see
+     * rehashTransfer).  Unlike a ForwardingNode, it retains the
+     * former contents of the bin, which remain unchanged and are
+     * used for retrievals and traversals until the new table is
+     * installed.
+     */
+    static final class RehashNode<K,V> extends Node<K,V> {
+        final Node<K,V>[] nextTable;
+        final Node<K,V> bin;         // former first node, or null if empty
+        final HashSeed seed;         // hash seed of former contents
+        final HashSeed nextSeed;     // hash seed of nextTable
+        RehashNode(Node<K,V>[] nextTable, Node<K,V> bin,
+                   HashSeed seed, HashSeed nextSeed) {
+            super(MOVED, null, null, null);
+            this.nextTable = nextTable;
+            this.bin = bin;
+            this.seed = seed;
+            this.nextSeed = nextSeed;
+        }
+
+        /** Returns the first node of the former list, if any. */
+        final Node<K,V> first() {
+            Node<K,V> b;
+            return ((b = bin) instanceof TreeBin) ? ((TreeBin<K,V>)b).first : b;
+        }
+
+        Node<K,V> find(int h, Object k) {
+            // h may have been computed using either seed.  If not the
+            // former seed, the caller read this table before the new
+            // seed, and so may have chosen the wrong bin; recheck in
+            // nextTable, which is complete once the new seed is set.
+            Node<K,V>[] tab = nextTable; Node<K,V> b, e; int sh, nh, n;
+            if (k == null)
+                return null;
+            sh = HashSeed.hash(seed, k);
+            if ((b = bin) != null && (e = b.find(sh, k)) != null)
+                return e;
+            if (h == sh || (n = tab.length) == 0 ||
+                (e = tabAt(tab, (n - 1) &
+                           (nh = HashSeed.hash(nextSeed, k)))) == null)
+                return null;
+            for (;;) {
+                int eh; K ek;
+                if ((eh = e.hash) == nh &&
+                    ((ek = e.key) == k || (ek != null && k.equals(ek))))
+                    return e;
+                if (eh < 0)
+                    return e.find(nh, k);
+                if ((e = e.next) == null)
+                    return null;
+            }
+        }
+    }
+
     /**
      * A place-holder node used in computeIfAbsent and compute
      */
@@ -2286,12 +2966,14 @@ public class ConcurrentHashMap<K,V> extends AbstractMap<K,V>
         CounterCell[] as; long b, s;
         if ((as = counterCells) != null ||
             !U.compareAndSwapLong(this, BASECOUNT, b = baseCount, s = b + x)) {
-            CounterCell a; long v; int m;
+            CounterCell a; long v; int m; StatsCounters st;
             boolean uncontended = true;
             if (as == null || (m = as.length - 1) < 0 ||
                 (a = as[ThreadLocalRandom.getProbe() & m]) == null ||
                 !(uncontended =
                   U.compareAndSwapLong(a, CELLVALUE, v = a.value, v + x))) {
+                if ((as == null || !uncontended) && (st = stats) != null)
+                    st.countContention.increment();
                 fullAddCount(x, uncontended);
                 return;
             }
@@ -2315,6 +2997,8 @@ public class ConcurrentHashMap<K,V> extends AbstractMap<K,V>
                 else if (U.compareAndSwapInt(this, SIZECTL, sc,
                                              (rs << RESIZE_STAMP_SHIFT) + 2))
                     transfer(tab, null);
+                if (maxTransferStride > 0)
+                    break;      // at most one step per operation
                 s = sumCount();
             }
         }
@@ -2325,6 +3009,8 @@ public class ConcurrentHashMap<K,V> extends AbstractMap<K,V>
      */
     final Node<K,V>[] helpTransfer(Node<K,V>[] tab, Node<K,V> f) {
         Node<K,V>[] nextTab; int sc;
+        if (f instanceof RehashNode)
+            return helpRehash(tab, (RehashNode<K,V>)f);
         if (tab != null && (f instanceof ForwardingNode) &&
             (nextTab = ((ForwardingNode<K,V>)f).nextTable) != null) {
             int rs = resizeStamp(tab.length);
@@ -2385,8 +3071,11 @@ public class ConcurrentHashMap<K,V> extends AbstractMap<K,V>
      * above for explanation.
      */
     private final void transfer(Node<K,V>[] tab, Node<K,V>[] nextTab) {
-        int n = tab.length, stride;
-        if ((stride = (NCPU > 1) ? (n >>> 3) / NCPU : n) < MIN_TRANSFER_STRIDE)
+        int n = tab.length, stride, claimed = 0;
+        int maxStride = maxTransferStride; // if positive, do only one step
+        if (maxStride > 0)
+            stride = maxStride;
+        else if ((stride = (NCPU > 1) ? (n >>> 3) / NCPU : n) < MIN_TRANSFER_STRIDE)
             stride = MIN_TRANSFER_STRIDE; // subdivide range
         if (nextTab == null) {            // initiating
             try {
@@ -2397,8 +3086,14 @@ public class ConcurrentHashMap<K,V> extends AbstractMap<K,V>
                 sizeCtl = Integer.MAX_VALUE;
                 return;
             }
+            transferDone = 0;
             nextTable = nextTab;
             transferIndex = n;
+            StatsCounters st;
+            if ((st = stats) != null) {
+                st.resizes.increment();
+                st.resizeStartTime = System.nanoTime();
+            }
         }
         int nextn = nextTab.length;
         ForwardingNode<K,V> fwd = new ForwardingNode<K,V>(nextTab);
@@ -2410,6 +3105,10 @@ public class ConcurrentHashMap<K,V> extends AbstractMap<K,V>
                 int nextIndex, nextBound;
                 if (--i >= bound || finishing)
                     advance = false;
+                else if (claimed != 0 && maxStride > 0) {
+                    i = -1;             // leave after one step
+                    advance = false;
+                }
                 else if ((nextIndex = transferIndex) <= 0) {
                     i = -1;
                     advance = false;
@@ -2418,6 +3117,9 @@ public class ConcurrentHashMap<K,V> extends AbstractMap<K,V>
                          (this, TRANSFERINDEX, nextIndex,
                           nextBound = (nextIndex > stride ?
                                        nextIndex - stride : 0))) {
+                    if (claimed != 0)
+                        U.getAndAddInt(this, TRANSFERDONE, claimed);
+                    claimed = nextIndex - nextBound;
                     bound = nextBound;
                     i = nextIndex - 1;
                     advance = false;
@@ -2425,10 +3127,19 @@ public class ConcurrentHashMap<K,V> extends AbstractMap<K,V>
             }
             if (i < 0 || i >= n || i + n >= nextn) {
                 int sc;
+                if (maxStride > 0) {
+                    endTransferStep(tab, nextTab, claimed);
+                    return;
+                }
+                if (claimed != 0) {
+                    U.getAndAddInt(this, TRANSFERDONE, claimed);
+                    claimed = 0;
+                }
                 if (finishing) {
                     nextTable = null;
                     table = nextTab;
                     sizeCtl = (n << 1) - (n >>> 1);
+                    recordResizeEnd();
                     return;
                 }
                 if (U.compareAndSwapInt(this, SIZECTL, sc = sizeCtl, sc - 1)) {
@@ -2438,13 +3149,18 @@ public class ConcurrentHashMap<K,V> extends AbstractMap<K,V>
                     i = n; // recheck before commit
                 }
             }
-            else if ((f = tabAt(tab, i)) == null)
+            else if ((f = tabAt(tab, i)) == null) {
+                if (snapshots != null)
+                    preserveBin(tab, i, null);
                 advance = casTabAt(tab, i, null, fwd);
+            }
             else if ((fh = f.hash) == MOVED)
                 advance = true; // already processed
             else {
                 synchronized (f) {
                     if (tabAt(tab, i) == f) {
+                        if (snapshots != null)
+                            preserveBin(tab, i, f);
                         Node<K,V> ln, hn;
                         if (fh >= 0) {
                             int runBit = fh & n;
@@ -2512,11 +3228,534 @@ public class ConcurrentHashMap<K,V> extends AbstractMap<K,V>
                             advance = true;
                         }
                     }
+                    else
+                        recordRevalidationRetry();
+                }
+            }
+        }
+    }
+
+    /**
+     * Completes an incremental transfer step: records the bins moved,
+     * committing the next table if these were the last ones, and
+     * leaves the set of resizers, resetting sizeCtl if this is the
+     * last one out of a committed resize.  See above for explanation.
+     *
+     * @param moved the number of bins moved in this step
+     */
+    private final void endTransferStep(Node<K,V>[] tab, Node<K,V>[] nextTab,
+                                       int moved) {
+        int n = tab.length;
+        if (moved != 0 &&
+            U.getAndAddInt(this, TRANSFERDONE, moved) + moved == n) {
+            nextTable = null;
+            table = nextTab;
+            recordResizeEnd();
+        }
+        int rs = resizeStamp(n) << RESIZE_STAMP_SHIFT, sc;
+        while (!U.compareAndSwapInt(this, SIZECTL, sc = sizeCtl, sc - 1))
+            ;
+        if (sc - 2 == rs && transferDone == n)
+            U.compareAndSwapInt(this, SIZECTL, rs + 1, (n << 1) - (n >>> 1));
+    }
+
+    /* ---------------- Snapshot support -------------- */
+
+    /**
+     * Saves the contents of bin i of the given table for each live
+     * snapshot of that table that has not yet done so.  Must be
+     * called before modifying the bin, while holding the lock of its
+     * first node f, or with null f just before CASing a node into an
+     * empty bin.
+     */
+    private final void preserveBin(Node<K,V>[] tab, int i, Node<K,V> f) {
+        SnapshotView<K,V>[] ss;
+        if ((ss = snapshots) != null) {
+            for (SnapshotView<K,V> s : ss) {
+                if (s.tab == tab)
+                    s.preserve(i, f);
+            }
+        }
+    }
+
+    /**
+     * Adds a snapshot to the live snapshots.
+     */
+    private final void addSnapshot(SnapshotView<K,V> s) {
+        for (SnapshotView<K,V>[] ss;;) {
+            int n = ((ss = snapshots) == null) ? 0 : ss.length;
+            @SuppressWarnings("unchecked")
+            SnapshotView<K,V>[] ns = (ss == null) ?
+                (SnapshotView<K,V>[])new SnapshotView<?,?>[1] :
+                Arrays.copyOf(ss, n + 1);
+            ns[n] = s;
+            if (U.compareAndSwapObject(this, SNAPSHOTS, ss, ns))
+                break;
+        }
+    }
+
+    /**
+     * Removes a snapshot from the live snapshots, if present.
+     */
+    final void removeSnapshot(SnapshotView<K,V> s) {
+        for (SnapshotView<K,V>[] ss;;) {
+            int n, k = -1;
+            if ((ss = snapshots) == null)
+                break;
+            for (int j = 0; j < (n = ss.length); ++j) {
+                if (ss[j] == s) {
+                    k = j;
+                    break;
+                }
+            }
+            if (k < 0)
+                break;
+            SnapshotView<K,V>[] ns = null;
+            if (n > 1) {
+                ns = Arrays.copyOf(ss, n - 1);
+                if (k < n - 1)
+                    ns[k] = ss[n - 1];
+            }
+            if (U.compareAndSwapObject(this, SNAPSHOTS, ss, ns))
+                break;
+        }
+    }
+
+    /* ---------------- Seeded hashing -------------- */
+
+    /**
+     * Secret keys used to hash keys in maps created by
+     * newSeededHashMap.  String keys are hashed using SipHash-1-3 over
+     * their chars, so that collisions cannot be constructed without
+     * knowing the keys; other keys' hash codes are mixed with the
+     * keys, which prevents targeting collisions among distinct hash
+     * codes (but cannot help with equal ones).
+     */
+    static final class HashSeed {
+        final long k0, k1;
+        final int rehashedAt;  // table length when created by rehash, else 0
+        HashSeed(int rehashedAt) {
+            ThreadLocalRandom r = ThreadLocalRandom.current();
+            this.k0 = r.nextLong();
+            this.k1 = r.nextLong();
+            this.rehashedAt = rehashedAt;
+        }
+
+        /**
+         * Returns the hash for the given key using seed s, or using
+         * spread if s is null.
+         */
+        static int hash(HashSeed s, Object key) {
+            if (s == null)
+                return spread(key.hashCode());
+            long x;
+            if (key instanceof String)
+                x = s.sipHash((String)key);
+            else {
+                x = (key.hashCode() ^ s.k0) * 0xff51afd7ed558ccdL;
+                x = ((x ^ (x >>> 33)) + s.k1) * 0xc4ceb9fe1a85ec53L;
+                x ^= x >>> 33;
+            }
+            return (int)(x ^ (x >>> 32)) & HASH_BITS;
+        }
+
+        /**
+         * SipHash-1-3, using four chars per message word, and the
+         * number of chars in place of the byte length.
+         */
+        final long sipHash(String str) {
+            long v0 = k0 ^ 0x736f6d6570736575L, v1 = k1 ^ 0x646f72616e646f6dL;
+            long v2 = k0 ^ 0x6c7967656e657261L, v3 = k1 ^ 0x7465646279746573L;
+            int len = str.length();
+            for (int i = 0;; i += 4) {
+                long m;
+                boolean last = (i + 4 > len);
+                if (!last)
+                    m = (long)str.charAt(i) |
+                        ((long)str.charAt(i + 1) << 16) |
+                        ((long)str.charAt(i + 2) << 32) |
+                        ((long)str.charAt(i + 3) << 48);
+                else {
+                    m = (long)len << 48;
+                    for (int j = i; j < len; ++j)
+                        m |= (long)str.charAt(j) << ((j - i) << 4);
+                }
+                v3 ^= m;
+                v0 += v1; v1 = Long.rotateLeft(v1, 13); v1 ^= v0;
+                v0 = Long.rotateLeft(v0, 32);
+                v2 += v3; v3 = Long.rotateLeft(v3, 16); v3 ^= v2;
+                v0 += v3; v3 = Long.rotateLeft(v3, 21); v3 ^= v0;
+                v2 += v1; v1 = Long.rotateLeft(v1, 17); v1 ^= v2;
+                v2 = Long.rotateLeft(v2, 32);
+                v0 ^= m;
+                if (last)
+                    break;
+            }
+            v2 ^= 0xffL;
+            for (int r = 0; r < 3; ++r) {
+                v0 += v1; v1 = Long.rotateLeft(v1, 13); v1 ^= v0;
+                v0 = Long.rotateLeft(v0, 32);
+                v2 += v3; v3 = Long.rotateLeft(v3, 16); v3 ^= v2;
+                v0 += v3; v3 = Long.rotateLeft(v3, 21); v3 ^= v0;
+                v2 += v1; v1 = Long.rotateLeft(v1, 17); v1 ^= v2;
+                v2 = Long.rotateLeft(v2, 32);
+            }
+            return v0 ^ v1 ^ v2 ^ v3;
+        }
+    }
+
+    /**
+     * Returns the hash for the given key.  For seeded maps, callers
+     * must read the table before calling this method; see above for
+     * explanation.
+     */
+    final int hash(Object key) {
+        HashSeed s;
+        return ((s = hashSeed) == null) ? spread(key.hashCode()) :
+            HashSeed.hash(s, key);
+    }
+
+    /**
+     * Returns the stamp bits for rehashing a table of size n, which
+     * differ from those of resizeStamp(n) so that resizing threads
+     * never join rehashes.
+     */
+    static final int rehashStamp(int n) {
+        return resizeStamp(n) | (1 << (RESIZE_STAMP_BITS - 2));
+    }
+
+    /**
+     * Returns true if the list starting at b contains at least
+     * TREEIFY_THRESHOLD distinct hashes, which a well-seeded hash
+     * makes very unlikely.
+     */
+    static <K,V> boolean tooManyDistinctHashes(Node<K,V> b) {
+        int distinct = 0, c = 0;
+        outer: for (Node<K,V> e = b; e != null && ++c <= 64; e = e.next) {
+            for (Node<K,V> p = b; p != e; p = p.next) {
+                if (p.hash == e.hash)
+                    continue outer;
+            }
+            if (++distinct >= TREEIFY_THRESHOLD)
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Starts rehashing the given table with a new seed, unless not
+     * seeded, already rehashed at this table length, or resizing or
+     * rehashing is in progress.  Returns true if rehashed.
+     */
+    private final boolean tryRehash(Node<K,V>[] tab) {
+        HashSeed s; int n, sc;
+        if ((s = hashSeed) == null || table != tab ||
+            s.rehashedAt == (n = tab.length) || (sc = sizeCtl) < 0 ||
+            !U.compareAndSwapInt(this, SIZECTL, sc,
+                                 (rehashStamp(n) << RESIZE_STAMP_SHIFT) + 2))
+            return false;
+        Node<K,V>[] nt;
+        if (table != tab || hashSeed != s) { // lost race with a resize
+            sizeCtl = sc;
+            return false;
+        }
+        try {
+            @SuppressWarnings("unchecked")
+            Node<K,V>[] t = (Node<K,V>[])new Node<?,?>[n];
+            nt = t;
+        } catch (Throwable ex) {      // try to cope with OOME
+            sizeCtl = sc;
+            return false;
+        }
+        StatsCounters st;
+        if ((st = stats) != null)
+            st.rehashes.increment();
+        nextTable = nt;
+        transferIndex = n;
+        rehashTransfer(tab, nt, s, new HashSeed(n));
+        return true;
+    }
+
+    /**
+     * Helps rehash if still in progress, then waits for the new
+     * table, which is returned.
+     */
+    private final Node<K,V>[] helpRehash(Node<K,V>[] tab, RehashNode<K,V> f) {
+        Node<K,V>[] nextTab = f.nextTable;
+        int rs = rehashStamp(tab.length), base = rs << RESIZE_STAMP_SHIFT, sc;
+        while (table == tab) {
+            if ((sc = sizeCtl) < 0 && (sc >>> RESIZE_STAMP_SHIFT) == rs &&
+                sc != base + 1 && sc != base + MAX_RESIZERS &&
+                nextTable == nextTab && transferIndex > 0) {
+                if (U.compareAndSwapInt(this, SIZECTL, sc, sc + 1))
+                    rehashTransfer(tab, nextTab, f.seed, f.nextSeed);
+            }
+            else
+                Thread.yield();    // wait for other rehashers to finish
+        }
+        return table;
+    }
+
+    /**
+     * Moves nodes in each bin of tab to nextTab (of the same
+     * length), rehashed using seed nextSeed, leaving in each bin a
+     * RehashNode holding its former contents.  Claims ranges of bins
+     * and commits the new table in the same way as transfer.
+     */
+    private final void rehashTransfer(Node<K,V>[] tab, Node<K,V>[] nextTab,
+                                      HashSeed seed, HashSeed nextSeed) {
+        int n = tab.length, stride;
+        if ((stride = (NCPU > 1) ? (n >>> 3) / NCPU : n) < MIN_TRANSFER_STRIDE)
+            stride = MIN_TRANSFER_STRIDE;
+        boolean advance = true;
+        boolean finishing = false; // to ensure sweep before committing nextTab
+        for (int i = 0, bound = 0;;) {
+            Node<K,V> f; int fh;
+            while (advance) {
+                int nextIndex, nextBound;
+                if (--i >= bound || finishing)
+                    advance = false;
+                else if ((nextIndex = transferIndex) <= 0) {
+                    i = -1;
+                    advance = false;
+                }
+                else if (U.compareAndSwapInt
+                         (this, TRANSFERINDEX, nextIndex,
+                          nextBound = (nextIndex > stride ?
+                                       nextIndex - stride : 0))) {
+                    bound = nextBound;
+                    i = nextIndex - 1;
+                    advance = false;
+                }
+            }
+            if (i < 0 || i >= n) {
+                int sc;
+                if (finishing) {
+                    hashSeed = nextSeed;    // see RehashNode.find
+                    nextTable = null;
+                    table = nextTab;
+                    sizeCtl = n - (n >>> 2);
+                    return;
+                }
+                if (U.compareAndSwapInt(this, SIZECTL, sc = sizeCtl, sc - 1)) {
+                    if ((sc - 2) != rehashStamp(n) << RESIZE_STAMP_SHIFT)
+                        return;
+                    finishing = advance = true;
+                    i = n; // recheck before commit
+                }
+            }
+            else if ((f = tabAt(tab, i)) == null) {
+                if (snapshots != null)
+                    preserveBin(tab, i, null);
+                advance = casTabAt(tab, i, null,
+                                   new RehashNode<K,V>(nextTab, null,
+                                                       seed, nextSeed));
+            }
+            else if ((fh = f.hash) == MOVED)
+                advance = true; // already processed
+            else {
+                synchronized (f) {
+                    if (tabAt(tab, i) == f &&
+                        (fh >= 0 || f instanceof TreeBin)) {
+                        if (snapshots != null)
+                            preserveBin(tab, i, f);
+                        Node<K,V> e = (fh >= 0) ? f : ((TreeBin<K,V>)f).first;
+                        for (; e != null; e = e.next) {
+                            K k = e.key;
+                            int h = HashSeed.hash(nextSeed, k), j = h & (n - 1);
+                            Node<K,V> p = new Node<K,V>(h, k, e.val, null);
+                            for (Node<K,V> q;;) { // push; no readers yet
+                                p.next = q = tabAt(nextTab, j);
+                                if (casTabAt(nextTab, j, q, p))
+                                    break;
+                            }
+                        }
+                        setTabAt(tab, i, new RehashNode<K,V>(nextTab, f,
+                                                             seed, nextSeed));
+                        advance = true;
+                    }
+                    else
+                        recordRevalidationRetry();
                 }
             }
         }
     }
 
+    /* ---------------- Statistics -------------- */
+
+    /**
+     * Counters for statistics, recorded only while enabled.  All
+     * recording sites are on slow paths (resizing, treeification,
+     * failed CASes and lock validations), so the only cost when
+     * disabled is a read of field stats on those paths.  Resize
+     * durations are measured from initiation of a transfer to
+     * installation of the new table, which for incremental resizes
+     * spans the operations performing its steps.
+     */
+    static final class StatsCounters {
+        final LongAdder resizes = new LongAdder();
+        final LongAdder resizeNanos = new LongAdder();
+        final LongAdder treeifications = new LongAdder();
+        final LongAdder revalidationRetries = new LongAdder();
+        final LongAdder countContention = new LongAdder();
+        final LongAdder rehashes = new LongAdder();
+        volatile long resizeStartTime;
+    }
+
+    /**
+     * Records the end of a resize, if statistics are enabled.
+     */
+    private final void recordResizeEnd() {
+        StatsCounters st; long t;
+        if ((st = stats) != null && (t = st.resizeStartTime) != 0L)
+            st.resizeNanos.add(System.nanoTime() - t);
+    }
+
+    /**
+     * Records failure to revalidate a bin after locking its first
+     * node, if statistics are enabled.
+     */
+    private final void recordRevalidationRetry() {
+        StatsCounters st;
+        if ((st = stats) != null)
+            st.revalidationRetries.increment();
+    }
+
+    /**
+     * A snapshot of statistics about the internal behavior of a
+     * ConcurrentHashMap, as returned by {@link
+     * ConcurrentHashMap#getStats}.  Counts cover the period since
+     * statistics were most recently enabled, and are accurate only
+     * in the absence of concurrent updates while they are
+     * gathered.  These statistics are intended for tuning: frequent
+     * resizes suggest that the map should be created with a larger
+     * initial capacity; frequent treeifications indicate keys with
+     * poorly distributed hash codes; and high counts of lock
+     * revalidation retries or contended count updates indicate many
+     * threads updating the same bins or the map as a whole at the
+     * same time.
+     *
+     * @since 9
+     */
+    public static final class Stats {
+        private final long resizeCount;
+        private final long resizeTimeNanos;
+        private final long treeifyCount;
+        private final long revalidationRetryCount;
+        private final long contendedCountUpdates;
+        private final long rehashCount;
+        private final int counterCellCount;
+        private final int tableLength;
+
+        Stats(StatsCounters st, int counterCellCount, int tableLength) {
+            if (st != null) {
+                this.resizeCount = st.resizes.sum();
+                this.resizeTimeNanos = st.resizeNanos.sum();
+                this.treeifyCount = st.treeifications.sum();
+                this.revalidationRetryCount = st.revalidationRetries.sum();
+                this.contendedCountUpdates = st.countContention.sum();
+                this.rehashCount = st.rehashes.sum();
+            }
+            else {
+                this.resizeCount = this.resizeTimeNanos = this.treeifyCount =
+                    this.revalidationRetryCount = this.contendedCountUpdates =
+                    this.rehashCount = 0L;
+            }
+            this.counterCellCount = counterCellCount;
+            this.tableLength = tableLength;
+        }
+
+        /**
+         * Returns the number of resizes initiated.
+         *
+         * @return the number of resizes
+         */
+        public long getResizeCount() { return resizeCount; }
+
+        /**
+         * Returns the total elapsed time in nanoseconds of completed
+         * resizes, each measured from its initiation to installation
+         * of the new table.
+         *
+         * @return the total resize time in nanoseconds
+         */
+        public long getResizeTimeNanos() { return resizeTimeNanos; }
+
+        /**
+         * Returns the number of bins converted from lists to trees
+         * because they held too many keys.
+         *
+         * @return the number of treeified bins
+         */
+        public long getTreeifyCount() { return treeifyCount; }
+
+        /**
+         * Returns the number of lock revalidation retries: times an
+         * update, after locking a bin, found that another thread had
+         * changed the bin (for example by removing its first node
+         * or transferring it while the update was waiting for the
+         * lock), and so had to retry.  This is a lower bound on bin
+         * lock contention, since waits for a lock that leave the bin
+         * unchanged are not counted.
+         *
+         * @return the number of lock revalidation retries
+         */
+        public long getRevalidationRetryCount() {
+            return revalidationRetryCount;
+        }
+
+        /**
+         * Returns the number of updates of the element count that
+         * encountered contention with other threads, each of which
+         * may cause the creation or expansion of counter cells.
+         *
+         * @return the number of contended count updates
+         */
+        public long getContendedCountUpdates() { return contendedCountUpdates; }
+
+        /**
+         * Returns the number of times a map created using {@link
+         * ConcurrentHashMap#newSeededHashMap} rehashed its keys with a
+         * new seed upon detecting unlikely numbers of collisions.
+         *
+         * @return the number of rehashes
+         */
+        public long getRehashCount() { return rehashCount; }
+
+        /**
+         * Returns the current number of counter cell slots, which
+         * is zero if the element count has never been contended.
+         *
+         * @return the number of counter cells
+         */
+        public int getCounterCellCount() { return counterCellCount; }
+
+        /**
+         * Returns the current length of the hash table, which is
+         * zero if the table has not yet been allocated.
+         *
+         * @return the table length
+         */
+        public int getTableLength() { return tableLength; }
+
+        /**
+         * Returns a string identifying these statistics and their
+         * values.
+         *
+         * @return a string representation of these statistics
+         */
+        public String toString() {
+            return "[Resizes = " + resizeCount +
+                ", Resize time (ns) = " + resizeTimeNanos +
+                ", Treeifications = " + treeifyCount +
+                ", Lock revalidation retries = " + revalidationRetryCount +
+                ", Contended count updates = " + contendedCountUpdates +
+                ", Rehashes = " + rehashCount +
+                ", Counter cells = " + counterCellCount +
+                ", Table length = " + tableLength + "]";
+        }
+    }
+
     /* ---------------- Counter support -------------- */
 
     /**
@@ -2633,7 +3872,9 @@ public class ConcurrentHashMap<K,V> extends AbstractMap<K,V>
         if (tab != null) {
             if ((n = tab.length) < MIN_TREEIFY_CAPACITY)
                 tryPresize(n << 1);
-            else if ((b = tabAt(tab, index)) != null && b.hash >= 0) {
+            else if ((b = tabAt(tab, index)) != null && b.hash >= 0 &&
+                     (hashSeed == null || !tooManyDistinctHashes(b) ||
+                      !tryRehash(tab))) {
                 synchronized (b) {
                     if (tabAt(tab, index) == b) {
                         TreeNode<K,V> hd = null, tl = null;
@@ -2648,6 +3889,9 @@ public class ConcurrentHashMap<K,V> extends AbstractMap<K,V>
                             tl = p;
                         }
                         setTabAt(tab, index, new TreeBin<K,V>(hd));
+                        StatsCounters st;
+                        if ((st = stats) != null)
+                            st.treeifications.increment();
                     }
                 }
             }
@@ -3347,6 +4591,8 @@ public class ConcurrentHashMap<K,V> extends AbstractMap<K,V>
                     }
                     else if (e instanceof TreeBin)
                         e = ((TreeBin<K,V>)e).first;
+                    else if (e instanceof RehashNode)
+                        e = ((RehashNode<K,V>)e).first();
                     else
                         e = null;
                 }
@@ -3654,8 +4900,14 @@ public class ConcurrentHashMap<K,V> extends AbstractMap<K,V>
      * two anyway.
      */
     final int batchFor(long b) {
-        long n;
-        if (b == Long.MAX_VALUE || (n = sumCount()) <= 1L || n < b)
+        return batchFor(b, sumCount());
+    }
+
+    /**
+     * Computes initial batch value for bulk tasks over n elements.
+     */
+    static int batchFor(long b, long n) {
+        if (b == Long.MAX_VALUE || n <= 1L || n < b)
             return 0;
         int sp = ForkJoinPool.getCommonPoolParallelism() << 2; // slack of 4
         return (b <= 0L || (n /= b) >= sp) ? sp : (int)n;
@@ -4384,6 +5636,76 @@ public class ConcurrentHashMap<K,V> extends AbstractMap<K,V>
              null, transformer, basis, reducer).invoke();
     }
 
+    /**
+     * Performs {@link #getAll(Object[], Object[]) getAll}, splitting
+     * the keys into groups retrieved in parallel if there are at
+     * least the given number of them.
+     *
+     * @param parallelismThreshold the number of keys needed for this
+     * operation to be executed in parallel
+     * @param keys the keys whose values are to be retrieved
+     * @param values the array into which the values are stored
+     * @return the number of keys found to be mapped
+     * @throws NullPointerException if either array, or any of the
+     *         keys, is null
+     * @throws IllegalArgumentException if {@code values} is shorter
+     *         than {@code keys}
+     * @since 9
+     */
+    public int getAll(long parallelismThreshold, K[] keys, V[] values) {
+        int m = batchLength(keys, values), b;
+        Node<K,V>[] tab;
+        if ((b = batchFor(parallelismThreshold, m)) == 0 ||
+            (tab = table) == null || tab.length == 0)
+            return getAll(keys, values);
+        int[] hashes = new int[m];
+        long[] order = batchOrder(keys, hashes, tab.length, hashSeed);
+        return new BatchGetTask<K,V>
+            (null, b, 0, m, tab, keys, values, hashes, order, null).invoke();
+    }
+
+    /**
+     * Performs {@link #mergeAll(Object[], Object[], BiFunction)
+     * mergeAll}, splitting the keys into groups merged in parallel if
+     * there are at least the given number of them.  Merges of equal
+     * keys are performed in array order by the same thread.
+     *
+     * @param parallelismThreshold the number of keys needed for this
+     * operation to be executed in parallel
+     * @param keys the keys with which values are to be merged
+     * @param values the values to merge with, or to associate with
+     *        absent keys
+     * @param remappingFunction the function to recompute a value if
+     *        present
+     * @throws NullPointerException if either array, any of the keys
+     *         or values, or the remappingFunction is null
+     * @throws IllegalArgumentException if {@code values} is shorter
+     *         than {@code keys}
+     * @throws RuntimeException or Error if the remappingFunction does
+     *         so, in which case the mapping for that key is unchanged
+     * @since 9
+     */
+    public void mergeAll(long parallelismThreshold, K[] keys, V[] values,
+                         BiFunction<? super V, ? super V, ? extends V> remappingFunction) {
+        int m = batchLength(keys, values), b;
+        if ((b = batchFor(parallelismThreshold, m)) == 0) {
+            mergeAll(keys, values, remappingFunction);
+            return;
+        }
+        if (remappingFunction == null)
+            throw new NullPointerException();
+        for (int p = 0; p < m; ++p)
+            if (values[p] == null) throw new NullPointerException();
+        Node<K,V>[] tab;
+        if ((tab = table) == null || tab.length == 0)
+            tab = initTable();
+        HashSeed seed = hashSeed;
+        int[] hashes = new int[m];
+        long[] order = batchOrder(keys, hashes, tab.length, seed);
+        new BatchMergeTask<K,V>
+            (null, b, 0, m, this, keys, values, hashes, order, seed,
+             remappingFunction).invoke();
+    }
 
     /* ----------------Views -------------- */
 
@@ -4826,6 +6148,419 @@ public class ConcurrentHashMap<K,V> extends AbstractMap<K,V>
 
     }
 
+    /**
+     * A read-only point-in-time view of a ConcurrentHashMap, obtained
+     * using method {@link ConcurrentHashMap#snapshot}.  Mappings are
+     * copied from the map on demand, so a snapshot uses memory
+     * proportional to the number of bins of the map that it, or
+     * updates to the map, have accessed since it was created.
+     * Iterators and spliterators of a snapshot never throw {@link
+     * java.util.ConcurrentModificationException} and always reflect
+     * the same mappings.  A serialized snapshot deserializes as a
+     * ConcurrentHashMap holding its mappings.
+     *
+     * <p>Once {@linkplain #close closed}, a snapshot stops receiving
+     * copies of bins that are subsequently updated, and operations
+     * that would need to access the map throw {@link
+     * IllegalStateException}.  Snapshots all of whose mappings have
+     * already been copied, for example by a complete traversal or
+     * by {@link #mappingCount}, remain usable after closing.
+     *
+     * @param <K> the type of keys
+     * @param <V> the type of values
+     * @since 9
+     */
+    public static final class SnapshotView<K,V> extends AbstractMap<K,V>
+        implements AutoCloseable, java.io.Serializable {
+        private static final long serialVersionUID = 4398720164830221584L;
+
+        /** Marks a saved empty bin */
+        static final Node<Object,Object> EMPTY =
+            new Node<Object,Object>(0, null, null, null);
+
+        final transient ConcurrentHashMap<K,V> map; // null if not registered
+        final transient Node<K,V>[] tab;    // the map's table at creation
+        final transient Node<K,V>[] saved;  // copies of bins of tab
+        final transient HashSeed seed;      // the map's seed for tab
+        final transient long sizeEstimate;  // for spliterators
+        transient volatile int savedCount;  // number of non-null saved
+        transient volatile boolean closed;
+        transient long count = -1L;         // cached exact size
+        transient SnapshotEntrySet<K,V> entrySet;
+
+        SnapshotView(ConcurrentHashMap<K,V> map, Node<K,V>[] tab,
+                     HashSeed seed, long size) {
+            this.map = map;
+            this.tab = tab;
+            this.seed = seed;
+            @SuppressWarnings("unchecked")
+            Node<K,V>[] s = (tab == null) ? null :
+                (Node<K,V>[])new Node<?,?>[tab.length];
+            this.saved = s;
+            this.sizeEstimate = (size < 0L) ? 0L : size;
+        }
+
+        /**
+         * Returns the number of bins.
+         */
+        final int binCount() {
+            Node<K,V>[] t;
+            return ((t = tab) == null) ? 0 : t.length;
+        }
+
+        /**
+         * Saves a copy of bin i with first node f (or marks it empty
+         * if f is null) unless already saved.  Called by map updates
+         * and snapshot reads, holding the lock of f if non-null.
+         */
+        final void preserve(int i, Node<K,V> f) {
+            Node<K,V>[] s = saved;
+            if (tabAt(s, i) == null) {
+                Node<K,V> c = null, e = null;
+                if (f instanceof TreeBin)
+                    e = ((TreeBin<K,V>)f).first;
+                else if (f != null && f.hash >= 0)
+                    e = f;
+                for (Node<K,V> last = null; e != null; e = e.next) {
+                    Node<K,V> p = new Node<K,V>(e.hash, e.key, e.val, null);
+                    if (last == null)
+                        c = p;
+                    else
+                        last.next = p;
+                    last = p;
+                }
+                if (c == null) {
+                    @SuppressWarnings("unchecked")
+                    Node<K,V> m = (Node<K,V>)(Node<?,?>)EMPTY;
+                    c = m;
+                }
+                if (casTabAt(s, i, null, c) &&
+                    U.getAndAddInt(this, SAVEDCOUNT, 1) + 1 == s.length &&
+                    map != null)
+                    map.removeSnapshot(this); // all saved; no longer needed
+            }
+        }
+
+        /**
+         * Returns the first node of the saved copy of bin i, first
+         * saving it if necessary.
+         *
+         * @throws IllegalStateException if closed and bin i is unsaved
+         */
+        final Node<K,V> bin(int i) {
+            for (Node<K,V> s, f;;) {
+                if ((s = tabAt(saved, i)) != null)
+                    return ((Object)s == EMPTY) ? null : s;
+                if (closed)
+                    throw new IllegalStateException("snapshot closed");
+                if ((f = tabAt(tab, i)) == null)
+                    preserve(i, null);
+                else if (f.hash != MOVED) { // forwarded bins are saved
+                    synchronized (f) {
+                        if (tabAt(tab, i) == f)
+                            preserve(i, f);
+                    }
+                }
+            }
+        }
+
+        /**
+         * Closes this snapshot, releasing the map from the need to
+         * preserve mappings for it.  Closing an already closed
+         * snapshot has no effect.
+         */
+        public void close() {
+            if (!closed) {
+                closed = true;
+                if (map != null)
+                    map.removeSnapshot(this);
+            }
+        }
+
+        /**
+         * Returns the value to which the specified key was mapped in
+         * this snapshot, or {@code null} if there was no mapping.
+         *
+         * @throws NullPointerException if the specified key is null
+         * @throws IllegalStateException if this snapshot is closed
+         *         and the value has not already been copied
+         */
+        public V get(Object key) {
+            if (key == null)
+                throw new NullPointerException();
+            int n = binCount();
+            if (n > 0) {
+                int h = HashSeed.hash(seed, key);
+                for (Node<K,V> e = bin((n - 1) & h); e != null; e = e.next) {
+                    K ek;
+                    if (e.hash == h &&
+                        ((ek = e.key) == key || (ek != null && key.equals(ek))))
+                        return e.val;
+                }
+            }
+            return null;
+        }
+
+        /**
+         * Tests if the specified object was a key in this snapshot.
+         *
+         * @throws NullPointerException if the specified key is null
+         * @throws IllegalStateException if this snapshot is closed
+         *         and the key's bin has not already been copied
+         */
+        public boolean containsKey(Object key) {
+            return get(key) != null;
+        }
+
+        /**
+         * Returns the number of mappings in this snapshot.  This
+         * method copies all mappings not already copied from the map,
+         * after which the snapshot no longer requires updates to the
+         * map to preserve mappings for it.
+         *
+         * @return the number of mappings
+         * @throws IllegalStateException if this snapshot is closed
+         *         and some mappings have not already been copied
+         */
+        public long mappingCount() {
+            long c;
+            if ((c = count) < 0L) {
+                c = 0L;
+                for (int i = 0, n = binCount(); i < n; ++i) {
+                    for (Node<K,V> e = bin(i); e != null; e = e.next)
+                        ++c;
+                }
+                count = c;
+            }
+            return c;
+        }
+
+        public int size() {
+            long n = mappingCount();
+            return (n > (long)Integer.MAX_VALUE) ? Integer.MAX_VALUE : (int)n;
+        }
+
+        public boolean isEmpty() {
+            for (int i = 0, n = binCount(); i < n; ++i) {
+                if (bin(i) != null)
+                    return false;
+            }
+            return true;
+        }
+
+        /**
+         * Returns a {@link Set} view of the mappings in this snapshot.
+         * The set and its entries do not support modification.
+         *
+         * @return the set view
+         */
+        public Set<Map.Entry<K,V>> entrySet() {
+            SnapshotEntrySet<K,V> es;
+            return ((es = entrySet) != null) ? es :
+                (entrySet = new SnapshotEntrySet<K,V>(this));
+        }
+
+        public void forEach(BiConsumer<? super K, ? super V> action) {
+            if (action == null) throw new NullPointerException();
+            for (int i = 0, n = binCount(); i < n; ++i) {
+                for (Node<K,V> e = bin(i); e != null; e = e.next)
+                    action.accept(e.key, e.val);
+            }
+        }
+
+        private Object writeReplace() {
+            return new SerializedSnapshot<K,V>(this);
+        }
+    }
+
+    /**
+     * Entry set of a SnapshotView.  The copied Nodes serve as
+     * entries; their setValue methods throw
+     * UnsupportedOperationException.
+     */
+    static final class SnapshotEntrySet<K,V>
+        extends java.util.AbstractSet<Map.Entry<K,V>> {
+        final SnapshotView<K,V> snapshot;
+        SnapshotEntrySet(SnapshotView<K,V> snapshot) {
+            this.snapshot = snapshot;
+        }
+
+        public int size() { return snapshot.size(); }
+        public boolean isEmpty() { return snapshot.isEmpty(); }
+
+        public boolean contains(Object o) {
+            Object k, v, r; Map.Entry<?,?> e;
+            return ((o instanceof Map.Entry) &&
+                    (k = (e = (Map.Entry<?,?>)o).getKey()) != null &&
+                    (r = snapshot.get(k)) != null &&
+                    (v = e.getValue()) != null &&
+                    (v == r || v.equals(r)));
+        }
+
+        public Iterator<Map.Entry<K,V>> iterator() {
+            return new SnapshotIterator<K,V>(snapshot);
+        }
+
+        public Spliterator<Map.Entry<K,V>> spliterator() {
+            return new SnapshotSpliterator<K,V>
+                (snapshot, 0, snapshot.binCount(), snapshot.sizeEstimate);
+        }
+
+        public void forEach(Consumer<? super Map.Entry<K,V>> action) {
+            if (action == null) throw new NullPointerException();
+            SnapshotView<K,V> s = snapshot;
+            for (int i = 0, n = s.binCount(); i < n; ++i) {
+                for (Node<K,V> e = s.bin(i); e != null; e = e.next)
+                    action.accept(e);
+            }
+        }
+    }
+
+    static final class SnapshotIterator<K,V> implements Iterator<Map.Entry<K,V>> {
+        final SnapshotView<K,V> snapshot;
+        final int fence;
+        int index;
+        Node<K,V> next;
+        SnapshotIterator(SnapshotView<K,V> snapshot) {
+            this.snapshot = snapshot;
+            this.fence = snapshot.binCount();
+            advance();
+        }
+
+        private void advance() {
+            while (next == null && index < fence)
+                next = snapshot.bin(index++);
+        }
+
+        public boolean hasNext() { return next != null; }
+
+        public Map.Entry<K,V> next() {
+            Node<K,V> e;
+            if ((e = next) == null)
+                throw new NoSuchElementException();
+            if ((next = e.next) == null)
+                advance();
+            return e;
+        }
+    }
+
+    static final class SnapshotSpliterator<K,V>
+        implements Spliterator<Map.Entry<K,V>> {
+        final SnapshotView<K,V> snapshot;
+        int index;                  // next bin to traverse
+        final int fence;            // one past last bin
+        long est;                   // size estimate
+        Node<K,V> next;             // rest of current bin
+        SnapshotSpliterator(SnapshotView<K,V> snapshot, int index, int fence,
+                            long est) {
+            this.snapshot = snapshot;
+            this.index = index;
+            this.fence = fence;
+            this.est = est;
+        }
+
+        public SnapshotSpliterator<K,V> trySplit() {
+            int i, f, h;
+            return (h = ((i = index) + (f = fence)) >>> 1) <= i ? null :
+                new SnapshotSpliterator<K,V>(snapshot, i, index = h,
+                                             est >>>= 1);
+        }
+
+        public boolean tryAdvance(Consumer<? super Map.Entry<K,V>> action) {
+            if (action == null) throw new NullPointerException();
+            Node<K,V> e;
+            while ((e = next) == null) {
+                if (index >= fence)
+                    return false;
+                next = snapshot.bin(index++);
+            }
+            next = e.next;
+            action.accept(e);
+            return true;
+        }
+
+        public void forEachRemaining(Consumer<? super Map.Entry<K,V>> action) {
+            if (action == null) throw new NullPointerException();
+            Node<K,V> e = next;
+            next = null;
+            for (;;) {
+                for (; e != null; e = e.next)
+                    action.accept(e);
+                if (index >= fence)
+                    break;
+                e = snapshot.bin(index++);
+            }
+        }
+
+        public long estimateSize() { return est; }
+
+        public int characteristics() {
+            return Spliterator.DISTINCT | Spliterator.NONNULL |
+                Spliterator.IMMUTABLE;
+        }
+    }
+
+    /**
+     * Serialization proxy for SnapshotView, deserializing as a
+     * ConcurrentHashMap holding the snapshot's mappings.
+     */
+    static final class SerializedSnapshot<K,V> implements java.io.Serializable {
+        private static final long serialVersionUID = -2946153209483744712L;
+        transient SnapshotView<K,V> snapshot;
+        transient ConcurrentHashMap<K,V> map;
+        SerializedSnapshot(SnapshotView<K,V> snapshot) {
+            this.snapshot = snapshot;
+        }
+
+        /**
+         * Saves the snapshot to a stream (that is, serializes it).
+         * @param s the stream
+         * @throws java.io.IOException if an I/O error occurs
+         * @serialData
+         * the key (Object) and value (Object)
+         * for each key-value mapping, followed by a null pair.
+         */
+        private void writeObject(java.io.ObjectOutputStream s)
+            throws java.io.IOException {
+            s.defaultWriteObject();
+            SnapshotView<K,V> v = snapshot;
+            for (int i = 0, n = v.binCount(); i < n; ++i) {
+                for (Node<K,V> e = v.bin(i); e != null; e = e.next) {
+                    s.writeObject(e.key);
+                    s.writeObject(e.val);
+                }
+            }
+            s.writeObject(null);
+            s.writeObject(null);
+        }
+
+        /**
+         * Reconstitutes the mappings from a stream (that is,
+         * deserializes them).
+         * @param s the stream
+         * @throws ClassNotFoundException if the class of a serialized
+         *         object could not be found
+         * @throws java.io.IOException if an I/O error occurs
+         */
+        private void readObject(java.io.ObjectInputStream s)
+            throws java.io.IOException, ClassNotFoundException {
+            s.defaultReadObject();
+            ConcurrentHashMap<K,V> m = new ConcurrentHashMap<K,V>();
+            for (;;) {
+                @SuppressWarnings("unchecked") K k = (K) s.readObject();
+                @SuppressWarnings("unchecked") V v = (V) s.readObject();
+                if (k == null || v == null)
+                    break;
+                m.put(k, v);
+            }
+            map = m;
+        }
+
+        private Object readResolve() {
+            return map;
+        }
+    }
+
     // -------------------------------------------------------
 
     /**
@@ -4880,6 +6615,8 @@ public class ConcurrentHashMap<K,V> extends AbstractMap<K,V>
                     }
                     else if (e instanceof TreeBin)
                         e = ((TreeBin<K,V>)e).first;
+                    else if (e instanceof RehashNode)
+                        e = ((RehashNode<K,V>)e).first();
                     else
                         e = null;
                 }
@@ -6302,10 +8039,91 @@ public class ConcurrentHashMap<K,V> extends AbstractMap<K,V>
         }
     }
 
+    @SuppressWarnings("serial")
+    static final class BatchGetTask<K,V> extends CountedCompleter<Integer> {
+        final Node<K,V>[] tab;
+        final Object[] keys;
+        final V[] values;
+        final int[] hashes;
+        final long[] order;
+        final int lo;
+        int hi, batch;
+        int result;
+        BatchGetTask<K,V> rights, nextRight;
+        BatchGetTask(BatchGetTask<K,V> p, int b, int lo, int hi,
+                     Node<K,V>[] tab, Object[] keys, V[] values,
+                     int[] hashes, long[] order, BatchGetTask<K,V> nextRight) {
+            super(p);
+            this.batch = b; this.lo = lo; this.hi = hi; this.tab = tab;
+            this.keys = keys; this.values = values;
+            this.hashes = hashes; this.order = order;
+            this.nextRight = nextRight;
+        }
+        public final Integer getRawResult() { return result; }
+        public final void compute() {
+            for (int l = lo, f, h; batch > 0 &&
+                     (h = batchSplit(order, l, f = hi)) > l;) {
+                addToPendingCount(1);
+                (rights = new BatchGetTask<K,V>
+                 (this, batch >>>= 1, hi = h, f, tab, keys, values,
+                  hashes, order, rights)).fork();
+            }
+            result = getRange(tab, keys, values, hashes, order, lo, hi);
+            CountedCompleter<?> c;
+            for (c = firstComplete(); c != null; c = c.nextComplete()) {
+                @SuppressWarnings("unchecked")
+                BatchGetTask<K,V> t = (BatchGetTask<K,V>)c, s = t.rights;
+                while (s != null) {
+                    t.result += s.result;
+                    s = t.rights = s.nextRight;
+                }
+            }
+        }
+    }
+
+    @SuppressWarnings("serial")
+    static final class BatchMergeTask<K,V> extends CountedCompleter<Void> {
+        final ConcurrentHashMap<K,V> map;
+        final K[] keys;
+        final V[] values;
+        final int[] hashes;
+        final long[] order;
+        final HashSeed seed;
+        final BiFunction<? super V, ? super V, ? extends V> remappingFunction;
+        final int lo;
+        int hi, batch;
+        BatchMergeTask(BatchMergeTask<K,V> p, int b, int lo, int hi,
+                       ConcurrentHashMap<K,V> map, K[] keys, V[] values,
+                       int[] hashes, long[] order, HashSeed seed,
+                       BiFunction<? super V, ? super V, ? extends V> remappingFunction) {
+            super(p);
+            this.batch = b; this.lo = lo; this.hi = hi; this.map = map;
+            this.keys = keys; this.values = values;
+            this.hashes = hashes; this.order = order; this.seed = seed;
+            this.remappingFunction = remappingFunction;
+        }
+        public final void compute() {
+            for (int l = lo, f, h; batch > 0 &&
+                     (h = batchSplit(order, l, f = hi)) > l;) {
+                addToPendingCount(1);
+                new BatchMergeTask<K,V>
+                    (this, batch >>>= 1, hi = h, f, map, keys, values,
+                     hashes, order, seed, remappingFunction).fork();
+            }
+            map.mergeRange(keys, values, hashes, order, lo, hi, seed,
+                           remappingFunction);
+            propagateCompletion();
+        }
+    }
+
     // Unsafe mechanics
     private static final sun.misc.Unsafe U = sun.misc.Unsafe.getUnsafe();
     private static final long SIZECTL;
     private static final long TRANSFERINDEX;
+    private static final long TRANSFERDONE;
+    private static final long SNAPSHOTS;
+    private static final long SAVEDCOUNT;
+    private static final long STATS;
     private static final long BASECOUNT;
     private static final long CELLSBUSY;
     private static final long CELLVALUE;
@@ -6318,6 +8136,12 @@ public class ConcurrentHashMap<K,V> extends AbstractMap<K,V>
                 (ConcurrentHashMap.class.getDeclaredField("sizeCtl"));
             TRANSFERINDEX = U.objectFieldOffset
                 (ConcurrentHashMap.class.getDeclaredField("transferIndex"));
+            TRANSFERDONE = U.objectFieldOffset
+                (ConcurrentHashMap.class.getDeclaredField("transferDone"));
+            SNAPSHOTS = U.objectFieldOffset
+                (ConcurrentHashMap.class.getDeclaredField("snapshots"));
+            STATS = U.objectFieldOffset
+                (ConcurrentHashMap.class.getDeclaredField("stats"));
             BASECOUNT = U.objectFieldOffset
                 (ConcurrentHashMap.class.getDeclaredField("baseCount"));
             CELLSBUSY = U.objectFieldOffset
@@ -6325,6 +8149,8 @@ public class ConcurrentHashMap<K,V> extends AbstractMap<K,V>
 
             CELLVALUE = U.objectFieldOffset
                 (CounterCell.class.getDeclaredField("value"));
+            SAVEDCOUNT = U.objectFieldOffset
+                (SnapshotView.class.getDeclaredField("savedCount"));
 
             ABASE = U.arrayBaseOffset(Node[].class);
             int scale = U.arrayIndexScale(Node[].class);
@@ -0,0 +1,1479 @@
+/*
+ * Written by Doug Lea with assistance from members of JCP JSR-166
+ * Expert Group and released to the public domain, as explained at
+ * http://creativecommons.org/publicdomain/zero/1.0/
+ */
+
+package java.util.concurrent;
+
+import java.io.Serializable;
+import java.util.AbstractSet;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.concurrent.ConcurrentHashMap.CounterCell;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * A hash set supporting full concurrency of retrievals and high
+ * expected concurrency for updates.  This class obeys the same
+ * functional specification as the sets returned by {@link
+ * ConcurrentHashMap#newKeySet()}, and the same concurrency
+ * properties as {@link ConcurrentHashMap}: retrieval operations do
+ * not entail locking, retrievals reflect the results of the most
+ * recently <em>completed</em> update operations holding upon their
+ * onset, and iterators and spliterators are weakly consistent.
+ * However, elements are held directly in table entries that have no
+ * value field, so a set of a given size occupies noticeably less
+ * memory than a {@code ConcurrentHashMap} key set.  Aggregate status
+ * methods such as {@code size} and {@code isEmpty} are typically
+ * useful only when the set is not undergoing concurrent updates.
+ *
+ * <p>Unlike {@code ConcurrentHashMap}, this class does not
+ * reorganize bins holding many elements with the same hash code
+ * into balanced trees, so performance may degrade when many
+ * elements have colliding {@code hashCode} values.  Sets of such
+ * elements should instead use {@code ConcurrentHashMap.newKeySet()}.
+ * Like {@code ConcurrentHashMap}, this class does <em>not</em> allow
+ * {@code null} to be used as an element.
+ *
+ * <p>This class supports the same style of sequential and parallel
+ * bulk operations as {@code ConcurrentHashMap}: methods {@code
+ * forEach}, {@code search} and {@code reduce} accepting a {@code
+ * parallelismThreshold} argument proceed sequentially if the current
+ * set size is estimated to be less than the given threshold, and
+ * otherwise use the {@link ForkJoinPool#commonPool()}.  Search and
+ * transformation functions should return null to indicate the lack
+ * of any result.
+ *
+ * @since 9
+ * @author Doug Lea
+ * @param <E> the type of elements held in this set
+ */
+public class ConcurrentHashSet<E> extends AbstractSet<E>
+    implements Set<E>, Serializable {
+    private static final long serialVersionUID = -5287374211466358743L;
+
+    /*
+     * Overview:
+     *
+     * This class is a copy of the internals of ConcurrentLongHashMap
+     * (itself a stripped-down ConcurrentHashMap), with Object keys
+     * and no values.  Each Node holds only a hash, an element and a
+     * next link, saving the value field (and, for a key set view,
+     * the reference to the shared Boolean value) per element.  With
+     * compressed references, this reduces Node size from 32 to 24
+     * bytes.  Elements are placed in bins using the same hash
+     * spreading as ConcurrentHashMap.
+     *
+     * Insertion, removal, resizing (via the same cooperative
+     * stride-based transfer), counting, and traversal are otherwise
+     * identical to ConcurrentLongHashMap, including the absence of
+     * TreeBins: a crowded bin triggers a resize only if the table is
+     * small.  Without values, there is no need for ReservationNodes
+     * (there is no computeIfAbsent), so the only special nodes are
+     * ForwardingNodes.
+     */
+
+    /* ---------------- Constants -------------- */
+
+    /**
+     * The largest possible table capacity.  See ConcurrentHashMap.
+     */
+    private static final int MAXIMUM_CAPACITY = 1 << 30;
+
+    /**
+     * The default initial table capacity.  Must be a power of 2.
+     */
+    private static final int DEFAULT_CAPACITY = 16;
+
+    /**
+     * The bin count threshold above which a bin is considered
+     * overpopulated, triggering a resize if the table is small.
+     */
+    static final int CROWDED_THRESHOLD = 8;
+
+    /**
+     * The table capacity below which overpopulated bins trigger
+     * resizing.  Same as ConcurrentHashMap.MIN_TREEIFY_CAPACITY.
+     */
+    static final int MIN_CROWDED_CAPACITY = 64;
+
+    /**
+     * Minimum number of rebinnings per transfer step.
+     */
+    private static final int MIN_TRANSFER_STRIDE = 16;
+
+    /**
+     * The number of bits used for generation stamp in sizeCtl.
+     * Must match ConcurrentHashMap.resizeStamp.
+     */
+    private static final int RESIZE_STAMP_BITS = 16;
+
+    /**
+     * The maximum number of threads that can help resize.
+     */
+    private static final int MAX_RESIZERS = (1 << (32 - RESIZE_STAMP_BITS)) - 1;
+
+    /**
+     * The bit shift for recording size stamp in sizeCtl.
+     */
+    private static final int RESIZE_STAMP_SHIFT = 32 - RESIZE_STAMP_BITS;
+
+    /*
+     * Encodings for Node hash fields, as in ConcurrentHashMap.
+     */
+    static final int MOVED     = -1; // hash for forwarding nodes
+    static final int HASH_BITS = 0x7fffffff; // usable bits of normal node hash
+
+    /* ---------------- Nodes -------------- */
+
+    /**
+     * Element entry.  ForwardingNodes have a negative hash field
+     * and null keys.
+     */
+    static class Node<E> {
+        final int hash;
+        final E key;
+        volatile Node<E> next;
+
+        Node(int hash, E key, Node<E> next) {
+            this.hash = hash;
+            this.key = key;
+            this.next = next;
+        }
+
+        /**
+         * Virtualized support for contains(); overridden in subclasses.
+         */
+        Node<E> find(int h, Object k) {
+            Node<E> e = this;
+            if (k != null) {
+                do {
+                    E ek;
+                    if (e.hash == h &&
+                        ((ek = e.key) == k || (ek != null && k.equals(ek))))
+                        return e;
+                } while ((e = e.next) != null);
+            }
+            return null;
+        }
+    }
+
+    /* ---------------- Static utilities -------------- */
+
+    /**
+     * Spreads higher bits of hash to lower, as in ConcurrentHashMap.
+     */
+    static final int spread(int h) {
+        return (h ^ (h >>> 16)) & HASH_BITS;
+    }
+
+    /**
+     * Returns a power of two table size for the given desired capacity.
+     */
+    private static final int tableSizeFor(int c) {
+        int n = c - 1;
+        n |= n >>> 1;
+        n |= n >>> 2;
+        n |= n >>> 4;
+        n |= n >>> 8;
+        n |= n >>> 16;
+        return (n < 0) ? 1 : (n >= MAXIMUM_CAPACITY) ? MAXIMUM_CAPACITY : n + 1;
+    }
+
+    /* ---------------- Table element access -------------- */
+
+    @SuppressWarnings("unchecked")
+    static final <E> Node<E> tabAt(Node<E>[] tab, int i) {
+        return (Node<E>)U.getObjectVolatile(tab, ((long)i << ASHIFT) + ABASE);
+    }
+
+    static final <E> boolean casTabAt(Node<E>[] tab, int i,
+                                      Node<E> c, Node<E> v) {
+        return U.compareAndSwapObject(tab, ((long)i << ASHIFT) + ABASE, c, v);
+    }
+
+    static final <E> void setTabAt(Node<E>[] tab, int i, Node<E> v) {
+        U.putObjectVolatile(tab, ((long)i << ASHIFT) + ABASE, v);
+    }
+
+    /* ---------------- Fields -------------- */
+
+    /**
+     * The array of bins. Lazily initialized upon first insertion.
+     * Size is always a power of two.
+     */
+    transient volatile Node<E>[] table;
+
+    /**
+     * The next table to use; non-null only while resizing.
+     */
+    private transient volatile Node<E>[] nextTable;
+
+    /**
+     * Base counter value, used mainly when there is no contention.
+     */
+    private transient volatile long baseCount;
+
+    /**
+     * Table initialization and resizing control.  Same encoding as
+     * in ConcurrentHashMap.
+     */
+    private transient volatile int sizeCtl;
+
+    /**
+     * The next table index (plus one) to split while resizing.
+     */
+    private transient volatile int transferIndex;
+
+    /**
+     * Spinlock (locked via CAS) used when resizing and/or creating CounterCells.
+     */
+    private transient volatile int cellsBusy;
+
+    /**
+     * Table of counter cells. When non-null, size is a power of 2.
+     */
+    private transient volatile CounterCell[] counterCells;
+
+    /* ---------------- Public operations -------------- */
+
+    /**
+     * Creates a new, empty set with the default initial table size (16).
+     */
+    public ConcurrentHashSet() {
+    }
+
+    /**
+     * Creates a new, empty set with an initial table size
+     * accommodating the specified number of elements without the need
+     * to dynamically resize.
+     *
+     * @param initialCapacity The implementation performs internal
+     * sizing to accommodate this many elements.
+     * @throws IllegalArgumentException if the initial capacity of
+     * elements is negative
+     */
+    public ConcurrentHashSet(int initialCapacity) {
+        if (initialCapacity < 0)
+            throw new IllegalArgumentException();
+        int cap = ((initialCapacity >= (MAXIMUM_CAPACITY >>> 1)) ?
+                   MAXIMUM_CAPACITY :
+                   tableSizeFor(initialCapacity + (initialCapacity >>> 1) + 1));
+        this.sizeCtl = cap;
+    }
+
+    /**
+     * Creates a new set containing the elements of the given collection.
+     *
+     * @param c the collection whose elements are to be placed into this set
+     * @throws NullPointerException if the specified collection or
+     *         any of its elements are null
+     */
+    public ConcurrentHashSet(Collection<? extends E> c) {
+        this(c.size());
+        for (E e : c)
+            add(e);
+    }
+
+    /**
+     * Returns the number of elements in this set.  If the set
+     * contains more than {@code Integer.MAX_VALUE} elements, returns
+     * {@code Integer.MAX_VALUE}.
+     *
+     * @return the number of elements in this set
+     */
+    public int size() {
+        long n = sumCount();
+        return ((n < 0L) ? 0 :
+                (n > (long)Integer.MAX_VALUE) ? Integer.MAX_VALUE :
+                (int)n);
+    }
+
+    /**
+     * Returns the number of elements. This method should be used
+     * instead of {@link #size} because a set may contain more
+     * elements than can be represented as an int. The value returned
+     * is an estimate; the actual count may differ if there are
+     * concurrent insertions or removals.
+     *
+     * @return the number of elements
+     */
+    public long mappingCount() {
+        long n = sumCount();
+        return (n < 0L) ? 0L : n; // ignore transient negative values
+    }
+
+    /**
+     * Returns {@code true} if this set contains no elements.
+     *
+     * @return {@code true} if this set contains no elements
+     */
+    public boolean isEmpty() {
+        return sumCount() <= 0L; // ignore transient negative values
+    }
+
+    /**
+     * Returns {@code true} if this set contains the specified element.
+     *
+     * @param o element whose presence in this set is to be tested
+     * @return {@code true} if this set contains the specified element
+     * @throws NullPointerException if the specified element is null
+     */
+    public boolean contains(Object o) {
+        Node<E>[] tab; Node<E> e, p; int n, eh; E ek;
+        int h = spread(o.hashCode());
+        if ((tab = table) != null && (n = tab.length) > 0 &&
+            (e = tabAt(tab, (n - 1) & h)) != null) {
+            if ((eh = e.hash) == h) {
+                if ((ek = e.key) == o || (ek != null && o.equals(ek)))
+                    return true;
+            }
+            else if (eh < 0)
+                return e.find(h, o) != null;
+            while ((e = e.next) != null) {
+                if (e.hash == h &&
+                    ((ek = e.key) == o || (ek != null && o.equals(ek))))
+                    return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Adds the specified element to this set if it is not already
+     * present.
+     *
+     * @param e element to be added to this set
+     * @return {@code true} if this set did not already contain the
+     *         specified element
+     * @throws NullPointerException if the specified element is null
+     */
+    public boolean add(E e) {
+        if (e == null) throw new NullPointerException();
+        int hash = spread(e.hashCode());
+        int binCount = 0;
+        for (Node<E>[] tab = table;;) {
+            Node<E> f; int n, i;
+            if (tab == null || (n = tab.length) == 0)
+                tab = initTable();
+            else if ((f = tabAt(tab, i = (n - 1) & hash)) == null) {
+                if (casTabAt(tab, i, null, new Node<E>(hash, e, null)))
+                    break;                   // no lock when adding to empty bin
+            }
+            else if (f.hash == MOVED)
+                tab = helpTransfer(tab, f);
+            else {
+                boolean present = false;
+                synchronized (f) {
+                    if (tabAt(tab, i) == f) {
+                        binCount = 1;
+                        for (Node<E> p = f;; ++binCount) {
+                            E pk;
+                            if (p.hash == hash &&
+                                ((pk = p.key) == e || e.equals(pk))) {
+                                present = true;
+                                break;
+                            }
+                            Node<E> pred = p;
+                            if ((p = p.next) == null) {
+                                pred.next = new Node<E>(hash, e, null);
+                                break;
+                            }
+                        }
+                    }
+                }
+                if (binCount != 0) {
+                    if (binCount >= CROWDED_THRESHOLD)
+                        relieveCrowding(tab);
+                    if (present)
+                        return false;
+                    break;
+                }
+            }
+        }
+        addCount(1L, binCount);
+        return true;
+    }
+
+    /**
+     * Removes the specified element from this set if it is present.
+     *
+     * @param o object to be removed from this set, if present
+     * @return {@code true} if this set contained the specified element
+     * @throws NullPointerException if the specified element is null
+     */
+    public boolean remove(Object o) {
+        int hash = spread(o.hashCode());
+        for (Node<E>[] tab = table;;) {
+            Node<E> f; int n, i;
+            if (tab == null || (n = tab.length) == 0 ||
+                (f = tabAt(tab, i = (n - 1) & hash)) == null)
+                break;
+            else if (f.hash == MOVED)
+                tab = helpTransfer(tab, f);
+            else {
+                boolean validated = false, removed = false;
+                synchronized (f) {
+                    if (tabAt(tab, i) == f) {
+                        validated = true;
+                        for (Node<E> e = f, pred = null;;) {
+                            E ek;
+                            if (e.hash == hash &&
+                                ((ek = e.key) == o || o.equals(ek))) {
+                                removed = true;
+                                if (pred != null)
+                                    pred.next = e.next;
+                                else
+                                    setTabAt(tab, i, e.next);
+                                break;
+                            }
+                            pred = e;
+                            if ((e = e.next) == null)
+                                break;
+                        }
+                    }
+                }
+                if (validated) {
+                    if (removed)
+                        addCount(-1L, -1);
+                    return removed;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Removes all of the elements from this set.
+     */
+    public void clear() {
+        long delta = 0L; // negative number of deletions
+        int i = 0;
+        Node<E>[] tab = table;
+        while (tab != null && i < tab.length) {
+            Node<E> f = tabAt(tab, i);
+            if (f == null)
+                ++i;
+            else if (f.hash == MOVED) {
+                tab = helpTransfer(tab, f);
+                i = 0; // restart
+            }
+            else {
+                synchronized (f) {
+                    if (tabAt(tab, i) == f) {
+                        for (Node<E> p = f; p != null; p = p.next)
+                            --delta;
+                        setTabAt(tab, i++, null);
+                    }
+                }
+            }
+        }
+        if (delta != 0L)
+            addCount(delta, -1);
+    }
+
+    /**
+     * Returns an iterator over the elements in this set.
+     *
+     * <p>The returned iterator is
+     * <a href="package-summary.html#Weakly"><i>weakly consistent</i></a>.
+     *
+     * @return an iterator over the elements in this set
+     */
+    public Iterator<E> iterator() {
+        Node<E>[] t;
+        int f = (t = table) == null ? 0 : t.length;
+        return new ElementIterator<E>(t, f, 0, f, this);
+    }
+
+    /**
+     * Returns a {@link Spliterator} over the elements in this set.
+     *
+     * <p>The returned spliterator is
+     * <a href="package-summary.html#Weakly"><i>weakly consistent</i></a>.
+     *
+     * <p>The {@code Spliterator} reports {@link Spliterator#CONCURRENT},
+     * {@link Spliterator#DISTINCT}, and {@link Spliterator#NONNULL}.
+     *
+     * @return a {@code Spliterator} over the elements in this set
+     */
+    public Spliterator<E> spliterator() {
+        Node<E>[] t;
+        long n = sumCount();
+        int f = (t = table) == null ? 0 : t.length;
+        return new ElementSpliterator<E>(t, f, 0, f, n < 0L ? 0L : n);
+    }
+
+    /**
+     * Performs the given action for each element.
+     *
+     * @param action the action
+     * @throws NullPointerException if the specified action is null
+     */
+    public void forEach(Consumer<? super E> action) {
+        if (action == null) throw new NullPointerException();
+        Node<E>[] t;
+        if ((t = table) != null) {
+            Traverser<E> it = new Traverser<E>(t, t.length, 0, t.length);
+            for (Node<E> p; (p = it.advance()) != null; )
+                action.accept(p.key);
+        }
+    }
+
+    /**
+     * Saves this set to a stream (that is, serializes it).
+     *
+     * @param s the stream
+     * @throws java.io.IOException if an I/O error occurs
+     * @serialData
+     * Each element (Object), followed by a null.  The elements are
+     * emitted in no particular order.
+     */
+    private void writeObject(java.io.ObjectOutputStream s)
+        throws java.io.IOException {
+        s.defaultWriteObject();
+        Node<E>[] t;
+        if ((t = table) != null) {
+            Traverser<E> it = new Traverser<E>(t, t.length, 0, t.length);
+            for (Node<E> p; (p = it.advance()) != null; )
+                s.writeObject(p.key);
+        }
+        s.writeObject(null);
+    }
+
+    /**
+     * Reconstitutes this set from a stream (that is, deserializes it).
+     *
+     * @param s the stream
+     * @throws ClassNotFoundException if the class of a serialized object
+     *         could not be found
+     * @throws java.io.IOException if an I/O error occurs
+     */
+    private void readObject(java.io.ObjectInputStream s)
+        throws java.io.IOException, ClassNotFoundException {
+        s.defaultReadObject();
+        for (;;) {
+            @SuppressWarnings("unchecked")
+            E e = (E) s.readObject();
+            if (e == null)
+                break;
+            add(e);
+        }
+    }
+
+    /* ---------------- Special Nodes -------------- */
+
+    /**
+     * A node inserted at head of bins during transfer operations.
+     */
+    static final class ForwardingNode<E> extends Node<E> {
+        final Node<E>[] nextTable;
+        ForwardingNode(Node<E>[] tab) {
+            super(MOVED, null, null);
+            this.nextTable = tab;
+        }
+
+        Node<E> find(int h, Object k) {
+            // loop to avoid arbitrarily deep recursion on forwarding nodes
+            outer: for (Node<E>[] tab = nextTable;;) {
+                Node<E> e; int n;
+                if (k == null || tab == null || (n = tab.length) == 0 ||
+                    (e = tabAt(tab, (n - 1) & h)) == null)
+                    return null;
+                for (;;) {
+                    int eh; E ek;
+                    if ((eh = e.hash) == h &&
+                        ((ek = e.key) == k || (ek != null && k.equals(ek))))
+                        return e;
+                    if (eh < 0) {
+                        tab = ((ForwardingNode<E>)e).nextTable;
+                        continue outer;
+                    }
+                    if ((e = e.next) == null)
+                        return null;
+                }
+            }
+        }
+    }
+
+    /* ---------------- Table Initialization and Resizing -------------- */
+
+    /**
+     * Initializes table, using the size recorded in sizeCtl.
+     */
+    private final Node<E>[] initTable() {
+        Node<E>[] tab; int sc;
+        while ((tab = table) == null || tab.length == 0) {
+            if ((sc = sizeCtl) < 0)
+                Thread.yield(); // lost initialization race; just spin
+            else if (U.compareAndSwapInt(this, SIZECTL, sc, -1)) {
+                try {
+                    if ((tab = table) == null || tab.length == 0) {
+                        int n = (sc > 0) ? sc : DEFAULT_CAPACITY;
+                        @SuppressWarnings("unchecked")
+                        Node<E>[] nt = (Node<E>[])new Node<?>[n];
+                        table = tab = nt;
+                        sc = n - (n >>> 2);
+                    }
+                } finally {
+                    sizeCtl = sc;
+                }
+                break;
+            }
+        }
+        return tab;
+    }
+
+    /**
+     * Adds to count, and if table is too small and not already
+     * resizing, initiates transfer. If already resizing, helps
+     * perform transfer if work is available.  Same as the
+     * ConcurrentHashMap version.
+     *
+     * @param x the count to add
+     * @param check if <0, don't check resize, if <= 1 only check if uncontended
+     */
+    private final void addCount(long x, int check) {
+        CounterCell[] as; long b, s;
+        if ((as = counterCells) != null ||
+            !U.compareAndSwapLong(this, BASECOUNT, b = baseCount, s = b + x)) {
+            CounterCell a; long v; int m;
+            boolean uncontended = true;
+            if (as == null || (m = as.length - 1) < 0 ||
+                (a = as[ThreadLocalRandom.getProbe() & m]) == null ||
+                !(uncontended =
+                  U.compareAndSwapLong(a, CELLVALUE, v = a.value, v + x))) {
+                fullAddCount(x, uncontended);
+                return;
+            }
+            if (check <= 1)
+                return;
+            s = sumCount();
+        }
+        if (check >= 0) {
+            Node<E>[] tab, nt; int n, sc;
+            while (s >= (long)(sc = sizeCtl) && (tab = table) != null &&
+                   (n = tab.length) < MAXIMUM_CAPACITY) {
+                int rs = ConcurrentHashMap.resizeStamp(n);
+                if (sc < 0) {
+                    if ((sc >>> RESIZE_STAMP_SHIFT) != rs || sc == rs + 1 ||
+                        sc == rs + MAX_RESIZERS || (nt = nextTable) == null ||
+                        transferIndex <= 0)
+                        break;
+                    if (U.compareAndSwapInt(this, SIZECTL, sc, sc + 1))
+                        transfer(tab, nt);
+                }
+                else if (U.compareAndSwapInt(this, SIZECTL, sc,
+                                             (rs << RESIZE_STAMP_SHIFT) + 2))
+                    transfer(tab, null);
+                s = sumCount();
+            }
+        }
+    }
+
+    /**
+     * Helps transfer if a resize is in progress.
+     */
+    final Node<E>[] helpTransfer(Node<E>[] tab, Node<E> f) {
+        Node<E>[] nextTab; int sc;
+        if (tab != null && (f instanceof ForwardingNode) &&
+            (nextTab = ((ForwardingNode<E>)f).nextTable) != null) {
+            int rs = ConcurrentHashMap.resizeStamp(tab.length);
+            while (nextTab == nextTable && table == tab &&
+                   (sc = sizeCtl) < 0) {
+                if ((sc >>> RESIZE_STAMP_SHIFT) != rs || sc == rs + 1 ||
+                    sc == rs + MAX_RESIZERS || transferIndex <= 0)
+                    break;
+                if (U.compareAndSwapInt(this, SIZECTL, sc, sc + 1)) {
+                    transfer(tab, nextTab);
+                    break;
+                }
+            }
+            return nextTab;
+        }
+        return table;
+    }
+
+    /**
+     * Initiates a resize, unless one is already in progress or the
+     * table is large, upon encountering a crowded bin.
+     */
+    private final void relieveCrowding(Node<E>[] tab) {
+        int n, sc;
+        if (tab != null && (n = tab.length) < MIN_CROWDED_CAPACITY &&
+            tab == table && (sc = sizeCtl) >= 0) {
+            int rs = ConcurrentHashMap.resizeStamp(n);
+            if (U.compareAndSwapInt(this, SIZECTL, sc,
+                                    (rs << RESIZE_STAMP_SHIFT) + 2))
+                transfer(tab, null);
+        }
+    }
+
+    /**
+     * Moves and/or copies the nodes in each bin to new table. Same
+     * as the ConcurrentLongHashMap version.
+     */
+    private final void transfer(Node<E>[] tab, Node<E>[] nextTab) {
+        int n = tab.length, stride;
+        if ((stride = (ConcurrentHashMap.NCPU > 1) ?
+             (n >>> 3) / ConcurrentHashMap.NCPU : n) < MIN_TRANSFER_STRIDE)
+            stride = MIN_TRANSFER_STRIDE; // subdivide range
+        if (nextTab == null) {            // initiating
+            try {
+                @SuppressWarnings("unchecked")
+                Node<E>[] nt = (Node<E>[])new Node<?>[n << 1];
+                nextTab = nt;
+            } catch (Throwable ex) {      // try to cope with OOME
+                sizeCtl = Integer.MAX_VALUE;
+                return;
+            }
+            nextTable = nextTab;
+            transferIndex = n;
+        }
+        int nextn = nextTab.length;
+        ForwardingNode<E> fwd = new ForwardingNode<E>(nextTab);
+        boolean advance = true;
+        boolean finishing = false; // to ensure sweep before committing nextTab
+        for (int i = 0, bound = 0;;) {
+            Node<E> f; int fh;
+            while (advance) {
+                int nextIndex, nextBound;
+                if (--i >= bound || finishing)
+                    advance = false;
+                else if ((nextIndex = transferIndex) <= 0) {
+                    i = -1;
+                    advance = false;
+                }
+                else if (U.compareAndSwapInt
+                         (this, TRANSFERINDEX, nextIndex,
+                          nextBound = (nextIndex > stride ?
+                                       nextIndex - stride : 0))) {
+                    bound = nextBound;
+                    i = nextIndex - 1;
+                    advance = false;
+                }
+            }
+            if (i < 0 || i >= n || i + n >= nextn) {
+                int sc;
+                if (finishing) {
+                    nextTable = null;
+                    table = nextTab;
+                    sizeCtl = (n << 1) - (n >>> 1);
+                    return;
+                }
+                if (U.compareAndSwapInt(this, SIZECTL, sc = sizeCtl, sc - 1)) {
+                    if ((sc - 2) != ConcurrentHashMap.resizeStamp(n) << RESIZE_STAMP_SHIFT)
+                        return;
+                    finishing = advance = true;
+                    i = n; // recheck before commit
+                }
+            }
+            else if ((f = tabAt(tab, i)) == null)
+                advance = casTabAt(tab, i, null, fwd);
+            else if ((fh = f.hash) == MOVED)
+                advance = true; // already processed
+            else {
+                synchronized (f) {
+                    if (tabAt(tab, i) == f) {
+                        Node<E> ln, hn;
+                        int runBit = fh & n;
+                        Node<E> lastRun = f;
+                        for (Node<E> p = f.next; p != null; p = p.next) {
+                            int b = p.hash & n;
+                            if (b != runBit) {
+                                runBit = b;
+                                lastRun = p;
+                            }
+                        }
+                        if (runBit == 0) {
+                            ln = lastRun;
+                            hn = null;
+                        }
+                        else {
+                            hn = lastRun;
+                            ln = null;
+                        }
+                        for (Node<E> p = f; p != lastRun; p = p.next) {
+                            int ph = p.hash; E pk = p.key;
+                            if ((ph & n) == 0)
+                                ln = new Node<E>(ph, pk, ln);
+                            else
+                                hn = new Node<E>(ph, pk, hn);
+                        }
+                        setTabAt(nextTab, i, ln);
+                        setTabAt(nextTab, i + n, hn);
+                        setTabAt(tab, i, fwd);
+                        advance = true;
+                    }
+                }
+            }
+        }
+    }
+
+    /* ---------------- Counter support -------------- */
+
+    final long sumCount() {
+        CounterCell[] as = counterCells; CounterCell a;
+        long sum = baseCount;
+        if (as != null) {
+            for (int i = 0; i < as.length; ++i) {
+                if ((a = as[i]) != null)
+                    sum += a.value;
+            }
+        }
+        return sum;
+    }
+
+    // See LongAdder version for explanation
+    private final void fullAddCount(long x, boolean wasUncontended) {
+        int h;
+        if ((h = ThreadLocalRandom.getProbe()) == 0) {
+            ThreadLocalRandom.localInit();      // force initialization
+            h = ThreadLocalRandom.getProbe();
+            wasUncontended = true;
+        }
+        boolean collide = false;                // True if last slot nonempty
+        for (;;) {
+            CounterCell[] as; CounterCell a; int n; long v;
+            if ((as = counterCells) != null && (n = as.length) > 0) {
+                if ((a = as[(n - 1) & h]) == null) {
+                    if (cellsBusy == 0) {            // Try to attach new Cell
+                        CounterCell r = new CounterCell(x); // Optimistic create
+                        if (cellsBusy == 0 &&
+                            U.compareAndSwapInt(this, CELLSBUSY, 0, 1)) {
+                            boolean created = false;
+                            try {               // Recheck under lock
+                                CounterCell[] rs; int m, j;
+                                if ((rs = counterCells) != null &&
+                                    (m = rs.length) > 0 &&
+                                    rs[j = (m - 1) & h] == null) {
+                                    rs[j] = r;
+                                    created = true;
+                                }
+                            } finally {
+                                cellsBusy = 0;
+                            }
+                            if (created)
+                                break;
+                            continue;           // Slot is now non-empty
+                        }
+                    }
+                    collide = false;
+                }
+                else if (!wasUncontended)       // CAS already known to fail
+                    wasUncontended = true;      // Continue after rehash
+                else if (U.compareAndSwapLong(a, CELLVALUE, v = a.value, v + x))
+                    break;
+                else if (counterCells != as || n >= ConcurrentHashMap.NCPU)
+                    collide = false;            // At max size or stale
+                else if (!collide)
+                    collide = true;
+                else if (cellsBusy == 0 &&
+                         U.compareAndSwapInt(this, CELLSBUSY, 0, 1)) {
+                    try {
+                        if (counterCells == as) {// Expand table unless stale
+                            CounterCell[] rs = new CounterCell[n << 1];
+                            for (int i = 0; i < n; ++i)
+                                rs[i] = as[i];
+                            counterCells = rs;
+                        }
+                    } finally {
+                        cellsBusy = 0;
+                    }
+                    collide = false;
+                    continue;                   // Retry with expanded table
+                }
+                h = ThreadLocalRandom.advanceProbe(h);
+            }
+            else if (cellsBusy == 0 && counterCells == as &&
+                     U.compareAndSwapInt(this, CELLSBUSY, 0, 1)) {
+                boolean init = false;
+                try {                           // Initialize table
+                    if (counterCells == as) {
+                        CounterCell[] rs = new CounterCell[2];
+                        rs[h & 1] = new CounterCell(x);
+                        counterCells = rs;
+                        init = true;
+                    }
+                } finally {
+                    cellsBusy = 0;
+                }
+                if (init)
+                    break;
+            }
+            else if (U.compareAndSwapLong(this, BASECOUNT, v = baseCount, v + x))
+                break;                          // Fall back on using base
+        }
+    }
+
+    /* ----------------Table Traversal -------------- */
+
+    /**
+     * Records the table, its length, and current traversal index for a
+     * traverser that must process a region of a forwarded table before
+     * proceeding with current table.
+     */
+    static final class TableStack<E> {
+        int length;
+        int index;
+        Node<E>[] tab;
+        TableStack<E> next;
+    }
+
+    /**
+     * Encapsulates traversal for methods such as forEach.  See
+     * ConcurrentHashMap.Traverser for explanation.
+     */
+    static class Traverser<E> {
+        Node<E>[] tab;          // current table; updated if resized
+        Node<E> next;           // the next entry to use
+        TableStack<E> stack, spare; // to save/restore on ForwardingNodes
+        int index;              // index of bin to use next
+        int baseIndex;          // current index of initial table
+        int baseLimit;          // index bound for initial table
+        final int baseSize;     // initial table size
+
+        Traverser(Node<E>[] tab, int size, int index, int limit) {
+            this.tab = tab;
+            this.baseSize = size;
+            this.baseIndex = this.index = index;
+            this.baseLimit = limit;
+            this.next = null;
+        }
+
+        /**
+         * Advances if possible, returning next valid node, or null if none.
+         */
+        final Node<E> advance() {
+            Node<E> e;
+            if ((e = next) != null)
+                e = e.next;
+            for (;;) {
+                Node<E>[] t; int i, n;  // must use locals in checks
+                if (e != null)
+                    return next = e;
+                if (baseIndex >= baseLimit || (t = tab) == null ||
+                    (n = t.length) <= (i = index) || i < 0)
+                    return next = null;
+                if ((e = tabAt(t, i)) != null && e.hash < 0) {
+                    tab = ((ForwardingNode<E>)e).nextTable;
+                    e = null;
+                    pushState(t, i, n);
+                    continue;
+                }
+                if (stack != null)
+                    recoverState(n);
+                else if ((index = i + baseSize) >= n)
+                    index = ++baseIndex; // visit upper slots if present
+            }
+        }
+
+        /**
+         * Saves traversal state upon encountering a forwarding node.
+         */
+        private void pushState(Node<E>[] t, int i, int n) {
+            TableStack<E> s = spare;  // reuse if possible
+            if (s != null)
+                spare = s.next;
+            else
+                s = new TableStack<E>();
+            s.tab = t;
+            s.length = n;
+            s.index = i;
+            s.next = stack;
+            stack = s;
+        }
+
+        /**
+         * Possibly pops traversal state.
+         *
+         * @param n length of current table
+         */
+        private void recoverState(int n) {
+            TableStack<E> s; int len;
+            while ((s = stack) != null && (index += (len = s.length)) >= n) {
+                n = len;
+                index = s.index;
+                tab = s.tab;
+                s.tab = null;
+                TableStack<E> next = s.next;
+                s.next = spare; // save for reuse
+                stack = next;
+                spare = s;
+            }
+            if (s == null && (index += baseSize) >= n)
+                index = ++baseIndex;
+        }
+    }
+
+    static final class ElementIterator<E> extends Traverser<E>
+        implements Iterator<E> {
+        final ConcurrentHashSet<E> set;
+        Node<E> lastReturned;
+        ElementIterator(Node<E>[] tab, int size, int index, int limit,
+                        ConcurrentHashSet<E> set) {
+            super(tab, size, index, limit);
+            this.set = set;
+            advance();
+        }
+
+        public final boolean hasNext() { return next != null; }
+
+        public final E next() {
+            Node<E> p;
+            if ((p = next) == null)
+                throw new NoSuchElementException();
+            E k = p.key;
+            lastReturned = p;
+            advance();
+            return k;
+        }
+
+        public final void remove() {
+            Node<E> p;
+            if ((p = lastReturned) == null)
+                throw new IllegalStateException();
+            lastReturned = null;
+            set.remove(p.key);
+        }
+    }
+
+    static final class ElementSpliterator<E> extends Traverser<E>
+        implements Spliterator<E> {
+        long est;               // size estimate
+        ElementSpliterator(Node<E>[] tab, int size, int index, int limit,
+                           long est) {
+            super(tab, size, index, limit);
+            this.est = est;
+        }
+
+        public Spliterator<E> trySplit() {
+            int i, f, h;
+            return (h = ((i = baseIndex) + (f = baseLimit)) >>> 1) <= i ? null :
+                new ElementSpliterator<E>(tab, baseSize, baseLimit = h,
+                                          f, est >>>= 1);
+        }
+
+        public void forEachRemaining(Consumer<? super E> action) {
+            if (action == null) throw new NullPointerException();
+            for (Node<E> p; (p = advance()) != null;)
+                action.accept(p.key);
+        }
+
+        public boolean tryAdvance(Consumer<? super E> action) {
+            if (action == null) throw new NullPointerException();
+            Node<E> p;
+            if ((p = advance()) == null)
+                return false;
+            action.accept(p.key);
+            return true;
+        }
+
+        public long estimateSize() { return est; }
+
+        public int characteristics() {
+            return Spliterator.DISTINCT | Spliterator.CONCURRENT |
+                Spliterator.NONNULL;
+        }
+    }
+
+    // Parallel bulk operations
+
+    /**
+     * Computes initial batch value for bulk tasks. See
+     * ConcurrentHashMap.batchFor.
+     */
+    final int batchFor(long b) {
+        long n;
+        if (b == Long.MAX_VALUE || (n = sumCount()) <= 1L || n < b)
+            return 0;
+        int sp = ForkJoinPool.getCommonPoolParallelism() << 2; // slack of 4
+        return (b <= 0L || (n /= b) >= sp) ? sp : (int)n;
+    }
+
+    /**
+     * Performs the given action for each element.
+     *
+     * @param parallelismThreshold the (estimated) number of elements
+     * needed for this operation to be executed in parallel
+     * @param action the action
+     */
+    public void forEach(long parallelismThreshold,
+                        Consumer<? super E> action) {
+        if (action == null) throw new NullPointerException();
+        new ForEachElementTask<E>
+            (null, batchFor(parallelismThreshold), 0, 0, table,
+             action).invoke();
+    }
+
+    /**
+     * Returns a non-null result from applying the given search
+     * function on each element, or null if none.  Upon success,
+     * further element processing is suppressed and the results of
+     * any other parallel invocations of the search function are
+     * ignored.
+     *
+     * @param parallelismThreshold the (estimated) number of elements
+     * needed for this operation to be executed in parallel
+     * @param searchFunction a function returning a non-null
+     * result on success, else null
+     * @param <U> the return type of the search function
+     * @return a non-null result from applying the given search
+     * function on each element, or null if none
+     */
+    public <U> U search(long parallelismThreshold,
+                        Function<? super E, ? extends U> searchFunction) {
+        if (searchFunction == null) throw new NullPointerException();
+        return new SearchElementsTask<E,U>
+            (null, batchFor(parallelismThreshold), 0, 0, table,
+             searchFunction, new AtomicReference<U>()).invoke();
+    }
+
+    /**
+     * Returns the result of accumulating the given transformation
+     * of all elements using the given reducer to combine values,
+     * or null if none.
+     *
+     * @param parallelismThreshold the (estimated) number of elements
+     * needed for this operation to be executed in parallel
+     * @param transformer a function returning the transformation
+     * for an element, or null if there is no transformation (in
+     * which case it is not combined)
+     * @param reducer a commutative associative combining function
+     * @param <U> the return type of the transformer
+     * @return the result of accumulating the given transformation
+     * of all elements
+     */
+    public <U> U reduce(long parallelismThreshold,
+                        Function<? super E, ? extends U> transformer,
+                        BiFunction<? super U, ? super U, ? extends U> reducer) {
+        if (transformer == null || reducer == null)
+            throw new NullPointerException();
+        return new MapReduceElementsTask<E,U>
+            (null, batchFor(parallelismThreshold), 0, 0, table,
+             null, transformer, reducer).invoke();
+    }
+
+    /**
+     * Returns the result of accumulating all elements using the
+     * given reducer to combine values, or null if none.
+     *
+     * @param parallelismThreshold the (estimated) number of elements
+     * needed for this operation to be executed in parallel
+     * @param reducer a commutative associative combining function
+     * @return the result of accumulating all elements using the given
+     * reducer to combine them, or null if none
+     */
+    public E reduce(long parallelismThreshold,
+                    BiFunction<? super E, ? super E, ? extends E> reducer) {
+        if (reducer == null) throw new NullPointerException();
+        return new ReduceElementsTask<E>
+            (null, batchFor(parallelismThreshold), 0, 0, table,
+             null, reducer).invoke();
+    }
+
+    /* ----------------Bulk tasks -------------- */
+
+    /**
+     * Base class for bulk tasks. Repeats some fields and code from
+     * class Traverser, because we need to subclass CountedCompleter.
+     */
+    @SuppressWarnings("serial")
+    abstract static class BulkTask<E,R> extends CountedCompleter<R> {
+        Node<E>[] tab;          // same as Traverser
+        Node<E> next;
+        TableStack<E> stack, spare;
+        int index;
+        int baseIndex;
+        int baseLimit;
+        final int baseSize;
+        int batch;              // split control
+
+        BulkTask(BulkTask<E,?> par, int b, int i, int f, Node<E>[] t) {
+            super(par);
+            this.batch = b;
+            this.index = this.baseIndex = i;
+            if ((this.tab = t) == null)
+                this.baseSize = this.baseLimit = 0;
+            else if (par == null)
+                this.baseSize = this.baseLimit = t.length;
+            else {
+                this.baseLimit = f;
+                this.baseSize = par.baseSize;
+            }
+        }
+
+        /**
+         * Same as Traverser version
+         */
+        final Node<E> advance() {
+            Node<E> e;
+            if ((e = next) != null)
+                e = e.next;
+            for (;;) {
+                Node<E>[] t; int i, n;
+                if (e != null)
+                    return next = e;
+                if (baseIndex >= baseLimit || (t = tab) == null ||
+                    (n = t.length) <= (i = index) || i < 0)
+                    return next = null;
+                if ((e = tabAt(t, i)) != null && e.hash < 0) {
+                    tab = ((ForwardingNode<E>)e).nextTable;
+                    e = null;
+                    pushState(t, i, n);
+                    continue;
+                }
+                if (stack != null)
+                    recoverState(n);
+                else if ((index = i + baseSize) >= n)
+                    index = ++baseIndex;
+            }
+        }
+
+        private void pushState(Node<E>[] t, int i, int n) {
+            TableStack<E> s = spare;
+            if (s != null)
+                spare = s.next;
+            else
+                s = new TableStack<E>();
+            s.tab = t;
+            s.length = n;
+            s.index = i;
+            s.next = stack;
+            stack = s;
+        }
+
+        private void recoverState(int n) {
+            TableStack<E> s; int len;
+            while ((s = stack) != null && (index += (len = s.length)) >= n) {
+                n = len;
+                index = s.index;
+                tab = s.tab;
+                s.tab = null;
+                TableStack<E> next = s.next;
+                s.next = spare; // save for reuse
+                stack = next;
+                spare = s;
+            }
+            if (s == null && (index += baseSize) >= n)
+                index = ++baseIndex;
+        }
+    }
+
+    /*
+     * Task classes, in the same format as ConcurrentHashMap's.
+     */
+    @SuppressWarnings("serial")
+    static final class ForEachElementTask<E>
+        extends BulkTask<E,Void> {
+        final Consumer<? super E> action;
+        ForEachElementTask
+            (BulkTask<E,?> p, int b, int i, int f, Node<E>[] t,
+             Consumer<? super E> action) {
+            super(p, b, i, f, t);
+            this.action = action;
+        }
+        public final void compute() {
+            final Consumer<? super E> action;
+            if ((action = this.action) != null) {
+                for (int i = baseIndex, f, h; batch > 0 &&
+                         (h = ((f = baseLimit) + i) >>> 1) > i;) {
+                    addToPendingCount(1);
+                    new ForEachElementTask<E>
+                        (this, batch >>>= 1, baseLimit = h, f, tab,
+                         action).fork();
+                }
+                for (Node<E> p; (p = advance()) != null;)
+                    action.accept(p.key);
+                propagateCompletion();
+            }
+        }
+    }
+
+    @SuppressWarnings("serial")
+    static final class SearchElementsTask<E,U>
+        extends BulkTask<E,U> {
+        final Function<? super E, ? extends U> searchFunction;
+        final AtomicReference<U> result;
+        SearchElementsTask
+            (BulkTask<E,?> p, int b, int i, int f, Node<E>[] t,
+             Function<? super E, ? extends U> searchFunction,
+             AtomicReference<U> result) {
+            super(p, b, i, f, t);
+            this.searchFunction = searchFunction; this.result = result;
+        }
+        public final U getRawResult() { return result.get(); }
+        public final void compute() {
+            final Function<? super E, ? extends U> searchFunction;
+            final AtomicReference<U> result;
+            if ((searchFunction = this.searchFunction) != null &&
+                (result = this.result) != null) {
+                for (int i = baseIndex, f, h; batch > 0 &&
+                         (h = ((f = baseLimit) + i) >>> 1) > i;) {
+                    if (result.get() != null)
+                        return;
+                    addToPendingCount(1);
+                    new SearchElementsTask<E,U>
+                        (this, batch >>>= 1, baseLimit = h, f, tab,
+                         searchFunction, result).fork();
+                }
+                while (result.get() == null) {
+                    U u;
+                    Node<E> p;
+                    if ((p = advance()) == null) {
+                        propagateCompletion();
+                        break;
+                    }
+                    if ((u = searchFunction.apply(p.key)) != null) {
+                        if (result.compareAndSet(null, u))
+                            quietlyCompleteRoot();
+                        break;
+                    }
+                }
+            }
+        }
+    }
+
+    @SuppressWarnings("serial")
+    static final class ReduceElementsTask<E>
+        extends BulkTask<E,E> {
+        final BiFunction<? super E, ? super E, ? extends E> reducer;
+        E result;
+        ReduceElementsTask<E> rights, nextRight;
+        ReduceElementsTask
+            (BulkTask<E,?> p, int b, int i, int f, Node<E>[] t,
+             ReduceElementsTask<E> nextRight,
+             BiFunction<? super E, ? super E, ? extends E> reducer) {
+            super(p, b, i, f, t); this.nextRight = nextRight;
+            this.reducer = reducer;
+        }
+        public final E getRawResult() { return result; }
+        public final void compute() {
+            final BiFunction<? super E, ? super E, ? extends E> reducer;
+            if ((reducer = this.reducer) != null) {
+                for (int i = baseIndex, f, h; batch > 0 &&
+                         (h = ((f = baseLimit) + i) >>> 1) > i;) {
+                    addToPendingCount(1);
+                    (rights = new ReduceElementsTask<E>
+                     (this, batch >>>= 1, baseLimit = h, f, tab,
+                      rights, reducer)).fork();
+                }
+                E r = null;
+                for (Node<E> p; (p = advance()) != null; ) {
+                    E u = p.key;
+                    r = (r == null) ? u : reducer.apply(r, u);
+                }
+                result = r;
+                CountedCompleter<?> c;
+                for (c = firstComplete(); c != null; c = c.nextComplete()) {
+                    @SuppressWarnings("unchecked")
+                    ReduceElementsTask<E>
+                        t = (ReduceElementsTask<E>)c,
+                        s = t.rights;
+                    while (s != null) {
+                        E tr, sr;
+                        if ((sr = s.result) != null)
+                            t.result = (((tr = t.result) == null) ? sr :
+                                        reducer.apply(tr, sr));
+                        s = t.rights = s.nextRight;
+                    }
+                }
+            }
+        }
+    }
+
+    @SuppressWarnings("serial")
+    static final class MapReduceElementsTask<E,U>
+        extends BulkTask<E,U> {
+        final Function<? super E, ? extends U> transformer;
+        final BiFunction<? super U, ? super U, ? extends U> reducer;
+        U result;
+        MapReduceElementsTask<E,U> rights, nextRight;
+        MapReduceElementsTask
+            (BulkTask<E,?> p, int b, int i, int f, Node<E>[] t,
+             MapReduceElementsTask<E,U> nextRight,
+             Function<? super E, ? extends U> transformer,
+             BiFunction<? super U, ? super U, ? extends U> reducer) {
+            super(p, b, i, f, t); this.nextRight = nextRight;
+            this.transformer = transformer;
+            this.reducer = reducer;
+        }
+        public final U getRawResult() { return result; }
+        public final void compute() {
+            final Function<? super E, ? extends U> transformer;
+            final BiFunction<? super U, ? super U, ? extends U> reducer;
+            if ((transformer = this.transformer) != null &&
+                (reducer = this.reducer) != null) {
+                for (int i = baseIndex, f, h; batch > 0 &&
+                         (h = ((f = baseLimit) + i) >>> 1) > i;) {
+                    addToPendingCount(1);
+                    (rights = new MapReduceElementsTask<E,U>
+                     (this, batch >>>= 1, baseLimit = h, f, tab,
+                      rights, transformer, reducer)).fork();
+                }
+                U r = null;
+                for (Node<E> p; (p = advance()) != null; ) {
+                    U u;
+                    if ((u = transformer.apply(p.key)) != null)
+                        r = (r == null) ? u : reducer.apply(r, u);
+                }
+                result = r;
+                CountedCompleter<?> c;
+                for (c = firstComplete(); c != null; c = c.nextComplete()) {
+                    @SuppressWarnings("unchecked")
+                    MapReduceElementsTask<E,U>
+                        t = (MapReduceElementsTask<E,U>)c,
+                        s = t.rights;
+                    while (s != null) {
+                        U tr, sr;
+                        if ((sr = s.result) != null)
+                            t.result = (((tr = t.result) == null) ? sr :
+                                        reducer.apply(tr, sr));
+                        s = t.rights = s.nextRight;
+                    }
+                }
+            }
+        }
+    }
+
+    // Unsafe mechanics
+    private static final sun.misc.Unsafe U = sun.misc.Unsafe.getUnsafe();
+    private static final long SIZECTL;
+    private static final long TRANSFERINDEX;
+    private static final long BASECOUNT;
+    private static final long CELLSBUSY;
+    private static final long CELLVALUE;
+    private static final int ABASE;
+    private static final int ASHIFT;
+
+    static {
+        try {
+            SIZECTL = U.objectFieldOffset
+                (ConcurrentHashSet.class.getDeclaredField("sizeCtl"));
+            TRANSFERINDEX = U.objectFieldOffset
+                (ConcurrentHashSet.class.getDeclaredField("transferIndex"));
+            BASECOUNT = U.objectFieldOffset
+                (ConcurrentHashSet.class.getDeclaredField("baseCount"));
+            CELLSBUSY = U.objectFieldOffset
+                (ConcurrentHashSet.class.getDeclaredField("cellsBusy"));
+
+            CELLVALUE = U.objectFieldOffset
+                (CounterCell.class.getDeclaredField("value"));
+
+            ABASE = U.arrayBaseOffset(Node[].class);
+            int scale = U.arrayIndexScale(Node[].class);
+            if ((scale & (scale - 1)) != 0)
+                throw new Error("array index scale not a power of two");
+            ASHIFT = 31 - Integer.numberOfLeadingZeros(scale);
+        } catch (ReflectiveOperationException e) {
+            throw new Error(e);
+        }
+    }
+}
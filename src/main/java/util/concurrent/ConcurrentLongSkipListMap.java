@@ -0,0 +1,1939 @@
+/*
+ * Written by Doug Lea with assistance from members of JCP JSR-166
+ * Expert Group and released to the public domain, as explained at
+ * http://creativecommons.org/publicdomain/zero/1.0/
+ */
+
+package java.util.concurrent;
+
+import java.io.Serializable;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+import java.util.concurrent.ConcurrentLongHashMap.LongObjConsumer;
+import java.util.concurrent.ConcurrentLongHashMap.LongObjFunction;
+import java.util.function.BiFunction;
+import java.util.function.LongFunction;
+
+/**
+ * A scalable concurrent sorted map with primitive {@code long} keys.
+ * This class is a specialization of {@link ConcurrentSkipListMap}
+ * for maps whose keys are {@code long} values ordered numerically:
+ * keys are held inline in nodes rather than as boxed {@link Long}
+ * objects, and the index levels of each node are held in a single
+ * small array rather than in a separate object per level, so
+ * searches touch fewer objects and the map occupies considerably
+ * less memory than a {@code ConcurrentSkipListMap<Long,V>}.
+ * Otherwise, this class obeys the same concurrency properties as
+ * {@code ConcurrentSkipListMap}: insertion, removal, update, and
+ * access operations safely execute concurrently by multiple
+ * threads, iterators are <i>weakly consistent</i>, ascending views
+ * and their iterators are faster than descending ones, and bulk
+ * operations such as {@code clear} on views are not guaranteed to
+ * be performed atomically.
+ *
+ * <p>Because keys are primitive values, this class does not
+ * implement the {@link java.util.NavigableMap} interface, although
+ * it supports versions of its main methods.  Methods {@link
+ * #subMap}, {@link #headMap}, {@link #tailMap}, and {@link
+ * #descendingMap} return views of ranges of this map that are
+ * themselves instances of this class, supporting all of its
+ * operations.  Navigation methods such as {@link #ceilingEntry}
+ * return {@link LongEntry} snapshots of mappings, or {@code null}
+ * if there is no such mapping, and methods such as {@link
+ * #ceilingKey} return a caller-supplied value if there is no such
+ * key.  Like {@code ConcurrentSkipListMap}, this class does
+ * <em>not</em> permit the use of {@code null} values.
+ *
+ * @since 9
+ * @author Doug Lea
+ * @param <V> the type of mapped values
+ */
+public class ConcurrentLongSkipListMap<V> implements Serializable {
+    private static final long serialVersionUID = -1834176452731640958L;
+
+    /*
+     * Overview:
+     *
+     * This class uses the same base-level algorithms as
+     * ConcurrentSkipListMap (see its internal documentation for
+     * explanation): an ordered linked list of Nodes, deleted by
+     * nulling the value field, appending a marker node, and then
+     * unlinking, with traversals helping out along the way.  Keys are
+     * compared as longs, so there are no comparators.
+     *
+     * The main differences are in the index.  ConcurrentSkipListMap
+     * represents each level of each indexed node as a separate Index
+     * object with node, down, and right fields.  Here, a node with
+     * index level k holds a "tower" array of k right links, where
+     * tower[i] is the next node at level i+1.  A search at level i+1
+     * thus reads a single array element per step, and descending a
+     * level is just decrementing i, without touching another object.
+     * Only about one quarter of nodes have towers (using the same
+     * p=0.5, k=1 random levels as ConcurrentSkipListMap), and most of
+     * those have length 1 or 2.  The base-level header node has a
+     * tower of the maximum length, so the head of the list never
+     * needs to be replaced when levels are added; field "level" holds
+     * (a hint about) the number of levels in use, below which
+     * searches start.  Unlike ConcurrentSkipListMap, levels are never
+     * reduced except by clear, so traversals of a map that has shrunk
+     * may check a few extra empty levels at the head.
+     *
+     * Tower links are read and CASed using Unsafe array access, as
+     * for ConcurrentHashMap tables.  As in ConcurrentSkipListMap,
+     * index linking and unlinking are allowed to race: a node may
+     * (rarely) fail to be linked at some level, or a link to a node
+     * may be lost when its predecessor at that level is unlinked, but
+     * each level remains sorted, so still serves as an index.  A node
+     * is linked at each level top-down after insertion into the base
+     * list, setting its own tower slot before CASing it into its
+     * predecessor's, so a traversal reaching a node at some level
+     * sees either a valid successor or null at each lower level of
+     * its tower (in which case it just descends further).  Deletion
+     * clears out towers by calling findPredecessor, which unlinks
+     * deleted nodes found along the path to their key.
+     *
+     * Views (subMaps, and descending maps) are instances of this
+     * class sharing the base map "m" (which is "this" for a base
+     * map), with range bounds lo and hi.  Because keys are integral,
+     * exclusive bounds are converted to inclusive ones, so range
+     * checks are two comparisons and unbounded ranges need no
+     * special cases.  Operations on views otherwise follow those of
+     * ConcurrentSkipListMap.SubMap.
+     *
+     * Notation guide for local variables
+     * Node:         b, n, f    for  predecessor, node, successor
+     *               q, r       for index predecessor, right
+     * Tower index:  i, j       for level i+1
+     * Keys:         k, key
+     * Values:       v, value
+     */
+
+    /**
+     * The maximum number of index levels, and the length of the
+     * header's tower.  Random levels are at most 31.
+     */
+    static final int MAX_LEVEL = 32;
+
+    /**
+     * Special value used to identify base-level header.
+     */
+    static final Object BASE_HEADER = new Object();
+
+    /**
+     * The base-level header of the skiplist.  Non-null only in base
+     * maps.
+     */
+    private transient volatile Node<V> head;
+
+    /**
+     * The number of index levels in use, or more.  Searches start at
+     * this level of the header's tower.
+     */
+    private transient volatile int level;
+
+    /**
+     * The map holding the mappings of this view; this map itself if
+     * not a view.
+     * @serial
+     */
+    final ConcurrentLongSkipListMap<V> m;
+
+    /**
+     * The least key in range, inclusive.
+     * @serial
+     */
+    final long lo;
+
+    /**
+     * The greatest key in range, inclusive.
+     * @serial
+     */
+    final long hi;
+
+    /**
+     * True if this is a view in descending order.
+     * @serial
+     */
+    final boolean descending;
+
+    /**
+     * Initializes or resets state of a base map.
+     */
+    private void initialize() {
+        @SuppressWarnings("unchecked")
+        Node<V>[] t = (Node<V>[])new Node<?>[MAX_LEVEL];
+        head = new Node<V>(0L, BASE_HEADER, null, t);
+        level = 1;
+    }
+
+    /* ---------------- Nodes -------------- */
+
+    /**
+     * Nodes hold keys and values, and are singly linked in sorted
+     * order, possibly with some intervening marker nodes.  The value
+     * field is declared only as Object because it takes special
+     * non-V values for marker and header nodes.  Nodes that are
+     * indexed have non-null towers.
+     */
+    static final class Node<V> {
+        final long key;
+        volatile Object value;
+        volatile Node<V> next;
+        final Node<V>[] tower;
+
+        /**
+         * Creates a new regular node.
+         */
+        Node(long key, Object value, Node<V> next, Node<V>[] tower) {
+            this.key = key;
+            this.value = value;
+            this.next = next;
+            this.tower = tower;
+        }
+
+        /**
+         * Creates a new marker node, distinguished by having its
+         * value field point to itself.
+         */
+        Node(Node<V> next) {
+            this.key = 0L;
+            this.value = this;
+            this.next = next;
+            this.tower = null;
+        }
+
+        boolean casValue(Object cmp, Object val) {
+            return U.compareAndSwapObject(this, VALUE, cmp, val);
+        }
+
+        boolean casNext(Node<V> cmp, Node<V> val) {
+            return U.compareAndSwapObject(this, NEXT, cmp, val);
+        }
+
+        boolean isBaseHeader() {
+            return value == BASE_HEADER;
+        }
+
+        /**
+         * Tries to append a deletion marker to this node.
+         */
+        boolean appendMarker(Node<V> f) {
+            return casNext(f, new Node<V>(f));
+        }
+
+        /**
+         * Helps out a deletion by appending marker or unlinking from
+         * predecessor.  Same as in ConcurrentSkipListMap.
+         */
+        void helpDelete(Node<V> b, Node<V> f) {
+            if (f == next && this == b.next) {
+                if (f == null || f.value != f) // not already marked
+                    casNext(f, new Node<V>(f));
+                else
+                    b.casNext(this, f.next);
+            }
+        }
+
+        /**
+         * Returns value if this node contains a valid key-value pair,
+         * else null.
+         */
+        V getValidValue() {
+            Object v = value;
+            if (v == this || v == BASE_HEADER)
+                return null;
+            @SuppressWarnings("unchecked") V vv = (V)v;
+            return vv;
+        }
+
+        /**
+         * Returns a new entry holding current mapping if this node
+         * holds a valid value, else null.
+         */
+        LongEntry<V> createSnapshot() {
+            V v = getValidValue();
+            return (v == null) ? null : new LongEntry<V>(key, v);
+        }
+
+        private static final sun.misc.Unsafe U = sun.misc.Unsafe.getUnsafe();
+        private static final long VALUE;
+        private static final long NEXT;
+        static {
+            try {
+                VALUE = U.objectFieldOffset
+                    (Node.class.getDeclaredField("value"));
+                NEXT = U.objectFieldOffset
+                    (Node.class.getDeclaredField("next"));
+            } catch (ReflectiveOperationException e) {
+                throw new Error(e);
+            }
+        }
+    }
+
+    /**
+     * An immutable snapshot of a mapping, returned by navigation
+     * methods and entry iterators.
+     *
+     * @param <V> the type of the value
+     */
+    public static final class LongEntry<V> {
+        private final long key;
+        private final V value;
+
+        LongEntry(long key, V value) {
+            this.key = key;
+            this.value = value;
+        }
+
+        /**
+         * Returns the key.
+         *
+         * @return the key
+         */
+        public long getKey() { return key; }
+
+        /**
+         * Returns the value.
+         *
+         * @return the value
+         */
+        public V getValue() { return value; }
+
+        /**
+         * Compares the specified object with this entry for equality.
+         * Returns {@code true} if the object is a {@code LongEntry}
+         * with the same key and an equal value.
+         *
+         * @param o object to be compared for equality with this entry
+         * @return {@code true} if the specified object is equal to
+         *         this entry
+         */
+        public boolean equals(Object o) {
+            LongEntry<?> e;
+            return ((o instanceof LongEntry) &&
+                    (e = (LongEntry<?>)o).key == key &&
+                    value.equals(e.value));
+        }
+
+        /**
+         * Returns a hash code for this entry, computed as for {@code
+         * Map.Entry} with a {@code Long} key.
+         *
+         * @return the hash code value for this entry
+         */
+        public int hashCode() {
+            return Long.hashCode(key) ^ value.hashCode();
+        }
+
+        /**
+         * Returns a String of the form "key=value".
+         *
+         * @return a String representation of this entry
+         */
+        public String toString() {
+            return key + "=" + value;
+        }
+    }
+
+    /* ---------------- Tower access -------------- */
+
+    @SuppressWarnings("unchecked")
+    static final <V> Node<V> towerAt(Node<V>[] t, int i) {
+        return (Node<V>)U.getObjectVolatile(t, ((long)i << ASHIFT) + ABASE);
+    }
+
+    static final <V> boolean casTowerAt(Node<V>[] t, int i,
+                                        Node<V> c, Node<V> v) {
+        return U.compareAndSwapObject(t, ((long)i << ASHIFT) + ABASE, c, v);
+    }
+
+    static final <V> void setTowerAt(Node<V>[] t, int i, Node<V> v) {
+        U.putOrderedObject(t, ((long)i << ASHIFT) + ABASE, v);
+    }
+
+    /**
+     * Tries to CAS q's successor r at level i+1 to r's successor.
+     * Fails (forcing a retraversal by caller) if q is known to be
+     * deleted.
+     */
+    static final <V> boolean unlinkIndex(Node<V> q, Node<V> r, int i) {
+        return (q.value != null &&
+                casTowerAt(q.tower, i, r, towerAt(r.tower, i)));
+    }
+
+    /* ---------------- Traversal -------------- */
+
+    /**
+     * Returns a base-level node with key strictly less than given
+     * key, or the base-level header if there is no such node.  Also
+     * unlinks towers of deleted nodes found along the way.
+     */
+    private Node<V> findPredecessor(long key) {
+        outer: for (;;) {
+            Node<V> q = head;
+            for (int i = level - 1; i >= 0; --i) {
+                for (Node<V> r; (r = towerAt(q.tower, i)) != null; ) {
+                    if (r.value == null) {
+                        if (!unlinkIndex(q, r, i))
+                            continue outer;  // restart
+                    }
+                    else if (r.key < key)
+                        q = r;
+                    else
+                        break;
+                }
+            }
+            return q;
+        }
+    }
+
+    /**
+     * Returns node holding key or null if no such, clearing out any
+     * deleted nodes seen along the way.
+     */
+    private Node<V> findNode(long key) {
+        outer: for (;;) {
+            for (Node<V> b = findPredecessor(key), n = b.next;;) {
+                Object v; long k;
+                if (n == null)
+                    break outer;
+                Node<V> f = n.next;
+                if (n != b.next)                // inconsistent read
+                    break;
+                if ((v = n.value) == null) {    // n is deleted
+                    n.helpDelete(b, f);
+                    break;
+                }
+                if (b.value == null || v == n)  // b is deleted
+                    break;
+                if ((k = n.key) == key)
+                    return n;
+                if (key < k)
+                    break outer;
+                b = n;
+                n = f;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Gets value for key, or null if absent.
+     */
+    private V doGet(long key) {
+        outer: for (;;) {
+            for (Node<V> b = findPredecessor(key), n = b.next;;) {
+                Object v; long k;
+                if (n == null)
+                    break outer;
+                Node<V> f = n.next;
+                if (n != b.next)                // inconsistent read
+                    break;
+                if ((v = n.value) == null) {    // n is deleted
+                    n.helpDelete(b, f);
+                    break;
+                }
+                if (b.value == null || v == n)  // b is deleted
+                    break;
+                if ((k = n.key) == key) {
+                    @SuppressWarnings("unchecked") V vv = (V)v;
+                    return vv;
+                }
+                if (key < k)
+                    break outer;
+                b = n;
+                n = f;
+            }
+        }
+        return null;
+    }
+
+    /* ---------------- Insertion -------------- */
+
+    /**
+     * Returns a random index level for a new node, or zero if it
+     * should not be indexed, raising level if necessary.
+     */
+    private int randomLevel() {
+        int rnd = ThreadLocalRandom.nextSecondarySeed();
+        if ((rnd & 0x80000001) != 0) // test highest and lowest bits
+            return 0;
+        int lev = 1, max;
+        while (((rnd >>>= 1) & 1) != 0)
+            ++lev;
+        if (lev > (max = level)) {  // grow by at most one level
+            lev = Math.min(max + 1, MAX_LEVEL);
+            U.compareAndSwapInt(this, LEVEL, max, lev);
+        }
+        return lev;
+    }
+
+    /**
+     * Main insertion method.  Adds element if not present, or
+     * replaces value if present and onlyIfAbsent is false.
+     * @return the old value, or null if newly inserted
+     */
+    private V doPut(long key, V value, boolean onlyIfAbsent) {
+        Node<V> z;             // added node
+        int lev = randomLevel();
+        @SuppressWarnings("unchecked") Node<V>[] tower =
+            (lev == 0) ? null : (Node<V>[])new Node<?>[lev];
+        outer: for (;;) {
+            for (Node<V> b = findPredecessor(key), n = b.next;;) {
+                if (n != null) {
+                    Object v; long k;
+                    Node<V> f = n.next;
+                    if (n != b.next)               // inconsistent read
+                        break;
+                    if ((v = n.value) == null) {   // n is deleted
+                        n.helpDelete(b, f);
+                        break;
+                    }
+                    if (b.value == null || v == n) // b is deleted
+                        break;
+                    if (key > (k = n.key)) {
+                        b = n;
+                        n = f;
+                        continue;
+                    }
+                    if (key == k) {
+                        if (onlyIfAbsent || n.casValue(v, value)) {
+                            @SuppressWarnings("unchecked") V vv = (V)v;
+                            return vv;
+                        }
+                        break; // restart if lost race to replace value
+                    }
+                    // else key < k; fall through
+                }
+                z = new Node<V>(key, value, n, tower);
+                if (!b.casNext(n, z))
+                    break;         // restart if lost race to append to b
+                break outer;
+            }
+        }
+        if (tower != null)
+            addIndices(z);
+        return null;
+    }
+
+    /**
+     * Links newly inserted node z into each level of its tower, from
+     * the top down.
+     */
+    private void addIndices(Node<V> z) {
+        Node<V>[] zt = z.tower;
+        long key = z.key;
+        int i = zt.length - 1;          // next tower index to link
+        outer: for (;;) {
+            Node<V> q = head;
+            for (int j = Math.max(level, zt.length) - 1; j >= 0; --j) {
+                Node<V> r;
+                while ((r = towerAt(q.tower, j)) != null) {
+                    if (r.value == null) {
+                        if (!unlinkIndex(q, r, j))
+                            continue outer;
+                    }
+                    else if (r.key < key)
+                        q = r;
+                    else
+                        break;
+                }
+                if (j == i) {
+                    setTowerAt(zt, j, r);
+                    if (q.value == null || !casTowerAt(q.tower, j, r, z))
+                        continue outer;           // restart
+                    if (z.value == null) {        // lost race with delete
+                        findPredecessor(key);     // clean index
+                        return;
+                    }
+                    if (--i < 0)
+                        return;
+                }
+            }
+            return;
+        }
+    }
+
+    /* ---------------- Deletion -------------- */
+
+    /**
+     * Main deletion method. Locates node, nulls value, appends a
+     * deletion marker, unlinks predecessor, and removes its tower
+     * links.
+     *
+     * @param value if non-null, the value that must be
+     * associated with key
+     * @return the removed value, or null if not found
+     */
+    final V doRemove(long key, Object value) {
+        outer: for (;;) {
+            for (Node<V> b = findPredecessor(key), n = b.next;;) {
+                Object v; long k;
+                if (n == null)
+                    break outer;
+                Node<V> f = n.next;
+                if (n != b.next)                    // inconsistent read
+                    break;
+                if ((v = n.value) == null) {        // n is deleted
+                    n.helpDelete(b, f);
+                    break;
+                }
+                if (b.value == null || v == n)      // b is deleted
+                    break;
+                if (key < (k = n.key))
+                    break outer;
+                if (key > k) {
+                    b = n;
+                    n = f;
+                    continue;
+                }
+                if (value != null && !value.equals(v))
+                    break outer;
+                if (!n.casValue(v, null))
+                    break;
+                if (!n.appendMarker(f) || !b.casNext(n, f))
+                    findNode(key);                  // retry via findNode
+                else
+                    findPredecessor(key);           // clean index
+                @SuppressWarnings("unchecked") V vv = (V)v;
+                return vv;
+            }
+        }
+        return null;
+    }
+
+    /* ---------------- Finding first and last elements -------------- */
+
+    /**
+     * Specialized variant of findNode to get first valid node.
+     * @return first node or null if empty
+     */
+    final Node<V> findFirst() {
+        for (Node<V> b, n;;) {
+            if ((n = (b = head).next) == null)
+                return null;
+            if (n.value != null)
+                return n;
+            n.helpDelete(b, n.next);
+        }
+    }
+
+    /**
+     * Removes first entry; returns its snapshot.
+     * @return null if empty, else snapshot of first entry
+     */
+    private LongEntry<V> doRemoveFirstEntry() {
+        for (Node<V> b, n;;) {
+            if ((n = (b = head).next) == null)
+                return null;
+            Node<V> f = n.next;
+            if (n != b.next)
+                continue;
+            Object v = n.value;
+            if (v == null) {
+                n.helpDelete(b, f);
+                continue;
+            }
+            if (!n.casValue(v, null))
+                continue;
+            if (!n.appendMarker(f) || !b.casNext(n, f))
+                findFirst(); // retry
+            clearIndexToFirst();
+            @SuppressWarnings("unchecked") V vv = (V)v;
+            return new LongEntry<V>(n.key, vv);
+        }
+    }
+
+    /**
+     * Clears out tower links from the header to deleted nodes.
+     */
+    private void clearIndexToFirst() {
+        Node<V> h = head, r;
+        for (int i = level - 1; i >= 0; --i) {
+            while ((r = towerAt(h.tower, i)) != null && r.value == null &&
+                   unlinkIndex(h, r, i))
+                ;
+        }
+    }
+
+    /**
+     * Specialized version of find to get last valid node.
+     * @return last node or null if empty
+     */
+    final Node<V> findLast() {
+        outer: for (;;) {
+            Node<V> q = head;
+            for (int i = level - 1; i >= 0; --i) {
+                for (Node<V> r; (r = towerAt(q.tower, i)) != null; ) {
+                    if (r.value == null) {
+                        unlinkIndex(q, r, i);
+                        continue outer;      // restart
+                    }
+                    q = r;
+                }
+            }
+            for (Node<V> b = q, n = b.next;;) {
+                if (n == null)
+                    return b.isBaseHeader() ? null : b;
+                Node<V> f = n.next;
+                if (n != b.next)                 // inconsistent read
+                    break;
+                Object v = n.value;
+                if (v == null) {                 // n is deleted
+                    n.helpDelete(b, f);
+                    break;
+                }
+                if (b.value == null || v == n)   // b is deleted
+                    break;
+                b = n;
+                n = f;
+            }
+        }
+    }
+
+    /**
+     * Specialized variant of findPredecessor to get predecessor of
+     * last valid node.  It is possible that all successors of
+     * returned node will have been deleted upon return, in which
+     * case this method can be retried.
+     */
+    private Node<V> findPredecessorOfLast() {
+        outer: for (;;) {
+            Node<V> q = head;
+            for (int i = level - 1; i >= 0; --i) {
+                for (Node<V> r; (r = towerAt(q.tower, i)) != null; ) {
+                    if (r.value == null) {
+                        unlinkIndex(q, r, i);
+                        continue outer;      // restart
+                    }
+                    // proceed as far across as possible without overshooting
+                    if (r.next == null)
+                        break;
+                    q = r;
+                }
+            }
+            return q;
+        }
+    }
+
+    /**
+     * Removes last entry; returns its snapshot.
+     * @return null if empty, else snapshot of last entry
+     */
+    private LongEntry<V> doRemoveLastEntry() {
+        for (;;) {
+            Node<V> b = findPredecessorOfLast();
+            Node<V> n = b.next;
+            if (n == null) {
+                if (b.isBaseHeader())               // empty
+                    return null;
+                else
+                    continue; // all b's successors are deleted; retry
+            }
+            for (;;) {
+                Node<V> f = n.next;
+                if (n != b.next)                    // inconsistent read
+                    break;
+                Object v = n.value;
+                if (v == null) {                    // n is deleted
+                    n.helpDelete(b, f);
+                    break;
+                }
+                if (b.value == null || v == n)      // b is deleted
+                    break;
+                if (f != null) {
+                    b = n;
+                    n = f;
+                    continue;
+                }
+                if (!n.casValue(v, null))
+                    break;
+                long key = n.key;
+                if (!n.appendMarker(f) || !b.casNext(n, f))
+                    findNode(key);                  // retry via findNode
+                else
+                    findPredecessor(key);           // clean index
+                @SuppressWarnings("unchecked") V vv = (V)v;
+                return new LongEntry<V>(key, vv);
+            }
+        }
+    }
+
+    /* ---------------- Relational operations -------------- */
+
+    // Control values OR'ed as arguments to findNear
+
+    private static final int EQ = 1;
+    private static final int LT = 2;
+    private static final int GT = 0; // Actually checked as !LT
+
+    /**
+     * Utility for ceiling, floor, lower, higher methods.
+     * @param rel the relation -- OR'ed combination of EQ, LT, GT
+     * @return nearest node fitting relation, or null if no such
+     */
+    final Node<V> findNear(long key, int rel) {
+        for (;;) {
+            for (Node<V> b = findPredecessor(key), n = b.next;;) {
+                Object v;
+                if (n == null)
+                    return ((rel & LT) == 0 || b.isBaseHeader()) ? null : b;
+                Node<V> f = n.next;
+                if (n != b.next)                  // inconsistent read
+                    break;
+                if ((v = n.value) == null) {      // n is deleted
+                    n.helpDelete(b, f);
+                    break;
+                }
+                if (b.value == null || v == n)    // b is deleted
+                    break;
+                long k = n.key;
+                if ((key == k && (rel & EQ) != 0) ||
+                    (key <  k && (rel & LT) == 0))
+                    return n;
+                if (key <= k && (rel & LT) != 0)
+                    return b.isBaseHeader() ? null : b;
+                b = n;
+                n = f;
+            }
+        }
+    }
+
+    /* ---------------- Range utilities -------------- */
+
+    final boolean inBounds(long key) {
+        return lo <= key && key <= hi;
+    }
+
+    final void checkKeyBounds(long key) {
+        if (key < lo || key > hi)
+            throw new IllegalArgumentException("key out of range");
+    }
+
+    /**
+     * Returns lowest node at or above lo. This node might not be in
+     * range, so most usages need to check bounds.
+     */
+    final Node<V> loNode() {
+        return (lo == Long.MIN_VALUE) ? m.findFirst() : m.findNear(lo, GT|EQ);
+    }
+
+    /**
+     * Returns highest node at or below hi. This node might not be in
+     * range, so most usages need to check bounds.
+     */
+    final Node<V> hiNode() {
+        return (hi == Long.MAX_VALUE) ? m.findLast() : m.findNear(hi, LT|EQ);
+    }
+
+    /**
+     * Returns the lowest (ignoring direction) valid node in range, or
+     * null if none.  The returned node may be concurrently deleted.
+     */
+    final Node<V> lowestNode() {
+        for (Node<V> n;;) {
+            if ((n = loNode()) == null || n.key > hi)
+                return null;
+            if (n.value != null)
+                return n;
+        }
+    }
+
+    /**
+     * Returns the highest (ignoring direction) valid node in range,
+     * or null if none.  The returned node may be concurrently deleted.
+     */
+    final Node<V> highestNode() {
+        for (Node<V> n;;) {
+            if ((n = hiNode()) == null || n.key < lo)
+                return null;
+            if (n.value != null)
+                return n;
+        }
+    }
+
+    /**
+     * Returns the valid node in range nearest to key in the given
+     * relation, adjusted for direction, or null if none.  The
+     * returned node may be concurrently deleted.
+     */
+    final Node<V> nearNode(long key, int rel) {
+        if (descending)
+            rel ^= LT;
+        if (key < lo)
+            return ((rel & LT) != 0) ? null : lowestNode();
+        if (key > hi)
+            return ((rel & LT) != 0) ? highestNode() : null;
+        for (Node<V> n;;) {
+            if ((n = m.findNear(key, rel)) == null || !inBounds(n.key))
+                return null;
+            if (n.value != null)
+                return n;
+        }
+    }
+
+    /**
+     * Returns snapshot of node, retrying with the given relation if
+     * the node is found to be deleted.
+     */
+    private LongEntry<V> nearEntry(long key, int rel) {
+        for (;;) {
+            Node<V> n = nearNode(key, rel);
+            if (n == null)
+                return null;
+            LongEntry<V> e = n.createSnapshot();
+            if (e != null)
+                return e;
+        }
+    }
+
+    private LongEntry<V> lowestEntry() {
+        for (;;) {
+            Node<V> n = lowestNode();
+            if (n == null)
+                return null;
+            LongEntry<V> e = n.createSnapshot();
+            if (e != null)
+                return e;
+        }
+    }
+
+    private LongEntry<V> highestEntry() {
+        for (;;) {
+            Node<V> n = highestNode();
+            if (n == null)
+                return null;
+            LongEntry<V> e = n.createSnapshot();
+            if (e != null)
+                return e;
+        }
+    }
+
+    private LongEntry<V> removeLowest() {
+        if (m == this && lo == Long.MIN_VALUE && hi == Long.MAX_VALUE)
+            return doRemoveFirstEntry();
+        for (;;) {
+            Node<V> n = lowestNode();
+            if (n == null)
+                return null;
+            long k = n.key;
+            V v = m.doRemove(k, null);
+            if (v != null)
+                return new LongEntry<V>(k, v);
+        }
+    }
+
+    private LongEntry<V> removeHighest() {
+        if (m == this && lo == Long.MIN_VALUE && hi == Long.MAX_VALUE)
+            return doRemoveLastEntry();
+        for (;;) {
+            Node<V> n = highestNode();
+            if (n == null)
+                return null;
+            long k = n.key;
+            V v = m.doRemove(k, null);
+            if (v != null)
+                return new LongEntry<V>(k, v);
+        }
+    }
+
+    /**
+     * Returns a view of the given range of the base map, checking
+     * that it lies within this view.
+     */
+    private ConcurrentLongSkipListMap<V> newView(long fromKey,
+                                                 boolean fromInclusive,
+                                                 long toKey,
+                                                 boolean toInclusive,
+                                                 boolean descending) {
+        if (fromKey > toKey)
+            throw new IllegalArgumentException("inconsistent range");
+        long l, h;
+        if ((!fromInclusive && fromKey == Long.MAX_VALUE) ||
+            (!toInclusive && toKey == Long.MIN_VALUE)) {
+            l = 1L; h = 0L;          // empty
+        }
+        else {
+            l = fromInclusive ? fromKey : fromKey + 1L;
+            h = toInclusive ? toKey : toKey - 1L;
+            if ((l < lo || h > hi) && l <= h)
+                throw new IllegalArgumentException("key out of range");
+        }
+        return new ConcurrentLongSkipListMap<V>(m, l, h, descending);
+    }
+
+    /* ---------------- Constructors -------------- */
+
+    /**
+     * Constructs a new, empty map, sorted in ascending numerical
+     * order of keys.
+     */
+    public ConcurrentLongSkipListMap() {
+        this.m = this;
+        this.lo = Long.MIN_VALUE;
+        this.hi = Long.MAX_VALUE;
+        this.descending = false;
+        initialize();
+    }
+
+    /**
+     * Creates a view of the given map.
+     */
+    private ConcurrentLongSkipListMap(ConcurrentLongSkipListMap<V> m,
+                                      long lo, long hi, boolean descending) {
+        this.m = m;
+        this.lo = lo;
+        this.hi = hi;
+        this.descending = descending;
+    }
+
+    /* ---------------- Map operations -------------- */
+
+    /**
+     * Returns {@code true} if this map contains a mapping for the
+     * specified key.
+     *
+     * @param key key whose presence in this map is to be tested
+     * @return {@code true} if this map contains a mapping for the
+     *         specified key
+     */
+    public boolean containsKey(long key) {
+        return inBounds(key) && m.doGet(key) != null;
+    }
+
+    /**
+     * Returns the value to which the specified key is mapped,
+     * or {@code null} if this map contains no mapping for the key.
+     *
+     * @param key the key
+     * @return the value, or {@code null} if none
+     */
+    public V get(long key) {
+        return inBounds(key) ? m.doGet(key) : null;
+    }
+
+    /**
+     * Returns the value to which the specified key is mapped,
+     * or the given defaultValue if this map contains no mapping for
+     * the key.
+     *
+     * @param key the key
+     * @param defaultValue the value to return if this map contains
+     * no mapping for the given key
+     * @return the mapping for the key, if present; else the defaultValue
+     */
+    public V getOrDefault(long key, V defaultValue) {
+        V v;
+        return (v = get(key)) == null ? defaultValue : v;
+    }
+
+    /**
+     * Associates the specified value with the specified key in this
+     * map.  If the map previously contained a mapping for the key,
+     * the old value is replaced.
+     *
+     * @param key key with which the specified value is to be associated
+     * @param value value to be associated with the specified key
+     * @return the previous value associated with the specified key, or
+     *         {@code null} if there was no mapping for the key
+     * @throws NullPointerException if the specified value is null
+     * @throws IllegalArgumentException if the key is outside the
+     *         range of this view
+     */
+    public V put(long key, V value) {
+        if (value == null)
+            throw new NullPointerException();
+        checkKeyBounds(key);
+        return m.doPut(key, value, false);
+    }
+
+    /**
+     * If the specified key is not already associated with a value,
+     * associates it with the given value.
+     *
+     * @param key key with which the specified value is to be associated
+     * @param value value to be associated with the specified key
+     * @return the previous value associated with the specified key,
+     *         or {@code null} if there was no mapping for the key
+     * @throws NullPointerException if the specified value is null
+     * @throws IllegalArgumentException if the key is outside the
+     *         range of this view
+     */
+    public V putIfAbsent(long key, V value) {
+        if (value == null)
+            throw new NullPointerException();
+        checkKeyBounds(key);
+        return m.doPut(key, value, true);
+    }
+
+    /**
+     * Removes the mapping for the specified key from this map if present.
+     *
+     * @param key key for which mapping should be removed
+     * @return the previous value associated with the specified key, or
+     *         {@code null} if there was no mapping for the key
+     */
+    public V remove(long key) {
+        return inBounds(key) ? m.doRemove(key, null) : null;
+    }
+
+    /**
+     * Removes the entry for a key only if currently mapped to a given
+     * value.
+     *
+     * @param key key with which the specified value is associated
+     * @param value value expected to be associated with the specified key
+     * @return {@code true} if the value was removed
+     */
+    public boolean remove(long key, Object value) {
+        return (value != null && inBounds(key) &&
+                m.doRemove(key, value) != null);
+    }
+
+    /**
+     * Replaces the entry for a key only if currently mapped to a given
+     * value.
+     *
+     * @param key key with which the specified value is associated
+     * @param oldValue value expected to be associated with the specified key
+     * @param newValue value to be associated with the specified key
+     * @return {@code true} if the value was replaced
+     * @throws NullPointerException if any of the values are null
+     */
+    public boolean replace(long key, V oldValue, V newValue) {
+        if (oldValue == null || newValue == null)
+            throw new NullPointerException();
+        if (!inBounds(key))
+            return false;
+        for (;;) {
+            Node<V> n; Object v;
+            if ((n = m.findNode(key)) == null)
+                return false;
+            if ((v = n.value) != null) {
+                if (!oldValue.equals(v))
+                    return false;
+                if (n.casValue(v, newValue))
+                    return true;
+            }
+        }
+    }
+
+    /**
+     * Replaces the entry for a key only if currently mapped to some
+     * value.
+     *
+     * @param key key with which the specified value is associated
+     * @param value value to be associated with the specified key
+     * @return the previous value associated with the specified key,
+     *         or {@code null} if there was no mapping for the key
+     * @throws NullPointerException if the specified value is null
+     */
+    public V replace(long key, V value) {
+        if (value == null)
+            throw new NullPointerException();
+        if (!inBounds(key))
+            return null;
+        for (;;) {
+            Node<V> n; Object v;
+            if ((n = m.findNode(key)) == null)
+                return null;
+            if ((v = n.value) != null && n.casValue(v, value)) {
+                @SuppressWarnings("unchecked") V vv = (V)v;
+                return vv;
+            }
+        }
+    }
+
+    /**
+     * If the specified key is not already associated with a value,
+     * attempts to compute its value using the given mapping function
+     * and enters it into this map unless {@code null}.  The function
+     * is <em>NOT</em> guaranteed to be applied once atomically only
+     * if the value is not present.
+     *
+     * @param key key with which the specified value is to be associated
+     * @param mappingFunction the function to compute a value
+     * @return the current (existing or computed) value associated with
+     *         the specified key, or null if the computed value is null
+     * @throws NullPointerException if the mappingFunction is null
+     * @throws IllegalArgumentException if the key is outside the
+     *         range of this view
+     */
+    public V computeIfAbsent(long key,
+                             LongFunction<? extends V> mappingFunction) {
+        if (mappingFunction == null)
+            throw new NullPointerException();
+        checkKeyBounds(key);
+        V v, p, r;
+        if ((v = m.doGet(key)) == null &&
+            (r = mappingFunction.apply(key)) != null)
+            v = (p = m.doPut(key, r, true)) == null ? r : p;
+        return v;
+    }
+
+    /**
+     * If the value for the specified key is present, attempts to
+     * compute a new mapping given the key and its current mapped
+     * value. The function is <em>NOT</em> guaranteed to be applied
+     * once atomically.
+     *
+     * @param key key with which a value may be associated
+     * @param remappingFunction the function to compute a value
+     * @return the new value associated with the specified key, or null if none
+     * @throws NullPointerException if the remappingFunction is null
+     */
+    public V computeIfPresent(long key,
+                              LongObjFunction<? super V, ? extends V> remappingFunction) {
+        if (remappingFunction == null)
+            throw new NullPointerException();
+        if (!inBounds(key))
+            return null;
+        Node<V> n; Object v;
+        while ((n = m.findNode(key)) != null) {
+            if ((v = n.value) != null) {
+                @SuppressWarnings("unchecked") V vv = (V) v;
+                V r = remappingFunction.apply(key, vv);
+                if (r != null) {
+                    if (n.casValue(vv, r))
+                        return r;
+                }
+                else if (m.doRemove(key, vv) != null)
+                    break;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Attempts to compute a mapping for the specified key and its
+     * current mapped value (or {@code null} if there is no current
+     * mapping). The function is <em>NOT</em> guaranteed to be applied
+     * once atomically.
+     *
+     * @param key key with which the specified value is to be associated
+     * @param remappingFunction the function to compute a value
+     * @return the new value associated with the specified key, or null if none
+     * @throws NullPointerException if the remappingFunction is null
+     * @throws IllegalArgumentException if the key is outside the
+     *         range of this view
+     */
+    public V compute(long key,
+                     LongObjFunction<? super V, ? extends V> remappingFunction) {
+        if (remappingFunction == null)
+            throw new NullPointerException();
+        checkKeyBounds(key);
+        for (;;) {
+            Node<V> n; Object v; V r;
+            if ((n = m.findNode(key)) == null) {
+                if ((r = remappingFunction.apply(key, null)) == null)
+                    break;
+                if (m.doPut(key, r, true) == null)
+                    return r;
+            }
+            else if ((v = n.value) != null) {
+                @SuppressWarnings("unchecked") V vv = (V) v;
+                if ((r = remappingFunction.apply(key, vv)) != null) {
+                    if (n.casValue(vv, r))
+                        return r;
+                }
+                else if (m.doRemove(key, vv) != null)
+                    break;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * If the specified key is not already associated with a value,
+     * associates it with the given value.  Otherwise, replaces the
+     * value with the results of the given remapping function, or
+     * removes if {@code null}. The function is <em>NOT</em>
+     * guaranteed to be applied once atomically.
+     *
+     * @param key key with which the specified value is to be associated
+     * @param value the value to use if absent
+     * @param remappingFunction the function to recompute a value if present
+     * @return the new value associated with the specified key, or null if none
+     * @throws NullPointerException if the specified value or the
+     *         remappingFunction is null
+     * @throws IllegalArgumentException if the key is outside the
+     *         range of this view
+     */
+    public V merge(long key, V value,
+                   BiFunction<? super V, ? super V, ? extends V> remappingFunction) {
+        if (value == null || remappingFunction == null)
+            throw new NullPointerException();
+        checkKeyBounds(key);
+        for (;;) {
+            Node<V> n; Object v; V r;
+            if ((n = m.findNode(key)) == null) {
+                if (m.doPut(key, value, true) == null)
+                    return value;
+            }
+            else if ((v = n.value) != null) {
+                @SuppressWarnings("unchecked") V vv = (V) v;
+                if ((r = remappingFunction.apply(vv, value)) != null) {
+                    if (n.casValue(vv, r))
+                        return r;
+                }
+                else if (m.doRemove(key, vv) != null)
+                    return null;
+            }
+        }
+    }
+
+    /**
+     * Returns {@code true} if this map maps one or more keys to the
+     * specified value.  This operation requires time linear in the
+     * map size.
+     *
+     * @param value value whose presence in this map is to be tested
+     * @return {@code true} if a mapping to {@code value} exists;
+     *         {@code false} otherwise
+     */
+    public boolean containsValue(Object value) {
+        if (value == null)
+            throw new NullPointerException();
+        for (Node<V> n = loNode(); n != null; n = n.next) {
+            Object v = n.value;
+            if (v != null && v != n) {
+                if (n.key > hi)
+                    break;
+                if (value.equals(v))
+                    return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the number of key-value mappings in this map.  If this
+     * map contains more than {@code Integer.MAX_VALUE} elements, it
+     * returns {@code Integer.MAX_VALUE}.
+     *
+     * <p>Beware that, unlike in most collections, this method is
+     * <em>NOT</em> a constant-time operation. Because of the
+     * asynchronous nature of these maps, determining the current
+     * number of elements requires traversing them all to count them.
+     *
+     * @return the number of elements in this map
+     */
+    public int size() {
+        long count = 0;
+        for (Node<V> n = loNode(); n != null; n = n.next) {
+            Object v = n.value;
+            if (v != null && v != n) {
+                if (n.key > hi)
+                    break;
+                ++count;
+            }
+        }
+        return (count >= Integer.MAX_VALUE) ? Integer.MAX_VALUE : (int) count;
+    }
+
+    /**
+     * Returns {@code true} if this map contains no key-value mappings.
+     *
+     * @return {@code true} if this map contains no key-value mappings
+     */
+    public boolean isEmpty() {
+        return lowestNode() == null;
+    }
+
+    /**
+     * Removes all of the mappings from this map.
+     */
+    public void clear() {
+        if (lo == Long.MIN_VALUE && hi == Long.MAX_VALUE)
+            m.initialize();
+        else {
+            for (Node<V> n = loNode(); n != null; n = n.next) {
+                Object v = n.value;
+                if (v != null && v != n) {
+                    if (n.key > hi)
+                        break;
+                    m.doRemove(n.key, null);
+                }
+            }
+        }
+    }
+
+    /* ---------------- Navigation -------------- */
+
+    /**
+     * Returns the first (lowest, or for descending maps, highest) key
+     * currently in this map.
+     *
+     * @return the first key
+     * @throws NoSuchElementException if this map is empty
+     */
+    public long firstKey() {
+        Node<V> n = descending ? highestNode() : lowestNode();
+        if (n == null)
+            throw new NoSuchElementException();
+        return n.key;
+    }
+
+    /**
+     * Returns the last (highest, or for descending maps, lowest) key
+     * currently in this map.
+     *
+     * @return the last key
+     * @throws NoSuchElementException if this map is empty
+     */
+    public long lastKey() {
+        Node<V> n = descending ? lowestNode() : highestNode();
+        if (n == null)
+            throw new NoSuchElementException();
+        return n.key;
+    }
+
+    /**
+     * Returns a key-value mapping associated with the first key in
+     * this map, or {@code null} if the map is empty.
+     *
+     * @return an entry with the first key, or {@code null} if empty
+     */
+    public LongEntry<V> firstEntry() {
+        return descending ? highestEntry() : lowestEntry();
+    }
+
+    /**
+     * Returns a key-value mapping associated with the last key in
+     * this map, or {@code null} if the map is empty.
+     *
+     * @return an entry with the last key, or {@code null} if empty
+     */
+    public LongEntry<V> lastEntry() {
+        return descending ? lowestEntry() : highestEntry();
+    }
+
+    /**
+     * Removes and returns a key-value mapping associated with the
+     * first key in this map, or {@code null} if the map is empty.
+     *
+     * @return the removed first entry, or {@code null} if empty
+     */
+    public LongEntry<V> pollFirstEntry() {
+        return descending ? removeHighest() : removeLowest();
+    }
+
+    /**
+     * Removes and returns a key-value mapping associated with the
+     * last key in this map, or {@code null} if the map is empty.
+     *
+     * @return the removed last entry, or {@code null} if empty
+     */
+    public LongEntry<V> pollLastEntry() {
+        return descending ? removeLowest() : removeHighest();
+    }
+
+    /**
+     * Returns a key-value mapping associated with the greatest key
+     * strictly less than the given key, or {@code null} if there is
+     * no such key.
+     *
+     * @param key the key
+     * @return an entry with the greatest key less than {@code key},
+     *         or {@code null} if there is no such key
+     */
+    public LongEntry<V> lowerEntry(long key) {
+        return nearEntry(key, LT);
+    }
+
+    /**
+     * Returns a key-value mapping associated with the greatest key
+     * less than or equal to the given key, or {@code null} if there
+     * is no such key.
+     *
+     * @param key the key
+     * @return an entry with the greatest key less than or equal to
+     *         {@code key}, or {@code null} if there is no such key
+     */
+    public LongEntry<V> floorEntry(long key) {
+        return nearEntry(key, LT|EQ);
+    }
+
+    /**
+     * Returns a key-value mapping associated with the least key
+     * greater than or equal to the given key, or {@code null} if
+     * there is no such key.
+     *
+     * @param key the key
+     * @return an entry with the least key greater than or equal to
+     *         {@code key}, or {@code null} if there is no such key
+     */
+    public LongEntry<V> ceilingEntry(long key) {
+        return nearEntry(key, GT|EQ);
+    }
+
+    /**
+     * Returns a key-value mapping associated with the least key
+     * strictly greater than the given key, or {@code null} if there
+     * is no such key.
+     *
+     * @param key the key
+     * @return an entry with the least key greater than {@code key},
+     *         or {@code null} if there is no such key
+     */
+    public LongEntry<V> higherEntry(long key) {
+        return nearEntry(key, GT);
+    }
+
+    /**
+     * Returns the greatest key strictly less than the given key, or
+     * {@code absent} if there is no such key.
+     *
+     * @param key the key
+     * @param absent the value to return if there is no such key
+     * @return the greatest key less than {@code key}, or {@code absent}
+     */
+    public long lowerKey(long key, long absent) {
+        Node<V> n = nearNode(key, LT);
+        return (n == null) ? absent : n.key;
+    }
+
+    /**
+     * Returns the greatest key less than or equal to the given key,
+     * or {@code absent} if there is no such key.
+     *
+     * @param key the key
+     * @param absent the value to return if there is no such key
+     * @return the greatest key less than or equal to {@code key},
+     *         or {@code absent}
+     */
+    public long floorKey(long key, long absent) {
+        Node<V> n = nearNode(key, LT|EQ);
+        return (n == null) ? absent : n.key;
+    }
+
+    /**
+     * Returns the least key greater than or equal to the given key,
+     * or {@code absent} if there is no such key.
+     *
+     * @param key the key
+     * @param absent the value to return if there is no such key
+     * @return the least key greater than or equal to {@code key},
+     *         or {@code absent}
+     */
+    public long ceilingKey(long key, long absent) {
+        Node<V> n = nearNode(key, GT|EQ);
+        return (n == null) ? absent : n.key;
+    }
+
+    /**
+     * Returns the least key strictly greater than the given key, or
+     * {@code absent} if there is no such key.
+     *
+     * @param key the key
+     * @param absent the value to return if there is no such key
+     * @return the least key greater than {@code key}, or {@code absent}
+     */
+    public long higherKey(long key, long absent) {
+        Node<V> n = nearNode(key, GT);
+        return (n == null) ? absent : n.key;
+    }
+
+    /* ---------------- Views -------------- */
+
+    /**
+     * Returns a view of the portion of this map whose keys range from
+     * {@code fromKey} to {@code toKey}.  If {@code fromKey} and
+     * {@code toKey} are equal, the returned map is empty unless
+     * {@code fromInclusive} and {@code toInclusive} are both true.
+     * The returned map is backed by this map, so changes in the
+     * returned map are reflected in this map, and vice-versa.  The
+     * returned map will throw an {@code IllegalArgumentException} on
+     * an attempt to insert a key outside of its range.
+     *
+     * @param fromKey low endpoint of the keys in the returned map
+     * @param fromInclusive {@code true} if the low endpoint
+     *        is to be included in the returned view
+     * @param toKey high endpoint of the keys in the returned map
+     * @param toInclusive {@code true} if the high endpoint
+     *        is to be included in the returned view
+     * @return a view of the portion of this map whose keys range from
+     *         {@code fromKey} to {@code toKey}
+     * @throws IllegalArgumentException if {@code fromKey} is greater
+     *         than {@code toKey} (in the order of this map), or if
+     *         this map itself has a restricted range and the
+     *         requested range lies outside it
+     */
+    public ConcurrentLongSkipListMap<V> subMap(long fromKey,
+                                               boolean fromInclusive,
+                                               long toKey,
+                                               boolean toInclusive) {
+        return descending
+            ? newView(toKey, toInclusive, fromKey, fromInclusive, true)
+            : newView(fromKey, fromInclusive, toKey, toInclusive, false);
+    }
+
+    /**
+     * Returns a view of the portion of this map whose keys are less
+     * than (or equal to, if {@code inclusive} is true) {@code toKey}
+     * in the order of this map.
+     *
+     * @param toKey high endpoint of the keys in the returned map
+     * @param inclusive {@code true} if the high endpoint
+     *        is to be included in the returned view
+     * @return a view of the portion of this map whose keys are less
+     *         than (or equal to, if {@code inclusive} is true)
+     *         {@code toKey}
+     * @throws IllegalArgumentException if this map itself has a
+     *         restricted range and {@code toKey} lies outside it
+     */
+    public ConcurrentLongSkipListMap<V> headMap(long toKey,
+                                                boolean inclusive) {
+        return descending
+            ? newView(toKey, inclusive, hi, true, true)
+            : newView(lo, true, toKey, inclusive, false);
+    }
+
+    /**
+     * Returns a view of the portion of this map whose keys are
+     * greater than (or equal to, if {@code inclusive} is true) {@code
+     * fromKey} in the order of this map.
+     *
+     * @param fromKey low endpoint of the keys in the returned map
+     * @param inclusive {@code true} if the low endpoint
+     *        is to be included in the returned view
+     * @return a view of the portion of this map whose keys are greater
+     *         than (or equal to, if {@code inclusive} is true)
+     *         {@code fromKey}
+     * @throws IllegalArgumentException if this map itself has a
+     *         restricted range and {@code fromKey} lies outside it
+     */
+    public ConcurrentLongSkipListMap<V> tailMap(long fromKey,
+                                                boolean inclusive) {
+        return descending
+            ? newView(lo, true, fromKey, inclusive, true)
+            : newView(fromKey, inclusive, hi, true, false);
+    }
+
+    /**
+     * Equivalent to {@code subMap(fromKey, true, toKey, false)}.
+     *
+     * @param fromKey low endpoint (inclusive) of the keys in the returned map
+     * @param toKey high endpoint (exclusive) of the keys in the returned map
+     * @return a view of the portion of this map whose keys range from
+     *         {@code fromKey}, inclusive, to {@code toKey}, exclusive
+     * @throws IllegalArgumentException as for {@link #subMap(long,
+     *         boolean, long, boolean)}
+     */
+    public ConcurrentLongSkipListMap<V> subMap(long fromKey, long toKey) {
+        return subMap(fromKey, true, toKey, false);
+    }
+
+    /**
+     * Equivalent to {@code headMap(toKey, false)}.
+     *
+     * @param toKey high endpoint (exclusive) of the keys in the returned map
+     * @return a view of the portion of this map whose keys are
+     *         strictly less than {@code toKey}
+     * @throws IllegalArgumentException as for {@link #headMap(long,
+     *         boolean)}
+     */
+    public ConcurrentLongSkipListMap<V> headMap(long toKey) {
+        return headMap(toKey, false);
+    }
+
+    /**
+     * Equivalent to {@code tailMap(fromKey, true)}.
+     *
+     * @param fromKey low endpoint (inclusive) of the keys in the returned map
+     * @return a view of the portion of this map whose keys are
+     *         greater than or equal to {@code fromKey}
+     * @throws IllegalArgumentException as for {@link #tailMap(long,
+     *         boolean)}
+     */
+    public ConcurrentLongSkipListMap<V> tailMap(long fromKey) {
+        return tailMap(fromKey, true);
+    }
+
+    /**
+     * Returns a reverse order view of the mappings contained in this
+     * map.  The descending map is backed by this map, so changes to
+     * the map are reflected in the descending map, and vice-versa.
+     *
+     * @return a reverse order view of this map
+     */
+    public ConcurrentLongSkipListMap<V> descendingMap() {
+        return new ConcurrentLongSkipListMap<V>(m, lo, hi, !descending);
+    }
+
+    /* ---------------- Traversal -------------- */
+
+    /**
+     * Performs the given action for each mapping in this map, in the
+     * order of this map.
+     *
+     * @param action the action
+     * @throws NullPointerException if the action is null
+     */
+    public void forEach(LongObjConsumer<? super V> action) {
+        if (action == null) throw new NullPointerException();
+        if (descending) {
+            for (EntryIterator it = new EntryIterator(); it.hasNext(); ) {
+                Node<V> n = it.next;
+                V v = it.nextValue;
+                it.advance();
+                action.accept(n.key, v);
+            }
+        }
+        else {
+            for (Node<V> n = loNode(); n != null; n = n.next) {
+                Object v = n.value;
+                if (v != null && v != n) {
+                    if (n.key > hi)
+                        break;
+                    @SuppressWarnings("unchecked") V vv = (V)v;
+                    action.accept(n.key, vv);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns an iterator over the keys of this map, in the order of
+     * this map.  The iterator is weakly consistent, and supports
+     * removal.
+     *
+     * @return an iterator over the keys of this map
+     */
+    public PrimitiveIterator.OfLong keyIterator() {
+        return new KeyIterator();
+    }
+
+    /**
+     * Returns an iterator over snapshots of the mappings of this map,
+     * in the order of this map.  The iterator is weakly consistent,
+     * and supports removal.
+     *
+     * @return an iterator over the entries of this map
+     */
+    public Iterator<LongEntry<V>> entryIterator() {
+        return new EntryIterator();
+    }
+
+    /**
+     * Base of iterator classes.  Same as ConcurrentSkipListMap
+     * SubMapIter, using this view's bounds and direction.
+     */
+    abstract class Iter {
+        /** the last node returned by next() */
+        Node<V> lastReturned;
+        /** the next node to return from next(); */
+        Node<V> next;
+        /** Cache of next value field to maintain weak consistency */
+        V nextValue;
+
+        Iter() {
+            for (;;) {
+                next = descending ? hiNode() : loNode();
+                if (next == null)
+                    break;
+                Object x = next.value;
+                if (x != null && x != next) {
+                    if (!inBounds(next.key))
+                        next = null;
+                    else {
+                        @SuppressWarnings("unchecked") V vv = (V)x;
+                        nextValue = vv;
+                    }
+                    break;
+                }
+            }
+        }
+
+        public final boolean hasNext() {
+            return next != null;
+        }
+
+        final void advance() {
+            if (next == null)
+                throw new NoSuchElementException();
+            lastReturned = next;
+            if (descending)
+                descend();
+            else
+                ascend();
+        }
+
+        private void ascend() {
+            for (;;) {
+                next = next.next;
+                if (next == null)
+                    break;
+                Object x = next.value;
+                if (x != null && x != next) {
+                    if (next.key > hi)
+                        next = null;
+                    else {
+                        @SuppressWarnings("unchecked") V vv = (V)x;
+                        nextValue = vv;
+                    }
+                    break;
+                }
+            }
+        }
+
+        private void descend() {
+            for (;;) {
+                next = m.findNear(lastReturned.key, LT);
+                if (next == null)
+                    break;
+                Object x = next.value;
+                if (x != null && x != next) {
+                    if (next.key < lo)
+                        next = null;
+                    else {
+                        @SuppressWarnings("unchecked") V vv = (V)x;
+                        nextValue = vv;
+                    }
+                    break;
+                }
+            }
+        }
+
+        public final void remove() {
+            Node<V> l = lastReturned;
+            if (l == null)
+                throw new IllegalStateException();
+            m.doRemove(l.key, null);
+            lastReturned = null;
+        }
+    }
+
+    final class KeyIterator extends Iter implements PrimitiveIterator.OfLong {
+        public long nextLong() {
+            Node<V> n = next;
+            advance();
+            return n.key;
+        }
+    }
+
+    final class EntryIterator extends Iter implements Iterator<LongEntry<V>> {
+        public LongEntry<V> next() {
+            Node<V> n = next;
+            V v = nextValue;
+            advance();
+            return new LongEntry<V>(n.key, v);
+        }
+    }
+
+    /**
+     * Returns a string representation of this map, in the order of
+     * this map, in the style of {@link java.util.AbstractMap#toString}.
+     *
+     * @return a string representation of this map
+     */
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append('{');
+        EntryIterator it = new EntryIterator();
+        while (it.hasNext()) {
+            Node<V> n = it.next;
+            V v = it.nextValue;
+            it.advance();
+            sb.append(n.key);
+            sb.append('=');
+            sb.append(v == this ? "(this Map)" : v);
+            if (it.hasNext())
+                sb.append(',').append(' ');
+        }
+        return sb.append('}').toString();
+    }
+
+    /* ---------------- Serialization -------------- */
+
+    /**
+     * Saves this map to a stream (that is, serializes it).
+     *
+     * @param s the stream
+     * @throws java.io.IOException if an I/O error occurs
+     * @serialData The bounds and base map of a view, and for base
+     * maps, the value (Object) and key (long) for each mapping, in
+     * key order, followed by a null.
+     */
+    private void writeObject(java.io.ObjectOutputStream s)
+        throws java.io.IOException {
+        s.defaultWriteObject();
+        if (m == this) {
+            for (Node<V> n = findFirst(); n != null; n = n.next) {
+                V v = n.getValidValue();
+                if (v != null) {
+                    s.writeObject(v);
+                    s.writeLong(n.key);
+                }
+            }
+            s.writeObject(null);
+        }
+    }
+
+    /**
+     * Reconstitutes this map from a stream (that is, deserializes it).
+     * @param s the stream
+     * @throws ClassNotFoundException if the class of a serialized object
+     *         could not be found
+     * @throws java.io.IOException if an I/O error occurs
+     */
+    @SuppressWarnings("unchecked")
+    private void readObject(java.io.ObjectInputStream s)
+        throws java.io.IOException, ClassNotFoundException {
+        s.defaultReadObject();
+        if (m == this) {
+            initialize();
+            // Build by appending to the predecessor at each level
+            Node<V> h = head;
+            Node<V>[] preds = (Node<V>[])new Node<?>[MAX_LEVEL];
+            java.util.Arrays.fill(preds, h);
+            Node<V> basepred = h;
+            int max = 1;
+            long last = 0L;
+            for (Object v; (v = s.readObject()) != null; ) {
+                long key = s.readLong();
+                if (basepred != h && key <= last)
+                    throw new java.io.InvalidObjectException("keys out of order");
+                last = key;
+                int rnd = ThreadLocalRandom.current().nextInt(), j = 0;
+                if ((rnd & 0x80000001) == 0) {
+                    do {
+                        ++j;
+                    } while (((rnd >>>= 1) & 1) != 0);
+                    if (j > max)
+                        max = j = Math.min(max + 1, MAX_LEVEL);
+                }
+                Node<V> z = new Node<V>(key, v, null,
+                                        (j == 0) ? null :
+                                        (Node<V>[])new Node<?>[j]);
+                basepred.next = z;
+                basepred = z;
+                for (int i = 0; i < j; ++i) {
+                    preds[i].tower[i] = z;
+                    preds[i] = z;
+                }
+            }
+            level = max;
+        }
+    }
+
+    // Unsafe mechanics
+    private static final sun.misc.Unsafe U = sun.misc.Unsafe.getUnsafe();
+    private static final long LEVEL;
+    private static final long ABASE;
+    private static final int ASHIFT;
+    static {
+        try {
+            LEVEL = U.objectFieldOffset
+                (ConcurrentLongSkipListMap.class.getDeclaredField("level"));
+            ABASE = U.arrayBaseOffset(Node[].class);
+            int scale = U.arrayIndexScale(Node[].class);
+            if ((scale & (scale - 1)) != 0)
+                throw new Error("array index scale not a power of two");
+            ASHIFT = 31 - Integer.numberOfLeadingZeros(scale);
+        } catch (ReflectiveOperationException e) {
+            throw new Error(e);
+        }
+    }
+}
@@ -0,0 +1,974 @@
+/*
+ * Written by Doug Lea with assistance from members of JCP JSR-166
+ * Expert Group and released to the public domain, as explained at
+ * http://creativecommons.org/publicdomain/zero/1.0/
+ */
+
+package java.util.concurrent;
+
+import java.io.Serializable;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A hash table supporting full concurrency of retrievals and
+ * lock-free updates, organized for workloads in which reads greatly
+ * outnumber writes.  Unlike {@link ConcurrentHashMap}, which chains
+ * entries in per-bin linked lists, this class stores keys and values
+ * adjacently in a single flat array, resolving collisions by linear
+ * probing.  A successful lookup typically touches one or two
+ * consecutive cache lines of that array, and never follows a chain
+ * of separately allocated nodes.
+ *
+ * <p>Retrieval operations (including {@code get}) never block and
+ * never write shared memory.  Update operations do not lock; they
+ * use compare-and-set on individual table slots.  As with {@code
+ * ConcurrentHashMap}, retrievals reflect the results of the most
+ * recently <em>completed</em> update operations holding upon their
+ * onset, and iterators are weakly consistent, returning elements
+ * reflecting the state of the map at some point at or since the
+ * creation of the iterator.  They do <em>not</em> throw {@link
+ * java.util.ConcurrentModificationException
+ * ConcurrentModificationException}.
+ *
+ * <p>Because keys are never physically removed from a table, a map
+ * that is subject to heavy churn of distinct keys accumulates unused
+ * slots that are reclaimed only when the table is next resized.  This
+ * class is best suited to maps such as configuration or routing
+ * tables, with a relatively stable key set that is read far more
+ * often than it is updated.  Resizing is performed cooperatively by
+ * updating threads, in small increments, and does not block readers.
+ *
+ * <p>This class and its views and iterators implement all of the
+ * <em>optional</em> methods of the {@link Map} and {@link Iterator}
+ * interfaces.  Like {@link ConcurrentHashMap}, this class does
+ * <em>not</em> allow {@code null} to be used as a key or value.
+ *
+ * @since 9
+ * @author Doug Lea
+ * @param <K> the type of keys maintained by this map
+ * @param <V> the type of mapped values
+ */
+public class ConcurrentReadMostlyHashMap<K,V> extends AbstractMap<K,V>
+    implements ConcurrentMap<K,V>, Serializable {
+    private static final long serialVersionUID = -3914732452157016287L;
+
+    /*
+     * Overview:
+     *
+     * The map is a chain of Tables, normally of length one.  Each
+     * Table holds a flat array "kvs" of key/value pairs (key at
+     * 2*i, value at 2*i+1) probed linearly from the (spread) hash,
+     * along with a parallel array of hash codes used to avoid most
+     * calls to equals on mismatches.  The design follows the
+     * state-machine approach of Click's NonBlockingHashMap, scaled
+     * back to what we need here.
+     *
+     * Key slots are write-once: a null key slot is claimed by CASing
+     * in a key, after which it never changes.  So once a key is
+     * found at some slot, that slot stays the key's home in that
+     * table, and racing inserts of equal keys meet at the same slot.
+     * Removal leaves the key in place and sets its value to
+     * TOMBSTONE.  The hash slot is written (lazily) after claiming
+     * the key; a zero hash means "not yet known", in which case we
+     * just call equals.
+     *
+     * Value slots move through states:
+     *
+     *   null        -- key (if any) claimed but never given a value
+     *   TOMBSTONE   -- removed
+     *   v           -- live value
+     *   Frozen(v)   -- being copied to the next table; no longer updatable
+     *   COPIED      -- copied; the next table holds the current state
+     *   COPIED_EMPTY -- was empty (null) when frozen; nothing copied
+     *
+     * All value transitions are CASes, and once a slot is Frozen
+     * (or either COPIED form) it is never modified again in this
+     * table.  Updates therefore linearize at a successful value
+     * CAS in some table, and reads linearize at the read of the
+     * deepest table they consult.
+     *
+     * Resizing.  When the number of claimed key slots in a table
+     * reaches 3/4 of its capacity, or a probe sequence exceeds the
+     * reprobe limit, an updating thread installs a "next" table
+     * (the same size if most claimed slots are tombstones, else
+     * twice as large) and copies slots into it.  As in
+     * ConcurrentHashMap.transfer, slot ranges are claimed in strides
+     * via a transferIndex, so that copying may proceed in parallel;
+     * the initiating thread copies until all strides are claimed,
+     * while other updaters each copy at most one stride per
+     * operation before proceeding, bounding their latency.  When
+     * all slots of the head table are copied, it is replaced by its
+     * successor.  Readers never help.
+     *
+     * To copy a slot (copySlot), the value is frozen, the key and
+     * frozen value are inserted into the next table only if that
+     * slot has no state there yet (putIfEmpty), and the slot is
+     * then marked COPIED.  Updaters never write a key to a next
+     * table until its slot in the previous table is copied (they
+     * copy it themselves if needed), so any state in the next table
+     * is at least as new as a frozen value, and late or duplicate
+     * copies are harmless.  Tombstones and empty slots are not
+     * copied at all, which is how tables shed removed keys.
+     *
+     * Updaters always claim (or find) a key's slot in the first
+     * table they visit before moving on, so a key may be present in
+     * a next table without also being present in its predecessor
+     * only if the predecessor had no room along its probe sequence,
+     * which can never change afterwards.  Thus readers encountering
+     * an empty key slot can stop, and only continue to the next
+     * table upon an exhausted probe sequence or a frozen value.
+     * A reader seeing Frozen(v) consults the next table, returning
+     * v if no newer state is found there.
+     *
+     * The element count is maintained in a LongAdder.  The count of
+     * claimed slots, which only changes when new keys are inserted,
+     * is a plain per-table counter.
+     */
+
+    /* ---------------- Constants -------------- */
+
+    /**
+     * The largest possible table capacity.  Two array elements are
+     * used per slot, so this must be at most 1 << 29.
+     */
+    private static final int MAXIMUM_CAPACITY = 1 << 29;
+
+    /**
+     * The default (and minimum) table capacity.  Must be a power of 2.
+     */
+    private static final int DEFAULT_CAPACITY = 16;
+
+    /**
+     * Base number of probes before treating a table as full.  The
+     * limit is this plus a quarter of the table length, which is
+     * almost never reached at load factors up to 3/4 unless hash
+     * codes cluster badly.
+     */
+    private static final int REPROBE_BASE = 10;
+
+    /**
+     * Minimum number of slots copied per transfer step.
+     */
+    private static final int MIN_TRANSFER_STRIDE = 16;
+
+    /**
+     * Bit set in stored hash codes, so that zero can mean "unknown".
+     */
+    static final int HASH_MARK = 0x80000000;
+
+    /**
+     * Usable bits of spread hash codes.
+     */
+    static final int HASH_BITS = 0x7fffffff;
+
+    /** Number of CPUS, to place bounds on transfer strides */
+    static final int NCPU = Runtime.getRuntime().availableProcessors();
+
+    /* ---------------- Slot states -------------- */
+
+    /**
+     * A value that has been frozen while copying to a next table.
+     */
+    static final class Frozen {
+        final Object value; // live value, or null for COPIED forms
+        Frozen(Object value) { this.value = value; }
+    }
+
+    /** Value of a removed mapping. */
+    static final Object TOMBSTONE = new Object();
+
+    /** Value of a slot whose state has been copied to the next table. */
+    static final Frozen COPIED = new Frozen(null);
+
+    /** Value of a slot that was empty when frozen. */
+    static final Frozen COPIED_EMPTY = new Frozen(null);
+
+    /**
+     * A table of slots.  See above for explanation.
+     */
+    static final class Table {
+        final Object[] kvs;      // keys at even indices, values at odd
+        final int[] hashes;      // spread hash | HASH_MARK, or 0 if unknown
+        final int length;        // number of slots; a power of two
+        final int reprobeLimit;
+        volatile Table next;     // next table, if resizing
+        volatile int slots;      // number of claimed key slots
+        volatile int transferIndex; // next slot index (plus one) to copy
+        volatile int copied;     // number of slots fully copied
+
+        Table(int n) {
+            kvs = new Object[n << 1];
+            hashes = new int[n];
+            length = n;
+            reprobeLimit = Math.min(n, REPROBE_BASE + (n >>> 2));
+            transferIndex = n;
+        }
+    }
+
+    /* ---------------- Fields -------------- */
+
+    /**
+     * The head of the chain of tables.
+     */
+    private transient volatile Table table;
+
+    /**
+     * The number of live mappings.
+     */
+    private transient LongAdder count;
+
+    // views
+    private transient EntrySetView<K,V> entrySet;
+
+    /* ---------------- Static utilities -------------- */
+
+    /**
+     * Spreads higher bits of hash to lower, as in
+     * ConcurrentHashMap.spread.
+     */
+    static final int spread(int h) {
+        return (h ^ (h >>> 16)) & HASH_BITS;
+    }
+
+    /**
+     * Returns a power of two table size for the given desired capacity.
+     */
+    private static final int tableSizeFor(int c) {
+        int n = c - 1;
+        n |= n >>> 1;
+        n |= n >>> 2;
+        n |= n >>> 4;
+        n |= n >>> 8;
+        n |= n >>> 16;
+        return ((n < DEFAULT_CAPACITY - 1) ? DEFAULT_CAPACITY :
+                (n >= MAXIMUM_CAPACITY) ? MAXIMUM_CAPACITY : n + 1);
+    }
+
+    /* ---------------- Slot access -------------- */
+
+    static final Object keyAt(Table t, int i) {
+        return U.getObjectVolatile(t.kvs, ((long)(i << 1) << ASHIFT) + ABASE);
+    }
+
+    static final Object valAt(Table t, int i) {
+        return U.getObjectVolatile(t.kvs, ((long)((i << 1) + 1) << ASHIFT) + ABASE);
+    }
+
+    static final int hashAt(Table t, int i) {
+        return U.getIntVolatile(t.hashes, ((long)i << ISHIFT) + IBASE);
+    }
+
+    static final boolean casKey(Table t, int i, Object k) {
+        return U.compareAndSwapObject
+            (t.kvs, ((long)(i << 1) << ASHIFT) + ABASE, null, k);
+    }
+
+    static final boolean casVal(Table t, int i, Object c, Object v) {
+        return U.compareAndSwapObject
+            (t.kvs, ((long)((i << 1) + 1) << ASHIFT) + ABASE, c, v);
+    }
+
+    /**
+     * Returns the slot index of key k in t, or -1 if an empty key
+     * slot was reached first, or -2 if the probe limit was exceeded.
+     */
+    static final int find(Table t, Object k, int h) {
+        int mask = t.length - 1, mh = h | HASH_MARK;
+        for (int i = h & mask, probes = 0;; i = (i + 1) & mask) {
+            Object kk; int hh;
+            if ((kk = keyAt(t, i)) == null)
+                return -1;
+            if (kk == k ||
+                (((hh = hashAt(t, i)) == mh || hh == 0) && k.equals(kk)))
+                return i;
+            if (++probes >= t.reprobeLimit)
+                return -2;
+        }
+    }
+
+    /**
+     * Returns the slot index of key k in t, claiming an empty slot
+     * for it if not present, or -1 if the probe limit was exceeded.
+     */
+    static final int claim(Table t, Object k, int h) {
+        int mask = t.length - 1, mh = h | HASH_MARK;
+        for (int i = h & mask, probes = 0;;) {
+            Object kk; int hh;
+            if ((kk = keyAt(t, i)) == null) {
+                if (casKey(t, i, k)) {
+                    U.putOrderedInt(t.hashes, ((long)i << ISHIFT) + IBASE, mh);
+                    U.getAndAddInt(t, SLOTS, 1);
+                    return i;
+                }
+                continue; // recheck same slot
+            }
+            if (kk == k ||
+                (((hh = hashAt(t, i)) == mh || hh == 0) && k.equals(kk)))
+                return i;
+            if (++probes >= t.reprobeLimit)
+                return -1;
+            i = (i + 1) & mask;
+        }
+    }
+
+    /**
+     * Returns the current state of key k, starting at table t:
+     * null if never mapped, TOMBSTONE if removed, else its value.
+     */
+    static final Object lookup(Table t, Object k, int h) {
+        Object frozen = null; // newest frozen value seen so far
+        while (t != null) {
+            int i; Object v;
+            if ((i = find(t, k, h)) == -1)
+                break;
+            else if (i >= 0) {
+                if (!((v = valAt(t, i)) instanceof Frozen))
+                    return (v != null) ? v : frozen;
+                if ((v = ((Frozen)v).value) != null)
+                    frozen = v;
+            }
+            t = t.next;
+        }
+        return frozen;
+    }
+
+    /* ---------------- Public operations -------------- */
+
+    /**
+     * Creates a new, empty map with the default initial table size (16).
+     */
+    public ConcurrentReadMostlyHashMap() {
+        this.table = new Table(DEFAULT_CAPACITY);
+        this.count = new LongAdder();
+    }
+
+    /**
+     * Creates a new, empty map with an initial table size
+     * accommodating the specified number of elements without the need
+     * to dynamically resize.
+     *
+     * @param initialCapacity The implementation performs internal
+     * sizing to accommodate this many elements.
+     * @throws IllegalArgumentException if the initial capacity of
+     * elements is negative
+     */
+    public ConcurrentReadMostlyHashMap(int initialCapacity) {
+        if (initialCapacity < 0)
+            throw new IllegalArgumentException();
+        int cap = ((initialCapacity >= (MAXIMUM_CAPACITY >>> 1)) ?
+                   MAXIMUM_CAPACITY :
+                   tableSizeFor(initialCapacity + (initialCapacity >>> 1) + 1));
+        this.table = new Table(cap);
+        this.count = new LongAdder();
+    }
+
+    /**
+     * Creates a new map with the same mappings as the given map.
+     *
+     * @param m the map
+     * @throws NullPointerException if the specified map or any of its
+     *         keys or values are null
+     */
+    public ConcurrentReadMostlyHashMap(Map<? extends K, ? extends V> m) {
+        this(m.size());
+        putAll(m);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public int size() {
+        long n = count.sum();
+        return ((n < 0L) ? 0 :
+                (n > (long)Integer.MAX_VALUE) ? Integer.MAX_VALUE :
+                (int)n);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean isEmpty() {
+        return count.sum() <= 0L; // ignore transient negative values
+    }
+
+    /**
+     * Returns the value to which the specified key is mapped,
+     * or {@code null} if this map contains no mapping for the key.
+     *
+     * @throws NullPointerException if the specified key is null
+     */
+    @SuppressWarnings("unchecked")
+    public V get(Object key) {
+        Object v = lookup(table, key, spread(key.hashCode()));
+        return (v == TOMBSTONE) ? null : (V)v;
+    }
+
+    /**
+     * Tests if the specified object is a key in this map.
+     *
+     * @param  key possible key
+     * @return {@code true} if and only if the specified object
+     *         is a key in this map, as determined by the
+     *         {@code equals} method; {@code false} otherwise
+     * @throws NullPointerException if the specified key is null
+     */
+    public boolean containsKey(Object key) {
+        Object v = lookup(table, key, spread(key.hashCode()));
+        return v != null && v != TOMBSTONE;
+    }
+
+    /**
+     * Returns {@code true} if this map maps one or more keys to the
+     * specified value. Note: This method may require a full traversal
+     * of the map, and is much slower than method {@code containsKey}.
+     *
+     * @param value value whose presence in this map is to be tested
+     * @return {@code true} if this map maps one or more keys to the
+     *         specified value
+     * @throws NullPointerException if the specified value is null
+     */
+    public boolean containsValue(Object value) {
+        if (value == null)
+            throw new NullPointerException();
+        for (Traverser<K,V> it = new Traverser<K,V>(table);
+             it.advance() != null; ) {
+            V v = it.nextValue;
+            if (v == value || value.equals(v))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Maps the specified key to the specified value in this table.
+     * Neither the key nor the value can be null.
+     *
+     * @param key key with which the specified value is to be associated
+     * @param value value to be associated with the specified key
+     * @return the previous value associated with {@code key}, or
+     *         {@code null} if there was no mapping for {@code key}
+     * @throws NullPointerException if the specified key or value is null
+     */
+    public V put(K key, V value) {
+        if (value == null)
+            throw new NullPointerException();
+        return putVal(key, value, null, PUT);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @return the previous value associated with the specified key,
+     *         or {@code null} if there was no mapping for the key
+     * @throws NullPointerException if the specified key or value is null
+     */
+    public V putIfAbsent(K key, V value) {
+        if (value == null)
+            throw new NullPointerException();
+        return putVal(key, value, null, PUT_IF_ABSENT);
+    }
+
+    /**
+     * Removes the key (and its corresponding value) from this map.
+     * This method does nothing if the key is not in the map.
+     *
+     * @param  key the key that needs to be removed
+     * @return the previous value associated with {@code key}, or
+     *         {@code null} if there was no mapping for {@code key}
+     * @throws NullPointerException if the specified key is null
+     */
+    public V remove(Object key) {
+        return putVal(key, TOMBSTONE, null, REPLACE);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @throws NullPointerException if the specified key is null
+     */
+    public boolean remove(Object key, Object value) {
+        if (key == null)
+            throw new NullPointerException();
+        return value != null && putVal(key, TOMBSTONE, value, REPLACE) != null;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @throws NullPointerException if any of the arguments are null
+     */
+    public boolean replace(K key, V oldValue, V newValue) {
+        if (oldValue == null || newValue == null)
+            throw new NullPointerException();
+        return putVal(key, newValue, oldValue, REPLACE) != null;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @return the previous value associated with the specified key,
+     *         or {@code null} if there was no mapping for the key
+     * @throws NullPointerException if the specified key or value is null
+     */
+    public V replace(K key, V value) {
+        if (value == null)
+            throw new NullPointerException();
+        return putVal(key, value, null, REPLACE);
+    }
+
+    /**
+     * Removes all of the mappings from this map.
+     */
+    public void clear() {
+        for (Traverser<K,V> it = new Traverser<K,V>(table);
+             it.advance() != null; )
+            remove(it.nextKey);
+    }
+
+    /**
+     * Returns a {@link Set} view of the mappings contained in this map.
+     * The set is backed by the map, so changes to the map are
+     * reflected in the set, and vice-versa.  The set supports element
+     * removal, which removes the corresponding mapping from the map,
+     * via the {@code Iterator.remove}, {@code Set.remove},
+     * {@code removeAll}, {@code retainAll}, and {@code clear}
+     * operations.  It does not support the {@code add} or
+     * {@code addAll} operations.
+     *
+     * <p>The view's iterators are
+     * <a href="package-summary.html#Weakly"><i>weakly consistent</i></a>.
+     *
+     * @return the set view
+     */
+    public Set<Map.Entry<K,V>> entrySet() {
+        EntrySetView<K,V> es;
+        return ((es = entrySet) != null) ? es :
+            (entrySet = new EntrySetView<K,V>(this));
+    }
+
+    /* ---------------- Updates -------------- */
+
+    /** Modes for putVal */
+    private static final int PUT           = 0;
+    private static final int PUT_IF_ABSENT = 1;
+    private static final int REPLACE       = 2; // only if present
+
+    /**
+     * Implementation for all update methods.  Sets the value for
+     * key to v (which is TOMBSTONE for removals), conditional on
+     * mode and upon a match of cv if non-null.
+     *
+     * @return the previous value, or null if there was no mapping
+     * or the update was not performed
+     */
+    @SuppressWarnings("unchecked")
+    final V putVal(Object key, Object value, Object cv, int mode) {
+        int h = spread(key.hashCode());
+        for (Table t = table;;) {
+            int i;
+            if (mode == REPLACE) {
+                if ((i = find(t, key, h)) == -1)
+                    return null;
+                else if (i < 0) {
+                    if ((t = t.next) == null)
+                        return null;
+                    continue;
+                }
+            }
+            else if ((i = claim(t, key, h)) < 0) {
+                Table nt;
+                if ((nt = t.next) == null)
+                    nt = resize(t, true);
+                else
+                    transfer(t, nt, false);
+                t = nt;
+                continue;
+            }
+            Table nt; Object v;
+            if ((nt = t.next) != null || (v = valAt(t, i)) instanceof Frozen) {
+                if (nt == null)
+                    nt = t.next;
+                if (copySlot(t, i, nt))
+                    addCopied(t, 1);
+                transfer(t, nt, false);
+                t = nt;
+                continue;
+            }
+            boolean live = (v != null && v != TOMBSTONE);
+            if (live ? mode == PUT_IF_ABSENT : mode == REPLACE)
+                return live ? (V)v : null;
+            if (cv != null && cv != v && !cv.equals(v))
+                return null;
+            if (casVal(t, i, v, value)) {
+                if (value == TOMBSTONE)
+                    count.decrement();
+                else if (!live) {
+                    count.increment();
+                    int n = t.length;
+                    if (t.slots >= n - (n >>> 2) && t.next == null)
+                        resize(t, false);
+                }
+                return live ? (V)v : null;
+            }
+        }
+    }
+
+    /* ---------------- Resizing -------------- */
+
+    /**
+     * Ensures that t has a next table, and copies all unclaimed
+     * strides of t into it.
+     *
+     * @param full true if t has no room for some key, in which case
+     * the next table is always larger
+     * @return the next table
+     */
+    private final Table resize(Table t, boolean full) {
+        Table nt;
+        if ((nt = t.next) == null) {
+            int n = t.length, nn;
+            if (!full && count.sum() < (long)(n >>> 2))
+                nn = n;                  // mostly tombstones; just clean up
+            else if ((nn = n << 1) > MAXIMUM_CAPACITY || nn < 0)
+                throw new IllegalStateException("Table capacity exceeded");
+            nt = new Table(nn);
+            if (!U.compareAndSwapObject(t, NEXT, null, nt))
+                nt = t.next;             // lost race
+        }
+        transfer(t, nt, true);
+        return nt;
+    }
+
+    /**
+     * Copies one stride of slots from t to nt, or all remaining
+     * unclaimed strides if all is true.
+     */
+    private final void transfer(Table t, Table nt, boolean all) {
+        int n = t.length, stride;
+        if ((stride = (NCPU > 1) ? (n >>> 3) / NCPU : n) < MIN_TRANSFER_STRIDE)
+            stride = MIN_TRANSFER_STRIDE;
+        int ti, bound;
+        while ((ti = t.transferIndex) > 0) {
+            bound = (ti > stride) ? ti - stride : 0;
+            if (U.compareAndSwapInt(t, TRANSFERINDEX, ti, bound)) {
+                int c = 0;
+                for (int i = bound; i < ti; ++i) {
+                    if (copySlot(t, i, nt))
+                        ++c;
+                }
+                addCopied(t, c);
+                if (!all)
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Records that c more slots of t have been copied, promoting
+     * fully copied head tables.
+     */
+    private final void addCopied(Table t, int c) {
+        if (c != 0 && U.getAndAddInt(t, COPIED_COUNT, c) + c == t.length) {
+            Table h, nt;
+            while ((h = table).copied == h.length && (nt = h.next) != null)
+                U.compareAndSwapObject(this, TABLE, h, nt);
+        }
+    }
+
+    /**
+     * Freezes slot i of t and copies its state to nt.
+     *
+     * @return true if this call completed the copy
+     */
+    static final boolean copySlot(Table t, int i, Table nt) {
+        Object v; Frozen f;
+        for (;;) {
+            if ((v = valAt(t, i)) instanceof Frozen) {
+                if (v == COPIED || v == COPIED_EMPTY)
+                    return false;
+                f = (Frozen)v;
+                break;
+            }
+            else if (v == null) {
+                if (casVal(t, i, null, COPIED_EMPTY))
+                    return true;
+            }
+            else if (v == TOMBSTONE) {
+                if (casVal(t, i, TOMBSTONE, COPIED))
+                    return true;
+            }
+            else if (casVal(t, i, v, f = new Frozen(v)))
+                break;
+        }
+        Object k = keyAt(t, i);
+        putIfEmpty(nt, k, spread(k.hashCode()), f.value);
+        return casVal(t, i, f, COPIED);
+    }
+
+    /**
+     * Installs value v for k in table t (or its successors) unless
+     * the key already has some state there.
+     */
+    static final void putIfEmpty(Table t, Object k, int h, Object v) {
+        for (;;) {
+            int i; Object x;
+            if ((i = claim(t, k, h)) < 0) {
+                Table nt;
+                if ((nt = t.next) == null) {
+                    nt = new Table(t.length << 1);
+                    if (!U.compareAndSwapObject(t, NEXT, null, nt))
+                        nt = t.next;
+                }
+                t = nt;
+            }
+            else if ((x = valAt(t, i)) == COPIED_EMPTY)
+                t = t.next;
+            else if (x != null || casVal(t, i, null, v))
+                break;
+        }
+    }
+
+    /* ---------------- Iterators and views -------------- */
+
+    /**
+     * Weakly consistent traversal of all tables reachable from a
+     * given head.  Keys are reported at the first table in which
+     * they appear, with values obtained by lookup from the head.
+     */
+    static class Traverser<K,V> {
+        final Table head;
+        Table tab;
+        int index;
+        K nextKey;
+        V nextValue;
+
+        Traverser(Table head) {
+            this.head = this.tab = head;
+        }
+
+        /**
+         * Advances to the next live mapping, returning its key, or
+         * null if none.
+         */
+        @SuppressWarnings("unchecked")
+        final K advance() {
+            for (Table t = tab; t != null; t = tab = t.next, index = 0) {
+                while (index < t.length) {
+                    Object k, v; int h;
+                    if ((k = keyAt(t, index++)) != null &&
+                        !claimedEarlier(k, h = spread(k.hashCode()), t) &&
+                        (v = lookup(head, k, h)) != null && v != TOMBSTONE) {
+                        nextValue = (V)v;
+                        return nextKey = (K)k;
+                    }
+                }
+            }
+            nextValue = null;
+            return nextKey = null;
+        }
+
+        private boolean claimedEarlier(Object k, int h, Table t) {
+            for (Table p = head; p != t && p != null; p = p.next) {
+                if (find(p, k, h) >= 0)
+                    return true;
+            }
+            return false;
+        }
+    }
+
+    static final class EntryIterator<K,V> extends Traverser<K,V>
+        implements Iterator<Map.Entry<K,V>> {
+        final ConcurrentReadMostlyHashMap<K,V> map;
+        K lastReturned;
+        EntryIterator(ConcurrentReadMostlyHashMap<K,V> map) {
+            super(map.table);
+            this.map = map;
+            advance();
+        }
+
+        public final boolean hasNext() { return nextKey != null; }
+
+        public final Map.Entry<K,V> next() {
+            K k; V v;
+            if ((k = nextKey) == null)
+                throw new NoSuchElementException();
+            v = nextValue;
+            lastReturned = k;
+            advance();
+            return new MapEntry<K,V>(k, v, map);
+        }
+
+        public final void remove() {
+            K k;
+            if ((k = lastReturned) == null)
+                throw new IllegalStateException();
+            lastReturned = null;
+            map.remove(k);
+        }
+    }
+
+    /**
+     * Exported Entry for EntryIterator.
+     */
+    static final class MapEntry<K,V> implements Map.Entry<K,V> {
+        final K key; // non-null
+        V val;       // non-null
+        final ConcurrentReadMostlyHashMap<K,V> map;
+        MapEntry(K key, V val, ConcurrentReadMostlyHashMap<K,V> map) {
+            this.key = key;
+            this.val = val;
+            this.map = map;
+        }
+        public K getKey()        { return key; }
+        public V getValue()      { return val; }
+        public int hashCode()    { return key.hashCode() ^ val.hashCode(); }
+        public String toString() {
+            return Helpers.mapEntryToString(key, val);
+        }
+
+        public boolean equals(Object o) {
+            Object k, v; Map.Entry<?,?> e;
+            return ((o instanceof Map.Entry) &&
+                    (k = (e = (Map.Entry<?,?>)o).getKey()) != null &&
+                    (v = e.getValue()) != null &&
+                    (k == key || k.equals(key)) &&
+                    (v == val || v.equals(val)));
+        }
+
+        /**
+         * Sets our entry's value and writes through to the map, as
+         * in ConcurrentHashMap.MapEntry.
+         */
+        public V setValue(V value) {
+            if (value == null) throw new NullPointerException();
+            V v = val;
+            val = value;
+            map.put(key, value);
+            return v;
+        }
+    }
+
+    static final class EntrySetView<K,V> extends AbstractSet<Map.Entry<K,V>> {
+        final ConcurrentReadMostlyHashMap<K,V> map;
+        EntrySetView(ConcurrentReadMostlyHashMap<K,V> map) { this.map = map; }
+
+        public Iterator<Map.Entry<K,V>> iterator() {
+            return new EntryIterator<K,V>(map);
+        }
+        public int size() { return map.size(); }
+        public boolean isEmpty() { return map.isEmpty(); }
+        public void clear() { map.clear(); }
+
+        public boolean contains(Object o) {
+            Object k, v, r; Map.Entry<?,?> e;
+            return ((o instanceof Map.Entry) &&
+                    (k = (e = (Map.Entry<?,?>)o).getKey()) != null &&
+                    (r = map.get(k)) != null &&
+                    (v = e.getValue()) != null &&
+                    (v == r || v.equals(r)));
+        }
+
+        public boolean remove(Object o) {
+            Object k, v; Map.Entry<?,?> e;
+            return ((o instanceof Map.Entry) &&
+                    (k = (e = (Map.Entry<?,?>)o).getKey()) != null &&
+                    (v = e.getValue()) != null &&
+                    map.remove(k, v));
+        }
+    }
+
+    /* ---------------- Serialization -------------- */
+
+    /**
+     * Saves this map to a stream (that is, serializes it).
+     *
+     * @param s the stream
+     * @throws java.io.IOException if an I/O error occurs
+     * @serialData
+     * the key (Object) and value (Object)
+     * for each key-value mapping, followed by a null pair.
+     * The key-value mappings are emitted in no particular order.
+     */
+    private void writeObject(java.io.ObjectOutputStream s)
+        throws java.io.IOException {
+        s.defaultWriteObject();
+        for (Traverser<K,V> it = new Traverser<K,V>(table);
+             it.advance() != null; ) {
+            s.writeObject(it.nextKey);
+            s.writeObject(it.nextValue);
+        }
+        s.writeObject(null);
+        s.writeObject(null);
+    }
+
+    /**
+     * Reconstitutes this map from a stream (that is, deserializes it).
+     *
+     * @param s the stream
+     * @throws ClassNotFoundException if the class of a serialized object
+     *         could not be found
+     * @throws java.io.IOException if an I/O error occurs
+     */
+    @SuppressWarnings("unchecked")
+    private void readObject(java.io.ObjectInputStream s)
+        throws java.io.IOException, ClassNotFoundException {
+        s.defaultReadObject();
+        table = new Table(DEFAULT_CAPACITY);
+        count = new LongAdder();
+        for (;;) {
+            K k = (K) s.readObject();
+            V v = (V) s.readObject();
+            if (k != null && v != null)
+                put(k, v);
+            else
+                break;
+        }
+    }
+
+    // Unsafe mechanics
+    private static final sun.misc.Unsafe U = sun.misc.Unsafe.getUnsafe();
+    private static final long TABLE;
+    private static final long NEXT;
+    private static final long SLOTS;
+    private static final long TRANSFERINDEX;
+    private static final long COPIED_COUNT;
+    private static final int ABASE;
+    private static final int ASHIFT;
+    private static final int IBASE;
+    private static final int ISHIFT;
+
+    static {
+        try {
+            TABLE = U.objectFieldOffset
+                (ConcurrentReadMostlyHashMap.class.getDeclaredField("table"));
+            NEXT = U.objectFieldOffset
+                (Table.class.getDeclaredField("next"));
+            SLOTS = U.objectFieldOffset
+                (Table.class.getDeclaredField("slots"));
+            TRANSFERINDEX = U.objectFieldOffset
+                (Table.class.getDeclaredField("transferIndex"));
+            COPIED_COUNT = U.objectFieldOffset
+                (Table.class.getDeclaredField("copied"));
+
+            ABASE = U.arrayBaseOffset(Object[].class);
+            int scale = U.arrayIndexScale(Object[].class);
+            if ((scale & (scale - 1)) != 0)
+                throw new Error("array index scale not a power of two");
+            ASHIFT = 31 - Integer.numberOfLeadingZeros(scale);
+
+            IBASE = U.arrayBaseOffset(int[].class);
+            scale = U.arrayIndexScale(int[].class);
+            if ((scale & (scale - 1)) != 0)
+                throw new Error("array index scale not a power of two");
+            ISHIFT = 31 - Integer.numberOfLeadingZeros(scale);
+        } catch (ReflectiveOperationException e) {
+            throw new Error(e);
+        }
+    }
+}
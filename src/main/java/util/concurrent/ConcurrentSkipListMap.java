@@ -314,6 +314,10 @@ public class ConcurrentSkipListMap<K,V> extends AbstractMap<K,V>
      * links of index nodes (as opposed to mutable "left" fields in
      * true trees) makes this tractable using only CAS operations.
      *
+     * Maps created using newRankedMap additionally maintain counts
+     * in index nodes to support order-statistic operations (see
+     * "Order statistics" below).
+     *
      * Notation guide for local variables
      * Node:         b, n, f    for  predecessor, node, successor
      * Index:        q, r, d    for index node, right, down.
@@ -341,10 +345,33 @@ public class ConcurrentSkipListMap<K,V> extends AbstractMap<K,V>
      * The comparator used to maintain order in this map, or null if
      * using natural ordering.  (Non-private to simplify access in
      * nested classes.)
-     * @serial
      */
     final Comparator<? super K> comparator;
 
+    /**
+     * True if index nodes maintain the span counts used by rank,
+     * select and size.  Serialized explicitly (see
+     * serialPersistentFields), so that streams written by previous
+     * versions of this class deserialize as unranked maps.
+     * (Non-private to simplify access in nested classes.)
+     */
+    final transient boolean ranked;
+
+    /**
+     * Serializable fields, including the transient ranked field,
+     * which is absent from streams of previous versions.
+     *
+     * @serialField comparator Comparator the comparator used to
+     *              maintain order in this map, or null if using
+     *              natural ordering
+     * @serialField ranked boolean true if this map maintains counts
+     *              supporting rank and select
+     */
+    private static final java.io.ObjectStreamField[] serialPersistentFields = {
+        new java.io.ObjectStreamField("comparator", Comparator.class),
+        new java.io.ObjectStreamField("ranked", Boolean.TYPE)
+    };
+
     /** Lazily initialized key set */
     private transient KeySet<K,V> keySet;
     /** Lazily initialized entry set */
@@ -604,12 +631,32 @@ public class ConcurrentSkipListMap<K,V> extends AbstractMap<K,V>
      */
     static final class HeadIndex<K,V> extends Index<K,V> {
         final int level;
+        volatile int span;  // used only in ranked maps
         HeadIndex(Node<K,V> node, Index<K,V> down, Index<K,V> right, int level) {
             super(node, down, right);
             this.level = level;
         }
     }
 
+    /**
+     * Index nodes used in ranked maps hold the number of valid base
+     * nodes they span.
+     */
+    static final class RankedIndex<K,V> extends Index<K,V> {
+        volatile int span;
+        RankedIndex(Node<K,V> node, Index<K,V> down, Index<K,V> right) {
+            super(node, down, right);
+        }
+    }
+
+    /**
+     * Creates an index node of the kind used in this map.
+     */
+    final Index<K,V> newIndex(Node<K,V> node, Index<K,V> down) {
+        return ranked ? new RankedIndex<K,V>(node, down, null)
+            : new Index<K,V>(node, down, null);
+    }
+
     /* ---------------- Comparison utilities -------------- */
 
     /**
@@ -819,7 +866,19 @@ public class ConcurrentSkipListMap<K,V> extends AbstractMap<K,V>
                 break outer;
             }
         }
+        addIndex(key, z, cmp);
+        if (ranked)
+            updateSpans(key, cmp);
+        return null;
+    }
 
+    /**
+     * Randomly chooses a level for newly inserted node z, and if
+     * nonzero, splices in index nodes for it, possibly adding a
+     * level to the head.  Called after insertion into the base
+     * list by doPut and mergeSorted.
+     */
+    private void addIndex(K key, Node<K,V> z, Comparator<? super K> cmp) {
         int rnd = ThreadLocalRandom.nextSecondarySeed();
         if ((rnd & 0x80000001) == 0) { // test highest and lowest bits
             int level = 1, max;
@@ -829,14 +888,14 @@ public class ConcurrentSkipListMap<K,V> extends AbstractMap<K,V>
             HeadIndex<K,V> h = head;
             if (level <= (max = h.level)) {
                 for (int i = 1; i <= level; ++i)
-                    idx = new Index<K,V>(z, idx, null);
+                    idx = newIndex(z, idx);
             }
             else { // try to grow by one level
                 level = max + 1; // hold in array and later pick the one to use
                 @SuppressWarnings("unchecked")Index<K,V>[] idxs =
                     (Index<K,V>[])new Index<?,?>[level+1];
                 for (int i = 1; i <= level; ++i)
-                    idxs[i] = idx = new Index<K,V>(z, idx, null);
+                    idxs[i] = idx = newIndex(z, idx);
                 for (;;) {
                     h = head;
                     int oldLevel = h.level;
@@ -894,7 +953,6 @@ public class ConcurrentSkipListMap<K,V> extends AbstractMap<K,V>
                 }
             }
         }
-        return null;
     }
 
     /* ---------------- Deletion -------------- */
@@ -954,6 +1012,8 @@ public class ConcurrentSkipListMap<K,V> extends AbstractMap<K,V>
                     if (head.right == null)
                         tryReduceLevel();
                 }
+                if (ranked)
+                    updateSpans(key, cmp);
                 @SuppressWarnings("unchecked") V vv = (V)v;
                 return vv;
             }
@@ -992,8 +1052,168 @@ public class ConcurrentSkipListMap<K,V> extends AbstractMap<K,V>
             d.right == null &&
             h.right == null &&
             casHead(h, d) && // try to set
-            h.right != null) // recheck
-            casHead(d, h);   // try to backout
+            h.right != null && // recheck
+            casHead(d, h) && // try to backout
+            ranked) {
+            for (Index<K,V> q = h; q != null; q = q.right)
+                recount(q, comparator);
+        }
+    }
+
+    /* ---------------- Range removal -------------- */
+
+    /*
+     * Method removeRange (used by SubMap.clear) removes all nodes
+     * with keys in a range without the per-node overhead of doRemove
+     * (an index traversal for each node, and possibly a call to
+     * tryReduceLevel).  The first pass traverses the range, deleting
+     * each node by CASing its value to null, and then appending a
+     * marker as in doRemove.  Once a node is marked, its next field
+     * never changes, so a contiguous run of deleted, marked nodes
+     * (and their markers) is immutable, and the second pass unlinks
+     * each such run from its predecessor using a single CAS.  Nodes
+     * concurrently inserted into the range are left in place, as
+     * are those concurrently deleted by other threads but not yet
+     * marked (which are helped along as usual).  The third pass
+     * traverses each index level once, top down, unlinking each run
+     * of index nodes for deleted nodes using a single CAS.  As with
+     * single unlinks, this can occasionally lose an index node that
+     * is being concurrently linked into the run, which is harmless.
+     * In ranked maps, a final pass recounts the spans of the index
+     * nodes preceding and within the range, level by level from the
+     * bottom up, locating each level anew as in updateSpans.
+     */
+
+    /**
+     * Returns true if key k is below the range with the given lower
+     * bound, if non-null.
+     */
+    static boolean belowRange(Comparator<?> cmp, Object k,
+                              Object lo, boolean loInclusive) {
+        int c;
+        return (lo != null &&
+                ((c = cpr(cmp, k, lo)) < 0 || (c == 0 && !loInclusive)));
+    }
+
+    /**
+     * Returns true if key k is above the range with the given upper
+     * bound, if non-null.
+     */
+    static boolean aboveRange(Comparator<?> cmp, Object k,
+                              Object hi, boolean hiInclusive) {
+        int c;
+        return (hi != null &&
+                ((c = cpr(cmp, k, hi)) > 0 || (c == 0 && !hiInclusive)));
+    }
+
+    /**
+     * Removes all mappings with keys in the given range, in which
+     * null bounds are unbounded.
+     */
+    final void removeRange(K lo, boolean loInclusive,
+                           K hi, boolean hiInclusive) {
+        Comparator<? super K> cmp = comparator;
+        // delete and mark
+        Node<K,V> start = (lo == null) ? head.node : findPredecessor(lo, cmp);
+        for (Node<K,V> n = start.next; n != null; ) {
+            K k = n.key;
+            Object v = n.value;
+            if (k == null || v == n)            // marker
+                n = n.next;
+            else if (belowRange(cmp, k, lo, loInclusive))
+                n = n.next;
+            else if (aboveRange(cmp, k, hi, hiInclusive))
+                break;
+            else if (v == null || n.casValue(v, null)) {
+                for (Node<K,V> f; (f = n.next) == null || f.value != f; ) {
+                    if (n.appendMarker(f))
+                        break;
+                }
+                n = n.next;
+            }
+            // else lost race to replace value; retry
+        }
+        // unlink runs of deleted nodes
+        outer: for (;;) {
+            Node<K,V> b = (lo == null) ? head.node : findPredecessor(lo, cmp);
+            for (;;) {
+                Node<K,V> n, s, f;
+                if ((n = s = b.next) == null)
+                    break outer;
+                while (s != null) {
+                    Object v = s.value;
+                    if (v == s)                     // marker
+                        s = s.next;
+                    else if (v == null && (f = s.next) != null &&
+                             f.value == f)          // deleted and marked
+                        s = f.next;
+                    else
+                        break;
+                }
+                if (b.value == null)                // b is deleted
+                    continue outer;
+                if (s != n)
+                    b.casNext(n, s);                // recheck either way
+                else if (n.value == null)           // deleted, not marked
+                    n.helpDelete(b, n.next);
+                else if (aboveRange(cmp, n.key, hi, hiInclusive))
+                    break outer;
+                else
+                    b = n;
+            }
+        }
+        // unlink runs of index nodes for deleted nodes
+        outer: for (;;) {
+            for (Index<K,V> q = head, d;;) {
+                for (Index<K,V> t = q, r;;) {
+                    if ((r = t.right) == null)
+                        break;
+                    Node<K,V> p = r.node;
+                    if (p.value == null) {
+                        Index<K,V> s = r.right;
+                        while (s != null && s.indexesDeletedNode())
+                            s = s.right;
+                        if (t.indexesDeletedNode())
+                            continue outer;
+                        t.casRight(r, s);           // recheck either way
+                    }
+                    else if (aboveRange(cmp, p.key, hi, hiInclusive))
+                        break;
+                    else {
+                        if (t == q && belowRange(cmp, p.key, lo, loInclusive))
+                            q = r;
+                        t = r;
+                    }
+                }
+                if ((d = q.down) == null)
+                    break outer;
+                q = d;
+            }
+        }
+        if (ranked) {
+            // recount each level bottom up, locating it anew each time
+            for (int j = 1;; ++j) {
+                HeadIndex<K,V> h = head;
+                Index<K,V> q = h, r;
+                if (h.level < j)
+                    break;
+                for (int i = h.level; q != null; --i, q = q.down) {
+                    while ((r = q.right) != null &&
+                           belowRange(cmp, r.node.key, lo, loInclusive))
+                        q = r;
+                    if (i == j)
+                        break;
+                }
+                for (Index<K,V> t = q; t != null; t = r) {
+                    recount(t, cmp);
+                    if ((r = t.right) == null ||
+                        aboveRange(cmp, r.node.key, hi, hiInclusive))
+                        break;
+                }
+            }
+        }
+        if (head.right == null)
+            tryReduceLevel();
     }
 
     /* ---------------- Finding and removing first element -------------- */
@@ -1033,6 +1253,8 @@ public class ConcurrentSkipListMap<K,V> extends AbstractMap<K,V>
             if (!n.appendMarker(f) || !b.casNext(n, f))
                 findFirst(); // retry
             clearIndexToFirst();
+            if (ranked)
+                updateSpans(n.key, comparator);
             @SuppressWarnings("unchecked") V vv = (V)v;
             return new AbstractMap.SimpleImmutableEntry<K,V>(n.key, vv);
         }
@@ -1097,6 +1319,8 @@ public class ConcurrentSkipListMap<K,V> extends AbstractMap<K,V>
                     if (head.right == null)
                         tryReduceLevel();
                 }
+                if (ranked)
+                    updateSpans(key, comparator);
                 @SuppressWarnings("unchecked") V vv = (V)v;
                 return new AbstractMap.SimpleImmutableEntry<K,V>(key, vv);
             }
@@ -1240,6 +1464,366 @@ public class ConcurrentSkipListMap<K,V> extends AbstractMap<K,V>
         }
     }
 
+    /* ---------------- Order statistics -------------- */
+
+    /*
+     * In maps created by newRankedMap, each index node holds a
+     * "span": the number of valid base nodes from its own node
+     * (inclusive, unless the base header) up to the node of its
+     * right neighbor (exclusive), or to the end of the list if none.
+     * Summing the spans of the index nodes passed over while moving
+     * right along a search path, plus the valid nodes passed over at
+     * the base level, gives the number of keys less than the search
+     * key, so rank, select and size need only O(log n) expected
+     * steps.
+     *
+     * Spans cannot be adjusted atomically with the CAS-based list
+     * operations they depend on, so they are instead recounted.
+     * After completing an insertion or deletion, including its index
+     * insertion or cleanup, the updating thread (in method
+     * updateSpans) traverses the index levels for its key, and
+     * recounts, bottom up, the span of the index node preceding the
+     * key at each level, plus that of the index node for the key
+     * itself, if any.  A level-1 span is recounted by traversing the
+     * few base nodes it covers, and higher ones by summing the
+     * spans one level down, so each recount is cheap.  A thread
+     * writing a span may overwrite a fresher value written by
+     * another thread, so each recount is repeated until a count read
+     * after writing matches the written value.  Also, the nodes on
+     * the path may have changed by the time they are recounted (for
+     * example when a new index node is linked just before the key,
+     * or a level is added to the head), so the path is traced again
+     * afterwards, and all recounts are redone if it differs.  Because
+     * every change within the range of an index node is followed by
+     * a recount of the node by the changing thread, located after
+     * the change, spans are exact whenever the map is quiescent.
+     * (Method tryReduceLevel also recounts a level that it restores
+     * after removing it, since updates meanwhile would have skipped
+     * it.)  While updates are in progress, results may be
+     * inaccurate, in the same way as method size in other maps.
+     * To keep updates from livelocking under sustained contention
+     * in the same range, both kinds of retry are bounded by
+     * MAX_RECOUNTS.  A thread giving up may leave a stale span,
+     * which is then inexact until the next update within its range
+     * recounts it; this happens only when other updates there are
+     * continually interleaving with it.
+     *
+     * An index node linked to a predecessor that is concurrently
+     * being unlinked is lost from its level, although still
+     * reachable from above via its down link.  So the range of an
+     * index node found by moving right one level down may extend
+     * beyond that of its parent, and its span then also includes
+     * nodes that are counted elsewhere (and is not maintained for
+     * them, since updates there do not pass through it).  Summing
+     * spans (method countTo) therefore clips the last index node
+     * below a parent to the parent's range by counting its nodes
+     * directly.  Searches never move right across such a node, since
+     * the first key beyond it lies outside the range they entered.
+     *
+     * Spans are held only in RankedIndex nodes, which replace plain
+     * Index nodes in ranked maps, and in HeadIndex nodes, where the
+     * field fits into otherwise unused alignment space, so other
+     * maps pay no space overhead.  Spans are ints, which is ample
+     * because each covers only the nodes between two neighboring
+     * index nodes of one level.
+     */
+
+    /**
+     * Returns the span of an index node of a ranked map.
+     */
+    static int spanOf(Index<?,?> q) {
+        return (q instanceof RankedIndex) ? ((RankedIndex<?,?>)q).span
+            : ((HeadIndex<?,?>)q).span;
+    }
+
+    /**
+     * Sets the span of an index node of a ranked map.
+     */
+    static void setSpan(Index<?,?> q, int s) {
+        if (q instanceof RankedIndex)
+            ((RankedIndex<?,?>)q).span = s;
+        else
+            ((HeadIndex<?,?>)q).span = s;
+    }
+
+    /**
+     * Counts the valid base nodes spanned by q, using the spans of
+     * index nodes one level down if present.
+     */
+    static <K,V> int countSpan(Index<K,V> q, Comparator<? super K> cmp) {
+        Index<K,V> r = q.right;
+        return countTo(q, (r == null) ? null : r.node.key, cmp);
+    }
+
+    /**
+     * Counts the valid base nodes from that of q up to but not
+     * including key bound, or to the end if bound is null.  Uses the
+     * spans of index nodes one level down that end at or before
+     * bound, and otherwise counts their nodes up to bound.
+     */
+    static <K,V> int countTo(Index<K,V> q, K bound,
+                             Comparator<? super K> cmp) {
+        Index<K,V> d = q.down;
+        int s = 0;
+        if (d == null) {
+            for (Node<K,V> n = q.node; n != null; n = n.next) {
+                K k = n.key;
+                if (k != null) {         // skip header and markers
+                    if (bound != null && cpr(cmp, k, bound) >= 0)
+                        break;
+                    if (n.value != null)
+                        ++s;
+                }
+            }
+        }
+        else {
+            for (Index<K,V> t = d, r; t != null; t = r) {
+                K k = ((r = t.right) == null) ? null : r.node.key;
+                int c = (k == null) ? ((bound == null) ? 0 : 1)
+                    : (bound == null) ? -1 : cpr(cmp, k, bound);
+                if (c < 0)
+                    s += spanOf(t);
+                else {
+                    s += (c == 0) ? spanOf(t) : countTo(t, bound, cmp);
+                    break;
+                }
+            }
+        }
+        return s;
+    }
+
+    /**
+     * The maximum number of times recount rewrites a span, and
+     * updateSpans retraces a path, before giving up.
+     */
+    static final int MAX_RECOUNTS = 8;
+
+    /**
+     * Recounts the span of q until stable, or until MAX_RECOUNTS
+     * attempts.
+     */
+    static <K,V> void recount(Index<K,V> q, Comparator<? super K> cmp) {
+        for (int s = countSpan(q, cmp), t, n = MAX_RECOUNTS;; s = t) {
+            setSpan(q, s);
+            if ((t = countSpan(q, cmp)) == s || --n == 0)
+                break;
+        }
+    }
+
+    /**
+     * Recounts spans of index nodes on the path to the given key,
+     * and of those for the key itself, retracing the path at most
+     * MAX_RECOUNTS times.  Called in ranked maps after each
+     * insertion or deletion.
+     */
+    private void updateSpans(Object key, Comparator<? super K> cmp) {
+        Index<K,V>[] path = null;
+        int tries = MAX_RECOUNTS;
+        for (HeadIndex<K,V> h;;) {
+            int levels = (h = head).level;
+            if (path == null || path.length < (levels << 1)) {
+                @SuppressWarnings("unchecked") Index<K,V>[] p =
+                    (Index<K,V>[])new Index<?,?>[levels << 1];
+                path = p;
+            }
+            tracePath(h, levels, key, cmp, path, false);
+            for (int i = 0; i < (levels << 1); ++i) {
+                Index<K,V> q = path[i];
+                if (q != null)
+                    recount(q, cmp);
+            }
+            if ((h == head && tracePath(h, levels, key, cmp, path, true)) ||
+                --tries == 0)
+                break;
+        }
+    }
+
+    /**
+     * Traverses levels from head h for the given key, recording in
+     * path, from the bottom level up, the index node preceding the
+     * key and the index node for the key (or null) at each level.
+     * If check is true, instead compares with the recorded nodes.
+     *
+     * @return false if check is true and some node differs
+     */
+    private static <K,V> boolean tracePath(Index<K,V> h, int levels,
+                                           Object key,
+                                           Comparator<? super K> cmp,
+                                           Index<K,V>[] path,
+                                           boolean check) {
+        Index<K,V> q = h;
+        for (int j = levels; j > 0 && q != null; --j, q = q.down) {
+            Index<K,V> r, t = null;
+            while ((r = q.right) != null) {
+                int c = cpr(cmp, key, r.node.key);
+                if (c < 0)
+                    break;
+                if (c == 0) {
+                    t = r;
+                    break;
+                }
+                q = r;
+            }
+            int i = (j - 1) << 1;
+            if (!check) {
+                path[i] = q;
+                path[i + 1] = t;
+            }
+            else if (path[i] != q || path[i + 1] != t)
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Sets all spans of the levels headed by h and below.  Called
+     * only when constructing ranked maps, before publication.
+     */
+    private static <K,V> void initSpans(Index<K,V> h,
+                                        Comparator<? super K> cmp) {
+        Index<K,V> d = h.down;
+        if (d != null)
+            initSpans(d, cmp);
+        for (Index<K,V> q = h; q != null; q = q.right)
+            setSpan(q, countSpan(q, cmp));
+    }
+
+    /**
+     * Returns the number of keys less than the given key, or less
+     * than or equal to it if inclusive, or all keys if key is null.
+     * Uses spans if ranked, else counts all nodes.
+     */
+    final long countLess(Object key, boolean inclusive,
+                         Comparator<? super K> cmp) {
+        long count = 0L;
+        Index<K,V> q = head;
+        if (ranked) {
+            for (Index<K,V> r, d;;) {
+                int c;
+                if ((r = q.right) != null &&
+                    (key == null ||
+                     (c = cpr(cmp, r.node.key, key)) < 0 ||
+                     (c == 0 && inclusive))) {
+                    count += spanOf(q);
+                    q = r;
+                }
+                else if ((d = q.down) != null)
+                    q = d;
+                else
+                    break;
+            }
+        }
+        for (Node<K,V> n = q.node; n != null; n = n.next) {
+            K k = n.key;
+            if (k != null) {
+                int c;
+                if (key != null &&
+                    ((c = cpr(cmp, k, key)) > 0 || (c == 0 && !inclusive)))
+                    break;
+                if (n.value != null)
+                    ++count;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Creates a new, empty map, sorted according to the specified
+     * comparator, that additionally maintains counts within its
+     * index supporting methods {@link #rank} and {@link #select}, as
+     * well as {@code size} of the map and its views, in expected
+     * time logarithmic in the size of the map.  Insertions and
+     * removals are somewhat slower than in other maps, because they
+     * also update these counts.  Like {@code size}, these methods
+     * may return inaccurate results if the map is concurrently
+     * modified, but are exact otherwise.  The ranked property is
+     * preserved by {@code clone} and serialization, but not by other
+     * forms of copying.
+     *
+     * @param comparator the comparator that will be used to order this map.
+     *        If {@code null}, the {@linkplain Comparable natural
+     *        ordering} of the keys will be used.
+     * @param <K> the type of keys maintained by the map
+     * @param <V> the type of mapped values
+     * @return the new map
+     * @since 9
+     */
+    public static <K,V> ConcurrentSkipListMap<K,V> newRankedMap
+        (Comparator<? super K> comparator) {
+        return new ConcurrentSkipListMap<K,V>(comparator, true);
+    }
+
+    /**
+     * Returns the number of keys in this map strictly less than the
+     * given key, which is also the index the key has or would have
+     * in ascending order.  This method takes expected logarithmic
+     * time in maps created by {@link #newRankedMap}, but otherwise
+     * traverses all lesser keys.  If the map is concurrently
+     * modified, the result may be inaccurate.
+     *
+     * @param key the key
+     * @return the number of keys less than the given key
+     * @throws ClassCastException if the specified key cannot be compared
+     *         with the keys currently in the map
+     * @throws NullPointerException if the specified key is null
+     * @since 9
+     */
+    public long rank(K key) {
+        if (key == null)
+            throw new NullPointerException();
+        return countLess(key, false, comparator);
+    }
+
+    /**
+     * Returns a key-value mapping associated with the key having the
+     * given index in ascending order, so that {@code
+     * rank(select(i).getKey()) == i}, or {@code null} if there are
+     * not more than {@code index} keys.  This method takes expected
+     * logarithmic time in maps created by {@link #newRankedMap}, but
+     * otherwise traverses all lesser keys.  If the map is
+     * concurrently modified, the result may be inaccurate.  The
+     * returned entry does <em>not</em> support the {@code Entry.setValue}
+     * method.
+     *
+     * @param index the index, starting at zero for the least key
+     * @return an entry with the key of the given index, or
+     *         {@code null} if there is no such key
+     * @throws IllegalArgumentException if index is negative
+     * @since 9
+     */
+    public Map.Entry<K,V> select(long index) {
+        if (index < 0L)
+            throw new IllegalArgumentException();
+        long count = 0L;
+        Index<K,V> q = head;
+        if (ranked) {
+            for (Index<K,V> r, d;;) {
+                int s;
+                if ((r = q.right) != null && count + (s = spanOf(q)) <= index) {
+                    count += s;
+                    q = r;
+                }
+                else if ((d = q.down) != null)
+                    q = d;
+                else
+                    break;
+            }
+        }
+        for (Node<K,V> n = q.node; n != null; n = n.next) {
+            if (n.key != null && n.value != null) {
+                if (count == index) {
+                    AbstractMap.SimpleImmutableEntry<K,V> e =
+                        n.createSnapshot();
+                    if (e != null)
+                        return e;
+                }
+                else
+                    ++count;
+            }
+        }
+        return null;
+    }
+
     /* ---------------- Constructors -------------- */
 
     /**
@@ -1248,6 +1832,7 @@ public class ConcurrentSkipListMap<K,V> extends AbstractMap<K,V>
      */
     public ConcurrentSkipListMap() {
         this.comparator = null;
+        this.ranked = false;
         initialize();
     }
 
@@ -1261,6 +1846,17 @@ public class ConcurrentSkipListMap<K,V> extends AbstractMap<K,V>
      */
     public ConcurrentSkipListMap(Comparator<? super K> comparator) {
         this.comparator = comparator;
+        this.ranked = false;
+        initialize();
+    }
+
+    /**
+     * Constructor for newRankedMap.
+     */
+    private ConcurrentSkipListMap(Comparator<? super K> comparator,
+                                  boolean ranked) {
+        this.comparator = comparator;
+        this.ranked = ranked;
         initialize();
     }
 
@@ -1277,6 +1873,7 @@ public class ConcurrentSkipListMap<K,V> extends AbstractMap<K,V>
      */
     public ConcurrentSkipListMap(Map<? extends K, ? extends V> m) {
         this.comparator = null;
+        this.ranked = false;
         initialize();
         putAll(m);
     }
@@ -1292,6 +1889,7 @@ public class ConcurrentSkipListMap<K,V> extends AbstractMap<K,V>
      */
     public ConcurrentSkipListMap(SortedMap<K, ? extends V> m) {
         this.comparator = m.comparator();
+        this.ranked = false;
         initialize();
         buildFromSorted(m);
     }
@@ -1362,7 +1960,7 @@ public class ConcurrentSkipListMap<K,V> extends AbstractMap<K,V>
             if (j > 0) {
                 Index<K,V> idx = null;
                 for (int i = 1; i <= j; ++i) {
-                    idx = new Index<K,V>(z, idx, null);
+                    idx = newIndex(z, idx);
                     if (i > h.level)
                         h = new HeadIndex<K,V>(h.node, h, idx, i);
 
@@ -1375,6 +1973,225 @@ public class ConcurrentSkipListMap<K,V> extends AbstractMap<K,V>
             }
         }
         head = h;
+        if (ranked)
+            initSpans(h, comparator);
+    }
+
+    /* ---------------- Bulk loading -------------- */
+
+    /*
+     * Bulk loading (method fromSorted) builds a new map from a
+     * sorted Spliterator in parallel.  The spliterator is split into
+     * ordered batches using a CountedCompleter tree, in the same
+     * style as ConcurrentHashMap bulk tasks.  Each leaf builds a
+     * LoadSegment: a private run of base nodes, plus, for each index
+     * level, the first and last index nodes of that level in the
+     * run, choosing random levels as in buildFromSorted.  Upon
+     * completion, segments are concatenated left to right, which
+     * requires only linking the last node of each level of one
+     * segment to the first of the next, and checking that the keys
+     * at the seam are in order.  Finally, head indices are created
+     * for the levels of the combined segment.  No node is visible to
+     * other threads until the map is returned, so all links are set
+     * using plain writes, made visible by task joins and the final
+     * volatile write of head.
+     */
+
+    /**
+     * The minimum number of entries per batch when bulk loading.
+     */
+    static final int MIN_LOAD_BATCH = 1 << 10;
+
+    /**
+     * The maximum index level of nodes created when bulk loading.
+     */
+    static final int MAX_LOAD_LEVEL = 31;
+
+    /**
+     * A run of linked nodes with their index nodes, built and
+     * concatenated when bulk loading.
+     */
+    static final class LoadSegment<K,V> {
+        Node<K,V> first, last;
+        int levels;                      // number of index levels
+        final Index<K,V>[] firsts;       // first index node per level-1
+        final Index<K,V>[] lasts;        // last index node per level-1
+
+        @SuppressWarnings("unchecked")
+        LoadSegment() {
+            firsts = (Index<K,V>[])new Index<?,?>[MAX_LOAD_LEVEL];
+            lasts = (Index<K,V>[])new Index<?,?>[MAX_LOAD_LEVEL];
+        }
+
+        /**
+         * Appends a new node and its randomly chosen index nodes.
+         */
+        void append(K key, V value, Comparator<? super K> cmp) {
+            if (key == null || value == null)
+                throw new NullPointerException();
+            if (last != null && cpr(cmp, last.key, key) >= 0)
+                throw new IllegalArgumentException("keys not ascending");
+            Node<K,V> z = new Node<K,V>(key, value, null);
+            if (last == null)
+                first = z;
+            else
+                last.next = z;
+            last = z;
+            int rnd = ThreadLocalRandom.current().nextInt();
+            if ((rnd & 0x80000001) == 0) {
+                int j = 0;
+                do {
+                    ++j;
+                } while (((rnd >>>= 1) & 1) != 0);
+                if (j > levels)
+                    levels = j = Math.min(levels + 1, MAX_LOAD_LEVEL);
+                Index<K,V> idx = null;
+                for (int i = 0; i < j; ++i) {
+                    idx = new Index<K,V>(z, idx, null);
+                    if (lasts[i] == null)
+                        firsts[i] = idx;
+                    else
+                        lasts[i].right = idx;
+                    lasts[i] = idx;
+                }
+            }
+        }
+
+        /**
+         * Appends the given segment, all of whose keys must be
+         * greater than those of this segment.
+         */
+        LoadSegment<K,V> concat(LoadSegment<K,V> s, Comparator<? super K> cmp) {
+            if (s == null || s.first == null)
+                return this;
+            if (first == null)
+                return s;
+            if (cpr(cmp, last.key, s.first.key) >= 0)
+                throw new IllegalArgumentException("keys not ascending");
+            last.next = s.first;
+            last = s.last;
+            for (int i = 0; i < s.levels; ++i) {
+                Index<K,V> f = s.firsts[i];
+                if (lasts[i] == null)
+                    firsts[i] = f;
+                else
+                    lasts[i].right = f;
+                lasts[i] = s.lasts[i];
+            }
+            if (s.levels > levels)
+                levels = s.levels;
+            return this;
+        }
+    }
+
+    /**
+     * Task building a LoadSegment from a spliterator, forking tasks
+     * for prefixes split off while large, and concatenating their
+     * segments with its own upon completion.
+     */
+    @SuppressWarnings("serial")
+    static final class LoadTask<K,V> extends CountedCompleter<LoadSegment<K,V>> {
+        final Spliterator<? extends Map.Entry<? extends K, ? extends V>> spliterator;
+        final Comparator<? super K> cmp;
+        final long threshold;
+        LoadTask<K,V> rights, nextRight;
+        LoadSegment<K,V> result;
+
+        LoadTask(CountedCompleter<?> parent,
+                 Spliterator<? extends Map.Entry<? extends K, ? extends V>> spliterator,
+                 Comparator<? super K> cmp, long threshold,
+                 LoadTask<K,V> nextRight) {
+            super(parent);
+            this.spliterator = spliterator;
+            this.cmp = cmp;
+            this.threshold = threshold;
+            this.nextRight = nextRight;
+        }
+
+        public final LoadSegment<K,V> getRawResult() { return result; }
+
+        public final void compute() {
+            final Comparator<? super K> cmp = this.cmp;
+            Spliterator<? extends Map.Entry<? extends K, ? extends V>> s =
+                spliterator, p;
+            // prefixes precede this task's remaining entries; rights
+            // holds the most recently split (rightmost) one first
+            while (s.estimateSize() > threshold && (p = s.trySplit()) != null) {
+                addToPendingCount(1);
+                (rights = new LoadTask<K,V>(this, p, cmp, threshold,
+                                            rights)).fork();
+            }
+            LoadSegment<K,V> seg = new LoadSegment<K,V>();
+            s.forEachRemaining(e -> seg.append(e.getKey(), e.getValue(), cmp));
+            result = seg;
+            for (CountedCompleter<?> c = firstComplete(); c != null;
+                 c = c.nextComplete()) {
+                @SuppressWarnings("unchecked")
+                LoadTask<K,V> t = (LoadTask<K,V>)c, r = t.rights;
+                while (r != null) {
+                    t.result = r.result.concat(t.result, cmp);
+                    r = t.rights = r.nextRight;
+                }
+            }
+        }
+    }
+
+    /**
+     * Creates a new map containing the mappings of the given
+     * spliterator, which must be in strictly ascending key order.
+     * The map is constructed in parallel using the {@link
+     * ForkJoinPool#commonPool()} if the spliterator is large and
+     * splittable, and in any case without the per-mapping searches
+     * entailed by repeated calls to {@code put}.  For example, a
+     * map may be loaded from a sorted stream using {@code
+     * fromSorted(null, stream.spliterator())}.
+     *
+     * @param comparator the comparator that will be used to order
+     *        the map, or {@code null} for {@linkplain Comparable
+     *        natural ordering}
+     * @param entries the mappings, in ascending key order
+     * @param <K> the type of keys
+     * @param <V> the type of values
+     * @return the new map
+     * @throws NullPointerException if the spliterator, or any of its
+     *         keys or values are null
+     * @throws IllegalArgumentException if the keys are not in
+     *         strictly ascending order
+     * @throws ClassCastException if the keys are not mutually
+     *         comparable
+     * @since 9
+     */
+    public static <K,V> ConcurrentSkipListMap<K,V> fromSorted
+        (Comparator<? super K> comparator,
+         Spliterator<? extends Map.Entry<? extends K, ? extends V>> entries) {
+        if (entries == null)
+            throw new NullPointerException();
+        ConcurrentSkipListMap<K,V> map =
+            new ConcurrentSkipListMap<K,V>(comparator);
+        long n = entries.estimateSize();
+        int par = ForkJoinPool.getCommonPoolParallelism();
+        LoadSegment<K,V> seg;
+        if (par <= 1 || n <= MIN_LOAD_BATCH) {
+            LoadSegment<K,V> s = seg = new LoadSegment<K,V>();
+            entries.forEachRemaining
+                (e -> s.append(e.getKey(), e.getValue(), comparator));
+        }
+        else {
+            long threshold = (n == Long.MAX_VALUE) ? MIN_LOAD_BATCH :
+                Math.max(n / ((long)par << 2), MIN_LOAD_BATCH);
+            seg = new LoadTask<K,V>(null, entries, comparator, threshold,
+                                    null).invoke();
+        }
+        if (seg.first != null) {
+            HeadIndex<K,V> h = map.head;
+            Node<K,V> base = h.node;
+            base.next = seg.first;
+            for (int i = 0; i < seg.levels; ++i)
+                h = new HeadIndex<K,V>(base, (i == 0) ? null : h,
+                                       seg.firsts[i], i + 1);
+            map.head = h;
+        }
+        return map;
     }
 
     /* ---------------- Serialization -------------- */
@@ -1392,8 +2209,11 @@ public class ConcurrentSkipListMap<K,V> extends AbstractMap<K,V>
      */
     private void writeObject(java.io.ObjectOutputStream s)
         throws java.io.IOException {
-        // Write out the Comparator and any hidden stuff
-        s.defaultWriteObject();
+        // Write out the Comparator and ranked property
+        java.io.ObjectOutputStream.PutField streamFields = s.putFields();
+        streamFields.put("comparator", comparator);
+        streamFields.put("ranked", ranked);
+        s.writeFields();
 
         // Write out keys and values (alternating)
         for (Node<K,V> n = findFirst(); n != null; n = n.next) {
@@ -1416,8 +2236,12 @@ public class ConcurrentSkipListMap<K,V> extends AbstractMap<K,V>
     @SuppressWarnings("unchecked")
     private void readObject(final java.io.ObjectInputStream s)
         throws java.io.IOException, ClassNotFoundException {
-        // Read in the Comparator and any hidden stuff
-        s.defaultReadObject();
+        // Read in the Comparator and ranked property (false if absent)
+        java.io.ObjectInputStream.GetField streamFields = s.readFields();
+        U.putObjectVolatile(this, COMPARATOR,
+                            streamFields.get("comparator", null));
+        U.putBooleanVolatile(this, RANKED,
+                             streamFields.get("ranked", false));
         // Reset transients
         initialize();
 
@@ -1463,7 +2287,7 @@ public class ConcurrentSkipListMap<K,V> extends AbstractMap<K,V>
             if (j > 0) {
                 Index<K,V> idx = null;
                 for (int i = 1; i <= j; ++i) {
-                    idx = new Index<K,V>(z, idx, null);
+                    idx = newIndex(z, idx);
                     if (i > h.level)
                         h = new HeadIndex<K,V>(h.node, h, idx, i);
 
@@ -1476,6 +2300,8 @@ public class ConcurrentSkipListMap<K,V> extends AbstractMap<K,V>
             }
         }
         head = h;
+        if (ranked)
+            initSpans(h, comparator);
     }
 
     /* ------ Map API methods ------ */
@@ -1596,16 +2422,14 @@ public class ConcurrentSkipListMap<K,V> extends AbstractMap<K,V>
      * Additionally, it is possible for the size to change during
      * execution of this method, in which case the returned result
      * will be inaccurate. Thus, this method is typically not very
-     * useful in concurrent applications.
+     * useful in concurrent applications.  (Maps created using {@link
+     * #newRankedMap} maintain counts allowing this method to run in
+     * logarithmic time, but with the same potential inaccuracy.)
      *
      * @return the number of elements in this map
      */
     public int size() {
-        long count = 0;
-        for (Node<K,V> n = findFirst(); n != null; n = n.next) {
-            if (n.getValidValue() != null)
-                ++count;
-        }
+        long count = countLess(null, false, comparator);
         return (count >= Integer.MAX_VALUE) ? Integer.MAX_VALUE : (int) count;
     }
 
@@ -1758,6 +2582,120 @@ public class ConcurrentSkipListMap<K,V> extends AbstractMap<K,V>
         }
     }
 
+    /**
+     * The maximum number of base-level nodes traversed from the
+     * previous insertion point by mergeSorted before instead
+     * searching from the head.
+     */
+    static final int MAX_FINGER_STEPS = 16;
+
+    /**
+     * For each mapping of the given spliterator, if its key is not
+     * already associated with a value, associates it with the given
+     * value, and otherwise replaces the value with the results of
+     * the given remapping function, or removes it if {@code null},
+     * as if by {@link #merge}.  This method is designed for merging
+     * runs of mappings in ascending key order: each insertion
+     * position is located starting from the previous one when
+     * nearby, avoiding most of the searches otherwise entailed by
+     * repeated calls to {@code merge}.  Mappings not in ascending
+     * order are merged correctly but without this advantage.  This
+     * method is not atomic: concurrent operations may observe the
+     * effects of some but not all mappings.
+     *
+     * @param entries the mappings to merge
+     * @param remappingFunction the function to recompute a value if
+     *        present
+     * @throws NullPointerException if the spliterator, any of its
+     *         keys or values, or the remappingFunction is null
+     * @throws ClassCastException if a key cannot be compared with
+     *         the keys currently in the map
+     * @since 9
+     */
+    public void mergeSorted
+        (Spliterator<? extends Map.Entry<? extends K, ? extends V>> entries,
+         BiFunction<? super V, ? super V, ? extends V> remappingFunction) {
+        if (entries == null || remappingFunction == null)
+            throw new NullPointerException();
+        Comparator<? super K> cmp = comparator;
+        @SuppressWarnings("unchecked")
+        Node<K,V>[] finger = (Node<K,V>[])new Node<?,?>[1];
+        entries.forEachRemaining(e -> {
+            K key = e.getKey(); V value = e.getValue();
+            if (key == null || value == null)
+                throw new NullPointerException();
+            finger[0] = mergeFrom(finger[0], key, value,
+                                  remappingFunction, cmp);
+        });
+    }
+
+    /**
+     * Merges a mapping as in merge, starting the base-level search
+     * at the given finger node if it is live and precedes the key,
+     * and otherwise at the node returned by findPredecessor.  Same
+     * traversal as doPut, except for abandoning finger searches that
+     * travel too far.
+     *
+     * @return a node near the key, to be used as next finger
+     */
+    private Node<K,V> mergeFrom(Node<K,V> finger, K key, V value,
+                                BiFunction<? super V, ? super V, ? extends V>
+                                remappingFunction,
+                                Comparator<? super K> cmp) {
+        outer: for (;;) {
+            Node<K,V> b; int steps;
+            if (finger != null && finger.value != null &&
+                finger.key != null && cpr(cmp, key, finger.key) > 0) {
+                b = finger;
+                steps = 0;
+            }
+            else {
+                b = findPredecessor(key, cmp);
+                steps = Integer.MIN_VALUE; // no limit
+            }
+            finger = null;                 // use at most once
+            for (Node<K,V> n = b.next;;) {
+                if (n != null) {
+                    Object v; int c;
+                    Node<K,V> f = n.next;
+                    if (n != b.next)               // inconsistent read
+                        continue outer;
+                    if ((v = n.value) == null) {   // n is deleted
+                        n.helpDelete(b, f);
+                        continue outer;
+                    }
+                    if (b.value == null || v == n) // b is deleted
+                        continue outer;
+                    if ((c = cpr(cmp, key, n.key)) > 0) {
+                        if (++steps > MAX_FINGER_STEPS)
+                            continue outer;        // too far; use index
+                        b = n;
+                        n = f;
+                        continue;
+                    }
+                    if (c == 0) {
+                        @SuppressWarnings("unchecked") V vv = (V)v;
+                        V r = remappingFunction.apply(vv, value);
+                        if (r != null) {
+                            if (n.casValue(vv, r))
+                                return n;
+                        }
+                        else if (doRemove(key, vv) != null)
+                            return b;
+                        continue outer;
+                    }
+                }
+                Node<K,V> z = new Node<K,V>(key, value, n);
+                if (!b.casNext(n, z))
+                    continue outer;
+                addIndex(key, z, cmp);
+                if (ranked)
+                    updateSpans(key, cmp);
+                return z;
+            }
+        }
+    }
+
     /* ---------------- View methods -------------- */
 
     /*
@@ -2813,11 +3751,21 @@ public class ConcurrentSkipListMap<K,V> extends AbstractMap<K,V>
         public int size() {
             Comparator<? super K> cmp = m.comparator;
             long count = 0;
-            for (ConcurrentSkipListMap.Node<K,V> n = loNode(cmp);
-                 isBeforeEnd(n, cmp);
-                 n = n.next) {
-                if (n.getValidValue() != null)
-                    ++count;
+            if (m.ranked) {
+                count = (hi == null) ? m.countLess(null, false, cmp)
+                    : m.countLess(hi, hiInclusive, cmp);
+                if (lo != null)
+                    count -= m.countLess(lo, !loInclusive, cmp);
+                if (count < 0L)
+                    count = 0L;
+            }
+            else {
+                for (ConcurrentSkipListMap.Node<K,V> n = loNode(cmp);
+                     isBeforeEnd(n, cmp);
+                     n = n.next) {
+                    if (n.getValidValue() != null)
+                        ++count;
+                }
             }
             return count >= Integer.MAX_VALUE ? Integer.MAX_VALUE : (int)count;
         }
@@ -2842,13 +3790,7 @@ public class ConcurrentSkipListMap<K,V> extends AbstractMap<K,V>
         }
 
         public void clear() {
-            Comparator<? super K> cmp = m.comparator;
-            for (ConcurrentSkipListMap.Node<K,V> n = loNode(cmp);
-                 isBeforeEnd(n, cmp);
-                 n = n.next) {
-                if (n.getValidValue() != null)
-                    m.remove(n.key);
-            }
+            m.removeRange(lo, loInclusive, hi, hiInclusive);
         }
 
         /* ----------------  ConcurrentMap API methods -------------- */
@@ -3569,10 +4511,16 @@ public class ConcurrentSkipListMap<K,V> extends AbstractMap<K,V>
     // Unsafe mechanics
     private static final sun.misc.Unsafe U = sun.misc.Unsafe.getUnsafe();
     private static final long HEAD;
+    private static final long COMPARATOR;
+    private static final long RANKED;
     static {
         try {
             HEAD = U.objectFieldOffset
                 (ConcurrentSkipListMap.class.getDeclaredField("head"));
+            COMPARATOR = U.objectFieldOffset
+                (ConcurrentSkipListMap.class.getDeclaredField("comparator"));
+            RANKED = U.objectFieldOffset
+                (ConcurrentSkipListMap.class.getDeclaredField("ranked"));
         } catch (ReflectiveOperationException e) {
             throw new Error(e);
         }
@@ -0,0 +1,756 @@
+/*
+ * Written by Doug Lea with assistance from members of JCP JSR-166
+ * Expert Group and released to the public domain, as explained at
+ * http://creativecommons.org/publicdomain/zero/1.0/
+ */
+
+package java.util.concurrent;
+
+import java.util.AbstractQueue;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * An unbounded concurrent {@linkplain BlockingQueue blocking queue}
+ * that uses the same ordering rules as class {@link PriorityQueue},
+ * designed for use by many threads concurrently inserting and
+ * removing elements.  By default, this queue is <em>relaxed</em>:
+ * method {@link #poll()} (as well as {@code take}, {@code remove},
+ * and {@code drainTo}) removes an element that is among the least
+ * elements of the queue with high probability, but not necessarily
+ * the least one.  The expected number of lesser elements remaining
+ * in the queue after a removal is proportional to the number of
+ * available processors, not to the size of the queue.  In exchange,
+ * insertions and removals by different threads rarely contend with
+ * each other, so are much more scalable than with a {@link
+ * PriorityBlockingQueue}, or with a {@link ConcurrentSkipListSet}
+ * used as a queue, in both of which every removal must access the
+ * same least element.  Relaxed ordering is well suited for uses
+ * such as task scheduling, in which priorities guide but need not
+ * strictly determine processing order.  Queues constructed in
+ * <em>strict</em> mode instead always remove a least element, at the
+ * cost of contention among removing threads.
+ *
+ * <p>Insertion, removal, and access operations safely execute
+ * concurrently by multiple threads, and never block except when
+ * waiting for elements in methods {@code take} and timed {@code
+ * poll}.  Iterators and spliterators are <a
+ * href="package-summary.html#Weakly"><i>weakly consistent</i></a>,
+ * and do <em>not</em> traverse elements in any particular order.
+ * Method {@code peek} returns a least element in strict mode, but in
+ * relaxed mode only an element that is likely to be among the least
+ * elements.
+ *
+ * <p>Beware that, unlike in most collections, the {@code size}
+ * method is <em>NOT</em> a constant-time operation. Because of the
+ * asynchronous nature of these queues, determining the current
+ * number of elements requires a traversal of the elements, and so
+ * may report inaccurate results if this collection is modified
+ * during traversal.  Additionally, the bulk operations {@code
+ * addAll}, {@code removeAll}, {@code retainAll}, {@code
+ * containsAll}, and {@code toArray} are <em>not</em> guaranteed to
+ * be performed atomically.
+ *
+ * <p>This class does not permit {@code null} elements.  A queue
+ * relying on {@linkplain Comparable natural ordering} also does not
+ * permit insertion of non-comparable objects (doing so results in
+ * {@code ClassCastException}).  Operations make no guarantees about
+ * the ordering of elements with equal priority.
+ *
+ * <p>This class and its iterator implement all of the
+ * <em>optional</em> methods of the {@link Collection} and {@link
+ * Iterator} interfaces.
+ *
+ * <p>This class is a member of the
+ * <a href="{@docRoot}/../technotes/guides/collections/index.html">
+ * Java Collections Framework</a>.
+ *
+ * @since 9
+ * @author Doug Lea
+ * @param <E> the type of elements held in this queue
+ */
+public class ConcurrentSkipListPriorityQueue<E> extends AbstractQueue<E>
+    implements BlockingQueue<E>, java.io.Serializable {
+    private static final long serialVersionUID = -3179536627423318470L;
+
+    /*
+     * Overview:
+     *
+     * This is a "MultiQueue" (see Rihani, Sanders, and Dementiev,
+     * "MultiQueues: Simple Relaxed Concurrent Priority Queues",
+     * SPAA 2015): elements are held in an array of sub-queues, each
+     * a ConcurrentSkipListMap used as a set.  Insertions add to a
+     * randomly chosen sub-queue.  Removals peek at the least
+     * elements of two randomly chosen sub-queues, and remove the
+     * lesser of them.  With the number of sub-queues a small
+     * multiple of the number of threads, few operations touch the
+     * same sub-queue head at the same time, while the choice of the
+     * lesser of two heads keeps removed elements close to the least
+     * ones.  If both chosen sub-queues are empty, or removal keeps
+     * losing races, all sub-queues are traversed in turn, so poll
+     * returns null only if each sub-queue was seen to be empty.  In
+     * strict mode there is only one sub-queue, for which
+     * pollFirstEntry is exact.
+     *
+     * Skip-list keys must be unique, so elements are wrapped in
+     * Items, ordered by element and then by a sequence number
+     * assigned by their sub-queue, which also gives FIFO order to
+     * equal elements in strict mode.  Peeks at sub-queue heads use
+     * ConcurrentSkipListMap.findFirst, avoiding creation of entries.
+     * Removals of arbitrary elements (remove(Object) and iterators)
+     * traverse sub-queues and remove the matching Item.
+     *
+     * Because elements are inserted and removed without locking,
+     * blocking is layered on top using a lock and condition that are
+     * used only when some consumer might be waiting.  A consumer
+     * that finds the queue empty acquires the lock, increments
+     * waiters, and rechecks for elements before awaiting.  A
+     * producer, after inserting, signals only if it sees a nonzero
+     * waiters count.  Since the increment precedes the recheck,
+     * and the insertion precedes the read of waiters, either the
+     * recheck sees the element, or the producer sees the waiter and
+     * then (acquiring the lock only after the consumer awaits)
+     * signals it.  Each insertion signals at most one consumer; a
+     * consumer that is signalled but loses the element to another
+     * consumer waits again.
+     */
+
+    /**
+     * The number of sub-queues per available processor in relaxed
+     * mode (before rounding up to a power of two).  Two suffices to
+     * make contention rare; more would increase the expected rank
+     * of removed elements.
+     */
+    static final int QUEUES_PER_PROCESSOR = 2;
+
+    /**
+     * The maximum number of sub-queues.
+     */
+    static final int MAX_QUEUES = 1 << 16;
+
+    /**
+     * The comparator, or null if using elements' natural ordering.
+     * @serial
+     */
+    private final Comparator<? super E> comparator;
+
+    /**
+     * True if this queue always removes a least element.
+     * @serial
+     */
+    private final boolean strict;
+
+    /**
+     * Lock held by consumers while waiting, and by producers while
+     * signalling them.
+     * @serial
+     */
+    private final ReentrantLock lock = new ReentrantLock();
+
+    /**
+     * Wait queue for waiting takes.
+     * @serial
+     */
+    private final Condition notEmpty = lock.newCondition();
+
+    /**
+     * The sub-queues.  Length is a power of two, and one in strict
+     * mode.  Non-final only for use in readObject.
+     */
+    private transient SubQueue<E>[] queues;
+
+    /**
+     * The number of consumers waiting (or about to wait) on
+     * notEmpty.  Updated only while holding lock.
+     */
+    private transient volatile int waiters;
+
+    /**
+     * An element along with its sequence number within its
+     * sub-queue, making it unique among that sub-queue's keys.
+     */
+    static final class Item<E> {
+        final E item;
+        final long seq;
+        Item(E item, long seq) {
+            this.item = item;
+            this.seq = seq;
+        }
+    }
+
+    /**
+     * Orders Items by element, then by sequence number.
+     */
+    static final class ItemComparator<E> implements Comparator<Item<E>> {
+        final Comparator<? super E> cmp;
+        ItemComparator(Comparator<? super E> cmp) { this.cmp = cmp; }
+        @SuppressWarnings("unchecked")
+        public int compare(Item<E> x, Item<E> y) {
+            int c = (cmp != null) ? cmp.compare(x.item, y.item) :
+                ((Comparable<? super E>)x.item).compareTo(y.item);
+            return (c != 0) ? c : Long.compare(x.seq, y.seq);
+        }
+    }
+
+    /**
+     * A skip list holding the Items of one sub-queue, padded to
+     * reduce memory contention among sub-queues.
+     */
+    @sun.misc.Contended static final class SubQueue<E> {
+        final ConcurrentSkipListMap<Item<E>,Boolean> map;
+        volatile long sequence;
+
+        SubQueue(ItemComparator<E> cmp) {
+            map = new ConcurrentSkipListMap<Item<E>,Boolean>(cmp);
+        }
+
+        void add(E e) {
+            long seq = U.getAndAddLong(this, SEQUENCE, 1L);
+            map.put(new Item<E>(e, seq), Boolean.TRUE);
+        }
+
+        /** Returns the least Item, or null if empty. */
+        Item<E> first() {
+            ConcurrentSkipListMap.Node<Item<E>,Boolean> n = map.findFirst();
+            return (n == null) ? null : n.key;
+        }
+
+        /** Removes and returns the least element, or null if empty. */
+        E poll() {
+            Map.Entry<Item<E>,Boolean> e = map.pollFirstEntry();
+            return (e == null) ? null : e.getKey().item;
+        }
+
+        // Unsafe mechanics
+        private static final sun.misc.Unsafe U = sun.misc.Unsafe.getUnsafe();
+        private static final long SEQUENCE;
+        static {
+            try {
+                SEQUENCE = U.objectFieldOffset
+                    (SubQueue.class.getDeclaredField("sequence"));
+            } catch (ReflectiveOperationException e) {
+                throw new Error(e);
+            }
+        }
+    }
+
+    /**
+     * Creates the sub-queues.
+     */
+    private void initQueues() {
+        int n = 1;
+        if (!strict) {
+            int p = Runtime.getRuntime().availableProcessors();
+            int target = Math.min(Math.max(p, 1) * QUEUES_PER_PROCESSOR,
+                                  MAX_QUEUES);
+            while (n < target)
+                n <<= 1;
+        }
+        ItemComparator<E> cmp = new ItemComparator<E>(comparator);
+        @SuppressWarnings("unchecked")
+        SubQueue<E>[] qs = (SubQueue<E>[])new SubQueue<?>[n];
+        for (int i = 0; i < n; ++i)
+            qs[i] = new SubQueue<E>(cmp);
+        queues = qs;
+    }
+
+    /**
+     * Creates a new relaxed queue that orders its elements according
+     * to their {@linkplain Comparable natural ordering}.
+     */
+    public ConcurrentSkipListPriorityQueue() {
+        this(null, false);
+    }
+
+    /**
+     * Creates a new relaxed queue that orders its elements according
+     * to the specified comparator.
+     *
+     * @param comparator the comparator that will be used to order this
+     *        queue.  If {@code null}, the {@linkplain Comparable
+     *        natural ordering} of the elements will be used.
+     */
+    public ConcurrentSkipListPriorityQueue(Comparator<? super E> comparator) {
+        this(comparator, false);
+    }
+
+    /**
+     * Creates a new queue that orders its elements according to the
+     * specified comparator, and is strict or relaxed as specified.
+     *
+     * @param comparator the comparator that will be used to order this
+     *        queue.  If {@code null}, the {@linkplain Comparable
+     *        natural ordering} of the elements will be used.
+     * @param strict if {@code true}, removal methods always remove a
+     *        least element; otherwise removals may be relaxed
+     */
+    public ConcurrentSkipListPriorityQueue(Comparator<? super E> comparator,
+                                           boolean strict) {
+        this.comparator = comparator;
+        this.strict = strict;
+        initQueues();
+    }
+
+    /**
+     * Returns the comparator used to order the elements in this queue,
+     * or {@code null} if this queue uses the {@linkplain Comparable
+     * natural ordering} of its elements.
+     *
+     * @return the comparator used to order the elements in this queue,
+     *         or {@code null} if this queue uses the natural
+     *         ordering of its elements
+     */
+    public Comparator<? super E> comparator() {
+        return comparator;
+    }
+
+    /**
+     * Returns {@code true} if this queue always removes a least
+     * element.
+     *
+     * @return {@code true} if this queue is strict, {@code false} if
+     *         relaxed
+     */
+    public boolean isStrict() {
+        return strict;
+    }
+
+    /**
+     * Inserts the specified element into this priority queue.
+     *
+     * @param e the element to add
+     * @return {@code true} (as specified by {@link Collection#add})
+     * @throws ClassCastException if the specified element cannot be compared
+     *         with elements currently in the priority queue according to the
+     *         priority queue's ordering
+     * @throws NullPointerException if the specified element is null
+     */
+    public boolean add(E e) {
+        return offer(e);
+    }
+
+    /**
+     * Inserts the specified element into this priority queue.
+     * As the queue is unbounded, this method will never return {@code false}.
+     *
+     * @param e the element to add
+     * @return {@code true} (as specified by {@link Queue#offer})
+     * @throws ClassCastException if the specified element cannot be compared
+     *         with elements currently in the priority queue according to the
+     *         priority queue's ordering
+     * @throws NullPointerException if the specified element is null
+     */
+    public boolean offer(E e) {
+        if (e == null)
+            throw new NullPointerException();
+        if (comparator == null && !(e instanceof Comparable))
+            throw new ClassCastException(e.getClass().getName());
+        SubQueue<E>[] qs = queues;
+        qs[ThreadLocalRandom.nextSecondarySeed() & (qs.length - 1)].add(e);
+        if (waiters != 0)
+            signalNotEmpty();
+        return true;
+    }
+
+    /**
+     * Inserts the specified element into this priority queue.
+     * As the queue is unbounded, this method will never block.
+     *
+     * @param e the element to add
+     * @throws ClassCastException if the specified element cannot be compared
+     *         with elements currently in the priority queue according to the
+     *         priority queue's ordering
+     * @throws NullPointerException if the specified element is null
+     */
+    public void put(E e) {
+        offer(e); // never need to block
+    }
+
+    /**
+     * Inserts the specified element into this priority queue.
+     * As the queue is unbounded, this method will never block or
+     * return {@code false}.
+     *
+     * @param e the element to add
+     * @param timeout This parameter is ignored as the method never blocks
+     * @param unit This parameter is ignored as the method never blocks
+     * @return {@code true} (as specified by
+     *  {@link BlockingQueue#offer(Object,long,TimeUnit) BlockingQueue.offer})
+     * @throws ClassCastException if the specified element cannot be compared
+     *         with elements currently in the priority queue according to the
+     *         priority queue's ordering
+     * @throws NullPointerException if the specified element is null
+     */
+    public boolean offer(E e, long timeout, TimeUnit unit) {
+        return offer(e); // never need to block
+    }
+
+    /**
+     * Wakes up a waiting consumer, if any.
+     */
+    private void signalNotEmpty() {
+        final ReentrantLock lock = this.lock;
+        lock.lock();
+        try {
+            notEmpty.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Retrieves and removes an element of this queue, or returns
+     * {@code null} if this queue is empty.  In relaxed mode, the
+     * element is likely, but not guaranteed, to be among the least
+     * elements; in strict mode it is a least element.
+     *
+     * @return an element of this queue, or {@code null} if this
+     *         queue is empty
+     */
+    public E poll() {
+        SubQueue<E>[] qs = queues;
+        int m = qs.length - 1;
+        int r = ThreadLocalRandom.nextSecondarySeed();
+        if (m > 0) {
+            Comparator<? super Item<E>> cmp = qs[0].map.comparator;
+            for (int tries = m; tries > 0; --tries) {
+                SubQueue<E> a = qs[r & m], b = qs[(r >>> 16) & m];
+                Item<E> x = a.first(), y = b.first();
+                if (x == null && y == null)
+                    break;
+                E e = ((x != null && (y == null || cmp.compare(x, y) <= 0))
+                       ? a : b).poll();
+                if (e != null)
+                    return e;
+                r ^= r << 13; r ^= r >>> 17; r ^= r << 5; // xorshift
+            }
+        }
+        for (int i = 0; i <= m; ++i) {
+            E e = qs[(r + i) & m].poll();
+            if (e != null)
+                return e;
+        }
+        return null;
+    }
+
+    public E take() throws InterruptedException {
+        E e;
+        if ((e = poll()) == null) {
+            final ReentrantLock lock = this.lock;
+            lock.lockInterruptibly();
+            try {
+                ++waiters;
+                try {
+                    while ((e = poll()) == null)
+                        notEmpty.await();
+                } finally {
+                    --waiters;
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+        return e;
+    }
+
+    public E poll(long timeout, TimeUnit unit) throws InterruptedException {
+        E e;
+        long nanos = unit.toNanos(timeout);
+        if ((e = poll()) == null && nanos > 0L) {
+            final ReentrantLock lock = this.lock;
+            lock.lockInterruptibly();
+            try {
+                ++waiters;
+                try {
+                    while ((e = poll()) == null && nanos > 0L)
+                        nanos = notEmpty.awaitNanos(nanos);
+                } finally {
+                    --waiters;
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+        return e;
+    }
+
+    /**
+     * Retrieves, but does not remove, an element of this queue, or
+     * returns {@code null} if this queue is empty.  In strict mode,
+     * this is a least element.  In relaxed mode, it is the least of
+     * the elements that are each least in a part of the queue, so
+     * is likely but not guaranteed to be a least element.
+     *
+     * @return an element of this queue, or {@code null} if this
+     *         queue is empty
+     */
+    public E peek() {
+        SubQueue<E>[] qs = queues;
+        Comparator<? super Item<E>> cmp = qs[0].map.comparator;
+        Item<E> least = null;
+        for (SubQueue<E> q : qs) {
+            Item<E> x = q.first();
+            if (x != null && (least == null || cmp.compare(x, least) < 0))
+                least = x;
+        }
+        return (least == null) ? null : least.item;
+    }
+
+    /**
+     * Returns {@code true} if this queue contains no elements.
+     *
+     * @return {@code true} if this queue contains no elements
+     */
+    public boolean isEmpty() {
+        for (SubQueue<E> q : queues) {
+            if (q.first() != null)
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Returns the number of elements in this queue.  If this queue
+     * contains more than {@code Integer.MAX_VALUE} elements, returns
+     * {@code Integer.MAX_VALUE}.
+     *
+     * <p>Beware that, unlike in most collections, this method is
+     * <em>NOT</em> a constant-time operation. Because of the
+     * asynchronous nature of these queues, determining the current
+     * number of elements requires traversing them all to count them.
+     * Additionally, it is possible for the size to change during
+     * execution of this method, in which case the returned result
+     * will be inaccurate. Thus, this method is typically not very
+     * useful in concurrent applications.
+     *
+     * @return the number of elements in this queue
+     */
+    public int size() {
+        long count = 0L;
+        for (SubQueue<E> q : queues)
+            count += q.map.size();
+        return (count >= Integer.MAX_VALUE) ? Integer.MAX_VALUE : (int)count;
+    }
+
+    /**
+     * Always returns {@code Integer.MAX_VALUE} because
+     * a {@code ConcurrentSkipListPriorityQueue} is not capacity constrained.
+     * @return {@code Integer.MAX_VALUE} always
+     */
+    public int remainingCapacity() {
+        return Integer.MAX_VALUE;
+    }
+
+    /**
+     * Removes a single instance of the specified element from this queue,
+     * if it is present.  More formally, removes an element {@code e} such
+     * that {@code o.equals(e)}, if this queue contains one or more such
+     * elements.  Returns {@code true} if and only if this queue contained
+     * the specified element (or equivalently, if this queue changed as a
+     * result of the call).
+     *
+     * @param o element to be removed from this queue, if present
+     * @return {@code true} if this queue changed as a result of the call
+     */
+    public boolean remove(Object o) {
+        if (o != null) {
+            for (SubQueue<E> q : queues) {
+                for (Item<E> x : q.map.keySet()) {
+                    if (o.equals(x.item) && q.map.remove(x) != null)
+                        return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns {@code true} if this queue contains the specified element.
+     * More formally, returns {@code true} if and only if this queue contains
+     * at least one element {@code e} such that {@code o.equals(e)}.
+     *
+     * @param o object to be checked for containment in this queue
+     * @return {@code true} if this queue contains the specified element
+     */
+    public boolean contains(Object o) {
+        if (o != null) {
+            for (SubQueue<E> q : queues) {
+                for (Item<E> x : q.map.keySet()) {
+                    if (o.equals(x.item))
+                        return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    public String toString() {
+        return Helpers.collectionToString(this);
+    }
+
+    /**
+     * @throws UnsupportedOperationException {@inheritDoc}
+     * @throws ClassCastException            {@inheritDoc}
+     * @throws NullPointerException          {@inheritDoc}
+     * @throws IllegalArgumentException      {@inheritDoc}
+     */
+    public int drainTo(Collection<? super E> c) {
+        return drainTo(c, Integer.MAX_VALUE);
+    }
+
+    /**
+     * @throws UnsupportedOperationException {@inheritDoc}
+     * @throws ClassCastException            {@inheritDoc}
+     * @throws NullPointerException          {@inheritDoc}
+     * @throws IllegalArgumentException      {@inheritDoc}
+     */
+    public int drainTo(Collection<? super E> c, int maxElements) {
+        if (c == null)
+            throw new NullPointerException();
+        if (c == this)
+            throw new IllegalArgumentException();
+        int n = 0;
+        for (E e; n < maxElements && (e = poll()) != null; ) {
+            c.add(e);
+            ++n;
+        }
+        return n;
+    }
+
+    /**
+     * Removes all of the elements from this queue.
+     */
+    public void clear() {
+        for (SubQueue<E> q : queues)
+            q.map.clear();
+    }
+
+    /**
+     * Returns an iterator over the elements in this queue. The
+     * iterator does not return the elements in any particular order.
+     *
+     * <p>The returned iterator is
+     * <a href="package-summary.html#Weakly"><i>weakly consistent</i></a>.
+     *
+     * @return an iterator over the elements in this queue
+     */
+    public Iterator<E> iterator() {
+        return new Itr(queues);
+    }
+
+    /**
+     * Iterator traversing each sub-queue in turn.
+     */
+    final class Itr implements Iterator<E> {
+        final SubQueue<E>[] qs;
+        int index;                 // index of next sub-queue
+        Iterator<Item<E>> it;      // iterator of current sub-queue
+        SubQueue<E> current;       // sub-queue of it
+        Item<E> nextItem;          // next Item to return
+        SubQueue<E> nextQueue;     // sub-queue holding nextItem
+        Item<E> lastRet;           // last returned Item, or null
+        SubQueue<E> lastQueue;     // sub-queue holding lastRet
+
+        Itr(SubQueue<E>[] qs) {
+            this.qs = qs;
+            advance();
+        }
+
+        void advance() {
+            for (;;) {
+                if (it != null && it.hasNext()) {
+                    nextItem = it.next();
+                    nextQueue = current;
+                    return;
+                }
+                if (index >= qs.length) {
+                    nextItem = null;
+                    return;
+                }
+                it = (current = qs[index++]).map.keySet().iterator();
+            }
+        }
+
+        public boolean hasNext() {
+            return nextItem != null;
+        }
+
+        public E next() {
+            Item<E> x;
+            if ((x = nextItem) == null)
+                throw new NoSuchElementException();
+            lastRet = x;
+            lastQueue = nextQueue;
+            advance();
+            return x.item;
+        }
+
+        public void remove() {
+            Item<E> x;
+            if ((x = lastRet) == null)
+                throw new IllegalStateException();
+            lastQueue.map.remove(x);
+            lastRet = null;
+        }
+    }
+
+    /**
+     * Returns a {@link Spliterator} over the elements in this queue.
+     *
+     * <p>The returned spliterator is
+     * <a href="package-summary.html#Weakly"><i>weakly consistent</i></a>.
+     *
+     * <p>The {@code Spliterator} reports {@link Spliterator#CONCURRENT}
+     * and {@link Spliterator#NONNULL}.
+     *
+     * @return a {@code Spliterator} over the elements in this queue
+     */
+    public Spliterator<E> spliterator() {
+        return Spliterators.spliteratorUnknownSize
+            (iterator(), Spliterator.CONCURRENT | Spliterator.NONNULL);
+    }
+
+    /**
+     * Saves this queue to a stream (that is, serializes it).
+     *
+     * @param s the stream
+     * @throws java.io.IOException if an I/O error occurs
+     * @serialData All of the elements (each an {@code E}) in no
+     * particular order, followed by a null
+     */
+    private void writeObject(java.io.ObjectOutputStream s)
+        throws java.io.IOException {
+        s.defaultWriteObject();
+        for (E e : this)
+            s.writeObject(e);
+        s.writeObject(null);
+    }
+
+    /**
+     * Reconstitutes this queue from a stream (that is, deserializes it).
+     * @param s the stream
+     * @throws ClassNotFoundException if the class of a serialized object
+     *         could not be found
+     * @throws java.io.IOException if an I/O error occurs
+     */
+    private void readObject(java.io.ObjectInputStream s)
+        throws java.io.IOException, ClassNotFoundException {
+        s.defaultReadObject();
+        initQueues();
+        for (;;) {
+            @SuppressWarnings("unchecked") E e = (E) s.readObject();
+            if (e == null)
+                break;
+            offer(e);
+        }
+    }
+}
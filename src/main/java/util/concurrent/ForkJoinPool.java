@@ -578,6 +578,112 @@ public class ForkJoinPool extends AbstractExecutorService {
      * resources are reclaimed by the JVM and OS. So the number of
      * simultaneously live threads may transiently exceed bounds.
      *
+     * Locality Groups
+     * ===============
+     *
+     * A pool may be constructed with a number g of locality groups,
+     * normally matching the number of sockets or NUMA nodes of the
+     * host.  Group membership is a function of workQueues index: slot
+     * i belongs to group (i >>> 1) % g, so the groups interleave,
+     * each holding both worker and submission queues, and are
+     * preserved when the array is resized.  Method registerWorker
+     * places each new worker in a free odd slot of the group with the
+     * fewest workers, growing the array if that group has no free
+     * slot.  Before its usual randomized scan, method scan makes one
+     * pass over the queues of its own group, stealing the first task
+     * found, so tasks cross groups only when a group has run out of
+     * work.  External submitters use submission queues within a
+     * group (see submissionIndex): a worker of another pool with
+     * groups submits to its own group number, and other threads to a
+     * group chosen by their probe, so each such thread's submissions
+     * are at least consistently grouped.  Java provides no control
+     * over where threads run, so groups are only a scheduling
+     * preference unless a thread factory (typically in onStart)
+     * binds each worker to the processors of the group reported by
+     * ForkJoinWorkerThread.getLocalityGroup.  With fewer than two
+     * groups, none of this code is used.
+     *
+     * Affinity-keyed submissions (submit(task, key)) bypass the
+     * submitter's probe, and instead push to an even-indexed shared
+     * queue determined by hashing the key (see affinityIndex),
+     * probing to the first one whose odd neighbor holds a worker.
+     * Unlike other shared queues, these range over all even slots
+     * rather than only those within SQMASK, so that keys map to all
+     * workers in pools with more than 64 of them.  Once any affine
+     * submission has been made (field affineSubmissions), each
+     * worker checks its adjacent queue (pollAffine) before any other
+     * scanning, so tasks with equal keys usually run on the same
+     * worker, while remaining stealable by any other.  Pools never
+     * given affine submissions skip this check, so their scanning
+     * order is unaffected.  Since worker slots change only when
+     * workers are created or terminated, so does the mapping.
+     *
+     * Priority Lanes
+     * ==============
+     *
+     * Tasks submitted via submitWithPriority at levels 1 through
+     * MAX_PRIORITY are pushed to lanes: one shared queue per level,
+     * created on first use (addLane) and also referenced from array
+     * "lanes".  Lanes occupy even workQueues slots, so that all code
+     * traversing workQueues (for termination, quiescence, counts,
+     * and the rescans preceding inactivation) treats them as
+     * ordinary submission queues with no special casing.  Each lane
+     * takes the highest free even slot of an array of at least
+     * LANE_MIN_SLOTS, so plenty of slots remain for ordinary
+     * submission queues, which are otherwise never placed in lanes:
+     * external pushes that land on a lane move elsewhere.  Field
+     * WorkQueue.priority is fixed for lanes.  For workers, it is the
+     * level of the task being run, set by scan upon a steal from a
+     * queue of that level and cleared after runTask, so forked
+     * subtasks inherit it without any per-task state.  Once any lane
+     * exists, scan first calls scanPriority, which makes one pass
+     * over the lanes and worker queues to find the highest non-empty
+     * level.  This costs a traversal per scan, which is why it is
+     * not done in pools that never use priorities.
+     *
+     * Spinning
+     * ========
+     *
+     * By default, idle workers spin only briefly (SPINS) in awaitWork
+     * before parking.  Two optional policies extend this, both in
+     * method spinWait, which yields every SPIN_CHECK_INTERVAL spins
+     * and then rechecks whether to continue.  When maxSpinNanos is
+     * positive, workers spin for up to twice idleEstimate, an
+     * exponentially weighted average (weight 1/8) of the times
+     * workers spent in awaitWork before being signalled, but not at
+     * all if the average exceeds maxSpinNanos, so spinning stops on
+     * its own when tasks arrive too infrequently to benefit.  The
+     * average is sampled only when spinning is enabled, and updated
+     * without synchronization, which may lose samples but is
+     * harmless for a heuristic.  Independently, workers among the
+     * topmost hotWorkers entries of the idle stack (isHotWorker)
+     * spin until signalled or until the pool shuts down.  Since
+     * signalWork releases the top of the stack first, these receive
+     * new tasks first.  Workers deeper in the stack park as usual,
+     * and stay parked until signalled even if they later rise into
+     * the topmost entries.
+     *
+     * Metrics
+     * =======
+     *
+     * Method getMetrics reports per-worker counts of tasks executed
+     * (whether in runTask or while joining or helping others),
+     * steals, parks, wakeups, idle time, and spares created, along
+     * with histograms of queue depths.  To keep their maintenance
+     * nearly free, each is a plain field of WorkQueue written only by
+     * its owner (as is nsteals), and read racily by getMetrics, so
+     * they need no atomics and add no cache traffic beyond that of
+     * the owner's queue itself.  Parks and idle time are recorded
+     * only around actual calls to park (which are expensive anyway),
+     * spares only upon successful creation in tryCompensate, and
+     * queue depths once per top-level task in runTask, upon
+     * completing the stolen task and before running the local tasks
+     * it generated.  When a worker deregisters, its counts are added
+     * (under the runState lock) to those of the pseudo-queue
+     * "retired", so that pool-wide totals include terminated
+     * workers; getMetrics also holds the lock while collecting so
+     * that no worker is counted twice or not at all.
+     *
      * Common Pool
      * ===========
      *
@@ -719,6 +825,7 @@ public class ForkJoinPool extends AbstractExecutorService {
     static final int MAX_CAP      = 0x7fff;        // max #workers - 1
     static final int EVENMASK     = 0xfffe;        // even short bits
     static final int SQMASK       = 0x007e;        // max 64 (even) slots
+    static final int LANE_MIN_SLOTS = 16;          // min array size w/ lanes
 
     // Masks and units for WorkQueue.scanState and ctl sp subfield
     static final int SCANNING     = 1;             // false when running tasks
@@ -787,6 +894,12 @@ public class ForkJoinPool extends AbstractExecutorService {
          */
         static final int MAXIMUM_QUEUE_CAPACITY = 1 << 26; // 64M
 
+        /**
+         * Number of buckets of queue depth histograms: one for zero,
+         * and one for each power of two up to MAXIMUM_QUEUE_CAPACITY.
+         */
+        static final int DEPTH_BUCKETS = 28;
+
         // Instance fields
         volatile int scanState;    // versioned, <0: inactive; odd:scanning
         int stackPred;             // pool stack (ctl) predecessor
@@ -802,6 +915,15 @@ public class ForkJoinPool extends AbstractExecutorService {
         volatile Thread parker;    // == owner during call to park; else null
         volatile ForkJoinTask<?> currentJoin;  // task being joined in awaitJoin
         volatile ForkJoinTask<?> currentSteal; // mainly used by helpStealer
+        int priority;              // level of queued tasks; fixed for lanes
+        ForkJoinTask.Scope currentScope; // scope of running task, if any
+        // Metrics, written only by owner (or under lock when retired)
+        long nexecs;               // number of tasks run by owner
+        long nparks;               // number of calls to park
+        long nwakeups;             // number of parks ended by signal
+        long idleNanos;            // total time parked
+        long nspares;              // spares created by tryCompensate
+        long[] depthCounts;        // queue depth histogram, or null
 
         // Temporary repeats of array access methods
 
@@ -1007,6 +1129,17 @@ public class ForkJoinPool extends AbstractExecutorService {
             return false;
         }
 
+        /**
+         * Runs a task outside of runTask (while joining or helping),
+         * counting it in nexecs. Called only by owner.
+         *
+         * @return task status upon return from doExec
+         */
+        final int execCounted(ForkJoinTask<?> t) {
+            ++nexecs;
+            return t.doExec();
+        }
+
         /**
          * Removes and cancels all known tasks, ignoring any exceptions.
          */
@@ -1028,27 +1161,35 @@ public class ForkJoinPool extends AbstractExecutorService {
 
         /**
          * Polls and runs tasks until empty.
+         *
+         * @return the number of tasks run
          */
-        final void pollAndExecAll() {
-            for (ForkJoinTask<?> t; (t = poll()) != null;)
+        final int pollAndExecAll() {
+            int n = 0;
+            for (ForkJoinTask<?> t; (t = poll()) != null; ++n)
                 t.doExec();
+            return n;
         }
 
         /**
          * Pops and runs tasks until empty.
+         *
+         * @return the number of tasks run
          */
-        final void popAndExecAll() {
-            ForkJoinTask<?>[] a; ForkJoinTask<?> t;
+        final int popAndExecAll() {
+            ForkJoinTask<?>[] a; ForkJoinTask<?> t; int n = 0;
             while ((a = array) != null) {
                 int b = base, al = a.length, s = top, i = (al - 1) & (s - 1);
                 if (b != s && al > 0 &&
                     (t = xchgAt(a, i, null)) != null) {
                     U.putOrderedInt(this, QTOP, s - 1);
                     t.doExec();
+                    ++n;
                 }
                 else
                     break;
             }
+            return n;
         }
 
         /**
@@ -1059,10 +1200,13 @@ public class ForkJoinPool extends AbstractExecutorService {
                 scanState &= ~SCANNING; // mark as busy
                 (currentSteal = task).doExec();
                 U.putOrderedObject(this, QCURRENTSTEAL, null); // release for GC
-                if ((config & FIFO_QUEUE) != 0)
-                    pollAndExecAll();
-                else
-                    popAndExecAll();
+                long[] dc; int d = top - base;
+                if ((dc = depthCounts) == null)
+                    depthCounts = dc = new long[DEPTH_BUCKETS];
+                ++dc[depthBucket(d)];
+                nexecs += 1L + (((config & FIFO_QUEUE) != 0) ?
+                                pollAndExecAll() : popAndExecAll());
+                priority = 0;           // reset level set by scan
                 ForkJoinWorkerThread thread = owner;
                 if (++nsteals < 0)      // collect on overflow
                     transferStealCount(pool);
@@ -1072,6 +1216,33 @@ public class ForkJoinPool extends AbstractExecutorService {
             }
         }
 
+        /**
+         * Returns the index of the depthCounts bucket for queue depth d.
+         */
+        static int depthBucket(int d) {
+            return (d <= 0) ? 0 : 32 - Integer.numberOfLeadingZeros(d);
+        }
+
+        /**
+         * Adds the metrics of w (except nsteals, handled by
+         * transferStealCount) to those of this queue.  Called only
+         * under runState lock, on the pool's retired pseudo-queue.
+         */
+        final void addMetrics(WorkQueue w) {
+            nexecs += w.nexecs;
+            nparks += w.nparks;
+            nwakeups += w.nwakeups;
+            idleNanos += w.idleNanos;
+            nspares += w.nspares;
+            long[] wc = w.depthCounts, dc;
+            if (wc != null) {
+                if ((dc = depthCounts) == null)
+                    depthCounts = dc = new long[DEPTH_BUCKETS];
+                for (int i = 0; i < DEPTH_BUCKETS; ++i)
+                    dc[i] += wc[i];
+            }
+        }
+
         /**
          * Adds steal count to pool stealCounter if it exists, and resets.
          */
@@ -1109,7 +1280,7 @@ public class ForkJoinPool extends AbstractExecutorService {
                             else if (base == b)      // replace with proxy
                                 removed = casAt(a, j, task, new EmptyTask());
                             if (removed)
-                                task.doExec();
+                                execCounted(task);
                             break;
                         }
                         else if (t.status < 0 && s + 1 == top) {
@@ -1296,6 +1467,15 @@ public class ForkJoinPool extends AbstractExecutorService {
 
     // static configuration constants
 
+    /**
+     * The highest priority level accepted by {@link
+     * #submitWithPriority}.  Level zero is that of ordinary
+     * submissions.
+     *
+     * @since 9
+     */
+    public static final int MAX_PRIORITY = 3;
+
     /**
      * Initial timeout value (in nanoseconds) for the thread
      * triggering quiescence to park waiting for new work. On timeout,
@@ -1333,6 +1513,13 @@ public class ForkJoinPool extends AbstractExecutorService {
      */
     private static final int SPINS = 1 << 11;
 
+    /**
+     * Number of spins in spinWait between checks of the time, pool
+     * state, and hot worker status, each accompanied by a yield.
+     * Must be a power of two.
+     */
+    private static final int SPIN_CHECK_INTERVAL = 1 << 6;
+
     /**
      * Increment for seed generators. See class ThreadLocal for
      * explanation.
@@ -1389,12 +1576,19 @@ public class ForkJoinPool extends AbstractExecutorService {
     volatile long ctl;                   // main pool control
     volatile int runState;               // lockable status
     final int config;                    // parallelism, mode
+    final int localityGroups;            // number of groups, or 1 if none
     int indexSeed;                       // to generate worker index
     volatile WorkQueue[] workQueues;     // main registry
     final ForkJoinWorkerThreadFactory factory;
     final UncaughtExceptionHandler ueh;  // per-worker UEH
     final String workerNamePrefix;       // to create worker name string
     volatile AtomicLong stealCounter;    // also used as sync monitor
+    WorkQueue retired;     // terminated workers' metrics; guarded by lock
+    volatile WorkQueue[] lanes;          // priority lanes, created lazily
+    volatile long maxSpinNanos;          // adaptive spin bound; 0 if none
+    volatile long idleEstimate;          // average idle time, if spinning
+    volatile int hotWorkers;             // idle workers kept spinning
+    volatile boolean affineSubmissions;  // true after first submit(t, key)
 
     /**
      * Acquires the runState lock; returns current (locked) runState.
@@ -1540,9 +1734,13 @@ public class ForkJoinPool extends AbstractExecutorService {
             WorkQueue[] ws; int n;                    // skip if no array
             if ((ws = workQueues) != null && (n = ws.length) > 0) {
                 int s = indexSeed += SEED_INCREMENT;  // unlikely to collide
-                int m = n - 1;
+                int m = n - 1, g = localityGroups;
                 i = ((s << 1) | 1) & m;               // odd-numbered indices
-                if (ws[i] != null) {                  // collision
+                if (g > 1) {                          // place in a group
+                    i = groupSlot(s, g);
+                    ws = workQueues;                  // may have grown
+                }
+                else if (ws[i] != null) {             // collision
                     int probes = 0;                   // step by approx half n
                     int step = (n <= 4) ? 2 : ((n >>> 1) & EVENMASK) + 2;
                     while (ws[i = (i + step) & m] != null) {
@@ -1565,6 +1763,41 @@ public class ForkJoinPool extends AbstractExecutorService {
         return w;
     }
 
+    /**
+     * Returns a free odd workQueues index for a new worker in the
+     * locality group with the fewest workers, growing the array if
+     * necessary.  Called only under lock by registerWorker.
+     *
+     * @param s a random seed
+     * @param g the number of groups
+     * @return the index
+     */
+    private int groupSlot(int s, int g) {
+        WorkQueue[] ws = workQueues;
+        int[] counts = new int[g];
+        for (int i = 1; i < ws.length; i += 2) {
+            if (ws[i] != null)
+                ++counts[(i >>> 1) % g];
+        }
+        int j = 0;
+        for (int k = 1; k < g; ++k) {
+            if (counts[k] < counts[j])
+                j = k;
+        }
+        for (int n = ws.length;; ws = workQueues =
+                 Arrays.copyOf(ws, n <<= 1)) {
+            int slots = ((n >>> 1) - j + g - 1) / g; // group j's odd slots
+            for (int k = 0, t = (s >>> 1) % Math.max(slots, 1);
+                 k < slots; ++k) {
+                int i = ((j + g * t) << 1) | 1;
+                if (ws[i] == null)
+                    return i;
+                if (++t == slots)
+                    t = 0;
+            }
+        }
+    }
+
     /**
      * Final callback from terminating worker, as well as upon failure
      * to construct or start a worker.  Removes record of worker from
@@ -1582,6 +1815,10 @@ public class ForkJoinPool extends AbstractExecutorService {
             int rs = lockRunState();
             if ((ws = workQueues) != null && ws.length > idx && ws[idx] == w)
                 ws[idx] = null;
+            WorkQueue rq;                             // retain metrics
+            if ((rq = retired) == null)
+                retired = rq = new WorkQueue(this, null);
+            rq.addMetrics(w);
             unlockRunState(rs, rs & ~RSLOCK);
         }
         long c;                                       // decrement counts
@@ -1715,6 +1952,15 @@ public class ForkJoinPool extends AbstractExecutorService {
         WorkQueue[] ws; int m;
         if ((ws = workQueues) != null && (m = ws.length - 1) > 0 && w != null) {
             int ss = w.scanState;                     // initially non-negative
+            ForkJoinTask<?> lt; WorkQueue[] ls;
+            if (ss >= 0 &&              // first try priorities, affine, group
+                (((ls = lanes) != null &&
+                  (lt = scanPriority(w, ws, m, ls)) != null) ||
+                 (affineSubmissions &&
+                  (lt = pollAffine(w, ws, m)) != null) ||
+                 (localityGroups > 1 &&
+                  (lt = scanGroup(w, ws, m, r)) != null)))
+                return lt;
             for (int origin = r & m, k = origin, oldSum = 0, checkSum = 0;;) {
                 WorkQueue q; ForkJoinTask<?> t; int al, i, n; long c;
                 if ((q = ws[k]) != null) {
@@ -1726,6 +1972,7 @@ public class ForkJoinPool extends AbstractExecutorService {
                             if (ss >= 0) {
                                 if (casAt(a, i, t, null)) {
                                     q.base = b + 1;
+                                    w.priority = q.priority;
                                     if (n < -1)       // signal others
                                         signalWork(ws, q);
                                     return t;
@@ -1766,6 +2013,107 @@ public class ForkJoinPool extends AbstractExecutorService {
         return null;
     }
 
+    /**
+     * Tries to take a task from the shared queue adjacent to worker
+     * w's (the one used by affine submissions mapped to w).
+     *
+     * @param w the worker (via its WorkQueue)
+     * @param ws the workQueues array
+     * @param m its mask
+     * @return a task, or null if none found
+     */
+    private ForkJoinTask<?> pollAffine(WorkQueue w, WorkQueue[] ws, int m) {
+        WorkQueue q; ForkJoinTask<?> t; int b, n;
+        if ((q = ws[((w.config & SMASK) - 1) & m]) != null && q != w &&
+            (n = (b = q.base) - q.top) < 0 && (t = q.pollAt(b)) != null) {
+            w.priority = q.priority;
+            if (n < -1)                               // signal others
+                signalWork(ws, q);
+            return t;
+        }
+        return null;
+    }
+
+    /**
+     * Tries to take a task from the non-empty queue with the highest
+     * priority: either a lane, or the queue of a worker running a
+     * prioritized task, preferring lanes on ties.  Only one attempt
+     * is made, leaving the caller's usual scan to cope with
+     * contention.
+     *
+     * @param w the worker (via its WorkQueue)
+     * @param ws the workQueues array
+     * @param m its mask
+     * @param ls the lanes array
+     * @return a task, or null if none found
+     */
+    private ForkJoinTask<?> scanPriority(WorkQueue w, WorkQueue[] ws, int m,
+                                         WorkQueue[] ls) {
+        WorkQueue best = null; int bp = 0;
+        for (int p = ls.length; p > 0; --p) {
+            WorkQueue q;
+            if ((q = ls[p - 1]) != null && q.base - q.top < 0) {
+                best = q;
+                bp = p;
+                break;
+            }
+        }
+        for (int i = 1; i <= m; i += 2) {
+            WorkQueue q; int qp;
+            if ((q = ws[i]) != null && q != w && (qp = q.priority) > bp &&
+                q.base - q.top < 0) {
+                best = q;
+                bp = qp;
+            }
+        }
+        WorkQueue q; ForkJoinTask<?> t; int b, n;
+        if ((q = best) != null && (n = (b = q.base) - q.top) < 0 &&
+            (t = q.pollAt(b)) != null) {
+            w.priority = bp;
+            if (n < -1)                               // signal others
+                signalWork(ws, q);
+            return t;
+        }
+        return null;
+    }
+
+    /**
+     * Makes one pass over the queues of worker w's locality group,
+     * starting at a random position, and tries to steal a task from
+     * the first non-empty one found.
+     *
+     * @param w the worker (via its WorkQueue)
+     * @param ws the workQueues array
+     * @param m its mask
+     * @param r a random seed
+     * @return a task, or null if none found
+     */
+    private ForkJoinTask<?> scanGroup(WorkQueue w, WorkQueue[] ws, int m,
+                                      int r) {
+        int g = localityGroups, j = ((w.config & SMASK) >>> 1) % g;
+        int slots = (((m + 1) >>> 1) - j + g - 1) / g;
+        for (int k = 0, t = (r >>> 1) % Math.max(slots, 1); k < slots; ++k) {
+            for (int i = (j + g * t) << 1, e = i + 1; i <= e; ++i) {
+                WorkQueue q; ForkJoinTask<?>[] a; ForkJoinTask<?> task;
+                int b, n, al, x;
+                if ((q = ws[i & m]) != null && q != w &&
+                    (n = (b = q.base) - q.top) < 0 &&
+                    (a = q.array) != null && (al = a.length) > 0 &&
+                    (task = getAt(a, x = (al - 1) & b)) != null &&
+                    q.base == b && casAt(a, x, task, null)) {
+                    q.base = b + 1;
+                    w.priority = q.priority;
+                    if (n < -1)                       // signal others
+                        signalWork(ws, q);
+                    return task;
+                }
+            }
+            if (++t == slots)
+                t = 0;
+        }
+        return null;
+    }
+
     /**
      * Possibly blocks worker w waiting for a task to steal, or
      * returns false if the worker should terminate.  If inactivating
@@ -1782,6 +2130,8 @@ public class ForkJoinPool extends AbstractExecutorService {
     private boolean awaitWork(WorkQueue w, int r) {
         if (w == null || w.qlock < 0)                 // w is terminating
             return false;
+        long idleStart = (maxSpinNanos > 0L) ? System.nanoTime() : 0L;
+        boolean spun = false;
         for (int pred = w.stackPred, spins = SPINS, ss;;) {
             if ((ss = w.scanState) >= 0)
                 break;
@@ -1798,6 +2148,10 @@ public class ForkJoinPool extends AbstractExecutorService {
             }
             else if (w.qlock < 0)                     // recheck after spins
                 return false;
+            else if (!spun) {                         // adaptive/hot spins
+                spun = true;
+                spinWait(w, idleStart);
+            }
             else if (!Thread.interrupted()) {
                 long c, prevctl, parkTime, deadline;
                 int ac = (int)((c = ctl) >> AC_SHIFT) + (config & SMASK);
@@ -1817,21 +2171,80 @@ public class ForkJoinPool extends AbstractExecutorService {
                 Thread wt = Thread.currentThread();
                 U.putObject(wt, PARKBLOCKER, this);   // emulate LockSupport
                 w.parker = wt;
-                if (w.scanState < 0 && ctl == c)      // recheck before park
+                boolean parked = false;
+                if (w.scanState < 0 && ctl == c) {    // recheck before park
+                    long startTime = System.nanoTime();
+                    ++w.nparks;
                     U.park(false, parkTime);
+                    w.idleNanos += System.nanoTime() - startTime;
+                    parked = true;
+                }
                 U.putOrderedObject(w, QPARKER, null);
                 U.putObject(wt, PARKBLOCKER, null);
-                if (w.scanState >= 0)
+                if (w.scanState >= 0) {
+                    if (parked)
+                        ++w.nwakeups;
                     break;
+                }
                 if (parkTime != 0L && ctl == c &&
                     deadline - System.nanoTime() <= 0L &&
                     U.compareAndSwapLong(this, CTL, c, prevctl))
                     return false;                     // shrink pool
             }
         }
+        if (idleStart != 0L) {                        // sample idle time
+            long d = System.nanoTime() - idleStart, e = idleEstimate;
+            idleEstimate = (e == 0L) ? d : e + ((d - e) >> 3);
+        }
         return true;
     }
 
+    /**
+     * Spins (yielding periodically) in awaitWork after the initial
+     * fixed spins, until worker w is signalled, or no longer either
+     * within its adaptive spin period or hot, or the pool is shutting
+     * down.
+     *
+     * @param w the calling worker
+     * @param idleStart time w started waiting, or 0 if no adaptive
+     * spinning
+     */
+    private void spinWait(WorkQueue w, long idleStart) {
+        long max = maxSpinNanos, e, limit = 0L;
+        if (idleStart != 0L && max > 0L && (e = idleEstimate) <= max)
+            limit = (e == 0L) ? max : Math.min(max, e << 1);
+        if (limit > 0L || hotWorkers > 0) {
+            for (int k = 1; w.scanState < 0; ++k) {
+                if ((k & (SPIN_CHECK_INTERVAL - 1)) == 0) {
+                    int hot = hotWorkers;     // reread; may be reduced
+                    if (runState < 0 || w.qlock < 0 ||
+                        ((hot <= 0 || !isHotWorker(w, hot)) &&
+                         (limit <= 0L ||
+                          System.nanoTime() - idleStart >= limit)))
+                        break;
+                    Thread.yield();
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns true if worker w is among the n topmost workers of
+     * the idle worker stack, and so should keep spinning rather than
+     * park when hot spinning is enabled.
+     */
+    private boolean isHotWorker(WorkQueue w, int n) {
+        WorkQueue[] ws = workQueues; WorkQueue v; int j;
+        for (int sp = (int)ctl; sp != 0 && n > 0; --n, sp = v.stackPred) {
+            if (ws == null || (j = sp & SMASK) >= ws.length ||
+                (v = ws[j]) == null)
+                break;
+            if (v == w)
+                return true;
+        }
+        return false;
+    }
+
     // Joining tasks
 
     /**
@@ -1856,6 +2269,7 @@ public class ForkJoinPool extends AbstractExecutorService {
         if ((ws = workQueues) != null && (m = ws.length - 1) > 0 &&
             task != null && w != null) {
             int mode = w.config;                 // for popCC
+            boolean owned = w.owner != null;     // count runs in nexecs
             int r = w.hint ^ w.top;              // arbitrary seed for origin
             int origin = r & m;                  // first queue to scan
             int h = 1;                           // 1:ran, >1:contended, <0:hash
@@ -1864,7 +2278,10 @@ public class ForkJoinPool extends AbstractExecutorService {
                 if ((s = task.status) < 0)
                     break;
                 if (h == 1 && (p = w.popCC(task, mode)) != null) {
-                    p.doExec();                  // run local task
+                    if (owned)                   // run local task
+                        w.execCounted(p);
+                    else
+                        p.doExec();
                     if (maxTasks != 0 && --maxTasks == 0)
                         break;
                     origin = k;                  // reset
@@ -1875,6 +2292,8 @@ public class ForkJoinPool extends AbstractExecutorService {
                         h = 0;
                     else if ((h = q.pollAndExecCC(task)) < 0)
                         checkSum += h;
+                    else if (h == 1 && owned)
+                        ++w.nexecs;
                     if (h > 0) {
                         if (h == 1 && maxTasks != 0 && --maxTasks == 0)
                             break;
@@ -1951,7 +2370,7 @@ public class ForkJoinPool extends AbstractExecutorService {
                                 int top = w.top;
                                 do {
                                     U.putOrderedObject(w, QCURRENTSTEAL, t);
-                                    t.doExec();        // clear local tasks too
+                                    w.execCounted(t);  // clear local tasks too
                                 } while (task.status >= 0 &&
                                          w.top != top &&
                                          (t = w.pop()) != null);
@@ -2013,7 +2432,8 @@ public class ForkJoinPool extends AbstractExecutorService {
                 if (((rs = lockRunState()) & STOP) == 0)
                     add = U.compareAndSwapLong(this, CTL, c, nc);
                 unlockRunState(rs, rs & ~RSLOCK);
-                canBlock = add && createWorker(); // throws on exception
+                if (canBlock = add && createWorker()) // throws on exception
+                    ++w.nspares;
             }
         }
         return canBlock;
@@ -2098,9 +2518,8 @@ public class ForkJoinPool extends AbstractExecutorService {
         ForkJoinTask<?> ps = w.currentSteal; // save context
         for (boolean active = true;;) {
             long c; WorkQueue q; ForkJoinTask<?> t; int b;
-            if ((w.config & FIFO_QUEUE) != 0)
-                w.pollAndExecAll();  // run locals before each scan
-            else
+            w.nexecs += ((w.config & FIFO_QUEUE) != 0) ?
+                w.pollAndExecAll() : // run locals before each scan
                 w.popAndExecAll();
             if ((q = findNonEmptyStealQueue()) != null) {
                 if (!active) {      // re-establish active count
@@ -2109,7 +2528,7 @@ public class ForkJoinPool extends AbstractExecutorService {
                 }
                 if ((b = q.base) - q.top < 0 && (t = q.pollAt(b)) != null) {
                     U.putOrderedObject(w, QCURRENTSTEAL, t);
-                    t.doExec();
+                    w.execCounted(t);
                     if (++w.nsteals < 0)
                         w.transferStealCount(this);
                 }
@@ -2305,15 +2724,20 @@ public class ForkJoinPool extends AbstractExecutorService {
     // External operations
 
     /**
-     * Full version of externalPush, handling uncommon cases, as well
-     * as performing secondary initialization upon the first
-     * submission of the first task to the pool.  It also detects
-     * first submission by an external thread and creates a new shared
-     * queue if the one at index if empty or contended.
+     * Full version of externalPush and affinePush, handling uncommon
+     * cases, as well as performing secondary initialization upon the
+     * first submission of the first task to the pool.  It also
+     * detects first submission by an external thread and creates a
+     * new shared queue if the one at index if empty or contended.
+     * Affine submissions instead always use (and if necessary
+     * create) the queue for their key, retrying on contention.
      *
      * @param task the task. Caller must ensure non-null.
+     * @param affine true if an affine submission
+     * @param key the affinity key, if affine
      */
-    private void externalSubmit(ForkJoinTask<?> task) {
+    private void externalSubmit(ForkJoinTask<?> task, boolean affine,
+                                int key) {
         int r;                                    // initialize caller's probe
         if ((r = ThreadLocalRandom.getProbe()) == 0) {
             ThreadLocalRandom.localInit();
@@ -2327,27 +2751,12 @@ public class ForkJoinPool extends AbstractExecutorService {
                 throw new RejectedExecutionException();
             }
             else if ((rs & STARTED) == 0 ||     // initialize
-                     ((ws = workQueues) == null || (m = ws.length - 1) <= 0)) {
-                int ns = 0;
-                rs = lockRunState();
-                try {
-                    if ((rs & STARTED) == 0) {
-                        U.compareAndSwapObject(this, STEALCOUNTER, null,
-                                               new AtomicLong());
-                        // create workQueues array with size a power of two
-                        int p = config & SMASK; // ensure at least 2 slots
-                        int n = (p > 1) ? p - 1 : 1;
-                        n |= n >>> 1; n |= n >>> 2;  n |= n >>> 4;
-                        n |= n >>> 8; n |= n >>> 16; n = (n + 1) << 1;
-                        workQueues = new WorkQueue[n];
-                        ns = STARTED;
-                    }
-                } finally {
-                    unlockRunState(rs, (rs & ~RSLOCK) | ns);
-                }
-            }
-            else if ((q = ws[k = r & m & SQMASK]) != null) {
-                if (q.qlock == 0 && U.compareAndSwapInt(q, QLOCK, 0, 1)) {
+                     ((ws = workQueues) == null || (m = ws.length - 1) <= 0))
+                initWorkQueues();
+            else if ((q = ws[k = (affine ? affinityIndex(key, ws, m) :
+                                  submissionIndex(r, m))]) != null) {
+                if (q.priority == 0 && q.qlock == 0 &&  // skip lanes
+                    U.compareAndSwapInt(q, QLOCK, 0, 1)) {
                     ForkJoinTask<?>[] a = q.array;
                     int s = q.top;
                     boolean submitted = false; // initial submission or resizing
@@ -2384,11 +2793,64 @@ public class ForkJoinPool extends AbstractExecutorService {
             }
             else
                 move = true;                   // move if busy
-            if (move)
-                r = ThreadLocalRandom.advanceProbe(r);
+            if (move) {
+                if (affine)                    // cannot move; retry
+                    Thread.yield();
+                else
+                    r = ThreadLocalRandom.advanceProbe(r);
+            }
+        }
+    }
+
+    /**
+     * Performs secondary initialization upon the first submission of
+     * the first task to the pool, creating the workQueues array.
+     */
+    private void initWorkQueues() {
+        int ns = 0;
+        int rs = lockRunState();
+        try {
+            if ((rs & STARTED) == 0) {
+                U.compareAndSwapObject(this, STEALCOUNTER, null,
+                                       new AtomicLong());
+                // create workQueues array with size a power of two
+                int p = config & SMASK; // ensure at least 2 slots
+                int n = (p > 1) ? p - 1 : 1;
+                n |= n >>> 1; n |= n >>> 2;  n |= n >>> 4;
+                n |= n >>> 8; n |= n >>> 16; n = (n + 1) << 1;
+                workQueues = new WorkQueue[n];
+                ns = STARTED;
+            }
+        } finally {
+            unlockRunState(rs, (rs & ~RSLOCK) | ns);
         }
     }
 
+    /**
+     * Returns the workQueues index of the submission queue for an
+     * external submitter with the given probe, within its locality
+     * group if there are groups.
+     *
+     * @param r the submitter's probe
+     * @param m the workQueues mask
+     */
+    final int submissionIndex(int r, int m) {
+        int k = r & m & SQMASK, g;
+        if ((g = localityGroups) > 1) {
+            Thread t; ForkJoinWorkerThread wt; int j, gk;
+            if ((t = Thread.currentThread()) instanceof ForkJoinWorkerThread &&
+                (wt = (ForkJoinWorkerThread)t).pool.localityGroups > 1)
+                j = wt.getLocalityGroup() % g;
+            else
+                j = (r >>> 16) % g;
+            if ((gk = k + ((j - (k >>> 1) % g) << 1)) > (m & SQMASK))
+                gk -= g << 1;                         // stay within array
+            if (gk >= 0)
+                k = gk;
+        }
+        return k;
+    }
+
     /**
      * Tries to add the given task to a submission queue at
      * submitter's current queue. Only the (vastly) most common path
@@ -2402,8 +2864,8 @@ public class ForkJoinPool extends AbstractExecutorService {
         int r = ThreadLocalRandom.getProbe();
         int rs = runState;
         if ((ws = workQueues) != null && (m = (ws.length - 1)) > 0 &&
-            (q = ws[m & r & SQMASK]) != null && r != 0 && rs > 0 &&
-            U.compareAndSwapInt(q, QLOCK, 0, 1)) {
+            (q = ws[submissionIndex(r, m)]) != null && r != 0 && rs > 0 &&
+            q.priority == 0 && U.compareAndSwapInt(q, QLOCK, 0, 1)) {
             ForkJoinTask<?>[] a;
             if ((a = q.array) != null) {
                 int b = q.base, al = a.length, s = q.top;
@@ -2421,7 +2883,154 @@ public class ForkJoinPool extends AbstractExecutorService {
             }
             U.compareAndSwapInt(q, QLOCK, 1, 0);
         }
-        externalSubmit(task);
+        externalSubmit(task, false, 0);
+    }
+
+    /**
+     * Returns the workQueues index of the shared queue for the given
+     * affinity key: the first even index, starting at one chosen by
+     * hashing the key, whose odd neighbor holds a worker, or if no
+     * such worker exists, the first one probed, skipping priority
+     * lanes in either case.  Unlike submissionIndex, this ranges
+     * over all even indices, not only those within SQMASK.  The
+     * result is stable so long as the set of workers and lanes (and
+     * the workQueues array) is.
+     *
+     * @param key the affinity key
+     * @param ws the workQueues array
+     * @param m its mask
+     */
+    static int affinityIndex(int key, WorkQueue[] ws, int m) {
+        int h = key * 0x9e3779b9, sm = m & ~1;
+        int k = ((h ^ (h >>> 16)) << 1) & sm, f = -1;
+        for (int i = k, n = (sm >>> 1) + 1; n > 0; --n) {
+            WorkQueue q;
+            if ((q = ws[i]) == null || q.priority == 0) {
+                if (i + 1 <= m && ws[i + 1] != null)
+                    return i;
+                if (f < 0)
+                    f = i;
+            }
+            i = (i + 2) & sm;
+        }
+        return (f >= 0) ? f : k;
+    }
+
+    /**
+     * Adds the given task to the shared queue for the given affinity
+     * key, handling the common case directly and otherwise relaying
+     * to externalSubmit.
+     *
+     * @param task the task. Caller must ensure non-null.
+     * @param key the affinity key
+     */
+    final void affinePush(ForkJoinTask<?> task, int key) {
+        WorkQueue[] ws; WorkQueue q; int m;
+        if (!affineSubmissions)
+            affineSubmissions = true;       // enable pollAffine
+        if ((ws = workQueues) != null && (m = (ws.length - 1)) > 0 &&
+            (q = ws[affinityIndex(key, ws, m)]) != null && runState > 0 &&
+            q.priority == 0 && U.compareAndSwapInt(q, QLOCK, 0, 1)) {
+            ForkJoinTask<?>[] a;
+            if ((a = q.array) != null) {
+                int b = q.base, al = a.length, s = q.top;
+                if (al > 0) {
+                    int am = al - 1, j = am & s;
+                    if (s - b < am) {
+                        setAt(a, j, task);
+                        U.putOrderedInt(q, QTOP, s + 1);
+                        U.putIntVolatile(q, QLOCK, 0);
+                        signalWork(ws, q);
+                        return;
+                    }
+                }
+            }
+            U.compareAndSwapInt(q, QLOCK, 1, 0);
+        }
+        externalSubmit(task, true, key);
+    }
+
+    /**
+     * Adds the given task to the lane for the given priority,
+     * creating the lane if necessary.
+     *
+     * @param task the task. Caller must ensure non-null.
+     * @param priority the priority, between 1 and MAX_PRIORITY
+     */
+    final void lanePush(ForkJoinTask<?> task, int priority) {
+        for (;;) {
+            WorkQueue[] ws, ls; WorkQueue q; int rs;
+            if ((rs = runState) < 0) {
+                tryTerminate(false, false);     // help terminate
+                throw new RejectedExecutionException();
+            }
+            else if ((rs & STARTED) == 0 || (ws = workQueues) == null)
+                initWorkQueues();
+            else if ((ls = lanes) == null || (q = ls[priority - 1]) == null)
+                addLane(priority);
+            else if (q.qlock == 0 && U.compareAndSwapInt(q, QLOCK, 0, 1)) {
+                ForkJoinTask<?>[] a = q.array;
+                int s = q.top;
+                boolean submitted = false;
+                try {                           // locked version of push
+                    if ((a != null && a.length > s + 1 - q.base) ||
+                        (a = q.growArray()) != null) {
+                        int al = a.length, j = (al - 1) & s;
+                        if (al > 0) {
+                            setAt(a, j, task);
+                            U.putOrderedInt(q, QTOP, s + 1);
+                            submitted = true;
+                        }
+                    }
+                } finally {
+                    U.compareAndSwapInt(q, QLOCK, 1, 0);
+                }
+                if (submitted) {
+                    signalWork(ws, q);
+                    return;
+                }
+            }
+            else
+                Thread.yield();                 // contended or terminating
+        }
+    }
+
+    /**
+     * Creates and installs the lane for the given priority, if not
+     * already present, in the highest free even slot of workQueues,
+     * first growing the array to at least LANE_MIN_SLOTS, and
+     * doubling it if no even slot is free.
+     *
+     * @param priority the priority, between 1 and MAX_PRIORITY
+     */
+    private void addLane(int priority) {
+        int rs = lockRunState();
+        try {
+            WorkQueue[] ws, ls; int n;
+            if (rs > 0 && (ws = workQueues) != null) {
+                if ((ls = lanes) == null)
+                    lanes = ls = new WorkQueue[MAX_PRIORITY];
+                if (ls[priority - 1] == null) {
+                    if ((n = ws.length) < LANE_MIN_SLOTS)
+                        workQueues = ws = Arrays.copyOf(ws, n = LANE_MIN_SLOTS);
+                    int k = n - 2;
+                    while (ws[k] != null) {
+                        if ((k -= 2) < 0) {
+                            workQueues = ws = Arrays.copyOf(ws, n <<= 1);
+                            k = n - 2;
+                        }
+                    }
+                    WorkQueue q = new WorkQueue(this, null);
+                    q.config = k | SHARED_QUEUE;
+                    q.scanState = INACTIVE;
+                    q.priority = priority;
+                    ws[k] = q;
+                    ls[priority - 1] = q;
+                }
+            }
+        } finally {
+            unlockRunState(rs, rs & ~RSLOCK);
+        }
     }
 
     /**
@@ -2448,7 +3057,7 @@ public class ForkJoinPool extends AbstractExecutorService {
         WorkQueue[] ws; int m;
         return (p != null && (ws = p.workQueues) != null &&
                 (m = ws.length - 1) > 0) ?
-            ws[m & r & SQMASK] : null;
+            ws[p.submissionIndex(r, m)] : null;
     }
 
     /**
@@ -2460,7 +3069,7 @@ public class ForkJoinPool extends AbstractExecutorService {
         WorkQueue[] ws; WorkQueue w; ForkJoinTask<?>[] a; int m;
         int r = ThreadLocalRandom.getProbe();
         if ((ws = workQueues) != null && (m = ws.length - 1) > 0 &&
-            (w = ws[m & r & SQMASK]) != null &&
+            (w = ws[submissionIndex(r, m)]) != null &&
             (a = w.array) != null) {
             int b = w.base, al = a.length, s = w.top;
             if (s != b && al > 0 &&
@@ -2484,7 +3093,7 @@ public class ForkJoinPool extends AbstractExecutorService {
         WorkQueue[] ws; int n;
         int r = ThreadLocalRandom.getProbe();
         return ((ws = workQueues) == null || (n = ws.length) == 0) ? 0 :
-            helpComplete(ws[(n - 1) & r & SQMASK], task, maxTasks);
+            helpComplete(ws[submissionIndex(r, n - 1)], task, maxTasks);
     }
 
     // Exported methods
@@ -2553,14 +3162,72 @@ public class ForkJoinPool extends AbstractExecutorService {
                         ForkJoinWorkerThreadFactory factory,
                         UncaughtExceptionHandler handler,
                         boolean asyncMode) {
+        this(parallelism, factory, handler, asyncMode, 1);
+    }
+
+    /**
+     * Creates a {@code ForkJoinPool} with the given parameters,
+     * dividing workers into the given number of locality groups.
+     * Each worker is placed in the group with the fewest workers at
+     * the time it is created, and looks for tasks within its own
+     * group, including tasks submitted from threads associated with
+     * the group, before trying to steal from workers in other
+     * groups.  This is useful on hosts with multiple sockets or NUMA
+     * nodes, in which case the number of groups should normally be
+     * the number of nodes, and the thread factory should create
+     * threads that (for example in {@link
+     * ForkJoinWorkerThread#onStart}) bind themselves to the
+     * processors of the node given by {@link
+     * ForkJoinWorkerThread#getLocalityGroup}.  Otherwise, groups
+     * only cluster tasks by worker, which may still improve cache
+     * locality.  External submissions by a worker thread of another
+     * pool are directed to its group number, modulo the number of
+     * groups; those by other threads are directed to a group
+     * determined by the submitting thread.
+     *
+     * @param parallelism the parallelism level. For default value,
+     * use {@link java.lang.Runtime#availableProcessors}.
+     * @param factory the factory for creating new threads. For default value,
+     * use {@link #defaultForkJoinWorkerThreadFactory}.
+     * @param handler the handler for internal worker threads that
+     * terminate due to unrecoverable errors encountered while executing
+     * tasks. For default value, use {@code null}.
+     * @param asyncMode if true,
+     * establishes local first-in-first-out scheduling mode for forked
+     * tasks that are never joined. For default value, use {@code false}.
+     * @param localityGroups the number of locality groups, or 1 for
+     * no grouping
+     * @throws IllegalArgumentException if parallelism less than or
+     *         equal to zero, or greater than implementation limit, or
+     *         if localityGroups is less than one or greater than
+     *         parallelism
+     * @throws NullPointerException if the factory is null
+     * @throws SecurityException if a security manager exists and
+     *         the caller is not permitted to modify threads
+     *         because it does not hold {@link
+     *         java.lang.RuntimePermission}{@code ("modifyThread")}
+     * @since 9
+     */
+    public ForkJoinPool(int parallelism,
+                        ForkJoinWorkerThreadFactory factory,
+                        UncaughtExceptionHandler handler,
+                        boolean asyncMode,
+                        int localityGroups) {
         this(checkParallelism(parallelism),
              checkFactory(factory),
              handler,
              asyncMode ? FIFO_QUEUE : LIFO_QUEUE,
+             checkLocalityGroups(localityGroups, parallelism),
              "ForkJoinPool-" + nextPoolId() + "-worker-");
         checkPermission();
     }
 
+    private static int checkLocalityGroups(int groups, int parallelism) {
+        if (groups <= 0 || groups > parallelism)
+            throw new IllegalArgumentException();
+        return groups;
+    }
+
     private static int checkParallelism(int parallelism) {
         if (parallelism <= 0 || parallelism > MAX_CAP)
             throw new IllegalArgumentException();
@@ -2583,11 +3250,13 @@ public class ForkJoinPool extends AbstractExecutorService {
                          ForkJoinWorkerThreadFactory factory,
                          UncaughtExceptionHandler handler,
                          int mode,
+                         int localityGroups,
                          String workerNamePrefix) {
         this.workerNamePrefix = workerNamePrefix;
         this.factory = factory;
         this.ueh = handler;
         this.config = (parallelism & SMASK) | mode;
+        this.localityGroups = localityGroups;
         long np = (long)(-parallelism); // offset ctl counts
         this.ctl = ((np << AC_SHIFT) & AC_MASK) | ((np << TC_SHIFT) & TC_MASK);
     }
@@ -2680,6 +3349,76 @@ public class ForkJoinPool extends AbstractExecutorService {
         return doSubmit(task);
     }
 
+    /**
+     * Submits a ForkJoinTask for execution, preferentially by the
+     * same worker as other tasks submitted with the same affinity
+     * key.  Tasks with equal keys are placed in the same submission
+     * queue, which the worker associated with that queue checks
+     * before looking elsewhere for work, so tasks operating on the
+     * same data tend to run on the same thread.  Other workers may
+     * still steal these tasks when otherwise idle, and the mapping
+     * of keys to workers may change as workers are added or
+     * terminated.  This method is intended for use by external
+     * (non-worker) threads; subtasks forked within a task remain in
+     * the forking worker's own queue.
+     *
+     * @param task the task to submit
+     * @param affinityKey the affinity key, for example a partition
+     *        number
+     * @param <T> the type of the task's result
+     * @return the task
+     * @throws NullPointerException if the task is null
+     * @throws RejectedExecutionException if the task cannot be
+     *         scheduled for execution
+     * @since 9
+     */
+    public <T> ForkJoinTask<T> submit(ForkJoinTask<T> task,
+                                      int affinityKey) {
+        if (task == null)
+            throw new NullPointerException();
+        affinePush(task, affinityKey);
+        return task;
+    }
+
+    /**
+     * Submits a ForkJoinTask for execution at the given priority
+     * level.  Tasks submitted at a positive level are placed in a
+     * separate submission queue (lane) for that level, and idle
+     * workers take tasks from higher levels before those of lower
+     * levels.  Subtasks forked while running a task inherit its
+     * level, and are also preferred by thieves over tasks of lower
+     * levels.  Priorities affect only the order in which workers
+     * select new tasks; a running task of any level is never
+     * preempted, so higher levels bound queuing delays only to the
+     * extent that lower-level tasks are short.  Tasks submitted
+     * at level zero are treated in the same way as those submitted
+     * using {@link #submit(ForkJoinTask)} by a non-worker thread.
+     *
+     * @param task the task to submit
+     * @param priority the priority level, between zero and
+     *        {@link #MAX_PRIORITY}
+     * @param <T> the type of the task's result
+     * @return the task
+     * @throws NullPointerException if the task is null
+     * @throws IllegalArgumentException if priority is negative or
+     *         greater than {@link #MAX_PRIORITY}
+     * @throws RejectedExecutionException if the task cannot be
+     *         scheduled for execution
+     * @since 9
+     */
+    public <T> ForkJoinTask<T> submitWithPriority(ForkJoinTask<T> task,
+                                                  int priority) {
+        if (task == null)
+            throw new NullPointerException();
+        if (priority < 0 || priority > MAX_PRIORITY)
+            throw new IllegalArgumentException();
+        if (priority == 0)
+            externalPush(task);
+        else
+            lanePush(task, priority);
+        return task;
+    }
+
     /**
      * @throws NullPointerException if the task is null
      * @throws RejectedExecutionException if the task cannot be
@@ -2759,6 +3498,106 @@ public class ForkJoinPool extends AbstractExecutorService {
         return ueh;
     }
 
+    /**
+     * Returns the number of locality groups of this pool, which is
+     * one if workers are not grouped.
+     *
+     * @return the number of locality groups
+     * @see #ForkJoinPool(int, ForkJoinWorkerThreadFactory,
+     *      UncaughtExceptionHandler, boolean, int)
+     * @since 9
+     */
+    public int getLocalityGroups() {
+        return localityGroups;
+    }
+
+    /**
+     * Sets the maximum time that an idle worker spins, checking for
+     * new tasks, before blocking.  By default this is zero, in which
+     * case idle workers block after only a brief fixed number of
+     * spins.  Otherwise, the pool maintains an estimate of the
+     * typical time workers spend waiting for tasks, and workers spin
+     * for up to twice this estimate (but no longer than the given
+     * time) before blocking, so long as the estimate does not
+     * exceed the given time.  Spinning trades processor time for
+     * lower latency of tasks arriving in rapid succession, avoiding
+     * the cost of unblocking a worker.
+     *
+     * @param time the maximum spin time, or zero for none
+     * @param unit the time unit of the time argument
+     * @throws IllegalArgumentException if time is negative
+     * @throws SecurityException if a security manager exists and
+     *         the caller is not permitted to modify threads
+     *         because it does not hold {@link
+     *         java.lang.RuntimePermission}{@code ("modifyThread")}
+     * @see #getMaximumSpinTime
+     * @since 9
+     */
+    public void setMaximumSpinTime(long time, TimeUnit unit) {
+        if (time < 0L)
+            throw new IllegalArgumentException();
+        checkPermission();
+        idleEstimate = 0L;
+        maxSpinNanos = unit.toNanos(time);
+    }
+
+    /**
+     * Returns the maximum time that an idle worker spins before
+     * blocking.
+     *
+     * @param unit the desired time unit of the result
+     * @return the maximum spin time
+     * @see #setMaximumSpinTime
+     * @since 9
+     */
+    public long getMaximumSpinTime(TimeUnit unit) {
+        return unit.convert(maxSpinNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Sets the number of idle workers that spin indefinitely,
+     * without blocking, checking for new tasks.  These are the most
+     * recently idle workers, which are also the first to be given
+     * new tasks, so tasks arriving at an otherwise idle pool start
+     * without the delay of unblocking a worker.  Each such worker
+     * continuously consumes processor time (while yielding to other
+     * threads) until the pool is shut down or the count is reduced.
+     * By default this is zero.
+     *
+     * @param count the number of hot spinning workers
+     * @throws IllegalArgumentException if count is negative
+     * @throws SecurityException if a security manager exists and
+     *         the caller is not permitted to modify threads
+     *         because it does not hold {@link
+     *         java.lang.RuntimePermission}{@code ("modifyThread")}
+     * @see #getHotWorkerCount
+     * @since 9
+     */
+    public void setHotWorkerCount(int count) {
+        if (count < 0)
+            throw new IllegalArgumentException();
+        checkPermission();
+        hotWorkers = count;
+    }
+
+    /**
+     * Returns the number of idle workers that spin without blocking.
+     *
+     * @return the number of hot spinning workers
+     * @see #setHotWorkerCount
+     * @since 9
+     */
+    public int getHotWorkerCount() {
+        return hotWorkers;
+    }
+
+    /**
+     * Returns the locality group of worker queue w.
+     */
+    final int localityGroupOf(WorkQueue w) {
+        return ((w.config & SMASK) >>> 1) % localityGroups;
+    }
+
     /**
      * Returns the targeted parallelism level of this pool.
      *
@@ -2981,6 +3820,338 @@ public class ForkJoinPool extends AbstractExecutorService {
         return count;
     }
 
+    /**
+     * Returns a snapshot of metrics describing the activity of this
+     * pool's workers since the pool was created.  Pool-wide totals
+     * include workers that have since terminated; the per-worker
+     * metrics cover only current workers.  Unlike methods such as
+     * {@link #getStealCount}, which must also traverse all workers,
+     * this method collects all values in a single pass.  The
+     * counts underlying these metrics are maintained continuously by
+     * each worker at very little cost, but because they are read
+     * without synchronizing with the workers, values for running
+     * workers may lag slightly behind their actual activity.
+     *
+     * @return a snapshot of this pool's metrics
+     * @since 9
+     */
+    public Metrics getMetrics() {
+        ArrayList<WorkerMetrics> workers = new ArrayList<>();
+        long[] depthCounts = new long[WorkQueue.DEPTH_BUCKETS];
+        long execs = 0L, parks = 0L, wakeups = 0L, idle = 0L, spares = 0L;
+        long steals = 0L, queued = 0L;
+        int rs = lockRunState();
+        try {
+            AtomicLong sc = stealCounter;
+            WorkQueue[] ws; WorkQueue w;
+            if (sc != null)
+                steals = sc.get();
+            if ((w = retired) != null) {
+                execs = w.nexecs;
+                parks = w.nparks;
+                wakeups = w.nwakeups;
+                idle = w.idleNanos;
+                spares = w.nspares;
+                addCounts(depthCounts, w.depthCounts);
+            }
+            if ((ws = workQueues) != null) {
+                for (int i = 0; i < ws.length; ++i) {
+                    if ((w = ws[i]) != null) {
+                        if ((i & 1) == 0) {
+                            queued += w.queueSize();
+                            continue;
+                        }
+                        WorkerMetrics m = new WorkerMetrics(w);
+                        workers.add(m);
+                        execs += m.executedCount;
+                        steals += m.stealCount;
+                        parks += m.parkCount;
+                        wakeups += m.wakeupCount;
+                        idle += m.idleTimeNanos;
+                        spares += m.spareCount;
+                        queued += m.queuedTaskCount;
+                        addCounts(depthCounts, m.depthCounts);
+                    }
+                }
+            }
+        } finally {
+            unlockRunState(rs, rs & ~RSLOCK);
+        }
+        return new Metrics(execs, steals, parks, wakeups, idle, spares,
+                           queued, depthCounts,
+                           Collections.unmodifiableList(workers));
+    }
+
+    /**
+     * Adds counts in src, if non-null, to those in dst.
+     */
+    static void addCounts(long[] dst, long[] src) {
+        if (src != null) {
+            for (int i = 0; i < dst.length && i < src.length; ++i)
+                dst[i] += src[i];
+        }
+    }
+
+    /**
+     * A snapshot of pool-wide metrics, returned by {@link
+     * ForkJoinPool#getMetrics}.  Each count is a total over all
+     * workers that have run in the pool, including those that have
+     * terminated.
+     *
+     * <p>Method names follow JavaBeans conventions, so instances may
+     * be readily exposed (for example as MXBean attributes) by
+     * monitoring frameworks.
+     *
+     * @since 9
+     */
+    public static final class Metrics {
+        private final long executedCount;
+        private final long stealCount;
+        private final long parkCount;
+        private final long wakeupCount;
+        private final long idleTimeNanos;
+        private final long spareCount;
+        private final long queuedTaskCount;
+        private final long[] depthCounts;
+        private final List<WorkerMetrics> workers;
+
+        Metrics(long executedCount, long stealCount, long parkCount,
+                long wakeupCount, long idleTimeNanos, long spareCount,
+                long queuedTaskCount, long[] depthCounts,
+                List<WorkerMetrics> workers) {
+            this.executedCount = executedCount;
+            this.stealCount = stealCount;
+            this.parkCount = parkCount;
+            this.wakeupCount = wakeupCount;
+            this.idleTimeNanos = idleTimeNanos;
+            this.spareCount = spareCount;
+            this.queuedTaskCount = queuedTaskCount;
+            this.depthCounts = depthCounts;
+            this.workers = workers;
+        }
+
+        /**
+         * Returns the number of tasks executed by workers, including
+         * those run while joining or helping to complete other tasks.
+         * Tasks run by non-worker threads are not included.
+         *
+         * @return the number of tasks executed
+         */
+        public long getExecutedCount() { return executedCount; }
+
+        /**
+         * Returns the number of top-level tasks taken by workers,
+         * as reported by {@link ForkJoinPool#getStealCount}.
+         *
+         * @return the number of steals
+         */
+        public long getStealCount() { return stealCount; }
+
+        /**
+         * Returns the number of times workers blocked waiting for
+         * tasks.
+         *
+         * @return the number of parks
+         */
+        public long getParkCount() { return parkCount; }
+
+        /**
+         * Returns the number of times workers blocked waiting for
+         * tasks were woken up by a signal that work is available.
+         * The difference between this count and {@link #getParkCount}
+         * reflects timeouts and spurious wakeups.
+         *
+         * @return the number of wakeups
+         */
+        public long getWakeupCount() { return wakeupCount; }
+
+        /**
+         * Returns the total time workers spent blocked waiting for
+         * tasks, in nanoseconds.
+         *
+         * @return the idle time in nanoseconds
+         */
+        public long getIdleTimeNanos() { return idleTimeNanos; }
+
+        /**
+         * Returns the number of spare workers created to maintain
+         * parallelism while other workers were blocked in joins or
+         * {@link ManagedBlocker}s.
+         *
+         * @return the number of spare workers created
+         */
+        public long getSpareCount() { return spareCount; }
+
+        /**
+         * Returns the number of tasks held in queues, including
+         * submissions not yet begun, when the snapshot was taken.
+         *
+         * @return the number of queued tasks
+         */
+        public long getQueuedTaskCount() { return queuedTaskCount; }
+
+        /**
+         * Returns a histogram of the depths of workers' queues, each
+         * sampled whenever a worker completes a top-level task,
+         * before running the local tasks remaining in its queue.
+         * Element 0 of the returned array is the number of samples
+         * with empty queues, and each element {@code i > 0} is the
+         * number of samples with depths at least {@code 2^(i-1)} but
+         * less than {@code 2^i}.  Consistently large depths indicate
+         * that tasks are split more finely than needed to keep
+         * workers busy.
+         *
+         * @return a new array holding the histogram
+         */
+        public long[] getQueueDepthHistogram() { return depthCounts.clone(); }
+
+        /**
+         * Returns metrics for each worker in the pool when the
+         * snapshot was taken.
+         *
+         * @return an unmodifiable list of per-worker metrics
+         */
+        public List<WorkerMetrics> getWorkerMetrics() { return workers; }
+
+        /**
+         * Returns a string summarizing these metrics.
+         *
+         * @return a string summarizing these metrics
+         */
+        public String toString() {
+            return "[executed = " + executedCount +
+                ", steals = " + stealCount +
+                ", parks = " + parkCount +
+                ", wakeups = " + wakeupCount +
+                ", idle = " + idleTimeNanos + "ns" +
+                ", spares = " + spareCount +
+                ", tasks = " + queuedTaskCount +
+                ", workers = " + workers.size() +
+                "]";
+        }
+    }
+
+    /**
+     * A snapshot of metrics for a single worker, obtained via {@link
+     * Metrics#getWorkerMetrics}.  Counts are totals since the
+     * worker started, with the same meanings as in {@link Metrics}.
+     *
+     * @since 9
+     */
+    public static final class WorkerMetrics {
+        private final int poolIndex;
+        final long executedCount;
+        final long stealCount;
+        final long parkCount;
+        final long wakeupCount;
+        final long idleTimeNanos;
+        final long spareCount;
+        final long queuedTaskCount;
+        final long[] depthCounts;
+
+        WorkerMetrics(WorkQueue w) {
+            long[] dc = w.depthCounts;
+            this.poolIndex = w.getPoolIndex();
+            this.executedCount = w.nexecs;
+            this.stealCount = w.nsteals;
+            this.parkCount = w.nparks;
+            this.wakeupCount = w.nwakeups;
+            this.idleTimeNanos = w.idleNanos;
+            this.spareCount = w.nspares;
+            this.queuedTaskCount = w.queueSize();
+            this.depthCounts = (dc == null) ?
+                new long[WorkQueue.DEPTH_BUCKETS] : dc.clone();
+        }
+
+        /**
+         * Returns the index of the worker, as reported by {@link
+         * ForkJoinWorkerThread#getPoolIndex}.
+         *
+         * @return the index of the worker
+         */
+        public int getPoolIndex() { return poolIndex; }
+
+        /**
+         * Returns the number of tasks executed by the worker.
+         *
+         * @return the number of tasks executed
+         * @see Metrics#getExecutedCount
+         */
+        public long getExecutedCount() { return executedCount; }
+
+        /**
+         * Returns the number of top-level tasks taken by the worker.
+         *
+         * @return the number of steals
+         */
+        public long getStealCount() { return stealCount; }
+
+        /**
+         * Returns the number of times the worker blocked waiting
+         * for tasks.
+         *
+         * @return the number of parks
+         */
+        public long getParkCount() { return parkCount; }
+
+        /**
+         * Returns the number of times the worker, while blocked
+         * waiting for tasks, was woken up by a signal.
+         *
+         * @return the number of wakeups
+         */
+        public long getWakeupCount() { return wakeupCount; }
+
+        /**
+         * Returns the total time the worker spent blocked waiting for
+         * tasks, in nanoseconds.
+         *
+         * @return the idle time in nanoseconds
+         */
+        public long getIdleTimeNanos() { return idleTimeNanos; }
+
+        /**
+         * Returns the number of spare workers created on behalf of
+         * this worker when it blocked.
+         *
+         * @return the number of spare workers created
+         */
+        public long getSpareCount() { return spareCount; }
+
+        /**
+         * Returns the number of tasks in the worker's queue when the
+         * snapshot was taken.
+         *
+         * @return the number of queued tasks
+         */
+        public long getQueuedTaskCount() { return queuedTaskCount; }
+
+        /**
+         * Returns the histogram of the worker's queue depths.
+         *
+         * @return a new array holding the histogram
+         * @see Metrics#getQueueDepthHistogram
+         */
+        public long[] getQueueDepthHistogram() { return depthCounts.clone(); }
+
+        /**
+         * Returns a string summarizing these metrics.
+         *
+         * @return a string summarizing these metrics
+         */
+        public String toString() {
+            return "[index = " + poolIndex +
+                ", executed = " + executedCount +
+                ", steals = " + stealCount +
+                ", parks = " + parkCount +
+                ", wakeups = " + wakeupCount +
+                ", idle = " + idleTimeNanos + "ns" +
+                ", spares = " + spareCount +
+                ", tasks = " + queuedTaskCount +
+                "]";
+        }
+    }
+
     /**
      * Returns a string identifying this pool, as well as its state,
      * including indications of run state, parallelism level, and
@@ -3410,7 +4581,7 @@ public class ForkJoinPool extends AbstractExecutorService {
      * specified via system properties.
      */
     private static ForkJoinPool makeCommonPool() {
-        int parallelism = -1;
+        int parallelism = -1, groups = 1;
         ForkJoinWorkerThreadFactory factory = null;
         UncaughtExceptionHandler handler = null;
         try {  // ignore exceptions in accessing/parsing properties
@@ -3422,6 +4593,8 @@ public class ForkJoinPool extends AbstractExecutorService {
                 ("java.util.concurrent.ForkJoinPool.common.exceptionHandler");
             String mp = System.getProperty
                 ("java.util.concurrent.ForkJoinPool.common.maximumSpares");
+            String gp = System.getProperty
+                ("java.util.concurrent.ForkJoinPool.common.localityGroups");
             if (pp != null)
                 parallelism = Integer.parseInt(pp);
             if (fp != null)
@@ -3432,6 +4605,8 @@ public class ForkJoinPool extends AbstractExecutorService {
                            getSystemClassLoader().loadClass(hp).newInstance());
             if (mp != null)
                 commonMaxSpares = Integer.parseInt(mp);
+            if (gp != null)
+                groups = Integer.parseInt(gp);
         } catch (Exception ignore) {
         }
         if (factory == null) {
@@ -3445,8 +4620,10 @@ public class ForkJoinPool extends AbstractExecutorService {
             parallelism = 1;
         if (parallelism > MAX_CAP)
             parallelism = MAX_CAP;
+        if (groups <= 0 || groups > parallelism)
+            groups = 1;
         return new ForkJoinPool(parallelism, factory, handler, LIFO_QUEUE,
-                                "ForkJoinPool.commonPool-worker-");
+                                groups, "ForkJoinPool.commonPool-worker-");
     }
 
     /**
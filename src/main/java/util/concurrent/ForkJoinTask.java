@@ -13,6 +13,7 @@ import java.lang.reflect.Constructor;
 import java.util.Collection;
 import java.util.List;
 import java.util.RandomAccess;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.ReentrantLock;
 
 /**
@@ -208,10 +209,40 @@ public abstract class ForkJoinTask<V> implements Future<V>, Serializable {
      * These control bits occupy only (some of) the upper half (16
      * bits) of status field. The lower bits are used for user-defined
      * tags.
+     *
+     * Cancellation scopes. Method asScope makes a task the root of a
+     * Scope, recorded in field "scope" of the root and of each
+     * member: every task forked or invoked while a member (or the
+     * root) is running, as tracked in the current thread's scope
+     * (field WorkQueue.currentScope for workers, else ThreadLocal
+     * externalScope).  A scope is aborted when its root, or that of
+     * any enclosing scope (via Scope.parent links), is cancelled or
+     * completes exceptionally, in which case doExec cancels rather
+     * than runs members.  Tasks submitted to pools, or forked outside
+     * of any scope, have null scopes, and the current scope is
+     * cleared while running them, so that tasks run while helping
+     * other computations do not inherit unrelated scopes.  To
+     * avoid any tracking overhead for programs not using scopes,
+     * none of this is done unless static scopesUsed is true, which
+     * it becomes upon the first call to asScope anywhere (including
+     * by TaskScope).  Even then, doExec takes the plain path for
+     * tasks that have no scope and are run by threads with no
+     * current scope, costing only a read of WorkQueue.currentScope
+     * in workers.  Non-workers consult ThreadLocal externalScope
+     * only while some non-worker is running a scope member
+     * (externalScopeCount is nonzero), so unrelated work, including
+     * that of the common pool and CompletableFuture async tasks,
+     * normally does not touch it.  Deadlines are
+     * implemented by scheduling a cancellation of the root (via
+     * CompletableFuture.Delayer), removed if the root completes
+     * first.
      */
 
     /** The run status of this task */
     volatile int status; // accessed directly by pool and workers
+
+    /** The cancellation scope of this task, or null if none */
+    transient Scope scope;
     static final int DONE_MASK   = 0xf0000000;  // mask out non-completion bits
     static final int NORMAL      = 0xf0000000;  // must be negative
     static final int CANCELLED   = 0xc0000000;  // must be < NORMAL
@@ -248,6 +279,8 @@ public abstract class ForkJoinTask<V> implements Future<V>, Serializable {
     final int doExec() {
         int s; boolean completed;
         if ((s = status) >= 0) {
+            if (scopesUsed && (scope != null || currentScope() != null))
+                return scopedExec();
             try {
                 completed = exec();
             } catch (Throwable rex) {
@@ -259,6 +292,58 @@ public abstract class ForkJoinTask<V> implements Future<V>, Serializable {
         return s;
     }
 
+    /**
+     * Version of doExec used once any scope exists, for tasks with a
+     * scope or run within one: cancels this task if its scope is
+     * aborted, else runs it with its scope as that of the current
+     * thread.
+     *
+     * @return status on exit from this method
+     */
+    private int scopedExec() {
+        Scope sc = scope, outer; boolean completed; int s;
+        if ((outer = (sc != null && sc.root == this) ? sc.parent : sc) !=
+            null && outer.isAborted())
+            s = setCompletion(CANCELLED);
+        else {
+            Thread t = Thread.currentThread();
+            ForkJoinPool.WorkQueue w = (t instanceof ForkJoinWorkerThread) ?
+                ((ForkJoinWorkerThread)t).workQueue : null;
+            Scope prev = (w != null) ? w.currentScope : currentScope();
+            boolean counted = false;
+            if (w != null)
+                w.currentScope = sc;
+            else if (prev != sc) {
+                if (prev == null) {
+                    externalScopeCount.getAndIncrement();
+                    counted = true;
+                }
+                externalScope.set(sc);
+            }
+            try {
+                completed = exec();
+            } catch (Throwable rex) {
+                completed = false;
+                setExceptionalCompletion(rex);
+            } finally {
+                if (w != null)
+                    w.currentScope = prev;
+                else if (prev != sc) {
+                    externalScope.set(prev);
+                    if (counted)
+                        externalScopeCount.getAndDecrement();
+                }
+            }
+            if (completed)
+                setCompletion(NORMAL);
+            s = status;
+        }
+        ScheduledFuture<?> f;
+        if (s < 0 && sc != null && sc.root == this && (f = sc.timeout) != null)
+            f.cancel(false);                    // release deadline
+        return s;
+    }
+
     /**
      * If not done, sets SIGNAL status and performs Object.wait(timeout).
      * This task may or may not be done on exit. Ignores interrupts.
@@ -349,7 +434,7 @@ public abstract class ForkJoinTask<V> implements Future<V>, Serializable {
         return (s = status) < 0 ? s :
             ((t = Thread.currentThread()) instanceof ForkJoinWorkerThread) ?
             (w = (wt = (ForkJoinWorkerThread)t).workQueue).
-            tryUnpush(this) && (s = doExec()) < 0 ? s :
+            tryUnpush(this) && (s = w.execCounted(this)) < 0 ? s :
             wt.pool.awaitJoin(w, this, 0L) :
             externalAwaitDone();
     }
@@ -361,6 +446,8 @@ public abstract class ForkJoinTask<V> implements Future<V>, Serializable {
      */
     private int doInvoke() {
         int s; Thread t; ForkJoinWorkerThread wt;
+        if (scopesUsed)
+            inheritScope();
         return (s = doExec()) < 0 ? s :
             ((t = Thread.currentThread()) instanceof ForkJoinWorkerThread) ?
             (wt = (ForkJoinWorkerThread)t).pool.
@@ -653,12 +740,18 @@ public abstract class ForkJoinTask<V> implements Future<V>, Serializable {
      * consistently observable by any thread other than the one
      * executing it unless preceded by a call to {@link #join} or
      * related methods, or a call to {@link #isDone} returning {@code
-     * true}.
+     * true}.  A task forked while running a task at a positive
+     * priority level (see {@link ForkJoinPool#submitWithPriority})
+     * inherits that level, and one forked while running a member of
+     * a cancellation scope (see {@link #asScope}) becomes a member of
+     * that scope.
      *
      * @return {@code this}, to simplify usage
      */
     public final ForkJoinTask<V> fork() {
         Thread t;
+        if (scopesUsed)
+            inheritScope();
         if ((t = Thread.currentThread()) instanceof ForkJoinWorkerThread)
             ((ForkJoinWorkerThread)t).workQueue.push(this);
         else
@@ -1085,10 +1178,168 @@ public abstract class ForkJoinTask<V> implements Future<V>, Serializable {
      * setRawResult(null)}.
      */
     public void reinitialize() {
+        Scope sc;
         if ((status & DONE_MASK) == EXCEPTIONAL)
             clearExceptionalCompletion();
         else
             status = 0;
+        if ((sc = scope) != null && sc.root != this)
+            scope = null;                       // re-inherit when forked
+    }
+
+    /**
+     * Makes this task the root of a cancellation scope, if it is not
+     * already one, and returns it.  Each task forked (or invoked)
+     * while running this task, or while running another task of the
+     * scope, becomes a member of the scope.  If this task is
+     * cancelled or completes exceptionally, the scope is aborted:
+     * each member that has not yet started is cancelled instead of
+     * being run, so that attempts to join it throw {@link
+     * CancellationException}.  Members that are already running are
+     * not interrupted, but may check {@link #inCancelledScope} to
+     * stop early.  Scopes nest: the scope of a task that was itself
+     * forked within another scope is also aborted if the enclosing
+     * scope is.  Tasks submitted to a pool using {@link
+     * ForkJoinPool} methods (rather than forked) do not join the
+     * submitter's scope.
+     *
+     * <p>Once any task has been made a scope, forking and running
+     * each task, in any pool, additionally checks whether it
+     * belongs to, or is run within, a scope.  This costs little for
+     * tasks unrelated to scopes, but tasks run by threads that are
+     * not {@link ForkJoinWorkerThread}s while members of a scope are
+     * running in such threads incur thread-local lookups.
+     *
+     * <p>This method should be invoked before this task is forked,
+     * submitted, or invoked.
+     *
+     * @return this task
+     * @since 9
+     */
+    public final ForkJoinTask<V> asScope() {
+        Scope sc;
+        if ((sc = scope) == null || sc.root != this) {
+            scope = new Scope(this, sc);
+            scopesUsed = true;
+        }
+        return this;
+    }
+
+    /**
+     * Makes this task the root of a cancellation scope, as in {@link
+     * #asScope()}, and additionally arranges for this task (and so
+     * the scope) to be cancelled if it has not completed before the
+     * given timeout elapses.  Threads joining this task are released
+     * upon cancellation, and all members of the scope that have not
+     * yet started are cancelled rather than run.
+     *
+     * <p>This method should be invoked before this task is forked,
+     * submitted, or invoked.
+     *
+     * @param timeout how long from now to wait before cancelling
+     *        this task, in units of {@code unit}
+     * @param unit a {@code TimeUnit} determining how to interpret the
+     *        {@code timeout} parameter
+     * @return this task
+     * @throws NullPointerException if unit is null
+     * @since 9
+     */
+    public final ForkJoinTask<V> asScope(long timeout, TimeUnit unit) {
+        if (unit == null)
+            throw new NullPointerException();
+        asScope();
+        Scope sc = scope;
+        if (sc.timeout == null && status >= 0)
+            sc.timeout = CompletableFuture.Delayer.delay(sc, timeout, unit);
+        return this;
+    }
+
+    /**
+     * Returns {@code true} if the current thread is running a task
+     * of an aborted cancellation scope (see {@link #asScope}).
+     * Long-running members of a scope may check this to stop
+     * computations whose results are no longer needed.
+     *
+     * @return {@code true} if the current task's scope is aborted
+     * @since 9
+     */
+    public static boolean inCancelledScope() {
+        Scope sc;
+        return scopesUsed && (sc = currentScope()) != null && sc.isAborted();
+    }
+
+    /**
+     * A cancellation scope; see asScope.  Also serves as the action
+     * cancelling the root when a deadline is reached.
+     */
+    static final class Scope implements Runnable {
+        final ForkJoinTask<?> root;
+        Scope parent;                  // enclosing scope, or null
+        ScheduledFuture<?> timeout;    // deadline action, or null
+        Scope(ForkJoinTask<?> root, Scope parent) {
+            this.root = root;
+            this.parent = parent;
+        }
+
+        /**
+         * Returns true if the root of this or any enclosing scope has
+         * completed abnormally.
+         */
+        boolean isAborted() {
+            for (Scope sc = this; sc != null; sc = sc.parent) {
+                int s = sc.root.status;
+                if (s < 0 && (s & DONE_MASK) != NORMAL)
+                    return true;
+            }
+            return false;
+        }
+
+        public void run() {            // deadline reached
+            cancelIgnoringExceptions(root);
+        }
+    }
+
+    /** True if any scope has ever been created */
+    static volatile boolean scopesUsed;
+
+    /** The current scope of non-worker threads running tasks */
+    static final ThreadLocal<Scope> externalScope = new ThreadLocal<>();
+
+    /**
+     * The number of non-worker threads whose externalScope may be
+     * non-null.  A thread's own increment precedes its setting of
+     * externalScope, so a zero count implies that the current
+     * thread has no scope.
+     */
+    static final AtomicInteger externalScopeCount = new AtomicInteger();
+
+    /**
+     * Returns the scope of the task being run by the current thread,
+     * or null if none.
+     */
+    static Scope currentScope() {
+        Thread t = Thread.currentThread();
+        return (t instanceof ForkJoinWorkerThread) ?
+            ((ForkJoinWorkerThread)t).workQueue.currentScope :
+            (externalScopeCount.get() == 0) ? null : externalScope.get();
+    }
+
+    /**
+     * Upon fork or invoke, makes this task a member of the current
+     * scope if it has no scope, or links it as an enclosed scope if
+     * it is an unlinked root (unless this would form a cycle).
+     */
+    final void inheritScope() {
+        Scope sc = scope, cs = currentScope();
+        if (sc == null)
+            scope = cs;
+        else if (sc.root == this && sc.parent == null) {
+            for (Scope p = cs; p != null; p = p.parent) {
+                if (p == sc)
+                    return;
+            }
+            sc.parent = cs;
+        }
     }
 
     /**
@@ -1104,6 +1355,22 @@ public abstract class ForkJoinTask<V> implements Future<V>, Serializable {
             ((ForkJoinWorkerThread) t).pool : null;
     }
 
+    /**
+     * Returns the priority level of the current task execution (see
+     * {@link ForkJoinPool#submitWithPriority}), or zero if this task
+     * is executing outside of any ForkJoinPool.
+     *
+     * @return the priority level
+     * @since 9
+     */
+    public static int getPriority() {
+        Thread t = Thread.currentThread();
+        ForkJoinPool.WorkQueue q;
+        return ((t instanceof ForkJoinWorkerThread) &&
+                (q = ((ForkJoinWorkerThread) t).workQueue) != null) ?
+            q.priority : 0;
+    }
+
     /**
      * Returns {@code true} if the current thread is a {@link
      * ForkJoinWorkerThread} executing as a ForkJoinPool computation.
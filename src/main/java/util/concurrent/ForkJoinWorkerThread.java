@@ -92,6 +92,22 @@ public class ForkJoinWorkerThread extends Thread {
         return workQueue.getPoolIndex();
     }
 
+    /**
+     * Returns the locality group of this thread in its pool, which
+     * ranges from zero to the pool's {@linkplain
+     * ForkJoinPool#getLocalityGroups number of locality groups}
+     * (minus one), and does not change during the lifetime of the
+     * thread.  Subclasses may use this method (for example in {@link
+     * #onStart}) to bind the thread to the processors associated with
+     * its group.
+     *
+     * @return the locality group
+     * @since 9
+     */
+    public int getLocalityGroup() {
+        return pool.localityGroupOf(workQueue);
+    }
+
     /**
      * Initializes internal state after construction but before
      * processing any tasks. If you override this method, you must
@@ -0,0 +1,797 @@
+/*
+ * Written by Doug Lea with assistance from members of JCP JSR-166
+ * Expert Group and released to the public domain, as explained at
+ * http://creativecommons.org/publicdomain/zero/1.0/
+ */
+
+package java.util.concurrent;
+
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A {@link ScheduledExecutorService} that maintains delayed tasks in
+ * a hashed timing wheel, and runs them in a single internal thread.
+ * Scheduling and cancelling a task take constant time, and tasks
+ * becoming enabled at about the same time are expired in batches,
+ * once per <em>tick</em>. This makes the class a good choice for
+ * large numbers of timeouts that are usually cancelled before they
+ * elapse, as arise in {@link CompletableFuture#orTimeout} and
+ * similar methods, for which a {@link ScheduledThreadPoolExecutor}
+ * would spend most of its time maintaining a priority queue.
+ *
+ * <p>The price for this is precision: delayed tasks execute no sooner
+ * than they are enabled, but may execute up to one tick duration (as
+ * established in the constructor) later, plus any time taken by
+ * other tasks enabled in the same tick. Because all tasks run in a
+ * single thread, they should be short; those that are not should
+ * instead hand off work to some other {@link Executor}. Tasks
+ * submitted via {@code execute} or {@code submit} are scheduled with
+ * zero delay, so run at the end of the current tick.
+ *
+ * <p>The internal thread is created lazily, upon the first request to
+ * schedule a task, and remains blocked without periodic wakeups
+ * while no tasks are pending. As is the case for {@link
+ * ScheduledThreadPoolExecutor} in its default configuration, upon
+ * {@link #shutdown} periodic tasks are cancelled, and delayed tasks
+ * still run when they become enabled, after which the thread
+ * terminates. Method {@link #shutdownNow} interrupts the thread, and
+ * waits for any currently executing task to return before reporting
+ * the tasks that never commenced execution. Cancelled tasks are
+ * always removed within a tick.
+ *
+ * @since 9
+ * @author Doug Lea
+ */
+public class HashedWheelScheduler extends AbstractExecutorService
+    implements ScheduledExecutorService {
+
+    /*
+     * Overview:
+     *
+     * The wheel is an array of buckets, each a doubly-linked list of
+     * tasks, indexed by deadline tick modulo the (power of two)
+     * number of buckets. Tasks further away than one revolution
+     * carry a count of remaining rounds, decremented each time their
+     * bucket is visited. All wheel structures are accessed only by
+     * the internal thread, so need no synchronization. Other threads
+     * interact with it through two Treiber stacks: newly scheduled
+     * tasks are pushed onto "incoming", and tasks cancelled while
+     * possibly in the wheel are pushed onto "cancelled". Once per
+     * tick, the thread detaches each stack with a single swap,
+     * inserts or unlinks the tasks (each in constant time), and then
+     * runs the enabled tasks of the current bucket. So scheduling
+     * and cancellation each cost one CAS (plus, for cancellation,
+     * the FutureTask state CAS), with no locking and no contention
+     * with the thread expiring tasks.
+     *
+     * The thread wakes up once per tick only while any tasks are
+     * pending. Otherwise it parks until a push onto an empty
+     * incoming stack unparks it, after which it skips the ticks it
+     * slept through (all of whose buckets are empty), and waits for
+     * the end of the current tick before transferring. Since the
+     * stacks are only drained at tick boundaries, and unparking is
+     * done only on empty-to-nonempty transitions, at most one unpark
+     * per tick is performed no matter how many tasks are scheduled,
+     * and tasks that are cancelled within the tick they are
+     * scheduled in never reach the wheel.
+     *
+     * Run states are RUNNING, SHUTDOWN, STOP and TERMINATED, with
+     * transitions performed under the scheduler's monitor, as is
+     * lazy thread startup. A push that races with termination is
+     * caught by rechecking the run state afterwards; the thread also
+     * drains "incoming" once more after terminating, cancelling any
+     * stragglers, so no task is left neither run nor cancelled.
+     * Method shutdownNow must report tasks held in the wheel, which
+     * only the internal thread can traverse, so the thread hands
+     * them over in field "drained" before terminating.
+     */
+
+    /** Run states */
+    private static final int RUNNING    = 0;
+    private static final int SHUTDOWN   = 1;
+    private static final int STOP       = 2;
+    private static final int TERMINATED = 3;
+
+    /** Default tick duration in nanoseconds (1 millisecond) */
+    private static final long DEFAULT_TICK_NANOS = 1000L * 1000L;
+
+    /** Default number of buckets */
+    private static final int DEFAULT_TICKS_PER_WHEEL = 512;
+
+    /** Maximum number of buckets */
+    private static final int MAX_TICKS_PER_WHEEL = 1 << 30;
+
+    /** Maximum representable delay, avoiding overflow in compareTo */
+    private static final long MAX_DELAY = Long.MAX_VALUE >> 1;
+
+    /** The duration of a tick in nanoseconds */
+    private final long tickNanos;
+
+    /** nanoTime origin of tick zero */
+    private final long startTime;
+
+    /** The buckets; accessed only by the internal thread */
+    private final WheelTask<?>[] wheel;
+
+    /** The number of tasks in the wheel; accessed only by thread */
+    private int size;
+
+    /** The factory for the internal thread */
+    private final ThreadFactory threadFactory;
+
+    /** The internal thread, or null if not yet started */
+    private volatile Thread thread;
+
+    /** Run state, written under the scheduler's monitor */
+    private volatile int runState;
+
+    /** Stack of newly scheduled tasks, linked via nextIncoming */
+    private volatile WheelTask<?> incoming;
+
+    /** Stack of cancelled tasks, linked via nextCancelled */
+    private volatile WheelTask<?> cancelled;
+
+    /** Tasks handed over by the thread upon shutdownNow */
+    private List<Runnable> drained;
+
+    /** Released upon termination */
+    private final CountDownLatch termination = new CountDownLatch(1);
+
+    /**
+     * Creates a new {@code HashedWheelScheduler} with a tick duration
+     * of one millisecond, 512 buckets, and the {@linkplain
+     * Executors#defaultThreadFactory default thread factory}.
+     */
+    public HashedWheelScheduler() {
+        this(DEFAULT_TICK_NANOS, NANOSECONDS, DEFAULT_TICKS_PER_WHEEL,
+             Executors.defaultThreadFactory());
+    }
+
+    /**
+     * Creates a new {@code HashedWheelScheduler} with the given tick
+     * duration and number of buckets, and the {@linkplain
+     * Executors#defaultThreadFactory default thread factory}.
+     *
+     * @param tickDuration the duration of a tick, which bounds how
+     *        late a task may be enabled
+     * @param unit the time unit of the tickDuration argument
+     * @param ticksPerWheel the number of buckets, rounded up to a
+     *        power of two. Tasks with delays exceeding a full
+     *        revolution of the wheel are visited once per revolution.
+     * @throws IllegalArgumentException if tickDuration or
+     *         ticksPerWheel is not positive, or ticksPerWheel is
+     *         greater than 2<sup>30</sup>
+     * @throws NullPointerException if unit is null
+     */
+    public HashedWheelScheduler(long tickDuration, TimeUnit unit,
+                                int ticksPerWheel) {
+        this(tickDuration, unit, ticksPerWheel,
+             Executors.defaultThreadFactory());
+    }
+
+    /**
+     * Creates a new {@code HashedWheelScheduler} with the given tick
+     * duration, number of buckets, and thread factory.
+     *
+     * @param tickDuration the duration of a tick, which bounds how
+     *        late a task may be enabled
+     * @param unit the time unit of the tickDuration argument
+     * @param ticksPerWheel the number of buckets, rounded up to a
+     *        power of two. Tasks with delays exceeding a full
+     *        revolution of the wheel are visited once per revolution.
+     * @param threadFactory the factory to use when creating the
+     *        internal thread
+     * @throws IllegalArgumentException if tickDuration or
+     *         ticksPerWheel is not positive, or ticksPerWheel is
+     *         greater than 2<sup>30</sup>
+     * @throws NullPointerException if unit or threadFactory is null
+     */
+    public HashedWheelScheduler(long tickDuration, TimeUnit unit,
+                                int ticksPerWheel,
+                                ThreadFactory threadFactory) {
+        if (unit == null || threadFactory == null)
+            throw new NullPointerException();
+        long t = unit.toNanos(tickDuration);
+        if (t <= 0L || ticksPerWheel <= 0 ||
+            ticksPerWheel > MAX_TICKS_PER_WHEEL)
+            throw new IllegalArgumentException();
+        int n = 1;
+        while (n < ticksPerWheel)
+            n <<= 1;
+        this.tickNanos = t;
+        this.wheel = new WheelTask<?>[n];
+        this.threadFactory = threadFactory;
+        this.startTime = System.nanoTime();
+    }
+
+    /**
+     * A scheduled task, linked into at most one bucket of the wheel.
+     */
+    private final class WheelTask<V>
+            extends FutureTask<V> implements RunnableScheduledFuture<V> {
+
+        /** The time the task is enabled to execute in nanoTime units */
+        private volatile long time;
+
+        /**
+         * Period in nanoseconds for repeating tasks, with the same
+         * encoding as in ScheduledThreadPoolExecutor: positive for
+         * fixed-rate, negative for fixed-delay, 0 for one-shot.
+         */
+        private final long period;
+
+        /** Bucket links and bookkeeping; accessed only by thread */
+        WheelTask<?> prev, next;
+        long rounds;
+        int bucket = -1;            // index in wheel, or -1 if absent
+
+        /** Stack links, written before the publishing CAS */
+        WheelTask<?> nextIncoming, nextCancelled;
+
+        WheelTask(Runnable r, V result, long time, long period) {
+            super(r, result);
+            this.time = time;
+            this.period = period;
+        }
+
+        WheelTask(Callable<V> callable, long time) {
+            super(callable);
+            this.time = time;
+            this.period = 0L;
+        }
+
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(time - System.nanoTime(), NANOSECONDS);
+        }
+
+        public int compareTo(Delayed other) {
+            if (other == this)
+                return 0;
+            long diff = (other instanceof WheelTask)
+                ? time - ((WheelTask<?>)other).time
+                : getDelay(NANOSECONDS) - other.getDelay(NANOSECONDS);
+            return (diff < 0L) ? -1 : (diff > 0L) ? 1 : 0;
+        }
+
+        public boolean isPeriodic() {
+            return period != 0L;
+        }
+
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            boolean c = super.cancel(mayInterruptIfRunning);
+            if (c)
+                pushCancelled(this);
+            return c;
+        }
+
+        /**
+         * Runs the task, and if periodic and still allowed, resets
+         * its time and reinserts it. Called only by the thread.
+         */
+        public void run() {
+            long p = period;
+            if (p == 0L)
+                super.run();
+            else if (runState != RUNNING)
+                cancel(false);
+            else if (runAndReset()) {
+                time = (p > 0L) ? time + p : triggerTime(-p);
+                pushIncoming(this);
+            }
+        }
+    }
+
+    // Scheduling
+
+    /**
+     * Returns the nanoTime-based trigger time of a delayed action.
+     */
+    private static long triggerTime(long delay) {
+        if (delay < 0L)
+            delay = 0L;
+        return System.nanoTime() + ((delay < MAX_DELAY) ? delay : MAX_DELAY);
+    }
+
+    /**
+     * Pushes task onto the incoming stack.
+     *
+     * @return true if the stack was empty
+     */
+    final boolean pushIncoming(WheelTask<?> task) {
+        WheelTask<?> h;
+        do {
+            task.nextIncoming = h = incoming;
+        } while (!U.compareAndSwapObject(this, INCOMING, h, task));
+        return h == null;
+    }
+
+    /**
+     * Pushes a new task, starting the thread if necessary and
+     * unparking it if the stack was empty. A periodic task racing
+     * with shutdown, or any task racing with termination, is
+     * cancelled and rejected.
+     *
+     * @throws RejectedExecutionException if shut down
+     */
+    private <T extends WheelTask<?>> T enqueue(T task) {
+        Thread t; int rs;
+        if ((t = thread) == null)
+            t = startThread();
+        else if (runState != RUNNING)
+            throw new RejectedExecutionException();
+        if (pushIncoming(task))
+            LockSupport.unpark(t);
+        if ((rs = runState) != RUNNING &&
+            (rs == TERMINATED || task.isPeriodic())) {
+            task.cancel(false);
+            throw new RejectedExecutionException();
+        }
+        return task;
+    }
+
+    /**
+     * Creates and starts the thread if not already done.
+     *
+     * @return the thread
+     * @throws RejectedExecutionException if shut down or the factory
+     *         fails to create a thread
+     */
+    private synchronized Thread startThread() {
+        Thread t;
+        if (runState != RUNNING)
+            throw new RejectedExecutionException();
+        if ((t = thread) == null) {
+            if ((t = threadFactory.newThread(new Runnable() {
+                    public void run() { runWheel(); }})) == null)
+                throw new RejectedExecutionException();
+            t.start();
+            thread = t;
+        }
+        return t;
+    }
+
+    /**
+     * Records a cancelled task for unlinking at the next tick.
+     */
+    final void pushCancelled(WheelTask<?> task) {
+        WheelTask<?> h;
+        do {
+            task.nextCancelled = h = cancelled;
+        } while (!U.compareAndSwapObject(this, CANCELLED, h, task));
+    }
+
+    // Wheel maintenance, performed only by the internal thread
+
+    /**
+     * Inserts task into the bucket for its trigger time, or the
+     * current tick if already enabled.
+     */
+    final void insert(WheelTask<?> task) {
+        long tick = currentTick;
+        long d = task.time - startTime, ticks = (d < 0L) ? 0L : d / tickNanos;
+        if (ticks < tick)
+            ticks = tick;
+        WheelTask<?>[] w = wheel;
+        int i = (int)ticks & (w.length - 1);
+        WheelTask<?> h = w[i];
+        task.rounds = (ticks - tick) / w.length;
+        task.bucket = i;
+        task.prev = null;
+        if ((task.next = h) != null)
+            h.prev = task;
+        w[i] = task;
+        ++size;
+    }
+
+    /**
+     * Unlinks task from its bucket.
+     */
+    private void unlink(WheelTask<?> task) {
+        WheelTask<?> p = task.prev, n = task.next;
+        if (p != null)
+            p.next = n;
+        else
+            wheel[task.bucket] = n;
+        if (n != null)
+            n.prev = p;
+        task.prev = task.next = null;
+        task.bucket = -1;
+        --size;
+    }
+
+    /**
+     * Moves newly scheduled tasks into the wheel, dropping cancelled
+     * ones, then unlinks tasks cancelled while in the wheel.
+     */
+    private void transfer() {
+        WheelTask<?> t, n;
+        if (incoming != null &&
+            (t = (WheelTask<?>)U.getAndSetObject(this, INCOMING, null))
+            != null) {
+            for (; t != null; t = n) {
+                n = t.nextIncoming;
+                t.nextIncoming = null;
+                if (!t.isCancelled())
+                    insert(t);
+            }
+        }
+        if (cancelled != null &&
+            (t = (WheelTask<?>)U.getAndSetObject(this, CANCELLED, null))
+            != null) {
+            for (; t != null; t = n) {
+                n = t.nextCancelled;
+                t.nextCancelled = null;
+                if (t.bucket >= 0)
+                    unlink(t);
+            }
+        }
+    }
+
+    /**
+     * Runs the enabled tasks of the bucket for the current tick, and
+     * counts down the rounds of the others.
+     */
+    private void expire() {
+        WheelTask<?>[] w = wheel;
+        WheelTask<?> t = w[(int)currentTick & (w.length - 1)], n;
+        for (; t != null; t = n) {
+            n = t.next;
+            if (t.isCancelled())
+                unlink(t);
+            else if (t.rounds > 0L)
+                --t.rounds;
+            else {
+                unlink(t);
+                Thread.interrupted();   // clear leftover interrupts
+                if (runState < STOP)
+                    t.run();
+            }
+        }
+    }
+
+    /**
+     * Cancels all periodic tasks in the wheel upon shutdown.
+     */
+    private void cancelPeriodicTasks() {
+        for (WheelTask<?> h : wheel) {
+            for (WheelTask<?> t = h, n; t != null; t = n) {
+                n = t.next;
+                if (t.isPeriodic()) {
+                    t.cancel(false);
+                    unlink(t);
+                }
+            }
+        }
+    }
+
+    /** The current tick; accessed only by the internal thread */
+    private long currentTick;
+
+    /**
+     * Main loop of the internal thread.
+     */
+    final void runWheel() {
+        boolean swept = false;
+        try {
+            for (int rs;;) {
+                if ((rs = runState) >= STOP)
+                    break;
+                if (rs == SHUTDOWN && !swept) {
+                    swept = true;
+                    transfer();
+                    cancelPeriodicTasks();
+                }
+                if (size == 0 && incoming == null) {
+                    if (rs == SHUTDOWN)
+                        break;
+                    Thread.interrupted();
+                    LockSupport.park(this);
+                    long t = (System.nanoTime() - startTime) / tickNanos;
+                    if (t > currentTick)
+                        currentTick = t;
+                }
+                else {
+                    long wait = (startTime + (currentTick + 1L) * tickNanos -
+                                 System.nanoTime());
+                    if (wait > 0L) {
+                        Thread.interrupted();
+                        LockSupport.parkNanos(this, wait);
+                    }
+                    else {
+                        transfer();
+                        expire();
+                        ++currentTick;
+                    }
+                }
+            }
+        } finally {
+            terminate();
+        }
+    }
+
+    /**
+     * Completes termination by the internal thread, handing over any
+     * never-run tasks to shutdownNow.
+     */
+    private void terminate() {
+        List<Runnable> list = new ArrayList<>();
+        synchronized (this) {
+            if (runState < STOP)
+                runState = STOP;
+            for (WheelTask<?> h : wheel) {
+                for (WheelTask<?> t = h, n; t != null; t = n) {
+                    n = t.next;
+                    unlink(t);
+                    if (!t.isCancelled())
+                        list.add(t);
+                }
+            }
+            drainIncoming(list);
+            drained = list;
+            runState = TERMINATED;
+        }
+        termination.countDown();
+        cancelStragglers();
+    }
+
+    /**
+     * Adds to list the uncancelled tasks of the incoming stack.
+     */
+    private void drainIncoming(List<Runnable> list) {
+        WheelTask<?> t = (WheelTask<?>)U.getAndSetObject(this, INCOMING, null);
+        for (WheelTask<?> n; t != null; t = n) {
+            n = t.nextIncoming;
+            t.nextIncoming = null;
+            if (!t.isCancelled())
+                list.add(t);
+        }
+    }
+
+    /**
+     * Cancels tasks pushed concurrently with termination.
+     */
+    private void cancelStragglers() {
+        List<Runnable> list = new ArrayList<>();
+        drainIncoming(list);
+        for (Runnable r : list)
+            ((WheelTask<?>)r).cancel(false);
+        cancelled = null;
+    }
+
+    // ScheduledExecutorService methods
+
+    /**
+     * @throws RejectedExecutionException {@inheritDoc}
+     * @throws NullPointerException       {@inheritDoc}
+     */
+    public ScheduledFuture<?> schedule(Runnable command,
+                                       long delay,
+                                       TimeUnit unit) {
+        if (command == null || unit == null)
+            throw new NullPointerException();
+        return enqueue(new WheelTask<Void>(command, null,
+                                           triggerTime(unit.toNanos(delay)),
+                                           0L));
+    }
+
+    /**
+     * @throws RejectedExecutionException {@inheritDoc}
+     * @throws NullPointerException       {@inheritDoc}
+     */
+    public <V> ScheduledFuture<V> schedule(Callable<V> callable,
+                                           long delay,
+                                           TimeUnit unit) {
+        if (callable == null || unit == null)
+            throw new NullPointerException();
+        return enqueue(new WheelTask<V>(callable,
+                                        triggerTime(unit.toNanos(delay))));
+    }
+
+    /**
+     * @throws RejectedExecutionException {@inheritDoc}
+     * @throws NullPointerException       {@inheritDoc}
+     * @throws IllegalArgumentException   {@inheritDoc}
+     */
+    public ScheduledFuture<?> scheduleAtFixedRate(Runnable command,
+                                                  long initialDelay,
+                                                  long period,
+                                                  TimeUnit unit) {
+        if (command == null || unit == null)
+            throw new NullPointerException();
+        if (period <= 0L)
+            throw new IllegalArgumentException();
+        long t = triggerTime(unit.toNanos(initialDelay));
+        long p = unit.toNanos(period);
+        return enqueue(new WheelTask<Void>(command, null, t, p));
+    }
+
+    /**
+     * @throws RejectedExecutionException {@inheritDoc}
+     * @throws NullPointerException       {@inheritDoc}
+     * @throws IllegalArgumentException   {@inheritDoc}
+     */
+    public ScheduledFuture<?> scheduleWithFixedDelay(Runnable command,
+                                                     long initialDelay,
+                                                     long delay,
+                                                     TimeUnit unit) {
+        if (command == null || unit == null)
+            throw new NullPointerException();
+        if (delay <= 0L)
+            throw new IllegalArgumentException();
+        long t = triggerTime(unit.toNanos(initialDelay));
+        long p = -unit.toNanos(delay);
+        return enqueue(new WheelTask<Void>(command, null, t, p));
+    }
+
+    /**
+     * Executes {@code command} with zero required delay, at the end
+     * of the current tick.
+     *
+     * @throws RejectedExecutionException at discretion of
+     *         {@code RejectedExecutionHandler}, if the task
+     *         cannot be accepted for execution because the
+     *         executor has been shut down
+     * @throws NullPointerException {@inheritDoc}
+     */
+    public void execute(Runnable command) {
+        schedule(command, 0L, NANOSECONDS);
+    }
+
+    /**
+     * @throws RejectedExecutionException {@inheritDoc}
+     * @throws NullPointerException       {@inheritDoc}
+     */
+    public Future<?> submit(Runnable task) {
+        return schedule(task, 0L, NANOSECONDS);
+    }
+
+    /**
+     * @throws RejectedExecutionException {@inheritDoc}
+     * @throws NullPointerException       {@inheritDoc}
+     */
+    public <T> Future<T> submit(Runnable task, T result) {
+        return schedule(Executors.callable(task, result), 0L, NANOSECONDS);
+    }
+
+    /**
+     * @throws RejectedExecutionException {@inheritDoc}
+     * @throws NullPointerException       {@inheritDoc}
+     */
+    public <T> Future<T> submit(Callable<T> task) {
+        return schedule(task, 0L, NANOSECONDS);
+    }
+
+    // Lifecycle
+
+    /**
+     * Initiates an orderly shutdown in which previously scheduled
+     * delayed tasks are executed when enabled, but periodic tasks
+     * are cancelled and no new tasks will be accepted. Invocation
+     * has no additional effect if already shut down.
+     *
+     * <p>This method does not wait for previously submitted tasks to
+     * complete execution.  Use {@link #awaitTermination awaitTermination}
+     * to do that.
+     */
+    public void shutdown() {
+        Thread t;
+        synchronized (this) {
+            if (runState != RUNNING)
+                return;
+            runState = SHUTDOWN;
+            if ((t = thread) == null)
+                terminateUnstarted();
+        }
+        if (t != null)
+            LockSupport.unpark(t);
+    }
+
+    /**
+     * Attempts to stop all actively executing tasks, halts the
+     * processing of waiting tasks, and returns a list of the tasks
+     * that were awaiting execution. These tasks are not cancelled.
+     *
+     * <p>This method interrupts the internal thread, and then waits
+     * for any actively executing task to return, since only the
+     * internal thread can determine the waiting tasks. Use {@link
+     * #awaitTermination awaitTermination} to wait for tasks only
+     * when not called from within a task.
+     *
+     * @return list of tasks that never commenced execution. Each
+     *         element of this list is a {@link ScheduledFuture}.
+     *         For tasks submitted via one of the {@code schedule}
+     *         methods, the element will be identical to the returned
+     *         {@code ScheduledFuture}.
+     */
+    public List<Runnable> shutdownNow() {
+        Thread t;
+        synchronized (this) {
+            if (runState < STOP) {
+                runState = STOP;
+                if ((t = thread) == null)
+                    terminateUnstarted();
+                else
+                    t.interrupt();
+            }
+            else
+                t = thread;
+        }
+        if (t != null) {
+            if (t == Thread.currentThread())
+                return Collections.emptyList();
+            boolean interrupted = false;
+            while (termination.getCount() != 0L) {
+                try {
+                    termination.await();
+                } catch (InterruptedException ie) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted)
+                Thread.currentThread().interrupt();
+        }
+        synchronized (this) {
+            List<Runnable> list = drained;
+            drained = null;
+            return (list == null) ? Collections.emptyList() : list;
+        }
+    }
+
+    /**
+     * Terminates when the thread was never started. Called only
+     * under lock.
+     */
+    private void terminateUnstarted() {
+        runState = TERMINATED;
+        termination.countDown();
+        cancelStragglers();
+    }
+
+    public boolean isShutdown() {
+        return runState != RUNNING;
+    }
+
+    public boolean isTerminated() {
+        return runState == TERMINATED;
+    }
+
+    public boolean awaitTermination(long timeout, TimeUnit unit)
+        throws InterruptedException {
+        return termination.await(timeout, unit);
+    }
+
+    /**
+     * Returns a string identifying this scheduler, as well as its
+     * state, including an indication of run state and tick duration.
+     *
+     * @return a string identifying this scheduler, as well as its state
+     */
+    public String toString() {
+        int rs = runState;
+        String s = ((rs == RUNNING) ? "Running" :
+                    (rs == TERMINATED) ? "Terminated" : "Shutting down");
+        return super.toString() + "[" + s +
+            ", tick duration = " + tickNanos +
+            "ns, buckets = " + wheel.length + "]";
+    }
+
+    // Unsafe mechanics
+    private static final sun.misc.Unsafe U = sun.misc.Unsafe.getUnsafe();
+    private static final long INCOMING;
+    private static final long CANCELLED;
+    static {
+        try {
+            INCOMING = U.objectFieldOffset
+                (HashedWheelScheduler.class.getDeclaredField("incoming"));
+            CANCELLED = U.objectFieldOffset
+                (HashedWheelScheduler.class.getDeclaredField("cancelled"));
+        } catch (ReflectiveOperationException e) {
+            throw new Error(e);
+        }
+    }
+}
@@ -0,0 +1,575 @@
+/*
+ * Written by Doug Lea with assistance from members of JCP JSR-166
+ * Expert Group and released to the public domain, as explained at
+ * http://creativecommons.org/publicdomain/zero/1.0/
+ */
+
+package java.util.concurrent;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A scope for a group of concurrent subtasks, each forked as a
+ * {@link CompletableFuture} computed by a given {@link Executor},
+ * that bounds their lifetimes: method {@link #join} waits until
+ * every subtask forked in the scope (including those forked by
+ * other subtasks) has either completed or been cancelled without
+ * running, so that no subtask is still executing afterwards.
+ *
+ * <p>A scope is <em>shut down</em> upon invocation of {@link
+ * #shutdown} or {@link #close}, when its deadline (if any) elapses,
+ * or as directed by its {@link Policy}: upon the first subtask to
+ * complete exceptionally for {@link Policy#SHUTDOWN_ON_FAILURE}, or
+ * normally for {@link Policy#SHUTDOWN_ON_SUCCESS}. Shutting down
+ * cancels the futures of all subtasks that have not completed.
+ * Subtasks that have not yet started will never run, and those
+ * that are running are interrupted. Subtasks executed in a {@link
+ * ForkJoinPool} are additionally {@linkplain ForkJoinTask#asScope
+ * cancellation scope} roots, so tasks they fork are cancelled
+ * rather than run, and they may poll {@link
+ * ForkJoinTask#inCancelledScope} to stop early. Subtasks forked
+ * after shutdown are cancelled without running. Cancelling the
+ * future of a subtask similarly cancels the subtask only.
+ *
+ * <p>Scopes are normally used in try-with-resources statements, as
+ * in the following sketch of a request that queries several
+ * replicas, using the first answer and abandoning the others:
+ *
+ * <pre> {@code
+ * Answer query(List<Replica> replicas) throws Exception {
+ *   try (TaskScope scope = new TaskScope(executor,
+ *            TaskScope.Policy.SHUTDOWN_ON_SUCCESS, 2, SECONDS)) {
+ *     for (Replica r : replicas)
+ *       scope.fork(() -> r.query());
+ *     scope.join();
+ *     if (scope.getException() != null && scope.getResult() == null)
+ *       throw new ExecutionException(scope.getException());
+ *     return (Answer) scope.getResult();
+ *   }
+ * }}</pre>
+ *
+ * @since 9
+ * @author Doug Lea
+ */
+public class TaskScope implements AutoCloseable {
+
+    /*
+     * Each subtask is a ForkJoinTask, so it is executed directly
+     * (without adaptors) by ForkJoinPools, where cancelling it both
+     * removes it from consideration and aborts its cancellation
+     * scope, and a Runnable for other executors. Which of running
+     * or cancelling happens first is decided by CASing the
+     * ForkJoinTask tag, as in CompletableFuture.UniCompletion.claim.
+     *
+     * Live subtasks are kept in a doubly-linked list, guarded by
+     * lock, so that forking and settling each take constant time,
+     * and shutdown can find them. Running subtasks record their
+     * threads, which are interrupted only while holding lock, and
+     * only until the subtask settles, so interrupts cannot leak
+     * into later work of executor threads. Field "active" counts
+     * subtasks forked but not yet settled; it is decremented only
+     * after the subtask's future is done, so all futures are done
+     * when join returns.
+     */
+
+    /**
+     * Policies for shutting down a scope in response to completions
+     * of its subtasks.
+     *
+     * @since 9
+     */
+    public static enum Policy {
+        /** Shut down only upon shutdown, close, or deadline. */
+        WAIT_ALL,
+        /** Shut down when any subtask completes exceptionally. */
+        SHUTDOWN_ON_FAILURE,
+        /** Shut down when any subtask completes normally. */
+        SHUTDOWN_ON_SUCCESS
+    }
+
+    /** Tags of subtasks */
+    static final short NEW = 0, STARTED = 1, DROPPED = 2;
+
+    private final Executor executor;
+    private final Policy policy;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition settled = lock.newCondition();
+
+    // All of the following are guarded by lock
+    private Subtask<?> head;            // list of live subtasks
+    private int active;                 // forked but not settled
+    private boolean shutdown;
+    private Object result;              // first normal result
+    private boolean hasResult;
+    private Throwable exception;        // first failure or timeout
+    private ScheduledFuture<?> deadline;
+
+    /**
+     * Creates a scope using the given executor and the {@link
+     * Policy#WAIT_ALL} policy, with no deadline.
+     *
+     * @param executor the executor to use to run subtasks
+     * @throws NullPointerException if executor is null
+     */
+    public TaskScope(Executor executor) {
+        this(executor, Policy.WAIT_ALL);
+    }
+
+    /**
+     * Creates a scope using the given executor and policy, with no
+     * deadline.
+     *
+     * @param executor the executor to use to run subtasks
+     * @param policy the shutdown policy
+     * @throws NullPointerException if executor or policy is null
+     */
+    public TaskScope(Executor executor, Policy policy) {
+        if (executor == null || policy == null)
+            throw new NullPointerException();
+        this.executor = executor;
+        this.policy = policy;
+    }
+
+    /**
+     * Creates a scope using the given executor and policy, that is
+     * shut down if it is not closed before the given timeout
+     * elapses.  If the deadline shuts down the scope, {@link
+     * #getException} reports a {@link TimeoutException} unless some
+     * other exception was recorded first, even if no subtasks were
+     * active at the time.
+     *
+     * @param executor the executor to use to run subtasks
+     * @param policy the shutdown policy
+     * @param timeout how long from now to wait before shutting
+     *        down, in units of {@code unit}
+     * @param unit a {@code TimeUnit} determining how to interpret the
+     *        {@code timeout} parameter
+     * @throws NullPointerException if executor, policy, or unit is null
+     */
+    public TaskScope(Executor executor, Policy policy,
+                     long timeout, TimeUnit unit) {
+        this(executor, policy);
+        if (unit == null)
+            throw new NullPointerException();
+        ScheduledFuture<?> f = CompletableFuture.Delayer.delay
+            (new DeadlineAction(this), timeout, unit);
+        lock.lock();
+        try {
+            if (shutdown)
+                f.cancel(false);
+            else
+                deadline = f;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Action shutting down a scope at its deadline */
+    static final class DeadlineAction implements Runnable {
+        final TaskScope scope;
+        DeadlineAction(TaskScope scope) { this.scope = scope; }
+        public void run() { scope.expire(); }
+    }
+
+    /**
+     * The future of a subtask, cancelling the subtask when cancelled.
+     */
+    static final class SubtaskFuture<T> extends CompletableFuture<T> {
+        Subtask<T> task;
+        public <U> CompletableFuture<U> newIncompleteFuture() {
+            return new CompletableFuture<U>();
+        }
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            boolean cancelled = super.cancel(mayInterruptIfRunning);
+            Subtask<T> t;
+            if (cancelled && (t = task) != null)
+                t.scope.cancelSubtask(t, mayInterruptIfRunning);
+            return cancelled;
+        }
+    }
+
+    /**
+     * A forked subtask.
+     */
+    @SuppressWarnings("serial")
+    static final class Subtask<T> extends ForkJoinTask<Void>
+        implements Runnable, CompletableFuture.AsynchronousCompletionTask {
+        final TaskScope scope;
+        final SubtaskFuture<T> future;
+        Callable<? extends T> callable;
+        Subtask<?> prev, next;              // guarded by scope.lock
+        Thread runner;                      // guarded by scope.lock
+        boolean interrupted;                // guarded by scope.lock
+
+        Subtask(TaskScope scope, Callable<? extends T> callable) {
+            this.scope = scope;
+            this.callable = callable;
+            (this.future = new SubtaskFuture<T>()).task = this;
+            asScope();
+        }
+
+        public final Void getRawResult() { return null; }
+        public final void setRawResult(Void v) {}
+        public final boolean exec() { scope.runSubtask(this); return true; }
+        public void run() { quietlyInvoke(); }
+    }
+
+    /**
+     * Forks a subtask that computes the given callable using this
+     * scope's executor, returning a future completed with its result
+     * or exception. If this scope is shut down, the returned future
+     * is cancelled and the callable is never run.
+     *
+     * @param task the callable to compute
+     * @param <T> the type of the result
+     * @return the future of the subtask
+     * @throws NullPointerException if task is null
+     * @throws RejectedExecutionException if the executor rejects the
+     *         subtask
+     */
+    public <T> CompletableFuture<T> fork(Callable<? extends T> task) {
+        if (task == null)
+            throw new NullPointerException();
+        Subtask<T> t = new Subtask<T>(this, task);
+        boolean added = false;
+        lock.lock();
+        try {
+            if (!shutdown) {
+                Subtask<?> h = head;
+                if ((t.next = h) != null)
+                    h.prev = t;
+                head = t;
+                ++active;
+                added = true;
+            }
+        } finally {
+            lock.unlock();
+        }
+        if (!added) {
+            t.callable = null;
+            t.future.task = null;
+            t.future.cancel(false);
+        }
+        else {
+            try {
+                executor.execute(t);
+            } catch (Throwable ex) {
+                if (t.compareAndSetForkJoinTaskTag(NEW, DROPPED)) {
+                    t.callable = null;
+                    t.future.completeExceptionally(ex);
+                    settle(t, false, null, null);
+                }
+                throw ex;
+            }
+        }
+        return t.future;
+    }
+
+    /**
+     * Runs a subtask unless already dropped.
+     */
+    final <T> void runSubtask(Subtask<T> t) {
+        Callable<? extends T> c;
+        if (t.compareAndSetForkJoinTaskTag(NEW, STARTED)) {
+            boolean ok = false; T v = null; Throwable ex = null;
+            lock.lock();
+            try {
+                t.runner = Thread.currentThread();
+            } finally {
+                lock.unlock();
+            }
+            if ((c = t.callable) != null && !t.future.isDone()) {
+                t.callable = null;
+                try {
+                    v = c.call();
+                    ok = true;
+                } catch (Throwable rex) {
+                    ex = rex;
+                }
+                // ignore outcomes of subtasks whose futures were cancelled
+                if (ok)
+                    ok = t.future.complete(v);
+                else if (!t.future.completeExceptionally(ex))
+                    ex = null;
+            }
+            settle(t, ok, v, ex);
+        }
+    }
+
+    /**
+     * Removes a subtask from the live list, records its outcome,
+     * and applies the policy.
+     *
+     * @param ok true if the subtask completed normally
+     * @param v the result, if ok
+     * @param ex the exception, if not ok, or null if none
+     */
+    private void settle(Subtask<?> t, boolean ok, Object v, Throwable ex) {
+        boolean stop = false, interrupted;
+        lock.lock();
+        try {
+            unlink(t);
+            interrupted = t.interrupted;
+            t.runner = null;
+            if (!shutdown) {
+                if (ok) {
+                    if (!hasResult) {
+                        hasResult = true;
+                        result = v;
+                    }
+                    stop = policy == Policy.SHUTDOWN_ON_SUCCESS;
+                }
+                else if (ex != null) {
+                    if (exception == null)
+                        exception = ex;
+                    stop = policy == Policy.SHUTDOWN_ON_FAILURE;
+                }
+            }
+            if (--active == 0)
+                settled.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        if (interrupted)
+            Thread.interrupted();       // clear scope interrupt
+        if (stop)
+            shutdown();
+    }
+
+    /** Unlinks a subtask from the live list. Call only under lock. */
+    private void unlink(Subtask<?> t) {
+        Subtask<?> p = t.prev, n = t.next;
+        if (p != null)
+            p.next = n;
+        else if (head == t)
+            head = n;
+        if (n != null)
+            n.prev = p;
+        t.prev = t.next = null;
+    }
+
+    /**
+     * Cancels a subtask whose future was cancelled: drops it if not
+     * yet started, else optionally interrupts it.
+     */
+    final void cancelSubtask(Subtask<?> t, boolean interrupt) {
+        ForkJoinTask.cancelIgnoringExceptions(t);
+        if (t.compareAndSetForkJoinTaskTag(NEW, DROPPED)) {
+            t.callable = null;
+            settle(t, false, null, null);
+        }
+        else if (interrupt) {
+            lock.lock();
+            try {
+                interruptRunner(t);
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /** Interrupts the runner of t, if any. Call only under lock. */
+    private static void interruptRunner(Subtask<?> t) {
+        Thread r;
+        if ((r = t.runner) != null) {
+            t.interrupted = true;
+            try {
+                r.interrupt();
+            } catch (SecurityException ignore) {
+            }
+        }
+    }
+
+    /**
+     * Shuts down this scope, cancelling all subtasks that have not
+     * completed: those not yet started will never run, and those
+     * running are interrupted. Invocation has no additional effect
+     * if already shut down.
+     */
+    public void shutdown() {
+        List<Subtask<?>> dropped = new ArrayList<>();
+        List<Subtask<?>> running = new ArrayList<>();
+        ScheduledFuture<?> d;
+        lock.lock();
+        try {
+            if (shutdown)
+                return;
+            shutdown = true;
+            d = deadline;
+            deadline = null;
+            for (Subtask<?> t = head, n; t != null; t = n) {
+                n = t.next;
+                if (t.compareAndSetForkJoinTaskTag(NEW, DROPPED)) {
+                    t.callable = null;
+                    unlink(t);
+                    dropped.add(t);
+                }
+                else
+                    running.add(t);
+            }
+        } finally {
+            lock.unlock();
+        }
+        if (d != null)
+            d.cancel(false);
+        // Complete futures outside of lock, since dependents may run.
+        // Running subtasks are cancelled before being interrupted, so
+        // they cannot instead report their interrupts as failures.
+        for (Subtask<?> t : running) {
+            ForkJoinTask.cancelIgnoringExceptions(t);
+            t.future.cancel(false);
+        }
+        if (!running.isEmpty()) {
+            lock.lock();
+            try {
+                for (Subtask<?> t : running)
+                    interruptRunner(t);
+            } finally {
+                lock.unlock();
+            }
+        }
+        for (Subtask<?> t : dropped) {
+            ForkJoinTask.cancelIgnoringExceptions(t);
+            t.future.cancel(false);
+        }
+        if (!dropped.isEmpty()) {
+            lock.lock();
+            try {
+                if ((active -= dropped.size()) == 0)
+                    settled.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Shuts down at the deadline, recording a timeout unless already
+     * shut down or some other exception was recorded.
+     */
+    final void expire() {
+        lock.lock();
+        try {
+            if (shutdown)
+                return;
+            if (exception == null)
+                exception = new TimeoutException();
+        } finally {
+            lock.unlock();
+        }
+        shutdown();
+    }
+
+    /**
+     * Waits until all subtasks forked in this scope have completed
+     * or been cancelled without running. Upon return, no subtask is
+     * running, and the futures of all subtasks are done, unless
+     * other subtasks were forked concurrently by threads other than
+     * subtasks of this scope.
+     *
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public void join() throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while (active != 0)
+                settled.await();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Shuts down this scope if not already shut down, and waits for
+     * all subtasks to settle, as in {@link #join}. If interrupted
+     * while waiting, continues to wait, and then re-asserts the
+     * interrupt status.
+     */
+    public void close() {
+        shutdown();
+        boolean interrupted = false;
+        lock.lock();
+        try {
+            while (active != 0) {
+                try {
+                    settled.await();
+                } catch (InterruptedException ie) {
+                    interrupted = true;
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+        if (interrupted)
+            Thread.currentThread().interrupt();
+    }
+
+    /**
+     * Returns {@code true} if this scope has been shut down.
+     *
+     * @return {@code true} if this scope has been shut down
+     */
+    public boolean isShutdown() {
+        lock.lock();
+        try {
+            return shutdown;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the result of the first subtask to complete normally
+     * before this scope was shut down, or {@code null} if none.
+     *
+     * @return the first result, or {@code null} if none
+     */
+    public Object getResult() {
+        lock.lock();
+        try {
+            return result;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the exception thrown by the first subtask to complete
+     * exceptionally before this scope was shut down, or a {@link
+     * TimeoutException} if the deadline shut down this scope first
+     * (whether or not any subtasks were then active), or {@code
+     * null} if neither.
+     *
+     * @return the first exception, or {@code null} if none
+     */
+    public Throwable getException() {
+        lock.lock();
+        try {
+            return exception;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns a string identifying this scope, as well as its state,
+     * including its policy and the number of active subtasks.
+     *
+     * @return a string identifying this scope, as well as its state
+     */
+    public String toString() {
+        int a; boolean s;
+        lock.lock();
+        try {
+            a = active;
+            s = shutdown;
+        } finally {
+            lock.unlock();
+        }
+        return super.toString() + "[" + policy +
+            (s ? ", shut down" : "") + ", active = " + a + "]";
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * Written by Doug Lea with assistance from members of JCP JSR-166
+ * Expert Group and released to the public domain, as explained at
+ * http://creativecommons.org/publicdomain/zero/1.0/
+ */
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+
+/**
+ * Compares chains of synchronous CompletableFuture stages built with
+ * thenApply against the same chains built with fuse(), reporting
+ * time and (when supported by the VM) bytes allocated per chain.
+ *
+ * Usage: java FusedStageLoops [depth] [chains]
+ */
+public class FusedStageLoops {
+    static final Function<Integer,Integer> inc = x -> x + 1;
+
+    public static void main(String[] args) throws Exception {
+        int depth = 16;
+        int chains = 1000000;
+        if (args.length > 0)
+            depth = Integer.parseInt(args[0]);
+        if (args.length > 1)
+            chains = Integer.parseInt(args[1]);
+        System.out.println("depth " + depth + ", chains " + chains);
+        for (int reps = 0; reps < 5; ++reps) {
+            test(false, depth, chains);
+            test(true, depth, chains);
+        }
+    }
+
+    static void test(boolean fused, int depth, int chains) {
+        long bytes0 = allocatedBytes();
+        long start = System.nanoTime();
+        long sum = 0;
+        for (int i = 0; i < chains; ++i) {
+            CompletableFuture<Integer> f = new CompletableFuture<>();
+            CompletableFuture<Integer> g;
+            if (fused) {
+                CompletableFuture.FusedStages<Integer> s = f.fuse();
+                for (int j = 0; j < depth; ++j)
+                    s = s.thenApply(inc);
+                g = s.toCompletableFuture();
+            }
+            else {
+                g = f;
+                for (int j = 0; j < depth; ++j)
+                    g = g.thenApply(inc);
+            }
+            f.complete(i);
+            sum += g.join();
+        }
+        long time = System.nanoTime() - start;
+        long bytes = allocatedBytes() - bytes0;
+        System.out.printf("%-8s %8d ns/chain %8d bytes/chain%s%n",
+                          fused ? "fused" : "chained",
+                          time / chains, bytes / chains,
+                          (sum == 0) ? " " : "");
+    }
+
+    /**
+     * Returns bytes allocated by the current thread, or 0 if
+     * unsupported.
+     */
+    static long allocatedBytes() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean b =
+                (com.sun.management.ThreadMXBean) bean;
+            return b.getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return 0L;
+    }
+}
@@ -0,0 +1,426 @@
+/*
+ * Written by Doug Lea with assistance from members of JCP JSR-166
+ * Expert Group and released to the public domain, as explained at
+ * http://creativecommons.org/publicdomain/zero/1.0/
+ */
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import junit.framework.Test;
+import junit.framework.TestSuite;
+
+public class CompletableFuture9Test extends JSR166TestCase {
+    public static void main(String[] args) {
+        main(suite(), args);
+    }
+
+    public static Test suite() {
+        return new TestSuite(CompletableFuture9Test.class);
+    }
+
+    static class CFException extends RuntimeException {}
+
+    /** An executor counting and running tasks in new threads */
+    static final class CountingExecutor implements Executor {
+        final AtomicInteger count = new AtomicInteger();
+        public void execute(Runnable r) {
+            count.getAndIncrement();
+            new Thread(r).start();
+        }
+    }
+
+    /**
+     * Returns the cause of f's exceptional completion.
+     */
+    Throwable causeOf(CompletableFuture<?> f) {
+        try {
+            f.join();
+            shouldThrow();
+            return null;
+        } catch (CompletionException success) {
+            return success.getCause();
+        }
+    }
+
+    /**
+     * Fused stages run in order when the source completes, as an
+     * unfused chain would
+     */
+    public void testFuse_normalCompletion() {
+        for (boolean completeFirst : new boolean[] { true, false }) {
+            CompletableFuture<Integer> f = new CompletableFuture<>();
+            AtomicInteger ran = new AtomicInteger();
+            if (completeFirst)
+                f.complete(1);
+            CompletableFuture<Integer> g = f.fuse()
+                .thenApply(x -> x + 1)
+                .thenApply(x -> x * 10)
+                .toCompletableFuture();
+            CompletableFuture<Void> h = f.fuse()
+                .thenApply(x -> x + 1)
+                .thenAccept(x -> assertEquals(2, (int) x))
+                .thenRun(() -> ran.getAndIncrement())
+                .toCompletableFuture();
+            if (!completeFirst) {
+                assertFalse(g.isDone());
+                assertEquals(0, ran.get());
+                f.complete(1);
+            }
+            assertEquals(20, (int) g.join());
+            assertNull(h.join());
+            assertEquals(1, ran.get());
+        }
+    }
+
+    /**
+     * A fused chain with no stages completes with the source's value
+     */
+    public void testFuse_empty() {
+        CompletableFuture<Integer> f = new CompletableFuture<>();
+        CompletableFuture<Integer> g = f.fuse().toCompletableFuture();
+        assertNotSame(f, g);
+        f.complete(3);
+        assertEquals(3, (int) g.join());
+    }
+
+    /**
+     * Long fused chains compute the same result as unfused ones
+     */
+    public void testFuse_longChain() {
+        final int n = 1000;
+        CompletableFuture<Integer> f = new CompletableFuture<>();
+        CompletableFuture.FusedStages<Integer> stages = f.fuse();
+        CompletableFuture<Integer> chain = f;
+        for (int i = 0; i < n; ++i) {
+            Function<Integer,Integer> inc = x -> x + 1;
+            stages = stages.thenApply(inc);
+            chain = chain.thenApply(inc);
+        }
+        CompletableFuture<Integer> g = stages.toCompletableFuture();
+        assertEquals(2, f.getNumberOfDependents());
+        f.complete(0);
+        assertEquals(n, (int) g.join());
+        assertEquals(chain.join(), g.join());
+    }
+
+    /**
+     * A stage throwing an exception skips later stages and completes
+     * the result with a CompletionException
+     */
+    public void testFuse_actionFailed() {
+        CompletableFuture<Integer> f = new CompletableFuture<>();
+        AtomicInteger ran = new AtomicInteger();
+        final CFException ex = new CFException();
+        CompletableFuture<Integer> g = f.fuse()
+            .thenApply(x -> x + 1)
+            .thenApply(x -> { if (x > 0) throw ex; return x; })
+            .thenApply(x -> ran.incrementAndGet())
+            .toCompletableFuture();
+        f.complete(1);
+        assertSame(ex, causeOf(g));
+        assertEquals(0, ran.get());
+    }
+
+    /**
+     * If the source completes exceptionally, no stage runs and the
+     * result completes with a wrapped exception
+     */
+    public void testFuse_exceptionalCompletion() {
+        CompletableFuture<Integer> f = new CompletableFuture<>();
+        AtomicInteger ran = new AtomicInteger();
+        CompletableFuture<Void> g = f.fuse()
+            .thenRun(() -> ran.getAndIncrement())
+            .toCompletableFuture();
+        final CFException ex = new CFException();
+        f.completeExceptionally(ex);
+        assertSame(ex, causeOf(g));
+        assertEquals(0, ran.get());
+    }
+
+    /**
+     * The executor form runs all stages in a single task
+     */
+    public void testFuse_async() {
+        CountingExecutor e = new CountingExecutor();
+        CompletableFuture<Integer> f = new CompletableFuture<>();
+        final Thread caller = Thread.currentThread();
+        CompletableFuture<Integer> g = f.fuse()
+            .thenApply(x -> x + 1)
+            .thenApply(x -> {
+                    assertNotSame(caller, Thread.currentThread());
+                    return x + 1; })
+            .toCompletableFuture(e);
+        f.complete(1);
+        assertEquals(3, (int) g.join());
+        assertEquals(1, e.count.get());
+    }
+
+    /**
+     * Builders reject null actions and use after attachment
+     */
+    public void testFuse_rejections() {
+        CompletableFuture<Integer> f = new CompletableFuture<>();
+        CompletableFuture.FusedStages<Integer> stages = f.fuse();
+        try {
+            stages.thenApply(null);
+            shouldThrow();
+        } catch (NullPointerException success) {}
+        try {
+            stages.thenAccept(null);
+            shouldThrow();
+        } catch (NullPointerException success) {}
+        try {
+            stages.toCompletableFuture(null);
+            shouldThrow();
+        } catch (NullPointerException success) {}
+        stages.toCompletableFuture();
+        try {
+            stages.thenRun(() -> {});
+            shouldThrow();
+        } catch (IllegalStateException success) {}
+        try {
+            stages.toCompletableFuture();
+            shouldThrow();
+        } catch (IllegalStateException success) {}
+    }
+
+    /** Returns an array of n new incomplete futures */
+    @SuppressWarnings("unchecked")
+    static CompletableFuture<Integer>[] incompleteFutures(int n) {
+        CompletableFuture<Integer>[] fs =
+            (CompletableFuture<Integer>[]) new CompletableFuture[n];
+        for (int i = 0; i < n; ++i)
+            fs[i] = new CompletableFuture<>();
+        return fs;
+    }
+
+    /**
+     * allOf over many futures completes only after all of them, in
+     * any order, and reports the exception of the first exceptional
+     * future in array order
+     */
+    public void testAllOf_wide() {
+        final int n = 10000;
+        CompletableFuture<Integer>[] fs = incompleteFutures(n);
+        CompletableFuture<Void> f = CompletableFuture.allOf(fs);
+        List<Integer> order = new ArrayList<>();
+        for (int i = 0; i < n; ++i)
+            order.add(i);
+        Collections.shuffle(order);
+        CFException ex1 = new CFException(), ex2 = new CFException();
+        for (int j = 0; j < n; ++j) {
+            assertFalse(f.isDone());
+            int i = order.get(j);
+            if (i == n / 3)
+                fs[i].completeExceptionally(ex1);
+            else if (i == n / 2)
+                fs[i].completeExceptionally(ex2);
+            else
+                fs[i].complete(i);
+        }
+        assertSame(ex1, causeOf(f));
+        assertSame(ex1, causeOf(CompletableFuture.allOf(fs)));
+        for (CompletableFuture<Integer> g : fs)
+            assertEquals(0, g.getNumberOfDependents());
+    }
+
+    /**
+     * anyOf removes its dependents from losing futures once any
+     * future completes
+     */
+    public void testAnyOf_cleansLosers() {
+        final int n = 1000;
+        CompletableFuture<Integer>[] fs = incompleteFutures(n);
+        CompletableFuture<Object> f = CompletableFuture.anyOf(fs);
+        for (CompletableFuture<Integer> g : fs)
+            assertEquals(1, g.getNumberOfDependents());
+        fs[n / 2].complete(42);
+        assertEquals(42, f.join());
+        for (CompletableFuture<Integer> g : fs)
+            assertEquals(0, g.getNumberOfDependents());
+    }
+
+    /**
+     * completionOrder yields results in the order the given futures
+     * complete, with already completed futures first
+     */
+    public void testCompletionOrder() {
+        final int n = 100;
+        CompletableFuture<Integer>[] fs = incompleteFutures(n);
+        fs[n - 1].complete(-1);
+        List<CompletableFuture<Integer>> ordered =
+            CompletableFuture.completionOrder(Arrays.asList(fs));
+        assertEquals(n, ordered.size());
+        assertEquals(-1, (int) ordered.get(0).join());
+        for (int i = 1; i < n; ++i)
+            assertFalse(ordered.get(i).isDone());
+        final CFException ex = new CFException();
+        for (int i = n - 2; i >= 0; --i) {
+            if (i == n / 2)
+                fs[i].completeExceptionally(ex);
+            else
+                fs[i].complete(i);
+        }
+        for (int j = 1; j < n; ++j) {
+            int i = n - 1 - j;
+            if (i == n / 2)
+                assertSame(ex, causeOf(ordered.get(j)));
+            else
+                assertEquals(i, (int) ordered.get(j).join());
+        }
+        try {
+            ordered.set(0, new CompletableFuture<Integer>());
+            shouldThrow();
+        } catch (UnsupportedOperationException success) {}
+    }
+
+    /**
+     * completionOrder of concurrently completing futures yields each
+     * result exactly once
+     */
+    public void testCompletionOrder_concurrent() throws Exception {
+        final int n = 1000;
+        final CompletableFuture<Integer>[] fs = incompleteFutures(n);
+        List<CompletableFuture<Integer>> ordered =
+            CompletableFuture.completionOrder(Arrays.asList(fs));
+        Thread[] ts = new Thread[4];
+        for (int k = 0; k < ts.length; ++k) {
+            final int start = k;
+            ts[k] = newStartedThread(new CheckedRunnable() {
+                public void realRun() {
+                    for (int i = start; i < n; i += 4)
+                        fs[i].complete(i);
+                }});
+        }
+        boolean[] seen = new boolean[n];
+        for (CompletableFuture<Integer> g : ordered) {
+            int i = g.get(LONG_DELAY_MS, MILLISECONDS);
+            assertFalse(seen[i]);
+            seen[i] = true;
+        }
+        for (Thread t : ts)
+            awaitTermination(t);
+    }
+
+    /**
+     * spinJoin returns results and throws exceptions as join does,
+     * whether results arrive while spinning or after blocking, and
+     * the wait counters account for each wait
+     */
+    public void testSpinJoin() throws Exception {
+        final CompletableFuture<Integer> f = new CompletableFuture<>();
+        f.complete(1);
+        assertEquals(1, (int) f.spinJoin(1L, MILLISECONDS));
+        for (final boolean blocked : new boolean[] { true, false }) {
+            final CompletableFuture<Integer> g = new CompletableFuture<>();
+            final CountDownLatch waiting = new CountDownLatch(1);
+            Thread t = newStartedThread(new CheckedRunnable() {
+                public void realRun() {
+                    await(waiting);
+                    if (blocked) {  // complete only once a waiter is queued
+                        long startTime = System.nanoTime();
+                        while (g.getNumberOfDependents() == 0) {
+                            if (millisElapsedSince(startTime) > LONG_DELAY_MS)
+                                fail("timed out");
+                            Thread.yield();
+                        }
+                    }
+                    g.complete(2);
+                }});
+            long spun = CompletableFuture.getSpunWaitCount();
+            long parked = CompletableFuture.getParkedWaitCount();
+            waiting.countDown();
+            long spinMillis = blocked ? 0L : LONG_DELAY_MS;
+            assertEquals(2, (int) g.spinJoin(spinMillis, MILLISECONDS));
+            awaitTermination(t);
+            long spunNow = CompletableFuture.getSpunWaitCount();
+            long parkedNow = CompletableFuture.getParkedWaitCount();
+            if (blocked) {
+                assertEquals(spun, spunNow);
+                assertEquals(parked + 1, parkedNow);
+            }
+            else {          // the result may arrive before spinning
+                assertEquals(parked, parkedNow);
+                assertTrue(spunNow - spun <= 1L);
+            }
+        }
+        final CompletableFuture<Integer> h = new CompletableFuture<>();
+        final CFException ex = new CFException();
+        Thread t = newStartedThread(new CheckedRunnable() {
+            public void realRun() throws InterruptedException {
+                Thread.sleep(timeoutMillis());
+                h.completeExceptionally(ex);
+            }});
+        long parked = CompletableFuture.getParkedWaitCount();
+        try {
+            h.spinJoin(-1L, MILLISECONDS);
+            shouldThrow();
+        } catch (CompletionException success) {
+            assertSame(ex, success.getCause());
+        }
+        awaitTermination(t);
+        assertTrue(CompletableFuture.getParkedWaitCount() > parked);
+        try {
+            f.spinJoin(1L, null);
+            shouldThrow();
+        } catch (NullPointerException success) {}
+    }
+
+    /**
+     * Adaptive spinning in join never prevents waiters from seeing
+     * results, across many short and long waits
+     */
+    public void testJoin_adaptiveSpin() throws Exception {
+        final int n = 1000;
+        final CompletableFuture<Integer>[] fs = incompleteFutures(n);
+        Thread t = newStartedThread(new CheckedRunnable() {
+            public void realRun() throws InterruptedException {
+                for (int i = 0; i < n; ++i) {
+                    if ((i & 63) == 0)
+                        Thread.sleep(1L);
+                    fs[i].complete(i);
+                }
+            }});
+        for (int i = 0; i < n; ++i)
+            assertEquals(i, (int) fs[i].join());
+        awaitTermination(t);
+    }
+
+    /**
+     * Fan-in methods reject null arguments and elements
+     */
+    public void testFanInNPE() {
+        CompletableFuture<Integer> f = new CompletableFuture<>();
+        try {
+            CompletableFuture.allOf(f, null);
+            shouldThrow();
+        } catch (NullPointerException success) {}
+        try {
+            CompletableFuture.anyOf(f, null);
+            shouldThrow();
+        } catch (NullPointerException success) {}
+        try {
+            CompletableFuture.completionOrder(Arrays.asList(f, null));
+            shouldThrow();
+        } catch (NullPointerException success) {}
+        try {
+            CompletableFuture.completionOrder(null);
+            shouldThrow();
+        } catch (NullPointerException success) {}
+        assertEquals(0, f.getNumberOfDependents());
+        assertTrue(CompletableFuture.completionOrder(
+                       Collections.<CompletableFuture<Integer>>emptyList())
+                   .isEmpty());
+    }
+}
@@ -0,0 +1,301 @@
+/*
+ * Written by Doug Lea with assistance from members of JCP JSR-166
+ * Expert Group and released to the public domain, as explained at
+ * http://creativecommons.org/publicdomain/zero/1.0/
+ */
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+import java.util.concurrent.ConcurrentCache;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.Test;
+import junit.framework.TestSuite;
+
+public class ConcurrentCacheTest extends JSR166TestCase {
+    public static void main(String[] args) {
+        main(suite(), args);
+    }
+    public static Test suite() {
+        return new TestSuite(ConcurrentCacheTest.class);
+    }
+
+    /**
+     * Returns a new cache from Integers 1-5 to Strings "A"-"E".
+     */
+    private static ConcurrentCache<Integer, String> cache5() {
+        ConcurrentCache<Integer, String> cache = new ConcurrentCache<>(100);
+        cache.put(one, "A");
+        cache.put(two, "B");
+        cache.put(three, "C");
+        cache.put(four, "D");
+        cache.put(five, "E");
+        assertEquals(5, cache.size());
+        return cache;
+    }
+
+    /**
+     * Constructors reject negative bounds and null units
+     */
+    public void testConstructor_Exceptions() {
+        Runnable[] throwingActions = {
+            () -> new ConcurrentCache<Object, Object>(-1L),
+            () -> new ConcurrentCache<Object, Object>(1L, null, -1L, 0L,
+                                                       MILLISECONDS),
+            () -> new ConcurrentCache<Object, Object>(1L, null, 0L, -1L,
+                                                       MILLISECONDS),
+        };
+        assertThrows(IllegalArgumentException.class, throwingActions);
+        assertThrows(NullPointerException.class,
+                     () -> new ConcurrentCache<Object, Object>(1L, null, 0L,
+                                                               0L, null));
+    }
+
+    /**
+     * get returns the value of a present mapping, and null otherwise
+     */
+    public void testGet() {
+        ConcurrentCache<Integer, String> cache = cache5();
+        assertEquals("A", cache.get(one));
+        assertEquals("E", cache.get(five));
+        assertNull(cache.get(six));
+        assertTrue(cache.containsKey(one));
+        assertFalse(cache.containsKey(six));
+    }
+
+    /**
+     * put replaces an existing value and returns the previous one
+     */
+    public void testPut() {
+        ConcurrentCache<Integer, String> cache = cache5();
+        assertEquals("A", cache.put(one, "Z"));
+        assertEquals("Z", cache.get(one));
+        assertNull(cache.put(six, "F"));
+        assertEquals(6, cache.size());
+    }
+
+    /**
+     * remove removes the mapping and returns its value
+     */
+    public void testRemove() {
+        ConcurrentCache<Integer, String> cache = cache5();
+        assertEquals("C", cache.remove(three));
+        assertNull(cache.remove(three));
+        assertFalse(cache.containsKey(three));
+        assertEquals(4, cache.size());
+        cache.cleanUp();
+        assertEquals(4L, cache.weightedSize());
+    }
+
+    /**
+     * clear removes all mappings
+     */
+    public void testClear() {
+        ConcurrentCache<Integer, String> cache = cache5();
+        cache.clear();
+        assertEquals(0, cache.size());
+        assertEquals(0L, cache.weightedSize());
+        assertNull(cache.get(one));
+    }
+
+    /**
+     * computeIfAbsent applies the function only for absent keys, and
+     * does not add a mapping if it returns null
+     */
+    public void testComputeIfAbsent() {
+        ConcurrentCache<Integer, String> cache = cache5();
+        AtomicInteger calls = new AtomicInteger();
+        assertEquals("A", cache.computeIfAbsent(one, k -> {
+            calls.incrementAndGet(); return "Z"; }));
+        assertEquals(0, calls.get());
+        assertEquals("F", cache.computeIfAbsent(six, k -> {
+            calls.incrementAndGet(); return "F"; }));
+        assertEquals(1, calls.get());
+        assertEquals("F", cache.get(six));
+        assertNull(cache.computeIfAbsent(seven, k -> null));
+        assertFalse(cache.containsKey(seven));
+    }
+
+    /**
+     * Null keys, values, and functions are rejected
+     */
+    public void testNullPointerExceptions() {
+        ConcurrentCache<Integer, String> cache = cache5();
+        Runnable[] throwingActions = {
+            () -> cache.get(null),
+            () -> cache.containsKey(null),
+            () -> cache.put(null, "A"),
+            () -> cache.put(one, null),
+            () -> cache.remove(null),
+            () -> cache.computeIfAbsent(null, k -> "A"),
+            () -> cache.computeIfAbsent(one, null),
+        };
+        assertThrows(NullPointerException.class, throwingActions);
+    }
+
+    /**
+     * The cache holds at most its maximum number of mappings after
+     * maintenance
+     */
+    public void testMaximumSize() {
+        int max = 100;
+        ConcurrentCache<Integer, Integer> cache = new ConcurrentCache<>(max);
+        for (int i = 0; i < 10 * max; ++i)
+            cache.put(i, i);
+        cache.cleanUp();
+        assertTrue(cache.size() <= max);
+        assertEquals(cache.size(), cache.weightedSize());
+        int present = 0;
+        for (int i = 0; i < 10 * max; ++i)
+            if (cache.get(i) != null)
+                ++present;
+        assertEquals(cache.size(), present);
+    }
+
+    /**
+     * A cache with maximum size zero retains nothing after maintenance
+     */
+    public void testZeroMaximumSize() {
+        ConcurrentCache<Integer, Integer> cache = new ConcurrentCache<>(0);
+        for (int i = 0; i < 10; ++i)
+            cache.put(i, i);
+        cache.cleanUp();
+        assertEquals(0, cache.size());
+        assertEquals(0L, cache.weightedSize());
+    }
+
+    /**
+     * Frequently read mappings survive a scan of many keys read only
+     * once
+     */
+    public void testFrequentKeysSurviveScan() {
+        int max = 200, hot = 50;
+        ConcurrentCache<Integer, Integer> cache = new ConcurrentCache<>(max);
+        for (int i = 0; i < hot; ++i)
+            cache.put(i, i);
+        for (int r = 0; r < 10; ++r) {
+            for (int i = 0; i < hot; ++i)
+                assertEquals((Integer) i, cache.get(i));
+            cache.cleanUp();
+        }
+        for (int i = hot; i < 50 * max; ++i)
+            cache.put(i, i);
+        cache.cleanUp();
+        int retained = 0;
+        for (int i = 0; i < hot; ++i)
+            if (cache.containsKey(i))
+                ++retained;
+        assertTrue(retained >= hot * 9 / 10);
+    }
+
+    /**
+     * Weights are bounded by the maximum weight, and mappings heavier
+     * than the maximum are not retained
+     */
+    public void testWeigher() {
+        ConcurrentCache<Integer, String> cache =
+            new ConcurrentCache<>(100, (k, v) -> v.length(), 0L, 0L,
+                                  MILLISECONDS);
+        cache.put(one, "1234567890");
+        cache.put(two, "12345");
+        cache.cleanUp();
+        assertEquals(15L, cache.weightedSize());
+        cache.put(one, "12");
+        cache.cleanUp();
+        assertEquals(7L, cache.weightedSize());
+        for (int i = 10; i < 100; ++i)
+            cache.put(i, "1234567890");
+        cache.cleanUp();
+        assertTrue(cache.weightedSize() <= 100L);
+        cache.put(three, new String(new char[101]));
+        cache.cleanUp();
+        assertFalse(cache.containsKey(three));
+        assertTrue(cache.weightedSize() <= 100L);
+    }
+
+    /**
+     * Mappings expire the given time after they were written, even
+     * if accessed
+     */
+    public void testExpireAfterWrite() throws InterruptedException {
+        long timeoutMillis = timeoutMillis();
+        ConcurrentCache<Integer, String> cache =
+            new ConcurrentCache<>(100, null, timeoutMillis, 0L, MILLISECONDS);
+        long startTime = System.nanoTime();
+        cache.put(one, "A");
+        while (millisElapsedSince(startTime) < timeoutMillis) {
+            if (cache.get(one) == null)
+                assertTrue(millisElapsedSince(startTime) >= timeoutMillis);
+            Thread.yield();
+        }
+        delay(timeoutMillis / 4 + 1);
+        assertNull(cache.get(one));
+        assertFalse(cache.containsKey(one));
+        assertNull(cache.remove(one));
+        assertNull(cache.put(one, "B"));
+        assertEquals("B", cache.get(one));
+    }
+
+    /**
+     * Mappings expire the given time after they were last accessed,
+     * and not before
+     */
+    public void testExpireAfterAccess() throws InterruptedException {
+        long timeoutMillis = timeoutMillis();
+        ConcurrentCache<Integer, String> cache =
+            new ConcurrentCache<>(100, null, 0L, 10 * timeoutMillis,
+                                  MILLISECONDS);
+        cache.put(one, "A");
+        cache.put(two, "B");
+        long startTime = System.nanoTime();
+        while (millisElapsedSince(startTime) < 20 * timeoutMillis) {
+            assertEquals("A", cache.get(one));
+            delay(timeoutMillis);
+        }
+        assertNull(cache.get(two));
+        assertEquals("A", cache.get(one));
+        assertEquals("C", cache.computeIfAbsent(two, k -> "C"));
+    }
+
+    /**
+     * Concurrent readers and writers leave the cache within its bound
+     * with values consistent with their keys
+     */
+    public void testConcurrentAccess() throws Throwable {
+        final int max = 500, nThreads = 4, ops = 50000;
+        final ConcurrentCache<Integer, Integer> cache =
+            new ConcurrentCache<>(max);
+        Thread[] threads = new Thread[nThreads];
+        for (int t = 0; t < nThreads; ++t) {
+            threads[t] = newStartedThread(new CheckedRunnable() {
+                public void realRun() {
+                    ThreadLocalRandom rnd = ThreadLocalRandom.current();
+                    for (int i = 0; i < ops; ++i) {
+                        int k = rnd.nextInt(4 * max);
+                        switch (rnd.nextInt(4)) {
+                        case 0:
+                            cache.put(k, k);
+                            break;
+                        case 1:
+                            assertEquals((Integer) k,
+                                         cache.computeIfAbsent(k, x -> x));
+                            break;
+                        case 2:
+                            Integer r = cache.remove(k);
+                            assertTrue(r == null || r == k);
+                            break;
+                        default:
+                            Integer v = cache.get(k);
+                            assertTrue(v == null || v == k);
+                        }
+                    }
+                }});
+        }
+        for (Thread thread : threads)
+            awaitTermination(thread);
+        cache.cleanUp();
+        assertTrue(cache.size() <= max);
+        assertEquals(cache.size(), cache.weightedSize());
+    }
+}
@@ -0,0 +1,797 @@
+/*
+ * Written by Doug Lea with assistance from members of JCP JSR-166
+ * Expert Group and released to the public domain, as explained at
+ * http://creativecommons.org/publicdomain/zero/1.0/
+ */
+
+import java.io.ByteArrayInputStream;
+import java.io.ObjectInputStream;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+
+import junit.framework.Test;
+import junit.framework.TestSuite;
+
+public class ConcurrentHashMap9Test extends JSR166TestCase {
+    public static void main(String[] args) {
+        main(suite(), args);
+    }
+    public static Test suite() {
+        return new TestSuite(ConcurrentHashMap9Test.class);
+    }
+
+    /**
+     * newIncrementalResizeMap rejects illegal arguments
+     */
+    public void testNewIncrementalResizeMap_IllegalArgumentException() {
+        Runnable[] throwingActions = {
+            () -> ConcurrentHashMap.newIncrementalResizeMap(16, 0),
+            () -> ConcurrentHashMap.newIncrementalResizeMap(16, -1),
+            () -> ConcurrentHashMap.newIncrementalResizeMap(-1, 16),
+        };
+        assertThrows(IllegalArgumentException.class, throwingActions);
+    }
+
+    /**
+     * An incrementally resized map leaves resizes open across
+     * operations, reports pending bins, and eventually completes
+     * them, while retaining all mappings
+     */
+    public void testIncrementalResize() {
+        ConcurrentHashMap<Integer, Integer> map =
+            ConcurrentHashMap.newIncrementalResizeMap(0, 1);
+        assertEquals(0, map.pendingTransferBins());
+        boolean sawPending = false;
+        int n = 4096;
+        for (int i = 0; i < n; ++i) {
+            assertNull(map.put(i, i));
+            int pending = map.pendingTransferBins();
+            assertTrue(pending >= 0);
+            if (pending > 0)
+                sawPending = true;
+            for (int j = Math.max(0, i - 32); j <= i; ++j)
+                assertEquals((Integer) j, map.get(j));
+        }
+        assertTrue(sawPending);
+        assertEquals(n, map.size());
+        int c = 0;
+        for (Integer k : map.keySet()) {
+            assertEquals(k, map.get(k));
+            ++c;
+        }
+        assertEquals(n, c);
+        for (int i = n; map.pendingTransferBins() > 0; ++i)
+            map.put(i, i);
+        assertEquals(0, map.pendingTransferBins());
+    }
+
+    /**
+     * clear removes all mappings of an incrementally resized map,
+     * even while a resize is in progress
+     */
+    public void testIncrementalResizeClear() {
+        ConcurrentHashMap<Integer, Integer> map =
+            ConcurrentHashMap.newIncrementalResizeMap(0, 1);
+        int i = 0;
+        while (i < 100 || map.pendingTransferBins() == 0)
+            map.put(i, i++);
+        map.clear();
+        assertTrue(map.isEmpty());
+        assertEquals(0, map.size());
+        assertFalse(map.keySet().iterator().hasNext());
+        for (int j = 0; j < i; ++j)
+            assertNull(map.get(j));
+    }
+
+    /**
+     * Concurrent insertions into an incrementally resized map are
+     * all retained
+     */
+    public void testIncrementalResizeConcurrentPuts() throws Throwable {
+        final ConcurrentHashMap<Integer, Integer> map =
+            ConcurrentHashMap.newIncrementalResizeMap(0, 4);
+        final int nThreads = 4, perThread = 10000;
+        Thread[] threads = new Thread[nThreads];
+        for (int t = 0; t < nThreads; ++t) {
+            final int base = t * perThread;
+            threads[t] = newStartedThread(new CheckedRunnable() {
+                public void realRun() {
+                    for (int i = base; i < base + perThread; ++i) {
+                        assertNull(map.put(i, i));
+                        assertEquals((Integer) i, map.get(i));
+                    }
+                }});
+        }
+        for (Thread thread : threads)
+            awaitTermination(thread);
+        assertEquals(nThreads * perThread, map.size());
+        for (int i = 0; i < nThreads * perThread; ++i)
+            assertEquals((Integer) i, map.get(i));
+    }
+
+    /**
+     * Returns a new map from Integers 0 to n-1 to their negations.
+     */
+    private static ConcurrentHashMap<Integer, Integer> intMap(int n) {
+        ConcurrentHashMap<Integer, Integer> map = new ConcurrentHashMap<>();
+        for (int i = 0; i < n; ++i)
+            map.put(i, -i);
+        return map;
+    }
+
+    /**
+     * A snapshot is unaffected by subsequent updates to the map,
+     * including those causing resizes
+     */
+    public void testSnapshot() {
+        ConcurrentHashMap<Integer, Integer> map = intMap(SIZE);
+        Map<Integer, Integer> copy = new HashMap<>(map);
+        try (ConcurrentHashMap.SnapshotView<Integer, Integer> s =
+             map.snapshot()) {
+            map.remove(zero);
+            map.put(one, 1);
+            map.merge(two, 7, Integer::sum);
+            map.compute(three, (k, v) -> null);
+            map.computeIfAbsent(-1, k -> k);
+            for (int i = SIZE; i < 8 * SIZE; ++i)
+                map.put(i, i);
+            assertEquals(-1, (int) s.get(one));
+            assertTrue(s.containsKey(zero));
+            assertFalse(s.containsKey(-1));
+            assertFalse(s.containsKey(SIZE));
+            assertEquals(SIZE, s.size());
+            assertEquals(copy, s);
+            assertEquals(s, copy);
+            assertEquals(copy.hashCode(), s.hashCode());
+            map.clear();
+            assertEquals(copy, s);
+        }
+        assertTrue(map.snapshot().isEmpty());
+    }
+
+    /**
+     * Snapshot iterators and spliterators traverse each mapping once,
+     * and the snapshot and its entries do not support modification
+     */
+    public void testSnapshotTraversal() {
+        ConcurrentHashMap<Integer, Integer> map = intMap(SIZE * 10);
+        ConcurrentHashMap.SnapshotView<Integer, Integer> s = map.snapshot();
+        map.clear();
+        Iterator<Map.Entry<Integer, Integer>> it = s.entrySet().iterator();
+        Map.Entry<Integer, Integer> first = it.next();
+        assertThrows(UnsupportedOperationException.class,
+                     () -> first.setValue(zero),
+                     () -> it.remove(),
+                     () -> s.put(zero, zero),
+                     () -> s.remove(zero));
+        Set<Integer> seen = new HashSet<>();
+        for (Map.Entry<Integer, Integer> e = first;; e = it.next()) {
+            assertTrue(seen.add(e.getKey()));
+            assertEquals(-e.getKey(), (int) e.getValue());
+            assertTrue(s.entrySet().contains(e));
+            if (!it.hasNext())
+                break;
+        }
+        assertEquals(SIZE * 10, seen.size());
+        try {
+            it.next();
+            shouldThrow();
+        } catch (NoSuchElementException success) {}
+        assertEquals(SIZE * 10, s.entrySet().stream().count());
+        assertEquals(s, s.entrySet().parallelStream()
+                     .collect(Collectors.toMap(Map.Entry::getKey,
+                                               Map.Entry::getValue)));
+    }
+
+    /**
+     * A closed snapshot throws IllegalStateException when accessing
+     * mappings it has not copied, but not after all were copied
+     */
+    public void testSnapshotClose() {
+        ConcurrentHashMap<Integer, Integer> map = intMap(SIZE);
+        ConcurrentHashMap.SnapshotView<Integer, Integer> s = map.snapshot();
+        s.close();
+        s.close();
+        assertThrows(IllegalStateException.class,
+                     () -> s.get(one),
+                     () -> s.size());
+        ConcurrentHashMap.SnapshotView<Integer, Integer> t = map.snapshot();
+        assertEquals(SIZE, t.mappingCount());
+        t.close();
+        map.clear();
+        assertEquals(SIZE, t.size());
+        assertEquals(-1, (int) t.get(one));
+    }
+
+    /**
+     * A serialized snapshot deserializes as an equal ConcurrentHashMap
+     */
+    public void testSnapshotSerialization() throws Exception {
+        ConcurrentHashMap<Integer, Integer> map = intMap(SIZE);
+        Map<Integer, Integer> copy = new HashMap<>(map);
+        ConcurrentHashMap.SnapshotView<Integer, Integer> s = map.snapshot();
+        map.put(SIZE, SIZE);
+        Object x = deserialize(serialBytes(s));
+        assertSame(ConcurrentHashMap.class, x.getClass());
+        assertEquals(copy, x);
+        x = deserialize(serialBytes(new ConcurrentHashMap<>().snapshot()));
+        assertEquals(new ConcurrentHashMap<>(), x);
+    }
+
+    private static Object deserialize(byte[] bytes) throws Exception {
+        return new ObjectInputStream(new ByteArrayInputStream(bytes))
+            .readObject();
+    }
+
+    /**
+     * Snapshots taken while an incremental resize is in progress
+     * reflect exactly the mappings present at the time
+     */
+    public void testSnapshotDuringIncrementalResize() {
+        ConcurrentHashMap<Integer, Integer> map =
+            ConcurrentHashMap.newIncrementalResizeMap(0, 1);
+        int i = 0;
+        while (i < 100 || map.pendingTransferBins() == 0)
+            map.put(i, i++);
+        ConcurrentHashMap.SnapshotView<Integer, Integer> s = map.snapshot();
+        assertEquals(0, map.pendingTransferBins());
+        for (int j = 0; j < 4 * i; ++j)
+            map.put(j, -j);
+        assertEquals(i, s.size());
+        for (int j = 0; j < i; ++j)
+            assertEquals((Integer) j, s.get(j));
+        assertNull(s.get(i));
+    }
+
+    /**
+     * Snapshots taken while other threads update the map are
+     * internally consistent: each writer's updates are applied in
+     * order, so a snapshot holds a prefix of them
+     */
+    public void testSnapshotConcurrentUpdates() throws Throwable {
+        final ConcurrentHashMap<Integer, Integer> map = new ConcurrentHashMap<>();
+        final int nThreads = 3, perThread = 20000;
+        final AtomicBoolean done = new AtomicBoolean();
+        Thread[] threads = new Thread[nThreads];
+        for (int t = 0; t < nThreads; ++t) {
+            final int base = t * perThread;
+            threads[t] = newStartedThread(new CheckedRunnable() {
+                public void realRun() {
+                    for (int i = base; i < base + perThread; ++i)
+                        map.put(i, i);
+                }});
+        }
+        Thread reader = newStartedThread(new CheckedRunnable() {
+            public void realRun() {
+                do {
+                    try (ConcurrentHashMap.SnapshotView<Integer, Integer> s =
+                         map.snapshot()) {
+                        int[] counts = new int[nThreads];
+                        for (Map.Entry<Integer, Integer> e : s.entrySet()) {
+                            assertEquals(e.getKey(), e.getValue());
+                            ++counts[e.getKey() / perThread];
+                        }
+                        for (int t = 0; t < nThreads; ++t) {
+                            int base = t * perThread;
+                            for (int i = base; i < base + counts[t]; ++i)
+                                assertEquals((Integer) i, s.get(i));
+                            if (counts[t] < perThread)
+                                assertFalse(s.containsKey(base + counts[t]));
+                        }
+                    }
+                } while (!done.get());
+            }});
+        for (Thread thread : threads)
+            awaitTermination(thread);
+        done.set(true);
+        awaitTermination(reader);
+        assertEquals(nThreads * perThread, map.snapshot().size());
+    }
+
+    /**
+     * Returns an array of the Integers from 0 to n-1.
+     */
+    private static Integer[] intKeys(int n) {
+        Integer[] keys = new Integer[n];
+        for (int i = 0; i < n; ++i)
+            keys[i] = i;
+        return keys;
+    }
+
+    /**
+     * getAll stores the value of each mapped key, and null for
+     * others, returning the number of mapped keys
+     */
+    public void testGetAll() {
+        ConcurrentHashMap<Integer, Integer> map = intMap(SIZE);
+        Integer[] keys = intKeys(2 * SIZE);
+        Integer[] values = new Integer[2 * SIZE + 1];
+        values[2 * SIZE] = one;
+        assertEquals(SIZE, map.getAll(keys, values));
+        for (int i = 0; i < 2 * SIZE; ++i)
+            assertEquals(map.get(i), values[i]);
+        assertSame(one, values[2 * SIZE]);
+        assertEquals(0, new ConcurrentHashMap<Integer, Integer>()
+                     .getAll(keys, values));
+        assertNull(values[0]);
+        assertEquals(0, map.getAll(new Integer[0], new Integer[0]));
+    }
+
+    /**
+     * mergeAll adds absent keys, remaps present ones, removes those
+     * remapped to null, and merges equal keys in array order
+     */
+    public void testMergeAll() {
+        ConcurrentHashMap<Integer, String> map = new ConcurrentHashMap<>();
+        map.put(one, "A");
+        map.put(two, "B");
+        Integer[] keys = { one, two, three, one, three, four };
+        String[] values = { "a", "", "c", "b", "d", "e" };
+        map.mergeAll(keys, values,
+                     (x, y) -> y.isEmpty() ? null : x + y);
+        assertEquals("Aab", map.get(one));
+        assertFalse(map.containsKey(two));
+        assertEquals("cd", map.get(three));
+        assertEquals("e", map.get(four));
+        assertEquals(3, map.size());
+    }
+
+    /**
+     * mergeAll retains all mappings when growing a map from empty,
+     * and treeifies bins of colliding keys
+     */
+    public void testMergeAllCollisions() {
+        ConcurrentHashMap<Object, Integer> map = new ConcurrentHashMap<>();
+        int n = 1000;
+        Object[] keys = new Object[2 * n];
+        Integer[] values = new Integer[2 * n];
+        for (int i = 0; i < n; ++i) {
+            keys[i] = i;
+            keys[i + n] = new BadKey(i);
+            values[i] = values[i + n] = one;
+        }
+        map.mergeAll(keys, values, Integer::sum);
+        map.mergeAll(keys, values, Integer::sum);
+        assertEquals(2 * n, map.size());
+        for (Object k : keys)
+            assertEquals(two, map.get(k));
+        assertEquals(2 * n, map.getAll(keys, new Integer[2 * n]));
+        map.mergeAll(keys, values, (x, y) -> null);
+        assertTrue(map.isEmpty());
+    }
+
+    /**
+     * Batch operations reject null arrays, keys, values, and
+     * functions, and too-short value arrays, before making changes
+     */
+    public void testBatchExceptions() {
+        ConcurrentHashMap<Integer, Integer> map = intMap(SIZE);
+        Integer[] keys = { one, null };
+        Integer[] values = { one, two };
+        Runnable[] throwingActions = {
+            () -> map.getAll(null, values),
+            () -> map.getAll(values, null),
+            () -> map.getAll(keys, values),
+            () -> map.getAll(1L, keys, values),
+            () -> map.mergeAll(keys, values, Integer::sum),
+            () -> map.mergeAll(values, keys, Integer::sum),
+            () -> map.mergeAll(values, values, null),
+            () -> map.mergeAll(1L, values, values, null),
+            () -> map.mergeAll(1L, keys, values, Integer::sum),
+        };
+        assertThrows(NullPointerException.class, throwingActions);
+        assertThrows(IllegalArgumentException.class,
+                     () -> map.getAll(values, new Integer[1]),
+                     () -> map.mergeAll(values, new Integer[1], Integer::sum));
+        assertEquals(intMap(SIZE), map);
+    }
+
+    /**
+     * Parallel batch operations have the same effects as sequential
+     * ones
+     */
+    public void testParallelBatch() {
+        int n = 20000;
+        ConcurrentHashMap<Integer, Integer> map = new ConcurrentHashMap<>();
+        Integer[] keys = intKeys(n);
+        Integer[] values = intKeys(n);
+        map.mergeAll(1L, keys, values, Integer::sum);
+        map.mergeAll(1L, keys, values, Integer::sum);
+        assertEquals(n, map.size());
+        Integer[] got = new Integer[n];
+        assertEquals(n, map.getAll(1L, keys, got));
+        for (int i = 0; i < n; ++i)
+            assertEquals(2 * i, (int) got[i]);
+        map.mergeAll(1L, keys, values, (x, y) -> (y & 1) == 0 ? null : x);
+        assertEquals(n / 2, map.getAll(1L, keys, got));
+        for (int i = 0; i < n; ++i)
+            assertEquals((i & 1) == 0 ? null : (Integer) (2 * i), got[i]);
+    }
+
+    /**
+     * Concurrent mergeAll calls counting the same keys apply every
+     * increment
+     */
+    public void testMergeAllConcurrent() throws Throwable {
+        final ConcurrentHashMap<Integer, Integer> map = new ConcurrentHashMap<>();
+        final int nThreads = 4, rounds = 20, n = 5000;
+        final Integer[] keys = intKeys(n);
+        final Integer[] ones = new Integer[n];
+        Arrays.fill(ones, one);
+        Thread[] threads = new Thread[nThreads];
+        for (int t = 0; t < nThreads; ++t) {
+            final boolean parallel = (t & 1) != 0;
+            threads[t] = newStartedThread(new CheckedRunnable() {
+                public void realRun() {
+                    for (int r = 0; r < rounds; ++r) {
+                        if (parallel)
+                            map.mergeAll(1L, keys, ones, Integer::sum);
+                        else
+                            map.mergeAll(keys, ones, Integer::sum);
+                    }
+                }});
+        }
+        for (Thread thread : threads)
+            awaitTermination(thread);
+        assertEquals(n, map.size());
+        for (Integer k : keys)
+            assertEquals(nThreads * rounds, (int) map.get(k));
+    }
+
+    /**
+     * Statistics are zero unless enabled, then record resizes and
+     * treeifications, and are reset when re-enabled
+     */
+    public void testStats() {
+        ConcurrentHashMap<Object, Object> map = new ConcurrentHashMap<>();
+        ConcurrentHashMap.Stats stats = map.getStats();
+        assertEquals(0, stats.getTableLength());
+        assertEquals(0L, stats.getResizeCount());
+        map.setStatsEnabled(true);
+        for (int i = 0; i < 1000; ++i)
+            map.put(i, i);
+        for (int i = 0; i < 100; ++i)
+            map.put(new BadKey(i), i);
+        stats = map.getStats();
+        assertTrue(stats.getResizeCount() > 0L);
+        assertTrue(stats.getResizeTimeNanos() > 0L);
+        assertTrue(stats.getTreeifyCount() > 0L);
+        assertTrue(stats.getTableLength() >= 1100);
+        assertEquals(0L, stats.getRevalidationRetryCount());
+        assertEquals(0L, stats.getContendedCountUpdates());
+        assertTrue(stats.toString().contains("Treeifications"));
+        map.setStatsEnabled(true);
+        assertEquals(stats.getResizeCount(), map.getStats().getResizeCount());
+        map.setStatsEnabled(false);
+        stats = map.getStats();
+        assertEquals(0L, stats.getResizeCount());
+        assertEquals(0L, stats.getTreeifyCount());
+        map.put(-1, -1);
+        map.setStatsEnabled(true);
+        assertEquals(0L, map.getStats().getResizeCount());
+    }
+
+    /**
+     * Statistics gathered while several threads update the map
+     * report any contended count updates needed to create counter
+     * cells
+     */
+    public void testStatsConcurrent() throws Throwable {
+        final ConcurrentHashMap<Integer, Integer> map = new ConcurrentHashMap<>();
+        map.setStatsEnabled(true);
+        final int nThreads = 4, perThread = 20000;
+        Thread[] threads = new Thread[nThreads];
+        for (int t = 0; t < nThreads; ++t) {
+            final int base = t * perThread;
+            threads[t] = newStartedThread(new CheckedRunnable() {
+                public void realRun() {
+                    for (int i = base; i < base + perThread; ++i) {
+                        map.put(i, i);
+                        map.merge(i % 16, 1, Integer::sum);
+                    }
+                }});
+        }
+        for (Thread thread : threads)
+            awaitTermination(thread);
+        ConcurrentHashMap.Stats stats = map.getStats();
+        assertTrue(stats.getResizeCount() > 0L);
+        assertTrue(stats.getRevalidationRetryCount() >= 0L);
+        if (stats.getCounterCellCount() > 0)
+            assertTrue(stats.getContendedCountUpdates() > 0L);
+        assertEquals(nThreads * perThread, map.size());
+    }
+
+    /**
+     * Returns 2^k distinct Strings with equal hash codes.
+     */
+    private static String[] collidingStrings(int k) {
+        String[] a = { "" };
+        for (int j = 0; j < k; ++j) {
+            String[] b = new String[a.length * 2];
+            for (int i = 0; i < a.length; ++i) {
+                b[2 * i] = a[i] + "Aa";
+                b[2 * i + 1] = a[i] + "BB";
+            }
+            a = b;
+        }
+        return a;
+    }
+
+    /**
+     * A seeded map supports the usual operations, and deserializes
+     * as an equal map
+     */
+    public void testSeededHashMap() throws Exception {
+        ConcurrentHashMap<Object, Integer> map =
+            ConcurrentHashMap.newSeededHashMap(0);
+        for (int i = 0; i < SIZE; ++i) {
+            assertNull(map.put(i, i));
+            assertNull(map.put(String.valueOf(i), i));
+        }
+        assertEquals(2 * SIZE, map.size());
+        for (int i = 0; i < SIZE; ++i) {
+            assertEquals((Integer) i, map.get(i));
+            assertEquals((Integer) i, map.get(String.valueOf(i)));
+        }
+        assertEquals((Integer) 1, map.merge(zero, 1, Integer::sum));
+        assertEquals((Integer) 0, map.remove("0"));
+        assertNull(map.get("0"));
+        assertEquals((Integer) 7, map.computeIfAbsent("x", k -> 7));
+        assertEquals(map, new HashMap<Object, Integer>(map));
+        assertEquals(map, serialClone(map));
+        assertEquals(2 * SIZE, map.snapshot().size());
+        assertThrows(IllegalArgumentException.class,
+                     () -> ConcurrentHashMap.newSeededHashMap(-1));
+    }
+
+    /**
+     * Strings with equal hash codes collide in a map constructed in
+     * the usual way, but not in a seeded map
+     */
+    public void testSeededHashMapStringCollisions() {
+        String[] keys = collidingStrings(8);
+        ConcurrentHashMap<String, String> plain = new ConcurrentHashMap<>();
+        ConcurrentHashMap<String, String> seeded =
+            ConcurrentHashMap.newSeededHashMap(0);
+        plain.setStatsEnabled(true);
+        seeded.setStatsEnabled(true);
+        for (String k : keys) {
+            plain.put(k, k);
+            seeded.put(k, k);
+        }
+        assertTrue(plain.getStats().getTreeifyCount() > 0L);
+        assertEquals(0L, seeded.getStats().getTreeifyCount());
+        assertEquals(keys.length, seeded.size());
+        for (String k : keys)
+            assertSame(k, seeded.get(k));
+    }
+
+    //--- tests of implementation details; not part of official tck ---
+
+    /**
+     * Returns the current table length of a map.
+     */
+    static int tableLength(ConcurrentHashMap<?,?> map) throws Exception {
+        java.lang.reflect.Field f =
+            ConcurrentHashMap.class.getDeclaredField("table");
+        f.setAccessible(true);
+        return ((Object[]) f.get(map)).length;
+    }
+
+    /**
+     * Returns the hash of a key under the map's current hash seed.
+     */
+    static int seededHash(ConcurrentHashMap<?,?> map, Object key)
+        throws Exception {
+        java.lang.reflect.Method m =
+            ConcurrentHashMap.class.getDeclaredMethod("hash", Object.class);
+        m.setAccessible(true);
+        return (Integer) m.invoke(map, key);
+    }
+
+    /**
+     * Returns n Integer keys with distinct hashes all falling in the
+     * same bin of the given seeded map, and not in the given set.
+     */
+    static Integer[] collidingKeys(ConcurrentHashMap<Integer,?> map, int n,
+                                   Set<Integer> exclude) throws Exception {
+        int mask = tableLength(map) - 1;
+        Integer[] keys = new Integer[n];
+        Set<Integer> hashes = new HashSet<>();
+        int target = -1;
+        for (int k = 0, c = 0; c < n; ++k) {
+            int h = seededHash(map, k);
+            if (exclude.contains(k) || !hashes.add(h))
+                continue;
+            if (target < 0)
+                target = h & mask;
+            if ((h & mask) == target)
+                keys[c++] = k;
+        }
+        return keys;
+    }
+
+    /**
+     * A seeded map rehashes with a new seed upon accumulating too many
+     * distinct hashes in a bin, but only once per table length
+     */
+    public void testSeededHashMapRehash() throws Exception {
+        if (!testImplementationDetails) return;
+        ConcurrentHashMap<Integer, Integer> map =
+            ConcurrentHashMap.newSeededHashMap(32);
+        map.setStatsEnabled(true);
+        map.put(-1, -1);                // force table allocation
+        map.remove(-1);
+        assertEquals(64, tableLength(map));
+        Set<Integer> added = new HashSet<>();
+        for (Integer k : collidingKeys(map, 9, added)) {
+            map.put(k, k);
+            added.add(k);
+        }
+        assertEquals(1L, map.getStats().getRehashCount());
+        assertEquals(0L, map.getStats().getTreeifyCount());
+        assertEquals(64, tableLength(map));
+        for (Integer k : collidingKeys(map, 9, added)) {
+            map.put(k, k);
+            added.add(k);
+        }
+        assertEquals(1L, map.getStats().getRehashCount());
+        assertEquals(1L, map.getStats().getTreeifyCount());
+        assertEquals(added.size(), map.size());
+        for (Integer k : added)
+            assertEquals(k, map.get(k));
+        assertEquals(added, map.keySet());
+    }
+
+    /**
+     * Retrievals, traversals, and updates by other threads all
+     * proceed correctly while a seeded map rehashes
+     */
+    public void testSeededHashMapConcurrentRehash() throws Throwable {
+        if (!testImplementationDetails) return;
+        final ConcurrentHashMap<Integer, Integer> map =
+            ConcurrentHashMap.newSeededHashMap(2000);
+        map.setStatsEnabled(true);
+        final int n = 1000;
+        for (int i = 0; i < n; ++i)
+            map.put(i, i);
+        int len = tableLength(map);
+        Set<Integer> existing = new HashSet<>(map.keySet());
+        Integer[] colliding = collidingKeys(map, 9, existing);
+        final AtomicBoolean done = new AtomicBoolean();
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; ++t) {
+            final int id = t;
+            threads[t] = newStartedThread(new CheckedRunnable() {
+                public void realRun() {
+                    do {
+                        for (int i = id; i < n; i += 4) {
+                            if ((id & 1) == 0)
+                                assertEquals((Integer) i, map.get(i));
+                            else
+                                assertEquals((Integer) i,
+                                             map.merge(i, 0, Integer::sum));
+                        }
+                        if (id == 0) {
+                            int c = 0;
+                            for (Integer k : map.keySet())
+                                if (k < n) ++c;
+                            assertEquals(n, c);
+                        }
+                    } while (!done.get());
+                }});
+        }
+        for (Integer k : colliding)
+            map.put(k, k);
+        done.set(true);
+        for (Thread thread : threads)
+            awaitTermination(thread);
+        assertEquals(1L, map.getStats().getRehashCount());
+        assertEquals(len, tableLength(map));
+        assertEquals(n + colliding.length, map.size());
+        for (int i = 0; i < n; ++i)
+            assertEquals((Integer) i, map.get(i));
+        for (Integer k : colliding)
+            assertEquals(k, map.get(k));
+    }
+
+    /**
+     * A retrieval that read the table before a rehash completed, but
+     * the hash seed after, still finds every key
+     */
+    public void testSeededHashMapStaleTableGet() throws Exception {
+        if (!testImplementationDetails) return;
+        ConcurrentHashMap<Integer, Integer> map =
+            ConcurrentHashMap.newSeededHashMap(32);
+        Set<Integer> added = new HashSet<>();
+        for (int i = 0; i < 16; ++i) {
+            map.put(i, i);
+            added.add(i);
+        }
+        java.lang.reflect.Field tf =
+            ConcurrentHashMap.class.getDeclaredField("table");
+        tf.setAccessible(true);
+        Object[] oldTab = (Object[]) tf.get(map);
+        for (Integer k : collidingKeys(map, 9, added)) {
+            map.put(k, k);
+            added.add(k);
+        }
+        assertNotSame(oldTab, tf.get(map));
+        java.lang.reflect.Method find =
+            Class.forName("java.util.concurrent.ConcurrentHashMap$Node")
+            .getDeclaredMethod("find", int.class, Object.class);
+        find.setAccessible(true);
+        int mask = oldTab.length - 1;
+        for (Integer k : added) {
+            Object bin = oldTab[seededHash(map, k) & mask];
+            assertNotNull(bin);
+            assertNotNull(find.invoke(bin, seededHash(map, k), k));
+        }
+    }
+
+    /**
+     * Retrievals by other threads find all keys while seeded maps
+     * rehash
+     */
+    public void testSeededHashMapGetDuringRehash() throws Throwable {
+        if (!testImplementationDetails) return;
+        final int n = 256;
+        final Integer[] keys = new Integer[n];
+        for (int i = 0; i < n; ++i)
+            keys[i] = i;
+        for (int round = 0; round < 20; ++round) {
+            final ConcurrentHashMap<Integer, Integer> map =
+                ConcurrentHashMap.newSeededHashMap(n);
+            map.setStatsEnabled(true);
+            for (Integer k : keys)
+                map.put(k, k);
+            Integer[] colliding =
+                collidingKeys(map, 9, new HashSet<>(map.keySet()));
+            final AtomicBoolean done = new AtomicBoolean();
+            final CountDownLatch started = new CountDownLatch(2);
+            Thread[] threads = new Thread[2];
+            for (int t = 0; t < threads.length; ++t) {
+                final boolean batch = (t & 1) != 0;
+                threads[t] = newStartedThread(new CheckedRunnable() {
+                    public void realRun() {
+                        Integer[] values = new Integer[n];
+                        started.countDown();
+                        do {
+                            if (batch)
+                                assertEquals(n, map.getAll(keys, values));
+                            else {
+                                for (Integer k : keys)
+                                    assertEquals(k, map.get(k));
+                            }
+                        } while (!done.get());
+                    }});
+            }
+            await(started);
+            for (Integer k : colliding)
+                map.put(k, k);
+            done.set(true);
+            for (Thread thread : threads)
+                awaitTermination(thread);
+            assertEquals(1L, map.getStats().getRehashCount());
+        }
+    }
+
+    /** A key class with a constant hash code */
+    static final class BadKey {
+        final int value;
+        BadKey(int value) { this.value = value; }
+        public boolean equals(Object x) {
+            return (x instanceof BadKey) && ((BadKey)x).value == value;
+        }
+        public int hashCode() { return 42; }
+    }
+}
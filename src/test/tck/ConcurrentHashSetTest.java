@@ -0,0 +1,298 @@
+/*
+ * Written by Doug Lea with assistance from members of JCP JSR-166
+ * Expert Group and released to the public domain, as explained at
+ * http://creativecommons.org/publicdomain/zero/1.0/
+ */
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashSet;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+
+import junit.framework.Test;
+import junit.framework.TestSuite;
+
+public class ConcurrentHashSetTest extends JSR166TestCase {
+    public static void main(String[] args) {
+        main(suite(), args);
+    }
+    public static Test suite() {
+        return new TestSuite(ConcurrentHashSetTest.class);
+    }
+
+    /**
+     * Returns a new set containing Integers 1-5.
+     */
+    private static ConcurrentHashSet<Integer> set5() {
+        ConcurrentHashSet<Integer> set = new ConcurrentHashSet<>();
+        assertTrue(set.isEmpty());
+        set.add(one);
+        set.add(two);
+        set.add(three);
+        set.add(four);
+        set.add(five);
+        assertFalse(set.isEmpty());
+        assertEquals(5, set.size());
+        return set;
+    }
+
+    /**
+     * Returns a new set containing Longs 0 to n-1.
+     */
+    private static ConcurrentHashSet<Long> longSet(int n) {
+        ConcurrentHashSet<Long> set = new ConcurrentHashSet<>();
+        for (long i = 0; i < n; ++i)
+            set.add(i);
+        return set;
+    }
+
+    /** A key class with a constant hash code */
+    static final class BadKey {
+        final int value;
+        BadKey(int value) { this.value = value; }
+        public boolean equals(Object x) {
+            return (x instanceof BadKey) && ((BadKey)x).value == value;
+        }
+        public int hashCode() { return 42; }
+    }
+
+    /**
+     * Constructors reject negative capacities and null collections,
+     * and the collection constructor adds all elements
+     */
+    public void testConstructors() {
+        assertThrows(IllegalArgumentException.class,
+                     () -> new ConcurrentHashSet<Integer>(-1));
+        assertThrows(NullPointerException.class,
+                     () -> new ConcurrentHashSet<Integer>(null));
+        assertThrows(NullPointerException.class,
+                     () -> new ConcurrentHashSet<Integer>(
+                         Arrays.asList(one, null)));
+        ConcurrentHashSet<Integer> set =
+            new ConcurrentHashSet<>(Arrays.asList(one, two, one));
+        assertEquals(2, set.size());
+        assertTrue(new ConcurrentHashSet<Integer>(100).isEmpty());
+    }
+
+    /**
+     * add returns true only if the element was not present
+     */
+    public void testAdd() {
+        ConcurrentHashSet<Integer> set = set5();
+        assertFalse(set.add(one));
+        assertEquals(5, set.size());
+        assertTrue(set.add(six));
+        assertEquals(6, set.size());
+        assertEquals(6L, set.mappingCount());
+    }
+
+    /**
+     * contains returns true only for present elements
+     */
+    public void testContains() {
+        ConcurrentHashSet<Integer> set = set5();
+        assertTrue(set.contains(one));
+        assertTrue(set.contains(five));
+        assertFalse(set.contains(zero));
+        assertFalse(set.contains(six));
+    }
+
+    /**
+     * remove removes only present elements
+     */
+    public void testRemove() {
+        ConcurrentHashSet<Integer> set = set5();
+        assertTrue(set.remove(three));
+        assertFalse(set.remove(three));
+        assertFalse(set.contains(three));
+        assertEquals(4, set.size());
+        assertTrue(set.add(three));
+        assertTrue(set.contains(three));
+    }
+
+    /**
+     * clear removes all elements
+     */
+    public void testClear() {
+        ConcurrentHashSet<Integer> set = set5();
+        set.clear();
+        assertTrue(set.isEmpty());
+        assertEquals(0, set.size());
+        assertFalse(set.contains(one));
+        assertFalse(set.iterator().hasNext());
+    }
+
+    /**
+     * Null elements are rejected
+     */
+    public void testNullPointerExceptions() {
+        ConcurrentHashSet<Integer> set = set5();
+        Runnable[] throwingActions = {
+            () -> set.add(null),
+            () -> set.contains(null),
+            () -> set.remove(null),
+            () -> set.forEach(null),
+            () -> set.forEach(1L, null),
+            () -> set.search(1L, null),
+            () -> set.reduce(1L, null),
+            () -> set.reduce(1L, null, (x, y) -> x),
+        };
+        assertThrows(NullPointerException.class, throwingActions);
+    }
+
+    /**
+     * Sets with the same elements are equal, also to other kinds of set
+     */
+    public void testEquals() {
+        ConcurrentHashSet<Integer> set1 = set5();
+        ConcurrentHashSet<Integer> set2 = set5();
+        assertEquals(set1, set2);
+        assertEquals(set1.hashCode(), set2.hashCode());
+        assertEquals(new HashSet<Integer>(set1), set2);
+        assertEquals(set2, new HashSet<Integer>(set1));
+        set1.remove(one);
+        assertFalse(set1.equals(set2));
+    }
+
+    /**
+     * The iterator returns each element once, and its remove method
+     * removes the last returned element
+     */
+    public void testIterator() {
+        ConcurrentHashSet<Integer> set = set5();
+        Set<Integer> seen = new HashSet<>();
+        for (Iterator<Integer> it = set.iterator(); it.hasNext(); ) {
+            Integer x = it.next();
+            assertTrue(seen.add(x));
+            if (x.equals(two))
+                it.remove();
+        }
+        assertEquals(5, seen.size());
+        assertEquals(4, set.size());
+        assertFalse(set.contains(two));
+        Iterator<Integer> it = new ConcurrentHashSet<Integer>().iterator();
+        assertFalse(it.hasNext());
+        try {
+            it.next();
+            shouldThrow();
+        } catch (NoSuchElementException success) {}
+        try {
+            it.remove();
+            shouldThrow();
+        } catch (IllegalStateException success) {}
+    }
+
+    /**
+     * Sequential and parallel streams traverse all elements
+     */
+    public void testSpliterator() {
+        ConcurrentHashSet<Long> set = longSet(SIZE * 10);
+        assertEquals(SIZE * 10, set.stream().count());
+        assertEquals(new HashSet<Long>(set),
+                     set.parallelStream().collect(Collectors.toSet()));
+    }
+
+    /**
+     * Many elements with colliding hash codes are all retained
+     */
+    public void testCollidingHashCodes() {
+        ConcurrentHashSet<BadKey> set = new ConcurrentHashSet<>();
+        int n = 200;
+        for (int i = 0; i < n; ++i)
+            assertTrue(set.add(new BadKey(i)));
+        assertEquals(n, set.size());
+        for (int i = 0; i < n; ++i)
+            assertTrue(set.contains(new BadKey(i)));
+        for (int i = 0; i < n; i += 2)
+            assertTrue(set.remove(new BadKey(i)));
+        for (int i = 0; i < n; ++i)
+            assertEquals(i % 2 != 0, set.contains(new BadKey(i)));
+    }
+
+    /**
+     * forEach visits all elements, sequentially or in parallel
+     */
+    public void testForEach() {
+        ConcurrentHashSet<Long> set = longSet(SIZE);
+        LongAdder adder = new LongAdder();
+        set.forEach(x -> adder.add(x.longValue()));
+        assertEquals(adder.sum(), SIZE * (SIZE - 1) / 2);
+        adder.reset();
+        set.forEach(1L, x -> adder.add(x.longValue()));
+        assertEquals(adder.sum(), SIZE * (SIZE - 1) / 2);
+    }
+
+    /**
+     * search returns a non-null result of the search function, or
+     * null if there is no such result
+     */
+    public void testSearch() {
+        ConcurrentHashSet<Long> set = longSet(SIZE);
+        assertEquals((Long)(SIZE / 2L),
+                     set.search(Long.MAX_VALUE,
+                                x -> x.longValue() == SIZE / 2 ? x : null));
+        assertEquals((Long)(SIZE / 2L),
+                     set.search(1L,
+                                x -> x.longValue() == SIZE / 2 ? x : null));
+        assertNull(set.search(1L, x -> x.longValue() < 0L ? x : null));
+    }
+
+    /**
+     * reduce accumulates across all elements, sequentially or in
+     * parallel, and returns null for an empty set
+     */
+    public void testReduce() {
+        ConcurrentHashSet<Long> set = longSet(SIZE);
+        Long expected = (long)(SIZE * (SIZE - 1) / 2);
+        assertEquals(expected, set.reduce(Long.MAX_VALUE, Long::sum));
+        assertEquals(expected, set.reduce(1L, Long::sum));
+        assertEquals(expected,
+                     set.reduce(1L, x -> x.longValue() >= 0L ? x : null,
+                                Long::sum));
+        assertEquals((Long)(SIZE - 1L), set.reduce(1L, Math::max));
+        assertNull(new ConcurrentHashSet<Long>().reduce(1L, Long::sum));
+    }
+
+    /**
+     * A deserialized/reserialized set equals original
+     */
+    public void testSerialization() throws Exception {
+        Set<Integer> x = set5();
+        Set<Integer> y = serialClone(x);
+        assertNotSame(x, y);
+        assertEquals(x.size(), y.size());
+        assertEquals(x, y);
+        assertEquals(y, x);
+    }
+
+    /**
+     * Concurrent insertions and removals by several threads, forcing
+     * repeated resizing, leave exactly the expected elements
+     */
+    public void testConcurrentAddRemove() throws Throwable {
+        final ConcurrentHashSet<Integer> set = new ConcurrentHashSet<>();
+        final int nThreads = 4, perThread = 20000;
+        Thread[] threads = new Thread[nThreads];
+        for (int t = 0; t < nThreads; ++t) {
+            final int base = t * perThread;
+            threads[t] = newStartedThread(new CheckedRunnable() {
+                public void realRun() {
+                    for (int i = base; i < base + perThread; ++i) {
+                        assertTrue(set.add(i));
+                        assertTrue(set.contains(i));
+                        if ((i & 1) == 0)
+                            assertTrue(set.remove(i));
+                    }
+                }});
+        }
+        for (Thread thread : threads)
+            awaitTermination(thread);
+        assertEquals(nThreads * perThread / 2, set.size());
+        for (int i = 0; i < nThreads * perThread; ++i)
+            assertEquals((i & 1) != 0, set.contains(i));
+    }
+}
@@ -0,0 +1,374 @@
+/*
+ * Written by Doug Lea with assistance from members of JCP JSR-166
+ * Expert Group and released to the public domain, as explained at
+ * http://creativecommons.org/publicdomain/zero/1.0/
+ */
+
+import java.util.concurrent.ConcurrentIntHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import junit.framework.Test;
+import junit.framework.TestSuite;
+
+public class ConcurrentIntHashMapTest extends JSR166TestCase {
+    public static void main(String[] args) {
+        main(suite(), args);
+    }
+    public static Test suite() {
+        return new TestSuite(ConcurrentIntHashMapTest.class);
+    }
+
+    /**
+     * Returns a new map from keys 1-5 to Strings "A"-"E".
+     */
+    private static ConcurrentIntHashMap<String> map5() {
+        ConcurrentIntHashMap<String> map = new ConcurrentIntHashMap<>(5);
+        assertTrue(map.isEmpty());
+        map.put(1, "A");
+        map.put(2, "B");
+        map.put(3, "C");
+        map.put(4, "D");
+        map.put(5, "E");
+        assertFalse(map.isEmpty());
+        assertEquals(5, map.size());
+        return map;
+    }
+
+    /**
+     * Returns a new map from 0 .. size-1 to their boxed values.
+     */
+    static ConcurrentIntHashMap<Integer> intMap(int size) {
+        ConcurrentIntHashMap<Integer> map = new ConcurrentIntHashMap<>();
+        for (int i = 0; i < size; ++i)
+            assertNull(map.put(i, i));
+        return map;
+    }
+
+    /**
+     * get returns the value for a present key, else null
+     */
+    public void testGet() {
+        ConcurrentIntHashMap<String> map = map5();
+        assertEquals("A", map.get(1));
+        assertNull(map.get(6));
+        assertNull(map.get(-1));
+    }
+
+    /**
+     * getOrDefault returns value if present, else default
+     */
+    public void testGetOrDefault() {
+        ConcurrentIntHashMap<String> map = map5();
+        assertEquals("A", map.getOrDefault(1, "Z"));
+        assertEquals("Z", map.getOrDefault(6, "Z"));
+    }
+
+    /**
+     * containsKey returns true for contained key
+     */
+    public void testContainsKey() {
+        ConcurrentIntHashMap<String> map = map5();
+        assertTrue(map.containsKey(1));
+        assertFalse(map.containsKey(0));
+    }
+
+    /**
+     * containsValue returns true for held values
+     */
+    public void testContainsValue() {
+        ConcurrentIntHashMap<String> map = map5();
+        assertTrue(map.containsValue("A"));
+        assertFalse(map.containsValue("Z"));
+    }
+
+    /**
+     * put replaces and returns the previous value
+     */
+    public void testPut() {
+        ConcurrentIntHashMap<String> map = map5();
+        assertEquals("A", map.put(1, "Z"));
+        assertEquals("Z", map.get(1));
+        assertEquals(5, map.size());
+    }
+
+    /**
+     * putIfAbsent works when the given key is not present
+     */
+    public void testPutIfAbsent() {
+        ConcurrentIntHashMap<String> map = map5();
+        assertNull(map.putIfAbsent(6, "Z"));
+        assertTrue(map.containsKey(6));
+        assertEquals("Z", map.putIfAbsent(6, "Y"));
+        assertEquals("Z", map.get(6));
+    }
+
+    /**
+     * remove removes the correct key-value pair from the map
+     */
+    public void testRemove() {
+        ConcurrentIntHashMap<String> map = map5();
+        assertEquals("E", map.remove(5));
+        assertEquals(4, map.size());
+        assertFalse(map.containsKey(5));
+        assertNull(map.remove(5));
+    }
+
+    /**
+     * remove(key,value) removes only if pair present
+     */
+    public void testRemove2() {
+        ConcurrentIntHashMap<String> map = map5();
+        assertFalse(map.remove(4, "A"));
+        assertTrue(map.containsKey(4));
+        assertTrue(map.remove(4, "D"));
+        assertFalse(map.containsKey(4));
+    }
+
+    /**
+     * replace succeeds only if the key is present, and replace with
+     * an expected value succeeds only if it matches
+     */
+    public void testReplace() {
+        ConcurrentIntHashMap<String> map = map5();
+        assertNull(map.replace(6, "Z"));
+        assertFalse(map.containsKey(6));
+        assertEquals("A", map.replace(1, "Z"));
+        assertFalse(map.replace(1, "A", "Y"));
+        assertTrue(map.replace(1, "Z", "Y"));
+        assertEquals("Y", map.get(1));
+    }
+
+    /**
+     * clear removes all pairs
+     */
+    public void testClear() {
+        ConcurrentIntHashMap<String> map = map5();
+        map.clear();
+        assertEquals(0, map.size());
+        assertTrue(map.isEmpty());
+        assertNull(map.get(1));
+    }
+
+    /**
+     * computeIfAbsent adds when the given key is not present, and
+     * does not replace or add null values
+     */
+    public void testComputeIfAbsent() {
+        ConcurrentIntHashMap<String> map = map5();
+        assertEquals("Z", map.computeIfAbsent(6, (x) -> "Z"));
+        assertTrue(map.containsKey(6));
+        assertEquals("A", map.computeIfAbsent(1, (x) -> "Z"));
+        assertNull(map.computeIfAbsent(7, (x) -> null));
+        assertFalse(map.containsKey(7));
+    }
+
+    /**
+     * computeIfPresent changes or removes the value only if present
+     */
+    public void testComputeIfPresent() {
+        ConcurrentIntHashMap<String> map = map5();
+        assertNull(map.computeIfPresent(6, (x, y) -> "Z"));
+        assertFalse(map.containsKey(6));
+        assertEquals("Z", map.computeIfPresent(1, (x, y) -> "Z"));
+        assertNull(map.computeIfPresent(1, (x, y) -> null));
+        assertFalse(map.containsKey(1));
+        assertEquals(4, map.size());
+    }
+
+    /**
+     * compute adds, replaces or removes the mapping
+     */
+    public void testCompute() {
+        ConcurrentIntHashMap<String> map = map5();
+        assertEquals("Z", map.compute(6, (x, y) -> "Z"));
+        assertEquals("Y", map.compute(6, (x, y) -> "Y"));
+        assertNull(map.compute(6, (x, y) -> null));
+        assertFalse(map.containsKey(6));
+        assertNull(map.compute(7, (x, y) -> null));
+        assertEquals(5, map.size());
+    }
+
+    /**
+     * merge adds when absent, and combines or removes when present
+     */
+    public void testMerge() {
+        ConcurrentIntHashMap<String> map = map5();
+        assertEquals("Z", map.merge(6, "Z", (x, y) -> "Y"));
+        assertEquals("AB", map.merge(1, "B", (x, y) -> x + y));
+        assertNull(map.merge(1, "B", (x, y) -> null));
+        assertFalse(map.containsKey(1));
+    }
+
+    /**
+     * Null values are rejected
+     */
+    public void testNullValues() {
+        ConcurrentIntHashMap<String> map = map5();
+        Runnable[] throwingActions = {
+            () -> map.put(1, null),
+            () -> map.putIfAbsent(1, null),
+            () -> map.replace(1, null),
+            () -> map.replace(1, "A", null),
+            () -> map.replace(1, null, "A"),
+            () -> map.merge(1, null, (x, y) -> x),
+            () -> map.containsValue(null),
+        };
+        assertThrows(NullPointerException.class, throwingActions);
+    }
+
+    /**
+     * Negative and extreme keys are distinct, across resizes
+     */
+    public void testNegativeKeys() {
+        ConcurrentIntHashMap<Integer> map = new ConcurrentIntHashMap<>();
+        for (int i = 0; i < SIZE; ++i)
+            assertNull(map.put(-i - 1, i));
+        assertEquals(SIZE, map.size());
+        for (int i = 0; i < SIZE; ++i)
+            assertEquals(Integer.valueOf(i), map.get(-i - 1));
+        assertNull(map.get(0));
+        map.put(Integer.MIN_VALUE, Integer.MIN_VALUE);
+        map.put(Integer.MAX_VALUE, Integer.MAX_VALUE);
+        assertEquals(Integer.valueOf(Integer.MIN_VALUE), map.get(Integer.MIN_VALUE));
+        assertEquals(Integer.valueOf(Integer.MAX_VALUE), map.get(Integer.MAX_VALUE));
+    }
+
+    /**
+     * A map grows to hold many elements, all of which remain present
+     */
+    public void testManyElements() {
+        int n = 10000;
+        ConcurrentIntHashMap<Integer> map = intMap(n);
+        assertEquals(n, map.size());
+        assertEquals(n, map.mappingCount());
+        for (int i = 0; i < n; ++i)
+            assertTrue(map.containsKey(i));
+        for (int i = 0; i < n; i += 2)
+            assertEquals(Integer.valueOf(i), map.remove(i));
+        assertEquals(n / 2, map.size());
+    }
+
+    /**
+     * forEach traverses all mappings
+     */
+    public void testForEach() {
+        ConcurrentIntHashMap<Integer> map = intMap(SIZE);
+        LongAdder adder = new LongAdder();
+        map.forEach((x, y) -> { assertEquals(x, y.intValue()); adder.add(x); });
+        assertEquals(SIZE * (SIZE - 1) / 2, adder.sum());
+    }
+
+    /**
+     * Parallel forEach traverses all mappings
+     */
+    public void testForEachInParallel() {
+        ConcurrentIntHashMap<Integer> map = intMap(SIZE);
+        LongAdder adder = new LongAdder();
+        map.forEach(1, (x, y) -> adder.add(x + y.intValue()));
+        assertEquals(SIZE * (SIZE - 1), adder.sum());
+    }
+
+    /**
+     * forEachKey and forEachValue traverse all keys and values
+     */
+    public void testForEachKeyAndValueInParallel() {
+        ConcurrentIntHashMap<Integer> map = intMap(SIZE);
+        LongAdder adder = new LongAdder();
+        map.forEachKey(1, (x) -> adder.add(x));
+        assertEquals(SIZE * (SIZE - 1) / 2, adder.sum());
+        adder.reset();
+        map.forEachValue(1, (x) -> adder.add(x.intValue()));
+        assertEquals(SIZE * (SIZE - 1) / 2, adder.sum());
+    }
+
+    /**
+     * reduceKeys and reduceValues accumulate across all elements
+     */
+    public void testReduceInParallel() {
+        ConcurrentIntHashMap<Integer> map = intMap(SIZE);
+        assertEquals(SIZE * (SIZE - 1) / 2,
+                     map.reduceKeys(1, 0, Integer::sum));
+        assertEquals(Integer.valueOf(SIZE * (SIZE - 1) / 2),
+                     map.reduceValues(1, Integer::sum));
+        assertEquals(Integer.valueOf(SIZE * (SIZE - 1)),
+                     map.reduce(1, (x, y) -> x + y, Integer::sum));
+    }
+
+    /**
+     * reduce on an empty map returns null
+     */
+    public void testReduceEmpty() {
+        ConcurrentIntHashMap<Integer> map = new ConcurrentIntHashMap<>();
+        assertNull(map.reduceValues(1, Integer::sum));
+        assertNull(map.reduce(1, (x, y) -> x, Integer::sum));
+        assertEquals(17, map.reduceKeys(1, 17, Integer::sum));
+    }
+
+    /**
+     * search returns a non-null result of search function if present
+     */
+    public void testSearchInParallel() {
+        ConcurrentIntHashMap<Integer> map = intMap(SIZE);
+        Integer r = map.search(1, (x, y) -> x == SIZE / 2 ? y : null);
+        assertEquals(Integer.valueOf(SIZE / 2), r);
+        assertNull(map.search(1, (x, y) -> x < 0 ? y : null));
+    }
+
+    /**
+     * toString contains toString of elements
+     */
+    public void testToString() {
+        ConcurrentIntHashMap<String> map = map5();
+        String s = map.toString();
+        for (int i = 1; i <= 5; ++i)
+            assertTrue(s.contains(i + "=" + (char)('A' + i - 1)));
+        assertEquals("{}", new ConcurrentIntHashMap<String>().toString());
+    }
+
+    /**
+     * A deserialized/reserialized map holds the same mappings
+     */
+    public void testSerialization() throws Exception {
+        ConcurrentIntHashMap<String> x = map5();
+        ConcurrentIntHashMap<String> y = serialClone(x);
+        assertNotSame(x, y);
+        assertEquals(x.size(), y.size());
+        x.forEach((k, v) -> assertEquals(v, y.get(k)));
+    }
+
+    /**
+     * Concurrent insertions of disjoint keys are all retained
+     */
+    public void testConcurrentPuts() throws Throwable {
+        final ConcurrentIntHashMap<Integer> map = new ConcurrentIntHashMap<>();
+        final int nThreads = 4, perThread = 2000;
+        Thread[] threads = new Thread[nThreads];
+        for (int t = 0; t < nThreads; ++t) {
+            final int base = t * perThread;
+            threads[t] = newStartedThread(new CheckedRunnable() {
+                public void realRun() {
+                    for (int i = base; i < base + perThread; ++i)
+                        assertNull(map.put(i, i));
+                }});
+        }
+        for (Thread thread : threads)
+            awaitTermination(thread);
+        assertEquals(nThreads * perThread, map.size());
+        for (int i = 0; i < nThreads * perThread; ++i)
+            assertEquals(Integer.valueOf(i), map.get(i));
+    }
+
+    /**
+     * Keys differing only in high bits are spread across bins
+     */
+    public void testPatternedKeysSpread() throws Exception {
+        if (!testImplementationDetails) return;
+        java.lang.reflect.Method spread =
+            ConcurrentIntHashMap.class.getDeclaredMethod("spread", int.class);
+        spread.setAccessible(true);
+        java.util.Set<Integer> bins = new java.util.HashSet<>();
+        for (int x = 0; x < 1024; ++x)
+            bins.add((Integer) spread.invoke(null, x << 20) & 1023);
+        assertTrue(bins.size() > 512);
+    }
+}
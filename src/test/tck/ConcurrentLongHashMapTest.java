@@ -0,0 +1,376 @@
+/*
+ * Written by Doug Lea with assistance from members of JCP JSR-166
+ * Expert Group and released to the public domain, as explained at
+ * http://creativecommons.org/publicdomain/zero/1.0/
+ */
+
+import java.util.concurrent.ConcurrentLongHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import junit.framework.Test;
+import junit.framework.TestSuite;
+
+public class ConcurrentLongHashMapTest extends JSR166TestCase {
+    public static void main(String[] args) {
+        main(suite(), args);
+    }
+    public static Test suite() {
+        return new TestSuite(ConcurrentLongHashMapTest.class);
+    }
+
+    /**
+     * Returns a new map from keys 1-5 to Strings "A"-"E".
+     */
+    private static ConcurrentLongHashMap<String> map5() {
+        ConcurrentLongHashMap<String> map = new ConcurrentLongHashMap<>(5);
+        assertTrue(map.isEmpty());
+        map.put(1L, "A");
+        map.put(2L, "B");
+        map.put(3L, "C");
+        map.put(4L, "D");
+        map.put(5L, "E");
+        assertFalse(map.isEmpty());
+        assertEquals(5, map.size());
+        return map;
+    }
+
+    /**
+     * Returns a new map from 0 .. SIZE-1 to their boxed values,
+     * using keys that differ only in their upper 32 bits if wide.
+     */
+    static ConcurrentLongHashMap<Long> longMap(int size, boolean wide) {
+        ConcurrentLongHashMap<Long> map = new ConcurrentLongHashMap<>();
+        for (long i = 0; i < size; ++i) {
+            long k = wide ? (i << 32) : i;
+            assertNull(map.put(k, k));
+        }
+        return map;
+    }
+
+    /**
+     * get returns the value for a present key, else null
+     */
+    public void testGet() {
+        ConcurrentLongHashMap<String> map = map5();
+        assertEquals("A", map.get(1L));
+        assertNull(map.get(6L));
+        assertNull(map.get(-1L));
+    }
+
+    /**
+     * getOrDefault returns value if present, else default
+     */
+    public void testGetOrDefault() {
+        ConcurrentLongHashMap<String> map = map5();
+        assertEquals("A", map.getOrDefault(1L, "Z"));
+        assertEquals("Z", map.getOrDefault(6L, "Z"));
+    }
+
+    /**
+     * containsKey returns true for contained key
+     */
+    public void testContainsKey() {
+        ConcurrentLongHashMap<String> map = map5();
+        assertTrue(map.containsKey(1L));
+        assertFalse(map.containsKey(0L));
+    }
+
+    /**
+     * containsValue returns true for held values
+     */
+    public void testContainsValue() {
+        ConcurrentLongHashMap<String> map = map5();
+        assertTrue(map.containsValue("A"));
+        assertFalse(map.containsValue("Z"));
+    }
+
+    /**
+     * put replaces and returns the previous value
+     */
+    public void testPut() {
+        ConcurrentLongHashMap<String> map = map5();
+        assertEquals("A", map.put(1L, "Z"));
+        assertEquals("Z", map.get(1L));
+        assertEquals(5, map.size());
+    }
+
+    /**
+     * putIfAbsent works when the given key is not present
+     */
+    public void testPutIfAbsent() {
+        ConcurrentLongHashMap<String> map = map5();
+        assertNull(map.putIfAbsent(6L, "Z"));
+        assertTrue(map.containsKey(6L));
+        assertEquals("Z", map.putIfAbsent(6L, "Y"));
+        assertEquals("Z", map.get(6L));
+    }
+
+    /**
+     * remove removes the correct key-value pair from the map
+     */
+    public void testRemove() {
+        ConcurrentLongHashMap<String> map = map5();
+        assertEquals("E", map.remove(5L));
+        assertEquals(4, map.size());
+        assertFalse(map.containsKey(5L));
+        assertNull(map.remove(5L));
+    }
+
+    /**
+     * remove(key,value) removes only if pair present
+     */
+    public void testRemove2() {
+        ConcurrentLongHashMap<String> map = map5();
+        assertFalse(map.remove(4L, "A"));
+        assertTrue(map.containsKey(4L));
+        assertTrue(map.remove(4L, "D"));
+        assertFalse(map.containsKey(4L));
+    }
+
+    /**
+     * replace succeeds only if the key is present, and replace with
+     * an expected value succeeds only if it matches
+     */
+    public void testReplace() {
+        ConcurrentLongHashMap<String> map = map5();
+        assertNull(map.replace(6L, "Z"));
+        assertFalse(map.containsKey(6L));
+        assertEquals("A", map.replace(1L, "Z"));
+        assertFalse(map.replace(1L, "A", "Y"));
+        assertTrue(map.replace(1L, "Z", "Y"));
+        assertEquals("Y", map.get(1L));
+    }
+
+    /**
+     * clear removes all pairs
+     */
+    public void testClear() {
+        ConcurrentLongHashMap<String> map = map5();
+        map.clear();
+        assertEquals(0, map.size());
+        assertTrue(map.isEmpty());
+        assertNull(map.get(1L));
+    }
+
+    /**
+     * computeIfAbsent adds when the given key is not present, and
+     * does not replace or add null values
+     */
+    public void testComputeIfAbsent() {
+        ConcurrentLongHashMap<String> map = map5();
+        assertEquals("Z", map.computeIfAbsent(6L, (x) -> "Z"));
+        assertTrue(map.containsKey(6L));
+        assertEquals("A", map.computeIfAbsent(1L, (x) -> "Z"));
+        assertNull(map.computeIfAbsent(7L, (x) -> null));
+        assertFalse(map.containsKey(7L));
+    }
+
+    /**
+     * computeIfPresent changes or removes the value only if present
+     */
+    public void testComputeIfPresent() {
+        ConcurrentLongHashMap<String> map = map5();
+        assertNull(map.computeIfPresent(6L, (x, y) -> "Z"));
+        assertFalse(map.containsKey(6L));
+        assertEquals("Z", map.computeIfPresent(1L, (x, y) -> "Z"));
+        assertNull(map.computeIfPresent(1L, (x, y) -> null));
+        assertFalse(map.containsKey(1L));
+        assertEquals(4, map.size());
+    }
+
+    /**
+     * compute adds, replaces or removes the mapping
+     */
+    public void testCompute() {
+        ConcurrentLongHashMap<String> map = map5();
+        assertEquals("Z", map.compute(6L, (x, y) -> "Z"));
+        assertEquals("Y", map.compute(6L, (x, y) -> "Y"));
+        assertNull(map.compute(6L, (x, y) -> null));
+        assertFalse(map.containsKey(6L));
+        assertNull(map.compute(7L, (x, y) -> null));
+        assertEquals(5, map.size());
+    }
+
+    /**
+     * merge adds when absent, and combines or removes when present
+     */
+    public void testMerge() {
+        ConcurrentLongHashMap<String> map = map5();
+        assertEquals("Z", map.merge(6L, "Z", (x, y) -> "Y"));
+        assertEquals("AB", map.merge(1L, "B", (x, y) -> x + y));
+        assertNull(map.merge(1L, "B", (x, y) -> null));
+        assertFalse(map.containsKey(1L));
+    }
+
+    /**
+     * Null values are rejected
+     */
+    public void testNullValues() {
+        ConcurrentLongHashMap<String> map = map5();
+        Runnable[] throwingActions = {
+            () -> map.put(1L, null),
+            () -> map.putIfAbsent(1L, null),
+            () -> map.replace(1L, null),
+            () -> map.replace(1L, "A", null),
+            () -> map.replace(1L, null, "A"),
+            () -> map.merge(1L, null, (x, y) -> x),
+            () -> map.containsValue(null),
+        };
+        assertThrows(NullPointerException.class, throwingActions);
+    }
+
+    /**
+     * Keys differing only in their upper bits are distinct, across resizes
+     */
+    public void testWideKeys() {
+        ConcurrentLongHashMap<Long> map = longMap(SIZE, true);
+        assertEquals(SIZE, map.size());
+        for (long i = 0; i < SIZE; ++i)
+            assertEquals(Long.valueOf(i << 32), map.get(i << 32));
+        assertNull(map.get((long)SIZE << 32));
+        map.put(Long.MIN_VALUE, Long.MIN_VALUE);
+        map.put(Long.MAX_VALUE, Long.MAX_VALUE);
+        assertEquals(Long.valueOf(Long.MIN_VALUE), map.get(Long.MIN_VALUE));
+        assertEquals(Long.valueOf(Long.MAX_VALUE), map.get(Long.MAX_VALUE));
+    }
+
+    /**
+     * A map grows to hold many elements, all of which remain present
+     */
+    public void testManyElements() {
+        int n = 10000;
+        ConcurrentLongHashMap<Long> map = longMap(n, false);
+        assertEquals(n, map.size());
+        assertEquals(n, map.mappingCount());
+        for (long i = 0; i < n; ++i)
+            assertTrue(map.containsKey(i));
+        for (long i = 0; i < n; i += 2)
+            assertEquals(Long.valueOf(i), map.remove(i));
+        assertEquals(n / 2, map.size());
+    }
+
+    /**
+     * forEach traverses all mappings
+     */
+    public void testForEach() {
+        ConcurrentLongHashMap<Long> map = longMap(SIZE, false);
+        LongAdder adder = new LongAdder();
+        map.forEach((x, y) -> { assertEquals(x, y.longValue()); adder.add(x); });
+        assertEquals(SIZE * (SIZE - 1) / 2, adder.sum());
+    }
+
+    /**
+     * Parallel forEach traverses all mappings
+     */
+    public void testForEachInParallel() {
+        ConcurrentLongHashMap<Long> map = longMap(SIZE, false);
+        LongAdder adder = new LongAdder();
+        map.forEach(1L, (x, y) -> adder.add(x + y.longValue()));
+        assertEquals(SIZE * (SIZE - 1), adder.sum());
+    }
+
+    /**
+     * forEachKey and forEachValue traverse all keys and values
+     */
+    public void testForEachKeyAndValueInParallel() {
+        ConcurrentLongHashMap<Long> map = longMap(SIZE, false);
+        LongAdder adder = new LongAdder();
+        map.forEachKey(1L, (x) -> adder.add(x));
+        assertEquals(SIZE * (SIZE - 1) / 2, adder.sum());
+        adder.reset();
+        map.forEachValue(1L, (x) -> adder.add(x.longValue()));
+        assertEquals(SIZE * (SIZE - 1) / 2, adder.sum());
+    }
+
+    /**
+     * reduceKeys and reduceValues accumulate across all elements
+     */
+    public void testReduceInParallel() {
+        ConcurrentLongHashMap<Long> map = longMap(SIZE, false);
+        assertEquals(SIZE * (SIZE - 1) / 2,
+                     map.reduceKeys(1L, 0L, Long::sum));
+        assertEquals(Long.valueOf(SIZE * (SIZE - 1) / 2),
+                     map.reduceValues(1L, Long::sum));
+        assertEquals(Long.valueOf(SIZE * (SIZE - 1)),
+                     map.reduce(1L, (x, y) -> x + y, Long::sum));
+    }
+
+    /**
+     * reduce on an empty map returns null
+     */
+    public void testReduceEmpty() {
+        ConcurrentLongHashMap<Long> map = new ConcurrentLongHashMap<>();
+        assertNull(map.reduceValues(1L, Long::sum));
+        assertNull(map.reduce(1L, (x, y) -> x, Long::sum));
+        assertEquals(17L, map.reduceKeys(1L, 17L, Long::sum));
+    }
+
+    /**
+     * search returns a non-null result of search function if present
+     */
+    public void testSearchInParallel() {
+        ConcurrentLongHashMap<Long> map = longMap(SIZE, false);
+        Long r = map.search(1L, (x, y) -> x == SIZE / 2 ? y : null);
+        assertEquals(Long.valueOf(SIZE / 2), r);
+        assertNull(map.search(1L, (x, y) -> x < 0 ? y : null));
+    }
+
+    /**
+     * toString contains toString of elements
+     */
+    public void testToString() {
+        ConcurrentLongHashMap<String> map = map5();
+        String s = map.toString();
+        for (int i = 1; i <= 5; ++i)
+            assertTrue(s.contains(i + "=" + (char)('A' + i - 1)));
+        assertEquals("{}", new ConcurrentLongHashMap<String>().toString());
+    }
+
+    /**
+     * A deserialized/reserialized map holds the same mappings
+     */
+    public void testSerialization() throws Exception {
+        ConcurrentLongHashMap<String> x = map5();
+        ConcurrentLongHashMap<String> y = serialClone(x);
+        assertNotSame(x, y);
+        assertEquals(x.size(), y.size());
+        x.forEach((k, v) -> assertEquals(v, y.get(k)));
+    }
+
+    /**
+     * Concurrent insertions of disjoint keys are all retained
+     */
+    public void testConcurrentPuts() throws Throwable {
+        final ConcurrentLongHashMap<Long> map = new ConcurrentLongHashMap<>();
+        final int nThreads = 4, perThread = 2000;
+        Thread[] threads = new Thread[nThreads];
+        for (int t = 0; t < nThreads; ++t) {
+            final long base = (long)t * perThread;
+            threads[t] = newStartedThread(new CheckedRunnable() {
+                public void realRun() {
+                    for (long i = base; i < base + perThread; ++i)
+                        assertNull(map.put(i, i));
+                }});
+        }
+        for (Thread thread : threads)
+            awaitTermination(thread);
+        assertEquals(nThreads * perThread, map.size());
+        for (long i = 0; i < nThreads * perThread; ++i)
+            assertEquals(Long.valueOf(i), map.get(i));
+    }
+
+    /**
+     * Keys repeating their low half in their high half, which fold
+     * to the same Long.hashCode, are spread across bins
+     */
+    public void testPatternedKeysSpread() throws Exception {
+        if (!testImplementationDetails) return;
+        java.lang.reflect.Method spread =
+            ConcurrentLongHashMap.class.getDeclaredMethod("spread", long.class);
+        spread.setAccessible(true);
+        java.util.Set<Integer> bins = new java.util.HashSet<>();
+        for (long x = 0; x < 1024; ++x)
+            bins.add((Integer) spread.invoke(null, (x << 32) | x) & 1023);
+        assertTrue(bins.size() > 512);
+    }
+}
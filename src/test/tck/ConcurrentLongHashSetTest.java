@@ -0,0 +1,284 @@
+/*
+ * Written by Doug Lea with assistance from members of JCP JSR-166
+ * Expert Group and released to the public domain, as explained at
+ * http://creativecommons.org/publicdomain/zero/1.0/
+ */
+
+import java.util.HashSet;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLongHashSet;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.StreamSupport;
+
+import junit.framework.Test;
+import junit.framework.TestSuite;
+
+public class ConcurrentLongHashSetTest extends JSR166TestCase {
+    public static void main(String[] args) {
+        main(suite(), args);
+    }
+    public static Test suite() {
+        return new TestSuite(ConcurrentLongHashSetTest.class);
+    }
+
+    /**
+     * Returns a new set containing 1-5.
+     */
+    private static ConcurrentLongHashSet set5() {
+        ConcurrentLongHashSet set = new ConcurrentLongHashSet();
+        assertTrue(set.isEmpty());
+        set.add(1L);
+        set.add(2L);
+        set.add(3L);
+        set.add(4L);
+        set.add(5L);
+        assertFalse(set.isEmpty());
+        assertEquals(5, set.size());
+        return set;
+    }
+
+    /**
+     * Returns a new set containing 0 to n-1.
+     */
+    private static ConcurrentLongHashSet longSet(int n) {
+        ConcurrentLongHashSet set = new ConcurrentLongHashSet();
+        for (long i = 0; i < n; ++i)
+            set.add(i);
+        return set;
+    }
+
+    /**
+     * Constructor rejects negative capacity
+     */
+    public void testConstructor_IllegalArgumentException() {
+        assertThrows(IllegalArgumentException.class,
+                     () -> new ConcurrentLongHashSet(-1));
+        assertTrue(new ConcurrentLongHashSet(100).isEmpty());
+    }
+
+    /**
+     * add returns true only if the element was not present
+     */
+    public void testAdd() {
+        ConcurrentLongHashSet set = set5();
+        assertFalse(set.add(1L));
+        assertTrue(set.add(0L));
+        assertTrue(set.add(-1L));
+        assertTrue(set.add(Long.MIN_VALUE));
+        assertEquals(8, set.size());
+        assertEquals(8L, set.mappingCount());
+    }
+
+    /**
+     * contains returns true only for present elements, including
+     * those whose hash codes collide
+     */
+    public void testContains() {
+        ConcurrentLongHashSet set = set5();
+        assertTrue(set.contains(1L));
+        assertFalse(set.contains(6L));
+        // 1L << 32 and 1L have equal Long.hashCode values
+        long a = 1L << 32, b = 1L;
+        assertEquals(Long.hashCode(a), Long.hashCode(b));
+        assertFalse(set.contains(a));
+        assertTrue(set.add(a));
+        assertTrue(set.contains(a));
+        assertTrue(set.contains(b));
+    }
+
+    /**
+     * remove removes only present elements
+     */
+    public void testRemove() {
+        ConcurrentLongHashSet set = set5();
+        assertTrue(set.remove(3L));
+        assertFalse(set.remove(3L));
+        assertFalse(set.contains(3L));
+        assertEquals(4, set.size());
+        assertTrue(set.add(3L));
+        assertTrue(set.contains(3L));
+    }
+
+    /**
+     * clear removes all elements
+     */
+    public void testClear() {
+        ConcurrentLongHashSet set = set5();
+        set.clear();
+        assertTrue(set.isEmpty());
+        assertEquals(0, set.size());
+        assertFalse(set.contains(1L));
+        assertFalse(set.iterator().hasNext());
+    }
+
+    /**
+     * Null actions and functions are rejected
+     */
+    public void testNullPointerExceptions() {
+        ConcurrentLongHashSet set = set5();
+        Runnable[] throwingActions = {
+            () -> set.forEach(null),
+            () -> set.forEach(1L, null),
+            () -> set.search(1L, null),
+            () -> set.reduce(1L, null, (x, y) -> x),
+            () -> set.reduceToLong(1L, 0L, null),
+        };
+        assertThrows(NullPointerException.class, throwingActions);
+    }
+
+    /**
+     * The iterator returns each element once, and its remove method
+     * removes the last returned element
+     */
+    public void testIterator() {
+        ConcurrentLongHashSet set = set5();
+        Set<Long> seen = new HashSet<>();
+        for (PrimitiveIterator.OfLong it = set.iterator(); it.hasNext(); ) {
+            long x = it.nextLong();
+            assertTrue(seen.add(x));
+            if (x == 2L)
+                it.remove();
+        }
+        assertEquals(5, seen.size());
+        assertEquals(4, set.size());
+        assertFalse(set.contains(2L));
+        PrimitiveIterator.OfLong it = new ConcurrentLongHashSet().iterator();
+        assertFalse(it.hasNext());
+        try {
+            it.nextLong();
+            shouldThrow();
+        } catch (NoSuchElementException success) {}
+        try {
+            it.remove();
+            shouldThrow();
+        } catch (IllegalStateException success) {}
+    }
+
+    /**
+     * Sequential and parallel streams from the spliterator traverse
+     * all elements
+     */
+    public void testSpliterator() {
+        ConcurrentLongHashSet set = longSet(SIZE * 10);
+        long expected = SIZE * 10L * (SIZE * 10L - 1) / 2;
+        assertEquals(expected,
+                     StreamSupport.longStream(set.spliterator(), false).sum());
+        assertEquals(expected,
+                     StreamSupport.longStream(set.spliterator(), true).sum());
+        assertEquals(SIZE * 10,
+                     StreamSupport.longStream(set.spliterator(), true)
+                     .distinct().count());
+    }
+
+    /**
+     * toString contains all elements
+     */
+    public void testToString() {
+        ConcurrentLongHashSet set = set5();
+        String s = set.toString();
+        assertTrue(s.startsWith("[") && s.endsWith("]"));
+        for (long i = 1; i <= 5; ++i)
+            assertTrue(s.contains(String.valueOf(i)));
+        assertEquals("[]", new ConcurrentLongHashSet().toString());
+    }
+
+    /**
+     * forEach visits all elements, sequentially or in parallel
+     */
+    public void testForEach() {
+        ConcurrentLongHashSet set = longSet(SIZE);
+        LongAdder adder = new LongAdder();
+        set.forEach(x -> adder.add(x));
+        assertEquals(adder.sum(), SIZE * (SIZE - 1) / 2);
+        adder.reset();
+        set.forEach(1L, x -> adder.add(x));
+        assertEquals(adder.sum(), SIZE * (SIZE - 1) / 2);
+    }
+
+    /**
+     * search returns a non-null result of the search function, or
+     * null if there is no such result
+     */
+    public void testSearch() {
+        ConcurrentLongHashSet set = longSet(SIZE);
+        assertEquals((Long)(SIZE / 2L),
+                     set.search(Long.MAX_VALUE,
+                                x -> x == SIZE / 2 ? (Long) x : null));
+        assertEquals((Long)(SIZE / 2L),
+                     set.search(1L, x -> x == SIZE / 2 ? (Long) x : null));
+        assertNull(set.search(1L, x -> x < 0L ? (Long) x : null));
+    }
+
+    /**
+     * reduce and reduceToLong accumulate across all elements,
+     * sequentially or in parallel
+     */
+    public void testReduce() {
+        ConcurrentLongHashSet set = longSet(SIZE);
+        long expected = SIZE * (SIZE - 1) / 2;
+        assertEquals(expected, set.reduceToLong(Long.MAX_VALUE, 0L, Long::sum));
+        assertEquals(expected, set.reduceToLong(1L, 0L, Long::sum));
+        assertEquals((Long) expected,
+                     set.reduce(1L, x -> (Long) x, Long::sum));
+        assertEquals(SIZE - 1L, set.reduceToLong(1L, Long.MIN_VALUE, Math::max));
+        assertNull(new ConcurrentLongHashSet().reduce(1L, x -> (Long) x,
+                                                      Long::sum));
+    }
+
+    /**
+     * A deserialized/reserialized set has the same elements
+     */
+    public void testSerialization() throws Exception {
+        ConcurrentLongHashSet x = set5();
+        ConcurrentLongHashSet y = serialClone(x);
+        assertNotSame(x, y);
+        assertEquals(x.size(), y.size());
+        for (long i = 1; i <= 5; ++i)
+            assertTrue(y.contains(i));
+    }
+
+    /**
+     * Concurrent insertions and removals by several threads, forcing
+     * repeated resizing, leave exactly the expected elements
+     */
+    public void testConcurrentAddRemove() throws Throwable {
+        final ConcurrentLongHashSet set = new ConcurrentLongHashSet();
+        final int nThreads = 4, perThread = 20000;
+        Thread[] threads = new Thread[nThreads];
+        for (int t = 0; t < nThreads; ++t) {
+            final long base = (long)t * perThread;
+            threads[t] = newStartedThread(new CheckedRunnable() {
+                public void realRun() {
+                    for (long i = base; i < base + perThread; ++i) {
+                        assertTrue(set.add(i));
+                        assertTrue(set.contains(i));
+                        if ((i & 1L) == 0L)
+                            assertTrue(set.remove(i));
+                    }
+                }});
+        }
+        for (Thread thread : threads)
+            awaitTermination(thread);
+        assertEquals(nThreads * perThread / 2, set.size());
+        for (long i = 0; i < nThreads * perThread; ++i)
+            assertEquals((i & 1L) != 0L, set.contains(i));
+    }
+
+    /**
+     * Elements repeating their low half in their high half, which
+     * fold to the same Long.hashCode, are spread across bins
+     */
+    public void testPatternedElementsSpread() throws Exception {
+        if (!testImplementationDetails) return;
+        java.lang.reflect.Method spread =
+            ConcurrentLongHashSet.class.getDeclaredMethod("spread",
+                                                          long.class);
+        spread.setAccessible(true);
+        java.util.Set<Integer> bins = new java.util.HashSet<>();
+        for (long x = 0; x < 1024; ++x)
+            bins.add((Integer) spread.invoke(null, (x << 32) | x) & 1023);
+        assertTrue(bins.size() > 512);
+    }
+}
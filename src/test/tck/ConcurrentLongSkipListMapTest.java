@@ -0,0 +1,450 @@
+/*
+ * Written by Doug Lea with assistance from members of JCP JSR-166
+ * Expert Group and released to the public domain, as explained at
+ * http://creativecommons.org/publicdomain/zero/1.0/
+ */
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentLongSkipListMap;
+import java.util.concurrent.ConcurrentLongSkipListMap.LongEntry;
+
+import junit.framework.Test;
+import junit.framework.TestSuite;
+
+public class ConcurrentLongSkipListMapTest extends JSR166TestCase {
+    public static void main(String[] args) {
+        main(suite(), args);
+    }
+    public static Test suite() {
+        return new TestSuite(ConcurrentLongSkipListMapTest.class);
+    }
+
+    /**
+     * Returns a new map from keys 1-5 to Strings "A"-"E".
+     */
+    private static ConcurrentLongSkipListMap<String> map5() {
+        ConcurrentLongSkipListMap<String> map =
+            new ConcurrentLongSkipListMap<>();
+        assertTrue(map.isEmpty());
+        map.put(1L, "A");
+        map.put(5L, "E");
+        map.put(3L, "C");
+        map.put(2L, "B");
+        map.put(4L, "D");
+        assertFalse(map.isEmpty());
+        assertEquals(5, map.size());
+        return map;
+    }
+
+    /**
+     * Checks that the map and view contain the same mappings in the
+     * same order, using all traversal methods.
+     */
+    static void assertSameContents(NavigableMap<Long, String> expected,
+                                   ConcurrentLongSkipListMap<String> map) {
+        assertEquals(expected.size(), map.size());
+        assertEquals(expected.isEmpty(), map.isEmpty());
+        assertEquals(expected.toString(), map.toString());
+        Iterator<Map.Entry<Long, String>> it = expected.entrySet().iterator();
+        PrimitiveIterator.OfLong keys = map.keyIterator();
+        Iterator<LongEntry<String>> entries = map.entryIterator();
+        while (it.hasNext()) {
+            Map.Entry<Long, String> e = it.next();
+            assertEquals((long) e.getKey(), keys.nextLong());
+            LongEntry<String> f = entries.next();
+            assertEquals((long) e.getKey(), f.getKey());
+            assertEquals(e.getValue(), f.getValue());
+        }
+        assertFalse(keys.hasNext());
+        assertFalse(entries.hasNext());
+        StringBuilder sb = new StringBuilder();
+        map.forEach((k, v) -> sb.append(k).append(v));
+        StringBuilder eb = new StringBuilder();
+        expected.forEach((k, v) -> eb.append(k).append(v));
+        assertEquals(eb.toString(), sb.toString());
+        if (expected.isEmpty()) {
+            assertNull(map.firstEntry());
+            assertNull(map.lastEntry());
+        } else {
+            assertEquals((long) expected.firstKey(), map.firstKey());
+            assertEquals((long) expected.lastKey(), map.lastKey());
+        }
+    }
+
+    /**
+     * Returns a TreeMap with the same mappings as map5.
+     */
+    static TreeMap<Long, String> tree5() {
+        TreeMap<Long, String> t = new TreeMap<>();
+        for (long i = 1; i <= 5; ++i)
+            t.put(i, String.valueOf((char)('A' + i - 1)));
+        return t;
+    }
+
+    /**
+     * get returns the mapped value, or null if absent; put replaces
+     * and putIfAbsent does not
+     */
+    public void testGetPut() {
+        ConcurrentLongSkipListMap<String> map = map5();
+        assertEquals("A", map.get(1L));
+        assertNull(map.get(6L));
+        assertEquals("Z", map.getOrDefault(6L, "Z"));
+        assertTrue(map.containsKey(5L));
+        assertFalse(map.containsKey(0L));
+        assertTrue(map.containsValue("C"));
+        assertFalse(map.containsValue("Z"));
+        assertEquals("A", map.put(1L, "Z"));
+        assertEquals("Z", map.putIfAbsent(1L, "Y"));
+        assertNull(map.putIfAbsent(Long.MIN_VALUE, "min"));
+        assertNull(map.put(Long.MAX_VALUE, "max"));
+        assertEquals("min", map.get(Long.MIN_VALUE));
+        assertEquals("max", map.get(Long.MAX_VALUE));
+        assertEquals(7, map.size());
+        assertThrows(NullPointerException.class,
+                     () -> map.put(1L, null),
+                     () -> map.putIfAbsent(1L, null),
+                     () -> map.containsValue(null),
+                     () -> map.forEach(null));
+    }
+
+    /**
+     * remove, replace, and their conditional forms act only when
+     * their conditions hold
+     */
+    public void testRemoveReplace() {
+        ConcurrentLongSkipListMap<String> map = map5();
+        assertEquals("C", map.remove(3L));
+        assertNull(map.remove(3L));
+        assertFalse(map.remove(4L, "Z"));
+        assertTrue(map.remove(4L, "D"));
+        assertFalse(map.replace(1L, "Z", "Y"));
+        assertTrue(map.replace(1L, "A", "Y"));
+        assertEquals("Y", map.replace(1L, "X"));
+        assertNull(map.replace(3L, "X"));
+        assertEquals(3, map.size());
+        assertEquals("X", map.get(1L));
+        map.clear();
+        assertTrue(map.isEmpty());
+        assertNull(map.firstEntry());
+        assertNull(map.put(1L, "A"));
+        assertEquals(1, map.size());
+    }
+
+    /**
+     * compute methods add, replace, or remove mappings according to
+     * the function results
+     */
+    public void testCompute() {
+        ConcurrentLongSkipListMap<String> map = map5();
+        assertEquals("A", map.computeIfAbsent(1L, k -> "Z"));
+        assertEquals("6", map.computeIfAbsent(6L, k -> String.valueOf(k)));
+        assertNull(map.computeIfAbsent(7L, k -> null));
+        assertFalse(map.containsKey(7L));
+        assertEquals("A1", map.computeIfPresent(1L, (k, v) -> v + k));
+        assertNull(map.computeIfPresent(7L, (k, v) -> v + k));
+        assertNull(map.computeIfPresent(6L, (k, v) -> null));
+        assertFalse(map.containsKey(6L));
+        assertEquals("null7", map.compute(7L, (k, v) -> v + k));
+        assertNull(map.compute(7L, (k, v) -> null));
+        assertEquals("B", map.merge(8L, "B", String::concat));
+        assertEquals("BB", map.merge(8L, "B", String::concat));
+        assertNull(map.merge(8L, "B", (x, y) -> null));
+        assertEquals(5, map.size());
+    }
+
+    /**
+     * first, last, and poll methods return the extreme mappings
+     */
+    public void testFirstLast() {
+        ConcurrentLongSkipListMap<String> map = map5();
+        assertEquals(1L, map.firstKey());
+        assertEquals(5L, map.lastKey());
+        assertEquals("A", map.firstEntry().getValue());
+        assertEquals("E", map.lastEntry().getValue());
+        LongEntry<String> e = map.pollFirstEntry();
+        assertEquals(1L, e.getKey());
+        assertEquals("A", e.getValue());
+        e = map.pollLastEntry();
+        assertEquals(5L, e.getKey());
+        assertEquals("E", e.getValue());
+        assertEquals(3, map.size());
+        map.clear();
+        assertNull(map.pollFirstEntry());
+        assertNull(map.pollLastEntry());
+        assertThrows(NoSuchElementException.class,
+                     () -> map.firstKey(),
+                     () -> map.lastKey());
+    }
+
+    /**
+     * lower, floor, ceiling, and higher methods return the nearest
+     * mappings or the given absent value
+     */
+    public void testNavigation() {
+        ConcurrentLongSkipListMap<String> map = map5();
+        map.remove(3L);
+        assertEquals(2L, map.lowerKey(3L, -1L));
+        assertEquals(2L, map.floorKey(3L, -1L));
+        assertEquals(4L, map.ceilingKey(3L, -1L));
+        assertEquals(4L, map.higherKey(3L, -1L));
+        assertEquals(1L, map.lowerKey(2L, -1L));
+        assertEquals(2L, map.floorKey(2L, -1L));
+        assertEquals(2L, map.ceilingKey(2L, -1L));
+        assertEquals(4L, map.higherKey(2L, -1L));
+        assertEquals(-1L, map.lowerKey(1L, -1L));
+        assertEquals(-1L, map.higherKey(5L, -1L));
+        assertEquals(-1L, map.ceilingKey(Long.MAX_VALUE, -1L));
+        assertEquals(-1L, map.floorKey(Long.MIN_VALUE, -1L));
+        assertEquals("D", map.ceilingEntry(3L).getValue());
+        assertEquals("B", map.floorEntry(3L).getValue());
+        assertEquals("A", map.lowerEntry(2L).getValue());
+        assertEquals("E", map.higherEntry(4L).getValue());
+        assertNull(map.lowerEntry(1L));
+        assertNull(map.higherEntry(5L));
+        assertEquals(7L, new ConcurrentLongSkipListMap<String>()
+                     .ceilingKey(0L, 7L));
+    }
+
+    /**
+     * LongEntry equality and hash codes match those of Map.Entry
+     */
+    public void testLongEntry() {
+        ConcurrentLongSkipListMap<String> map = map5();
+        LongEntry<String> e = map.firstEntry();
+        assertEquals(e, map.ceilingEntry(1L));
+        assertFalse(e.equals(map.lastEntry()));
+        assertEquals(tree5().firstEntry().hashCode(), e.hashCode());
+        assertEquals("1=A", e.toString());
+    }
+
+    /**
+     * subMap, headMap, and tailMap views contain only keys in range,
+     * and reflect changes in the backing map
+     */
+    public void testRangeViews() {
+        ConcurrentLongSkipListMap<String> map = map5();
+        TreeMap<Long, String> t = tree5();
+        assertSameContents(t.subMap(2L, true, 4L, false),
+                           map.subMap(2L, 4L));
+        assertSameContents(t.subMap(2L, false, 4L, true),
+                           map.subMap(2L, false, 4L, true));
+        assertSameContents(t.headMap(3L, false), map.headMap(3L));
+        assertSameContents(t.headMap(3L, true), map.headMap(3L, true));
+        assertSameContents(t.tailMap(3L, true), map.tailMap(3L));
+        assertSameContents(t.tailMap(3L, false), map.tailMap(3L, false));
+        assertSameContents(t.subMap(3L, false, 3L, false),
+                           map.subMap(3L, false, 3L, false));
+        ConcurrentLongSkipListMap<String> sm = map.subMap(2L, true, 4L, true);
+        assertNull(sm.get(1L));
+        assertFalse(sm.containsKey(5L));
+        assertNull(sm.remove(5L));
+        assertEquals(-1L, sm.higherKey(4L, -1L));
+        assertEquals(2L, sm.ceilingKey(Long.MIN_VALUE, -1L));
+        assertEquals(4L, sm.floorKey(Long.MAX_VALUE, -1L));
+        assertEquals("B", sm.pollFirstEntry().getValue());
+        assertFalse(map.containsKey(2L));
+        assertEquals("D", sm.pollLastEntry().getValue());
+        assertEquals("C", sm.put(3L, "Z"));
+        assertEquals("Z", map.get(3L));
+        map.put(2L, "B");
+        assertEquals(2L, sm.firstKey());
+        sm.clear();
+        assertTrue(sm.isEmpty());
+        assertEquals(2, map.size());
+        assertSameContents(new TreeMap<Long, String>(),
+                           map.subMap(Long.MAX_VALUE, false,
+                                      Long.MAX_VALUE, true));
+        assertSameContents(new TreeMap<Long, String>(),
+                           map.headMap(Long.MIN_VALUE));
+    }
+
+    /**
+     * Views reject insertions outside their range, and nested views
+     * outside the enclosing range
+     */
+    public void testRangeViewExceptions() {
+        ConcurrentLongSkipListMap<String> map = map5();
+        ConcurrentLongSkipListMap<String> sm = map.subMap(2L, 4L);
+        assertThrows(IllegalArgumentException.class,
+                     () -> map.subMap(4L, 2L),
+                     () -> sm.put(4L, "X"),
+                     () -> sm.putIfAbsent(1L, "X"),
+                     () -> sm.computeIfAbsent(1L, k -> "X"),
+                     () -> sm.compute(5L, (k, v) -> "X"),
+                     () -> sm.merge(0L, "X", String::concat),
+                     () -> sm.subMap(1L, 3L),
+                     () -> sm.headMap(5L),
+                     () -> sm.tailMap(0L),
+                     () -> sm.descendingMap().subMap(2L, 3L));
+        assertEquals(1, sm.subMap(3L, true, 3L, true).size());
+        assertEquals(1, sm.headMap(4L).tailMap(3L).size());
+    }
+
+    /**
+     * Descending views traverse and navigate in reverse order
+     */
+    public void testDescendingMap() {
+        ConcurrentLongSkipListMap<String> map = map5();
+        TreeMap<Long, String> t = tree5();
+        ConcurrentLongSkipListMap<String> dm = map.descendingMap();
+        assertSameContents(t.descendingMap(), dm);
+        assertSameContents(t, dm.descendingMap());
+        assertEquals(5L, dm.firstKey());
+        assertEquals(1L, dm.lastKey());
+        assertEquals(4L, dm.higherKey(5L, -1L));
+        assertEquals(2L, dm.lowerKey(1L, -1L));
+        assertEquals(3L, dm.ceilingKey(3L, -1L));
+        assertEquals("E", dm.ceilingEntry(Long.MAX_VALUE).getValue());
+        assertNull(dm.ceilingEntry(0L));
+        assertSameContents(t.descendingMap().subMap(4L, true, 2L, false),
+                           dm.subMap(4L, 2L));
+        assertSameContents(t.descendingMap().headMap(3L, false),
+                           dm.headMap(3L));
+        assertSameContents(t.descendingMap().tailMap(3L, false),
+                           dm.tailMap(3L, false));
+        assertEquals("E", dm.pollFirstEntry().getValue());
+        assertEquals("A", dm.pollLastEntry().getValue());
+        assertEquals(3, map.size());
+        for (PrimitiveIterator.OfLong it = dm.keyIterator(); it.hasNext(); )
+            if (it.nextLong() == 3L)
+                it.remove();
+        assertFalse(map.containsKey(3L));
+        assertEquals(2, dm.size());
+    }
+
+    /**
+     * Iterators throw NoSuchElementException when exhausted and
+     * IllegalStateException on removal without a current element
+     */
+    public void testIteratorExceptions() {
+        ConcurrentLongSkipListMap<String> map =
+            new ConcurrentLongSkipListMap<>();
+        PrimitiveIterator.OfLong it = map.keyIterator();
+        assertFalse(it.hasNext());
+        try {
+            it.nextLong();
+            shouldThrow();
+        } catch (NoSuchElementException success) {}
+        try {
+            it.remove();
+            shouldThrow();
+        } catch (IllegalStateException success) {}
+        map.put(1L, "A");
+        Iterator<LongEntry<String>> entries = map.entryIterator();
+        assertEquals("A", entries.next().getValue());
+        entries.remove();
+        assertTrue(map.isEmpty());
+    }
+
+    /**
+     * A deserialized map has the same mappings, and deserialized
+     * views retain their range and direction
+     */
+    public void testSerialization() throws Exception {
+        ConcurrentLongSkipListMap<String> x = map5();
+        for (long i = 100; i < 1000; ++i)
+            x.put(i * 1000003L, "v" + i);
+        ConcurrentLongSkipListMap<String> y = serialClone(x);
+        assertNotSame(x, y);
+        assertEquals(x.toString(), y.toString());
+        assertEquals(x.size(), y.size());
+        assertEquals("v500", y.get(500L * 1000003L));
+        assertEquals(5L, y.floorKey(99L, -1L));
+        y.put(0L, "Z");
+        assertFalse(x.containsKey(0L));
+        ConcurrentLongSkipListMap<String> v =
+            serialClone(x.headMap(4L, true).descendingMap());
+        assertEquals("{4=D, 3=C, 2=B, 1=A}", v.toString());
+        assertThrows(IllegalArgumentException.class, () -> v.put(5L, "E"));
+    }
+
+    /**
+     * Random sequences of operations on the map and a view give the
+     * same results as on a TreeMap
+     */
+    public void testRandomOperations() {
+        Random rnd = new Random(42);
+        ConcurrentLongSkipListMap<String> map =
+            new ConcurrentLongSkipListMap<>();
+        TreeMap<Long, String> t = new TreeMap<>();
+        long lo = 200, hi = 800;
+        ConcurrentLongSkipListMap<String> sm = map.subMap(lo, hi);
+        NavigableMap<Long, String> st = t.subMap(lo, true, hi, false);
+        for (int i = 0; i < 20000; ++i) {
+            long k = rnd.nextInt(1000);
+            String v = String.valueOf(rnd.nextInt(100));
+            switch (rnd.nextInt(8)) {
+            case 0: case 1:
+                assertEquals(t.put(k, v), map.put(k, v));
+                break;
+            case 2:
+                assertEquals(t.remove(k), map.remove(k));
+                break;
+            case 3:
+                if (k >= lo && k < hi)
+                    assertEquals(st.put(k, v), sm.put(k, v));
+                break;
+            case 4:
+                Long c = t.ceilingKey(k), l = t.lowerKey(k);
+                assertEquals(c == null ? -1L : (long) c,
+                             map.ceilingKey(k, -1L));
+                assertEquals(l == null ? -1L : (long) l,
+                             map.lowerKey(k, -1L));
+                break;
+            case 5:
+                Long f = st.floorKey(k), h = st.higherKey(k);
+                assertEquals(f == null ? -1L : (long) f, sm.floorKey(k, -1L));
+                assertEquals(h == null ? -1L : (long) h, sm.higherKey(k, -1L));
+                break;
+            case 6:
+                assertEquals(st.remove(k), sm.remove(k));
+                break;
+            default:
+                assertEquals(t.get(k), map.get(k));
+            }
+        }
+        assertSameContents(t, map);
+        assertSameContents(st, sm);
+        assertSameContents(t.descendingMap(), map.descendingMap());
+    }
+
+    /**
+     * Concurrent insertions and removals by several threads leave
+     * exactly the expected mappings, in order
+     */
+    public void testConcurrentPutRemove() throws Throwable {
+        final ConcurrentLongSkipListMap<Long> map =
+            new ConcurrentLongSkipListMap<>();
+        final int nThreads = 4, perThread = 20000;
+        Thread[] threads = new Thread[nThreads];
+        for (int t = 0; t < nThreads; ++t) {
+            final long id = t;
+            threads[t] = newStartedThread(new CheckedRunnable() {
+                public void realRun() {
+                    for (long i = id; i < nThreads * perThread; i += nThreads) {
+                        assertNull(map.put(i, i));
+                        assertEquals((Long) i, map.get(i));
+                        assertEquals(i, map.ceilingKey(i, -1L));
+                        if ((i & 1L) == 0L)
+                            assertEquals((Long) i, map.remove(i));
+                    }
+                }});
+        }
+        for (Thread thread : threads)
+            awaitTermination(thread);
+        assertEquals(nThreads * perThread / 2, map.size());
+        long expected = 1L;
+        for (PrimitiveIterator.OfLong it = map.keyIterator(); it.hasNext();
+             expected += 2L)
+            assertEquals(expected, it.nextLong());
+        for (long i = 0; i < nThreads * perThread; ++i)
+            assertEquals((i & 1L) != 0L ? (Long) i : null, map.get(i));
+    }
+}
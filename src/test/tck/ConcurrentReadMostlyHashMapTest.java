@@ -0,0 +1,297 @@
+/*
+ * Written by Doug Lea with assistance from members of JCP JSR-166
+ * Expert Group and released to the public domain, as explained at
+ * http://creativecommons.org/publicdomain/zero/1.0/
+ */
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentReadMostlyHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import junit.framework.Test;
+import junit.framework.TestSuite;
+
+public class ConcurrentReadMostlyHashMapTest extends JSR166TestCase {
+    public static void main(String[] args) {
+        main(suite(), args);
+    }
+    public static Test suite() {
+        return new TestSuite(ConcurrentReadMostlyHashMapTest.class);
+    }
+
+    /**
+     * Returns a new map from Integers 1-5 to Strings "A"-"E".
+     */
+    private static ConcurrentReadMostlyHashMap<Integer, String> map5() {
+        ConcurrentReadMostlyHashMap<Integer, String> map =
+            new ConcurrentReadMostlyHashMap<>(5);
+        assertTrue(map.isEmpty());
+        map.put(one, "A");
+        map.put(two, "B");
+        map.put(three, "C");
+        map.put(four, "D");
+        map.put(five, "E");
+        assertFalse(map.isEmpty());
+        assertEquals(5, map.size());
+        return map;
+    }
+
+    /** A key class with a constant hash code */
+    static final class BadKey {
+        final int value;
+        BadKey(int value) { this.value = value; }
+        public boolean equals(Object x) {
+            return (x instanceof BadKey) && ((BadKey)x).value == value;
+        }
+        public int hashCode() { return 42; }
+    }
+
+    /**
+     * get returns the correct element, or null if not present
+     */
+    public void testGet() {
+        ConcurrentReadMostlyHashMap<Integer, String> map = map5();
+        assertEquals("A", map.get(one));
+        assertNull(map.get(six));
+    }
+
+    /**
+     * containsKey and containsValue report present mappings only
+     */
+    public void testContains() {
+        ConcurrentReadMostlyHashMap<Integer, String> map = map5();
+        assertTrue(map.containsKey(one));
+        assertFalse(map.containsKey(zero));
+        assertTrue(map.containsValue("A"));
+        assertFalse(map.containsValue("Z"));
+    }
+
+    /**
+     * put replaces an existing value and returns the previous one
+     */
+    public void testPut() {
+        ConcurrentReadMostlyHashMap<Integer, String> map = map5();
+        assertEquals("A", map.put(one, "Z"));
+        assertEquals("Z", map.get(one));
+        assertEquals(5, map.size());
+    }
+
+    /**
+     * putIfAbsent adds only if not already present
+     */
+    public void testPutIfAbsent() {
+        ConcurrentReadMostlyHashMap<Integer, String> map = map5();
+        assertNull(map.putIfAbsent(six, "Z"));
+        assertEquals("Z", map.putIfAbsent(six, "Y"));
+        assertEquals("A", map.putIfAbsent(one, "Y"));
+        assertEquals("Z", map.get(six));
+    }
+
+    /**
+     * replace succeeds only if present, and replace(k,v,v) only if
+     * the old value matches
+     */
+    public void testReplace() {
+        ConcurrentReadMostlyHashMap<Integer, String> map = map5();
+        assertNull(map.replace(six, "Z"));
+        assertFalse(map.containsKey(six));
+        assertEquals("A", map.replace(one, "Z"));
+        assertFalse(map.replace(one, "A", "Y"));
+        assertTrue(map.replace(one, "Z", "Y"));
+        assertEquals("Y", map.get(one));
+    }
+
+    /**
+     * remove removes the correct mapping, and a removed key may be
+     * re-added
+     */
+    public void testRemove() {
+        ConcurrentReadMostlyHashMap<Integer, String> map = map5();
+        assertEquals("E", map.remove(five));
+        assertEquals(4, map.size());
+        assertFalse(map.containsKey(five));
+        assertNull(map.remove(five));
+        assertFalse(map.remove(four, "A"));
+        assertTrue(map.remove(four, "D"));
+        assertEquals(3, map.size());
+        assertNull(map.put(five, "F"));
+        assertEquals("F", map.get(five));
+        assertEquals(4, map.size());
+    }
+
+    /**
+     * clear removes all pairs
+     */
+    public void testClear() {
+        ConcurrentReadMostlyHashMap<Integer, String> map = map5();
+        map.clear();
+        assertEquals(0, map.size());
+        assertTrue(map.isEmpty());
+        assertNull(map.get(one));
+    }
+
+    /**
+     * Maps with same contents are equal, to other kinds of maps too
+     */
+    public void testEquals() {
+        ConcurrentReadMostlyHashMap<Integer, String> map1 = map5();
+        ConcurrentReadMostlyHashMap<Integer, String> map2 = map5();
+        assertEquals(map1, map2);
+        assertEquals(new HashMap<Integer, String>(map1), map2);
+        assertEquals(map2, new HashMap<Integer, String>(map1));
+        assertEquals(map1.hashCode(), map2.hashCode());
+        map1.clear();
+        assertFalse(map1.equals(map2));
+    }
+
+    /**
+     * entrySet, keySet and values contain all elements, and entrySet
+     * iterator remove removes the mapping
+     */
+    public void testViews() {
+        ConcurrentReadMostlyHashMap<Integer, String> map = map5();
+        Set<Map.Entry<Integer, String>> es = map.entrySet();
+        assertEquals(5, es.size());
+        assertEquals(5, map.keySet().size());
+        assertTrue(map.keySet().contains(one));
+        assertTrue(map.values().contains("E"));
+        int n = 0;
+        for (Iterator<Map.Entry<Integer, String>> it = es.iterator();
+             it.hasNext(); ) {
+            Map.Entry<Integer, String> e = it.next();
+            assertEquals(e.getValue(), map.get(e.getKey()));
+            if (e.getKey().equals(three))
+                it.remove();
+            ++n;
+        }
+        assertEquals(5, n);
+        assertFalse(map.containsKey(three));
+        assertEquals(4, es.size());
+    }
+
+    /**
+     * SetValue of an EntrySet entry sets value in the map.
+     */
+    public void testSetValueWriteThrough() {
+        ConcurrentReadMostlyHashMap<Integer, String> map = map5();
+        for (Map.Entry<Integer, String> e : map.entrySet())
+            e.setValue(e.getValue() + "!");
+        assertEquals("A!", map.get(one));
+        assertEquals("E!", map.get(five));
+    }
+
+    /**
+     * Null keys and values are rejected
+     */
+    public void testNullPointerExceptions() {
+        ConcurrentReadMostlyHashMap<Integer, String> map = map5();
+        Runnable[] throwingActions = {
+            () -> map.get(null),
+            () -> map.containsKey(null),
+            () -> map.containsValue(null),
+            () -> map.put(null, "A"),
+            () -> map.put(one, null),
+            () -> map.putIfAbsent(one, null),
+            () -> map.replace(one, null),
+            () -> map.replace(one, "A", null),
+            () -> map.remove(null),
+            () -> map.remove(null, "A"),
+        };
+        assertThrows(NullPointerException.class, throwingActions);
+    }
+
+    /**
+     * The map grows and sheds removed keys while retaining all
+     * live mappings, including keys with colliding hash codes
+     */
+    public void testResize() {
+        ConcurrentReadMostlyHashMap<Object, Integer> map =
+            new ConcurrentReadMostlyHashMap<>();
+        int n = 5000;
+        for (int i = 0; i < n; ++i)
+            assertNull(map.put(i, i));
+        for (int i = 0; i < 20; ++i)
+            assertNull(map.put(new BadKey(i), i));
+        assertEquals(n + 20, map.size());
+        for (int i = 0; i < n; i += 2)
+            assertEquals((Integer) i, map.remove(i));
+        for (int i = 0; i < 4 * n; ++i) {   // churn to force cleanup
+            map.put(-i - 1, i);
+            map.remove(-i - 1);
+        }
+        assertEquals(n / 2 + 20, map.size());
+        for (int i = 0; i < n; ++i)
+            assertEquals(i % 2 != 0, map.containsKey(i));
+        for (int i = 0; i < 20; ++i)
+            assertEquals((Integer) i, map.get(new BadKey(i)));
+        int c = 0;
+        for (Object k : map.keySet())
+            ++c;
+        assertEquals(n / 2 + 20, c);
+    }
+
+    /**
+     * A deserialized/reserialized map equals original
+     */
+    public void testSerialization() throws Exception {
+        Map<Integer, String> x = map5();
+        Map<Integer, String> y = serialClone(x);
+        assertNotSame(x, y);
+        assertEquals(x.size(), y.size());
+        assertEquals(x, y);
+        assertEquals(y, x);
+    }
+
+    /**
+     * Readers always see a stable set of keys while other threads
+     * concurrently insert and remove enough transient keys to force
+     * repeated resizing
+     */
+    public void testConcurrentResize() throws Throwable {
+        final ConcurrentReadMostlyHashMap<Integer, Integer> map =
+            new ConcurrentReadMostlyHashMap<>();
+        final int stable = 256, perWriter = 20000, nWriters = 2, nReaders = 2;
+        for (int i = 0; i < stable; ++i)
+            map.put(i, i);
+        final AtomicBoolean done = new AtomicBoolean();
+        final CountDownLatch writersDone = new CountDownLatch(nWriters);
+        Thread[] threads = new Thread[nWriters + nReaders];
+        for (int w = 0; w < nWriters; ++w) {
+            final int base = stable + w * perWriter;
+            threads[w] = newStartedThread(new CheckedRunnable() {
+                public void realRun() {
+                    for (int i = base; i < base + perWriter; ++i) {
+                        assertNull(map.put(i, i));
+                        if ((i & 1) == 0)
+                            assertEquals((Integer) i, map.remove(i));
+                    }
+                    writersDone.countDown();
+                }});
+        }
+        for (int r = 0; r < nReaders; ++r) {
+            threads[nWriters + r] = newStartedThread(new CheckedRunnable() {
+                public void realRun() {
+                    ThreadLocalRandom rnd = ThreadLocalRandom.current();
+                    while (!done.get()) {
+                        int k = rnd.nextInt(stable);
+                        assertEquals((Integer) k, map.get(k));
+                    }
+                }});
+        }
+        await(writersDone);
+        done.set(true);
+        for (Thread thread : threads)
+            awaitTermination(thread);
+        assertEquals(stable + nWriters * perWriter / 2, map.size());
+        for (int w = 0; w < nWriters; ++w) {
+            int base = stable + w * perWriter;
+            for (int i = base; i < base + perWriter; ++i)
+                assertEquals((i & 1) != 0, map.containsKey(i));
+        }
+    }
+}
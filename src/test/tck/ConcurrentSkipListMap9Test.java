@@ -0,0 +1,555 @@
+/*
+ * Written by Doug Lea with assistance from members of JCP JSR-166
+ * Expert Group and released to the public domain, as explained at
+ * http://creativecommons.org/publicdomain/zero/1.0/
+ */
+
+import java.lang.reflect.Field;
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Spliterator;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
+
+import junit.framework.Test;
+import junit.framework.TestSuite;
+
+public class ConcurrentSkipListMap9Test extends JSR166TestCase {
+    public static void main(String[] args) {
+        main(suite(), args);
+    }
+    public static Test suite() {
+        return new TestSuite(ConcurrentSkipListMap9Test.class);
+    }
+
+    /**
+     * Returns a sized, splittable spliterator of mappings from each
+     * of the given keys to its negation.
+     */
+    static Spliterator<Map.Entry<Long, Long>> entries(LongStream keys) {
+        return keys.<Map.Entry<Long, Long>>mapToObj
+            (k -> new SimpleImmutableEntry<Long, Long>(k, -k)).spliterator();
+    }
+
+    /**
+     * Checks that the map has exactly the mappings of the TreeMap,
+     * and that navigation operations agree.
+     */
+    static void assertSameMappings(TreeMap<Long, Long> expected,
+                                   ConcurrentSkipListMap<Long, Long> map) {
+        assertEquals(expected.size(), map.size());
+        assertEquals(expected, map);
+        assertEquals(expected.keySet().toString(),
+                     map.keySet().toString());
+        if (!expected.isEmpty()) {
+            assertEquals(expected.firstKey(), map.firstKey());
+            assertEquals(expected.lastKey(), map.lastKey());
+        }
+        for (Long k : expected.keySet()) {
+            assertEquals(expected.get(k), map.get(k));
+            assertEquals(expected.higherKey(k), map.higherKey(k));
+            assertEquals(expected.lowerKey(k), map.lowerKey(k));
+        }
+    }
+
+    /**
+     * fromSorted creates a map with the given mappings, sequentially
+     * for small inputs and in parallel for large ones
+     */
+    public void testFromSorted() {
+        for (long n : new long[] { 0L, 1L, 100L, 100000L }) {
+            ConcurrentSkipListMap<Long, Long> map =
+                ConcurrentSkipListMap.fromSorted(null,
+                                                 entries(LongStream.range(0, n)));
+            TreeMap<Long, Long> expected = new TreeMap<>();
+            for (long i = 0; i < n; ++i)
+                expected.put(i, -i);
+            assertSameMappings(expected, map);
+            assertNull(map.comparator());
+        }
+    }
+
+    /**
+     * A map created by fromSorted with a comparator uses it, and
+     * supports subsequent updates
+     */
+    public void testFromSortedComparator() {
+        Comparator<Long> rev = Collections.reverseOrder();
+        ConcurrentSkipListMap<Long, Long> map =
+            ConcurrentSkipListMap.fromSorted
+            (rev, entries(LongStream.range(0, 50000).map(i -> 100000 - 2 * i)));
+        assertSame(rev, map.comparator());
+        assertEquals(50000, map.size());
+        assertEquals((Long) 100000L, map.firstKey());
+        assertEquals((Long) 2L, map.lastKey());
+        assertEquals((Long) 500L, map.ceilingKey(501L));
+        assertNull(map.put(501L, -501L));
+        assertEquals((Long) (-100000L), map.remove(100000L));
+        assertEquals((Long) 501L, map.ceilingKey(501L));
+        assertEquals((Long) 99998L, map.firstKey());
+        assertEquals(50000, map.size());
+    }
+
+    /**
+     * fromSorted rejects null arguments and mappings, and keys not in
+     * strictly ascending order, whether or not split in parallel
+     */
+    public void testFromSortedExceptions() {
+        Runnable[] npes = {
+            () -> ConcurrentSkipListMap.fromSorted(null, null),
+            () -> ConcurrentSkipListMap.fromSorted
+            (null, Arrays.asList(new SimpleImmutableEntry<Long, Long>(1L, null))
+             .spliterator()),
+        };
+        assertThrows(NullPointerException.class, npes);
+        Runnable[] iaes = {
+            () -> ConcurrentSkipListMap.fromSorted
+            (null, entries(LongStream.of(1L, 3L, 2L))),
+            () -> ConcurrentSkipListMap.fromSorted
+            (null, entries(LongStream.of(1L, 1L))),
+            () -> ConcurrentSkipListMap.fromSorted
+            (null, entries(LongStream.range(0, 100000)
+                           .map(i -> i == 50000 ? 0 : i))),
+            () -> ConcurrentSkipListMap.fromSorted
+            (null, entries(LongStream.range(0, 100000)
+                           .map(i -> i == 99999 ? 0 : i))),
+        };
+        assertThrows(IllegalArgumentException.class, iaes);
+    }
+
+    /**
+     * mergeSorted inserts absent mappings, and merges or removes
+     * present ones using the remapping function
+     */
+    public void testMergeSorted() {
+        ConcurrentSkipListMap<Long, Long> map = new ConcurrentSkipListMap<>();
+        TreeMap<Long, Long> expected = new TreeMap<>();
+        for (long i = 0; i < 10000; i += 3) {
+            map.put(i, i);
+            expected.put(i, i);
+        }
+        map.mergeSorted(entries(LongStream.range(0, 10000).filter(i -> i % 2 == 0)),
+                        (x, y) -> (x + y == 0) ? null : x + y);
+        for (long i = 0; i < 10000; i += 2)
+            expected.merge(i, -i, (x, y) -> (x + y == 0) ? null : x + y);
+        assertSameMappings(expected, map);
+        // a sparse run spanning many existing nodes
+        map.mergeSorted(entries(LongStream.range(0, 20).map(i -> i * 997 + 1)),
+                        Long::sum);
+        for (long i = 0; i < 20; ++i)
+            expected.merge(i * 997 + 1, -(i * 997 + 1), Long::sum);
+        assertSameMappings(expected, map);
+    }
+
+    /**
+     * mergeSorted gives the same results for keys not in ascending
+     * order
+     */
+    public void testMergeSortedUnordered() {
+        ConcurrentSkipListMap<Long, Long> map = new ConcurrentSkipListMap<>();
+        TreeMap<Long, Long> expected = new TreeMap<>();
+        long[] keys = { 5L, 3L, 9L, 3L, 1L, 7L, 5L, 2L };
+        map.mergeSorted(entries(Arrays.stream(keys)), Long::sum);
+        for (long k : keys)
+            expected.merge(k, -k, Long::sum);
+        assertSameMappings(expected, map);
+    }
+
+    /**
+     * mergeSorted rejects null arguments and mappings
+     */
+    public void testMergeSortedExceptions() {
+        ConcurrentSkipListMap<Long, Long> map = new ConcurrentSkipListMap<>();
+        Runnable[] npes = {
+            () -> map.mergeSorted(null, Long::sum),
+            () -> map.mergeSorted(entries(LongStream.of(1L)), null),
+            () -> map.mergeSorted
+            (Arrays.asList(new SimpleImmutableEntry<Long, Long>(null, 1L))
+             .spliterator(), Long::sum),
+        };
+        assertThrows(NullPointerException.class, npes);
+    }
+
+    /**
+     * Concurrent mergeSorted calls of overlapping runs, along with
+     * concurrent removals, leave the expected mappings
+     */
+    public void testMergeSortedConcurrent() throws Throwable {
+        final ConcurrentSkipListMap<Long, Long> map =
+            new ConcurrentSkipListMap<>();
+        final int nThreads = 4, n = 20000;
+        Thread[] threads = new Thread[nThreads + 1];
+        for (int t = 0; t < nThreads; ++t) {
+            threads[t] = newStartedThread(new CheckedRunnable() {
+                public void realRun() {
+                    map.mergeSorted(entries(LongStream.range(0, n)
+                                            .map(i -> 2 * i)),
+                                    Long::sum);
+                }});
+        }
+        threads[nThreads] = newStartedThread(new CheckedRunnable() {
+            public void realRun() {
+                for (long i = 1; i < 2 * n; i += 2) {
+                    map.put(i, i);
+                    assertEquals((Long) i, map.remove(i));
+                }
+            }});
+        for (Thread thread : threads)
+            awaitTermination(thread);
+        assertEquals(n, map.size());
+        for (long i = 0; i < n; ++i)
+            assertEquals((Long) (-2 * i * nThreads), map.get(2 * i));
+        assertEquals(LongStream.range(0, n).map(i -> 2 * i).boxed()
+                     .collect(Collectors.toList()),
+                     Arrays.asList(map.keySet().toArray()));
+    }
+
+    /**
+     * Checks that rank, select and size agree with the TreeMap.
+     */
+    static void assertSameRanks(TreeMap<Long, Long> expected,
+                                ConcurrentSkipListMap<Long, Long> map) {
+        assertEquals(expected.size(), map.size());
+        long i = 0;
+        for (Map.Entry<Long, Long> e : expected.entrySet()) {
+            long k = e.getKey();
+            assertEquals(i, map.rank(k));
+            assertEquals(i + 1, map.rank(k + 1));
+            assertEquals(e, map.select(i));
+            ++i;
+        }
+        assertNull(map.select(i));
+        assertEquals(0L, map.rank(Long.MIN_VALUE));
+        assertEquals(i, map.rank(Long.MAX_VALUE));
+    }
+
+    /**
+     * rank and select give positions in ascending key order, in both
+     * ranked and other maps
+     */
+    public void testRankSelect() {
+        for (ConcurrentSkipListMap<Long, Long> map :
+                 Arrays.<ConcurrentSkipListMap<Long, Long>>asList
+                 (new ConcurrentSkipListMap<Long, Long>(),
+                  ConcurrentSkipListMap.<Long, Long>newRankedMap(null))) {
+            assertEquals(0L, map.rank(1L));
+            assertNull(map.select(0L));
+            TreeMap<Long, Long> expected = new TreeMap<>();
+            for (long k = 0; k < 20000; k += 2) {
+                map.put(k, -k);
+                expected.put(k, -k);
+            }
+            assertSameRanks(expected, map);
+            assertEquals(5000L, map.rank(10000L));
+            assertEquals(5001L, map.rank(10001L));
+            assertEquals((Long) 10000L, map.select(5000L).getKey());
+            assertNull(map.select(Long.MAX_VALUE));
+        }
+    }
+
+    /**
+     * rank and select reject null keys and negative indices
+     */
+    public void testRankSelectExceptions() {
+        ConcurrentSkipListMap<Long, Long> map =
+            ConcurrentSkipListMap.newRankedMap(null);
+        map.put(1L, 1L);
+        assertThrows(NullPointerException.class, () -> map.rank(null));
+        assertThrows(IllegalArgumentException.class, () -> map.select(-1L));
+    }
+
+    /**
+     * Ranks remain exact after removals by all removal methods, and
+     * clearing
+     */
+    public void testRankedRemovals() {
+        ConcurrentSkipListMap<Long, Long> map =
+            ConcurrentSkipListMap.newRankedMap(Collections.reverseOrder());
+        assertNotNull(map.comparator());
+        TreeMap<Long, Long> expected = new TreeMap<>();
+        for (long k = 0; k < 10000; ++k) {
+            map.put(k, k);
+            expected.put(-k, -k);
+        }
+        ConcurrentSkipListMap<Long, Long> negated =
+            ConcurrentSkipListMap.newRankedMap(null);
+        map.forEach((k, v) -> negated.put(-k, -v));
+        for (long k = 0; k < 10000; k += 3) {
+            assertEquals((Long) k, map.remove(k));
+            assertEquals((Long) (-k), negated.remove(-k));
+            expected.remove(-k);
+        }
+        for (long k = 1; k < 10000; k += 7) {
+            map.computeIfPresent(k, (x, y) -> null);
+            negated.remove(-k, -k);
+            expected.remove(-k);
+        }
+        for (int i = 0; i < 100; ++i) {
+            map.pollFirstEntry();
+            map.pollLastEntry();
+            negated.pollFirstEntry();
+            negated.pollLastEntry();
+            expected.pollFirstEntry();
+            expected.pollLastEntry();
+        }
+        assertSameRanks(expected, negated);
+        assertEquals(expected.size(), map.size());
+        long i = 0;
+        for (Long k : expected.keySet()) {
+            assertEquals(-k, (long) map.select(i).getKey());
+            assertEquals(i, map.rank(-k));
+            ++i;
+        }
+        map.clear();
+        assertEquals(0, map.size());
+        assertEquals(0L, map.rank(1L));
+        map.put(1L, 1L);
+        assertEquals(1, map.size());
+        assertEquals((Long) 1L, map.select(0L).getKey());
+    }
+
+    /**
+     * Sizes of submaps of ranked maps agree with those of TreeMap
+     */
+    public void testRankedSubMapSize() {
+        ConcurrentSkipListMap<Long, Long> map =
+            ConcurrentSkipListMap.newRankedMap(null);
+        TreeMap<Long, Long> expected = new TreeMap<>();
+        ThreadLocalRandom rnd = ThreadLocalRandom.current();
+        for (int i = 0; i < 5000; ++i) {
+            long k = rnd.nextLong(10000);
+            map.put(k, k);
+            expected.put(k, k);
+        }
+        for (int i = 0; i < 200; ++i) {
+            long lo = rnd.nextLong(-10, 10010);
+            long hi = lo + rnd.nextLong(0, 2000);
+            boolean loInclusive = rnd.nextBoolean();
+            boolean hiInclusive = rnd.nextBoolean();
+            NavigableMap<Long, Long> e =
+                expected.subMap(lo, loInclusive, hi, hiInclusive);
+            ConcurrentNavigableMap<Long, Long> sm =
+                map.subMap(lo, loInclusive, hi, hiInclusive);
+            assertEquals(e.size(), sm.size());
+            assertEquals(e.size(), sm.descendingMap().size());
+            assertEquals(expected.headMap(hi, hiInclusive).size(),
+                         map.headMap(hi, hiInclusive).size());
+            assertEquals(expected.tailMap(lo, loInclusive).size(),
+                         map.tailMap(lo, loInclusive).size());
+        }
+        assertEquals(0, map.subMap(5L, false, 5L, false).size());
+    }
+
+    /**
+     * Clones and deserialized copies of ranked maps have exact ranks
+     */
+    public void testRankedCopies() throws Exception {
+        ConcurrentSkipListMap<Long, Long> map =
+            ConcurrentSkipListMap.newRankedMap(null);
+        TreeMap<Long, Long> expected = new TreeMap<>();
+        for (long k = 0; k < 3000; k += 3) {
+            map.put(k, k);
+            expected.put(k, k);
+        }
+        for (ConcurrentSkipListMap<Long, Long> copy :
+                 Arrays.<ConcurrentSkipListMap<Long, Long>>asList
+                 (map.clone(), serialClone(map))) {
+            assertSameRanks(expected, copy);
+            copy.put(1L, 1L);
+            copy.remove(0L);
+            assertEquals(0L, copy.rank(1L));
+            assertEquals(2L, copy.rank(4L));
+        }
+    }
+
+    /**
+     * The comparator and ranked property are serialized as declared
+     * fields, and preserved by deserialization
+     */
+    public void testRankedSerialization() throws Exception {
+        java.io.ObjectStreamClass desc =
+            java.io.ObjectStreamClass.lookup(ConcurrentSkipListMap.class);
+        assertEquals(2, desc.getFields().length);
+        assertSame(Boolean.TYPE, desc.getField("ranked").getType());
+        assertNotNull(desc.getField("comparator"));
+        Comparator<Long> cmp = Collections.reverseOrder();
+        for (boolean ranked : new boolean[] { false, true }) {
+            ConcurrentSkipListMap<Long, Long> map = ranked
+                ? ConcurrentSkipListMap.newRankedMap(cmp)
+                : new ConcurrentSkipListMap<Long, Long>(cmp);
+            for (long k = 0; k < 100; ++k)
+                map.put(k, k);
+            ConcurrentSkipListMap<Long, Long> copy = serialClone(map);
+            assertEquals(map, copy);
+            assertEquals(cmp, copy.comparator());
+            assertEquals(99L, copy.firstKey().longValue());
+            assertEquals(10L, copy.rank(89L));
+            if (testImplementationDetails) {
+                Field f =
+                    ConcurrentSkipListMap.class.getDeclaredField("ranked");
+                f.setAccessible(true);
+                assertEquals(ranked, f.getBoolean(copy));
+            }
+        }
+    }
+
+    /**
+     * Ranks are exact after concurrent insertions and removals, by
+     * several threads, of keys that are near each other
+     */
+    public void testRankedConcurrent() throws Throwable {
+        final ConcurrentSkipListMap<Long, Long> map =
+            ConcurrentSkipListMap.newRankedMap(null);
+        final int nThreads = 4, n = 20000;
+        Thread[] threads = new Thread[nThreads];
+        for (int t = 0; t < nThreads; ++t) {
+            final long base = t;
+            threads[t] = newStartedThread(new CheckedRunnable() {
+                public void realRun() {
+                    ThreadLocalRandom rnd = ThreadLocalRandom.current();
+                    for (long i = 0; i < n; ++i) {
+                        long k = i * nThreads + base;
+                        map.put(k, k);
+                        long r = rnd.nextLong(i + 1) * nThreads + base;
+                        if ((r & 4) != 0)
+                            map.remove(r);
+                        map.rank(k);
+                    }
+                }});
+        }
+        for (Thread thread : threads)
+            awaitTermination(thread);
+        TreeMap<Long, Long> expected = new TreeMap<>(map);
+        assertSameRanks(expected, map);
+        assertEquals(expected.size(), map.headMap(Long.MAX_VALUE).size());
+    }
+
+    /**
+     * Returns the number of nodes and index nodes reachable in the
+     * map that are markers or refer to deleted nodes.
+     */
+    static int deadNodes(ConcurrentSkipListMap<?, ?> map) throws Exception {
+        Field headField = ConcurrentSkipListMap.class.getDeclaredField("head");
+        headField.setAccessible(true);
+        Object h = headField.get(map);
+        Class<?> indexClass = h.getClass().getSuperclass();
+        Field nodeField = indexClass.getDeclaredField("node");
+        Field downField = indexClass.getDeclaredField("down");
+        Field rightField = indexClass.getDeclaredField("right");
+        nodeField.setAccessible(true);
+        downField.setAccessible(true);
+        rightField.setAccessible(true);
+        Object base = nodeField.get(h);
+        Class<?> nodeClass = base.getClass();
+        Field valueField = nodeClass.getDeclaredField("value");
+        Field nextField = nodeClass.getDeclaredField("next");
+        valueField.setAccessible(true);
+        nextField.setAccessible(true);
+        int dead = 0;
+        for (Object n = nextField.get(base); n != null; n = nextField.get(n)) {
+            Object v = valueField.get(n);
+            if (v == null || v == n)
+                ++dead;
+        }
+        for (Object q = h; q != null; q = downField.get(q)) {
+            for (Object r = rightField.get(q); r != null;
+                 r = rightField.get(r)) {
+                if (valueField.get(nodeField.get(r)) == null)
+                    ++dead;
+            }
+        }
+        return dead;
+    }
+
+    /**
+     * Clearing submaps with various bounds removes exactly the
+     * mappings in range, leaving no deleted nodes reachable
+     */
+    public void testSubMapClear() throws Exception {
+        for (boolean ranked : new boolean[] { false, true }) {
+            ConcurrentSkipListMap<Long, Long> map = ranked
+                ? ConcurrentSkipListMap.<Long, Long>newRankedMap(null)
+                : new ConcurrentSkipListMap<Long, Long>();
+            TreeMap<Long, Long> expected = new TreeMap<>();
+            for (long k = 0; k < 20000; k += 2) {
+                map.put(k, k);
+                expected.put(k, k);
+            }
+            map.subMap(1000L, true, 3000L, false).clear();
+            expected.subMap(1000L, true, 3000L, false).clear();
+            map.subMap(5000L, false, 5010L, true).clear();
+            expected.subMap(5000L, false, 5010L, true).clear();
+            map.subMap(7001L, 7003L).clear();
+            expected.subMap(7001L, 7003L).clear();
+            map.descendingMap().subMap(12000L, true, 11000L, true).clear();
+            expected.descendingMap().subMap(12000L, true, 11000L, true).clear();
+            map.headMap(500L).clear();
+            expected.headMap(500L).clear();
+            map.tailMap(19000L, false).keySet().clear();
+            expected.tailMap(19000L, false).keySet().clear();
+            assertSameMappings(expected, map);
+            if (ranked)
+                assertSameRanks(expected, map);
+            if (testImplementationDetails)
+                assertEquals(0, deadNodes(map));
+            map.subMap(0L, 100000L).clear();
+            assertTrue(map.isEmpty());
+            assertEquals(0, map.size());
+            map.put(1L, 1L);
+            assertEquals((Long) 1L, map.firstKey());
+            assertEquals((Long) 1L, map.lastKey());
+        }
+    }
+
+    /**
+     * Windows cleared while other threads update keys outside them
+     * leave exactly the expected mappings
+     */
+    public void testSubMapClearConcurrent() throws Throwable {
+        final ConcurrentSkipListMap<Long, Long> map =
+            ConcurrentSkipListMap.newRankedMap(null);
+        final int nThreads = 3, n = 1000, windows = 20;
+        for (long k = 0; k < n * windows; ++k)
+            map.put(k, k);
+        Thread[] threads = new Thread[nThreads + 1];
+        for (int t = 0; t < nThreads; ++t) {
+            final long base = t;
+            threads[t] = newStartedThread(new CheckedRunnable() {
+                public void realRun() {
+                    // odd windows are never cleared
+                    for (int i = 0; i < 5; ++i) {
+                        for (long w = 1; w < windows; w += 2) {
+                            for (long k = w * n + base; k < (w + 1) * n;
+                                 k += nThreads) {
+                                map.remove(k);
+                                map.put(k, -k);
+                            }
+                        }
+                    }
+                }});
+        }
+        threads[nThreads] = newStartedThread(new CheckedRunnable() {
+            public void realRun() {
+                for (long w = 0; w < windows; w += 2)
+                    map.subMap(w * n, (w + 1) * n).clear();
+            }});
+        for (Thread thread : threads)
+            awaitTermination(thread);
+        TreeMap<Long, Long> expected = new TreeMap<>();
+        for (long w = 1; w < windows; w += 2)
+            for (long k = w * n; k < (w + 1) * n; ++k)
+                expected.put(k, -k);
+        assertSameMappings(expected, map);
+        assertSameRanks(expected, map);
+        if (testImplementationDetails)
+            assertEquals(0, deadNodes(map));
+    }
+}
@@ -0,0 +1,346 @@
+/*
+ * Written by Doug Lea with assistance from members of JCP JSR-166
+ * Expert Group and released to the public domain, as explained at
+ * http://creativecommons.org/publicdomain/zero/1.0/
+ */
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentSkipListPriorityQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import junit.framework.Test;
+
+public class ConcurrentSkipListPriorityQueueTest extends JSR166TestCase {
+
+    public static class Relaxed extends BlockingQueueTest {
+        protected BlockingQueue emptyCollection() {
+            return new ConcurrentSkipListPriorityQueue();
+        }
+    }
+
+    public static class Strict extends BlockingQueueTest {
+        protected BlockingQueue emptyCollection() {
+            return new ConcurrentSkipListPriorityQueue(null, true);
+        }
+    }
+
+    public static void main(String[] args) {
+        main(suite(), args);
+    }
+
+    public static Test suite() {
+        return newTestSuite(ConcurrentSkipListPriorityQueueTest.class,
+                            new Relaxed().testSuite(),
+                            new Strict().testSuite());
+    }
+
+    /**
+     * Returns a new queue containing Integers 0 ... n - 1, inserted
+     * in scrambled order.
+     */
+    private static ConcurrentSkipListPriorityQueue<Integer> populatedQueue
+        (int n, boolean strict) {
+        ConcurrentSkipListPriorityQueue<Integer> q =
+            new ConcurrentSkipListPriorityQueue<Integer>(null, strict);
+        assertTrue(q.isEmpty());
+        for (int i = n - 1; i >= 0; i -= 2)
+            assertTrue(q.offer(new Integer(i)));
+        for (int i = (n & 1); i < n; i += 2)
+            assertTrue(q.offer(new Integer(i)));
+        assertFalse(q.isEmpty());
+        assertEquals(Integer.MAX_VALUE, q.remainingCapacity());
+        assertEquals(n, q.size());
+        return q;
+    }
+
+    /**
+     * Constructors record comparator and mode
+     */
+    public void testConstructors() {
+        ConcurrentSkipListPriorityQueue<Integer> q =
+            new ConcurrentSkipListPriorityQueue<Integer>();
+        assertNull(q.comparator());
+        assertFalse(q.isStrict());
+        assertTrue(q.isEmpty());
+        q = new ConcurrentSkipListPriorityQueue<Integer>
+            (Collections.reverseOrder());
+        assertNotNull(q.comparator());
+        assertFalse(q.isStrict());
+        q = new ConcurrentSkipListPriorityQueue<Integer>(null, true);
+        assertTrue(q.isStrict());
+        assertEquals(Integer.MAX_VALUE, q.remainingCapacity());
+    }
+
+    /**
+     * Null and non-comparable elements are rejected
+     */
+    public void testRejectedElements() {
+        ConcurrentSkipListPriorityQueue<Object> q =
+            new ConcurrentSkipListPriorityQueue<Object>();
+        assertThrows(NullPointerException.class,
+                     () -> q.offer(null),
+                     () -> q.add(null),
+                     () -> q.put(null));
+        assertThrows(ClassCastException.class,
+                     () -> q.offer(new Object()));
+        assertTrue(q.isEmpty());
+    }
+
+    /**
+     * A strict queue polls elements in ascending order, retaining
+     * duplicates
+     */
+    public void testStrictPollOrder() {
+        ConcurrentSkipListPriorityQueue<Integer> q = populatedQueue(SIZE, true);
+        for (int i = 0; i < SIZE; i += 3)
+            q.add(i);
+        assertEquals((Integer) 0, q.peek());
+        List<Integer> expected = new ArrayList<>();
+        for (int i = 0; i < SIZE; ++i) {
+            expected.add(i);
+            if (i % 3 == 0)
+                expected.add(i);
+        }
+        List<Integer> polled = new ArrayList<>();
+        for (Integer x; (x = q.poll()) != null; )
+            polled.add(x);
+        assertEquals(expected, polled);
+        assertNull(q.peek());
+        assertNull(q.poll());
+    }
+
+    /**
+     * A strict queue with a comparator uses it
+     */
+    public void testStrictComparator() {
+        ConcurrentSkipListPriorityQueue<Integer> q =
+            new ConcurrentSkipListPriorityQueue<Integer>
+            (Collections.reverseOrder(), true);
+        for (int i = 0; i < SIZE; ++i)
+            q.add(i);
+        for (int i = SIZE - 1; i >= 0; --i)
+            assertEquals((Integer) i, q.poll());
+    }
+
+    /**
+     * A relaxed queue polls each element exactly once, and tends to
+     * poll lesser elements first
+     */
+    public void testRelaxedPoll() {
+        int n = 10000;
+        ConcurrentSkipListPriorityQueue<Integer> q = populatedQueue(n, false);
+        Integer least = q.peek();
+        assertNotNull(least);
+        boolean[] seen = new boolean[n];
+        long firstSum = 0L;
+        for (int i = 0; i < n; ++i) {
+            int x = q.poll();
+            assertFalse(seen[x]);
+            seen[x] = true;
+            if (i < n / 2)
+                firstSum += x;
+        }
+        assertNull(q.poll());
+        assertTrue(q.isEmpty());
+        // about n*n/8 if polled in order, n*n/4 if in random order
+        assertTrue(firstSum < (long) n * n * 3 / 16);
+    }
+
+    /**
+     * take and timed poll retrieve available elements
+     */
+    public void testTake() throws InterruptedException {
+        for (boolean strict : new boolean[] { false, true }) {
+            ConcurrentSkipListPriorityQueue<Integer> q =
+                populatedQueue(SIZE, strict);
+            boolean[] seen = new boolean[SIZE];
+            for (int i = 0; i < SIZE; ++i) {
+                int x = (i % 2 == 0) ? q.take()
+                    : q.poll(LONG_DELAY_MS, MILLISECONDS);
+                assertFalse(seen[x]);
+                seen[x] = true;
+                if (strict)
+                    assertEquals(i, x);
+            }
+            assertNull(q.poll(0L, MILLISECONDS));
+            assertNull(q.poll());
+        }
+    }
+
+    /**
+     * take blocks until an element is offered by another thread
+     */
+    public void testTakeBlocksUntilOffer() throws InterruptedException {
+        final ConcurrentSkipListPriorityQueue<Integer> q =
+            new ConcurrentSkipListPriorityQueue<Integer>();
+        final CountDownLatch started = new CountDownLatch(1);
+        Thread t = newStartedThread(new CheckedRunnable() {
+            public void realRun() throws InterruptedException {
+                started.countDown();
+                assertEquals((Integer) 42, q.take());
+            }});
+        await(started);
+        waitForThreadToEnterWaitState(t);
+        q.put(42);
+        awaitTermination(t);
+    }
+
+    /**
+     * contains and remove find elements in any part of the queue
+     */
+    public void testContainsRemove() {
+        ConcurrentSkipListPriorityQueue<Integer> q =
+            populatedQueue(SIZE, false);
+        for (int i = 0; i < SIZE; ++i)
+            assertTrue(q.contains(i));
+        assertFalse(q.contains(SIZE));
+        assertFalse(q.contains(null));
+        q.add(1);
+        assertTrue(q.remove(1));
+        assertTrue(q.contains(1));
+        assertTrue(q.remove(1));
+        assertFalse(q.contains(1));
+        assertFalse(q.remove(1));
+        assertFalse(q.remove(null));
+        assertEquals(SIZE - 1, q.size());
+    }
+
+    /**
+     * The iterator traverses all elements, and its remove method
+     * removes the last returned element
+     */
+    public void testIterator() {
+        ConcurrentSkipListPriorityQueue<Integer> q =
+            populatedQueue(SIZE, false);
+        boolean[] seen = new boolean[SIZE];
+        int count = 0;
+        for (Iterator<Integer> it = q.iterator(); it.hasNext(); ) {
+            int x = it.next();
+            assertFalse(seen[x]);
+            seen[x] = true;
+            ++count;
+            if (x % 2 == 0)
+                it.remove();
+        }
+        assertEquals(SIZE, count);
+        assertEquals(SIZE / 2, q.size());
+        for (int i = 0; i < SIZE; ++i)
+            assertEquals(i % 2 != 0, q.contains(i));
+        Iterator<Integer> it =
+            new ConcurrentSkipListPriorityQueue<Integer>().iterator();
+        assertFalse(it.hasNext());
+        try {
+            it.next();
+            shouldThrow();
+        } catch (NoSuchElementException success) {}
+        try {
+            it.remove();
+            shouldThrow();
+        } catch (IllegalStateException success) {}
+        assertEquals(SIZE / 2, q.stream().count());
+    }
+
+    /**
+     * drainTo transfers up to the given number of elements, in
+     * ascending order if strict
+     */
+    public void testDrainTo() {
+        ConcurrentSkipListPriorityQueue<Integer> q = populatedQueue(SIZE, true);
+        ArrayList<Integer> l = new ArrayList<>();
+        assertEquals(2, q.drainTo(l, 2));
+        assertEquals(Arrays.asList(0, 1), l);
+        assertEquals(SIZE - 2, q.drainTo(l));
+        assertEquals(SIZE, l.size());
+        for (int i = 0; i < SIZE; ++i)
+            assertEquals((Integer) i, l.get(i));
+        assertTrue(q.isEmpty());
+        q = populatedQueue(SIZE, false);
+        l.clear();
+        assertEquals(SIZE, q.drainTo(l));
+        Collections.sort(l);
+        for (int i = 0; i < SIZE; ++i)
+            assertEquals((Integer) i, l.get(i));
+    }
+
+    /**
+     * clear removes all elements
+     */
+    public void testClear() {
+        ConcurrentSkipListPriorityQueue<Integer> q =
+            populatedQueue(SIZE, false);
+        q.clear();
+        assertTrue(q.isEmpty());
+        assertEquals(0, q.size());
+        assertNull(q.peek());
+        q.add(1);
+        assertFalse(q.isEmpty());
+        assertEquals("[1]", q.toString());
+    }
+
+    /**
+     * A deserialized/reserialized queue has the same elements, mode
+     * and ordering
+     */
+    public void testSerialization() throws Exception {
+        ConcurrentSkipListPriorityQueue<Integer> x =
+            new ConcurrentSkipListPriorityQueue<Integer>
+            (Collections.reverseOrder(), true);
+        for (int i = 0; i < SIZE; ++i)
+            x.add(i);
+        ConcurrentSkipListPriorityQueue<Integer> y = serialClone(x);
+        assertNotSame(x, y);
+        assertTrue(y.isStrict());
+        assertEquals(x.size(), y.size());
+        while (!x.isEmpty()) {
+            assertFalse(y.isEmpty());
+            assertEquals(x.remove(), y.remove());
+        }
+        assertTrue(y.isEmpty());
+        y.add(1);
+        assertEquals((Integer) 1, y.take());
+    }
+
+    /**
+     * Concurrent producers and blocking consumers transfer all
+     * elements exactly once
+     */
+    public void testProducersConsumers() throws Throwable {
+        for (boolean strict : new boolean[] { false, true }) {
+            final ConcurrentSkipListPriorityQueue<Long> q =
+                new ConcurrentSkipListPriorityQueue<Long>(null, strict);
+            final int nThreads = 3, perThread = 10000;
+            final AtomicLong sum = new AtomicLong();
+            Thread[] threads = new Thread[2 * nThreads];
+            for (int t = 0; t < nThreads; ++t) {
+                final long base = (long) t * perThread;
+                threads[t] = newStartedThread(new CheckedRunnable() {
+                    public void realRun() throws InterruptedException {
+                        for (long i = base; i < base + perThread; ++i)
+                            q.put(i);
+                    }});
+                threads[nThreads + t] = newStartedThread(new CheckedRunnable() {
+                    public void realRun() throws InterruptedException {
+                        long s = 0L;
+                        for (int i = 0; i < perThread; ++i)
+                            s += ((i & 1) == 0) ? q.take()
+                                : q.poll(LONG_DELAY_MS, MILLISECONDS);
+                        sum.addAndGet(s);
+                    }});
+            }
+            for (Thread thread : threads)
+                awaitTermination(thread);
+            long n = (long) nThreads * perThread;
+            assertEquals(n * (n - 1) / 2, sum.get());
+            assertTrue(q.isEmpty());
+        }
+    }
+}
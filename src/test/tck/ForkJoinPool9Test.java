@@ -0,0 +1,581 @@
+/*
+ * Written by Doug Lea with assistance from members of JCP JSR-166
+ * Expert Group and released to the public domain, as explained at
+ * http://creativecommons.org/publicdomain/zero/1.0/
+ */
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import junit.framework.Test;
+import junit.framework.TestSuite;
+
+public class ForkJoinPool9Test extends JSR166TestCase {
+    public static void main(String[] args) {
+        main(suite(), args);
+    }
+
+    public static Test suite() {
+        return new TestSuite(ForkJoinPool9Test.class);
+    }
+
+    // A simple recursive task for testing
+    static final class FibTask extends RecursiveTask<Integer> {
+        final int number;
+        FibTask(int n) { number = n; }
+        protected Integer compute() {
+            int n = number;
+            if (n <= 1)
+                return n;
+            FibTask f1 = new FibTask(n - 1);
+            f1.fork();
+            return (new FibTask(n - 2)).compute() + f1.join();
+        }
+    }
+
+    static long sum(long[] a) {
+        long s = 0L;
+        for (long x : a)
+            s += x;
+        return s;
+    }
+
+    /**
+     * A new pool reports zero metrics
+     */
+    public void testInitialMetrics() {
+        ForkJoinPool p = new ForkJoinPool(2);
+        try {
+            ForkJoinPool.Metrics m = p.getMetrics();
+            assertEquals(0L, m.getExecutedCount());
+            assertEquals(0L, m.getStealCount());
+            assertEquals(0L, m.getParkCount());
+            assertEquals(0L, m.getWakeupCount());
+            assertEquals(0L, m.getIdleTimeNanos());
+            assertEquals(0L, m.getSpareCount());
+            assertEquals(0L, m.getQueuedTaskCount());
+            assertEquals(0L, sum(m.getQueueDepthHistogram()));
+            assertTrue(m.getWorkerMetrics().isEmpty());
+        } finally {
+            joinPool(p);
+        }
+    }
+
+    /**
+     * Metrics after a computation are consistent with each other and
+     * with getStealCount
+     */
+    public void testMetricsAfterComputation() {
+        ForkJoinPool p = new ForkJoinPool(4);
+        try {
+            assertEquals(6765, (int) p.invoke(new FibTask(20)));
+            assertTrue(p.awaitQuiescence(LONG_DELAY_MS, MILLISECONDS));
+            ForkJoinPool.Metrics m = p.getMetrics();
+            assertTrue(m.getStealCount() > 0L);
+            assertEquals(p.getStealCount(), m.getStealCount());
+            assertTrue(m.getExecutedCount() >= m.getStealCount());
+            assertEquals(m.getStealCount(), sum(m.getQueueDepthHistogram()));
+            assertTrue(m.getWakeupCount() <= m.getParkCount());
+            long executed = 0L, steals = 0L;
+            for (ForkJoinPool.WorkerMetrics w : m.getWorkerMetrics()) {
+                assertTrue(w.getPoolIndex() >= 0);
+                assertTrue(w.getExecutedCount() >= w.getStealCount());
+                assertEquals(w.getStealCount(),
+                             sum(w.getQueueDepthHistogram()));
+                executed += w.getExecutedCount();
+                steals += w.getStealCount();
+            }
+            assertEquals(m.getExecutedCount(), executed);
+            assertEquals(m.getStealCount(), steals);
+            assertEquals(m.getWorkerMetrics().size(), p.getPoolSize());
+            long[] h = m.getQueueDepthHistogram();
+            h[0] = -1L;
+            assertTrue(m.getQueueDepthHistogram()[0] >= 0L);
+        } finally {
+            joinPool(p);
+        }
+    }
+
+    /**
+     * Returns the number of tasks forked by a FibTask(n).
+     */
+    static long fibForks(int n) {
+        long f0 = 0L, f1 = 0L;      // forks for FibTask(i-2), FibTask(i-1)
+        for (int i = 2; i <= n; ++i) {
+            long f = 1L + f1 + f0;
+            f0 = f1;
+            f1 = f;
+        }
+        return (n <= 1) ? 0L : f1;
+    }
+
+    /**
+     * The executed count includes tasks run by workers while joining
+     * others, so with a single worker (which runs every forked task
+     * upon joining it) it matches the number of tasks exactly, and is
+     * never less than it with several workers
+     */
+    public void testExecutedCountIncludesJoinedTasks() {
+        final int n = 16, roots = 4;
+        final long expected = roots * (1L + fibForks(n));
+        ForkJoinPool p = new ForkJoinPool(1);
+        try {
+            for (int i = 0; i < roots; ++i)
+                assertEquals(987, (int) p.invoke(new FibTask(n)));
+            assertTrue(p.awaitQuiescence(LONG_DELAY_MS, MILLISECONDS));
+            ForkJoinPool.Metrics m = p.getMetrics();
+            assertEquals(0L, m.getSpareCount());
+            assertEquals(expected, m.getExecutedCount());
+        } finally {
+            joinPool(p);
+        }
+        p = new ForkJoinPool(4);
+        try {
+            for (int i = 0; i < roots; ++i)
+                assertEquals(987, (int) p.invoke(new FibTask(n)));
+            assertTrue(p.awaitQuiescence(LONG_DELAY_MS, MILLISECONDS));
+            assertTrue(p.getMetrics().getExecutedCount() >= expected);
+        } finally {
+            joinPool(p);
+        }
+    }
+
+    /**
+     * Idle workers record parks and idle time, and wakeups when
+     * signalled with new work
+     */
+    public void testParkMetrics() throws Exception {
+        ForkJoinPool p = new ForkJoinPool(1);
+        try {
+            assertEquals(1, (int) p.submit(new FibTask(2)).get());
+            long startTime = System.nanoTime();
+            while (p.getMetrics().getParkCount() == 0L) {
+                if (millisElapsedSince(startTime) > LONG_DELAY_MS)
+                    fail("timed out waiting for worker to park");
+                Thread.yield();
+            }
+            assertEquals(1, (int) p.submit(new FibTask(1)).get());
+            startTime = System.nanoTime();
+            while (p.getMetrics().getWakeupCount() == 0L) {
+                if (millisElapsedSince(startTime) > LONG_DELAY_MS)
+                    fail("timed out waiting for worker wakeup");
+                Thread.yield();
+            }
+            ForkJoinPool.Metrics m = p.getMetrics();
+            assertTrue(m.getIdleTimeNanos() > 0L);
+            assertTrue(m.getWakeupCount() <= m.getParkCount());
+        } finally {
+            joinPool(p);
+        }
+    }
+
+    /**
+     * Blocking in a ManagedBlocker with no idle workers creates a
+     * spare, which is counted
+     */
+    public void testSpareMetrics() throws Exception {
+        ForkJoinPool p = new ForkJoinPool(1);
+        final CountDownLatch blocked = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        try {
+            final ForkJoinPool.ManagedBlocker blocker =
+                new ForkJoinPool.ManagedBlocker() {
+                    public boolean block() throws InterruptedException {
+                        release.await();
+                        return true;
+                    }
+                    public boolean isReleasable() {
+                        return release.getCount() == 0;
+                    }};
+            p.execute(new CheckedRunnable() {
+                public void realRun() throws InterruptedException {
+                    blocked.countDown();
+                    ForkJoinPool.managedBlock(blocker);
+                }});
+            await(blocked);
+            long startTime = System.nanoTime();
+            while (p.getMetrics().getSpareCount() == 0L) {
+                if (millisElapsedSince(startTime) > LONG_DELAY_MS)
+                    fail("timed out waiting for spare creation");
+                Thread.yield();
+            }
+            assertEquals(1L, p.getMetrics().getSpareCount());
+            release.countDown();
+        } finally {
+            release.countDown();
+            joinPool(p);
+        }
+    }
+
+    /**
+     * Pool-wide metrics retain the counts of terminated workers
+     */
+    public void testMetricsAfterTermination() throws Exception {
+        ForkJoinPool p = new ForkJoinPool(2);
+        assertEquals(6765, (int) p.invoke(new FibTask(20)));
+        assertTrue(p.awaitQuiescence(LONG_DELAY_MS, MILLISECONDS));
+        ForkJoinPool.Metrics before = p.getMetrics();
+        p.shutdown();
+        assertTrue(p.awaitTermination(LONG_DELAY_MS, MILLISECONDS));
+        ForkJoinPool.Metrics after = p.getMetrics();
+        assertTrue(after.getWorkerMetrics().isEmpty());
+        assertEquals(before.getExecutedCount(), after.getExecutedCount());
+        assertEquals(before.getStealCount(), after.getStealCount());
+        assertEquals(sum(before.getQueueDepthHistogram()),
+                     sum(after.getQueueDepthHistogram()));
+        assertTrue(after.getParkCount() >= before.getParkCount());
+    }
+
+    /**
+     * Constructor rejects illegal numbers of locality groups
+     */
+    public void testLocalityGroupsConstructor() {
+        assertThrows(IllegalArgumentException.class,
+                     () -> new ForkJoinPool
+                     (2, ForkJoinPool.defaultForkJoinWorkerThreadFactory,
+                      null, false, 0),
+                     () -> new ForkJoinPool
+                     (2, ForkJoinPool.defaultForkJoinWorkerThreadFactory,
+                      null, false, 3));
+        ForkJoinPool p = new ForkJoinPool
+            (4, ForkJoinPool.defaultForkJoinWorkerThreadFactory,
+             null, false, 2);
+        try {
+            assertEquals(2, p.getLocalityGroups());
+            assertEquals(4, p.getParallelism());
+        } finally {
+            joinPool(p);
+        }
+        p = new ForkJoinPool(2);
+        try {
+            assertEquals(1, p.getLocalityGroups());
+        } finally {
+            joinPool(p);
+        }
+    }
+
+    /**
+     * Workers are spread evenly across locality groups
+     */
+    public void testWorkersSpreadAcrossGroups() {
+        final int nGroups = 3, perGroup = 2, n = nGroups * perGroup;
+        ForkJoinPool p = new ForkJoinPool
+            (n, ForkJoinPool.defaultForkJoinWorkerThreadFactory,
+             null, false, nGroups);
+        final CountDownLatch allStarted = new CountDownLatch(n);
+        final AtomicIntegerArray counts = new AtomicIntegerArray(nGroups);
+        try {
+            ForkJoinTask<?>[] tasks = new ForkJoinTask<?>[n];
+            for (int i = 0; i < n; ++i) {
+                tasks[i] = p.submit(new CheckedRunnable() {
+                    public void realRun() {
+                        ForkJoinWorkerThread w = (ForkJoinWorkerThread)
+                            Thread.currentThread();
+                        counts.incrementAndGet(w.getLocalityGroup());
+                        allStarted.countDown();
+                        await(allStarted);
+                    }});
+            }
+            for (ForkJoinTask<?> task : tasks)
+                task.join();
+            for (int j = 0; j < nGroups; ++j)
+                assertEquals(perGroup, counts.get(j));
+        } finally {
+            joinPool(p);
+        }
+    }
+
+    /**
+     * Pools with locality groups run computations correctly
+     */
+    public void testGroupedComputation() {
+        for (int groups = 1; groups <= 4; ++groups) {
+            ForkJoinPool p = new ForkJoinPool
+                (4, ForkJoinPool.defaultForkJoinWorkerThreadFactory,
+                 null, (groups & 1) == 0, groups);
+            try {
+                assertEquals(6765, (int) p.invoke(new FibTask(20)));
+                assertEquals(832040, (int) p.submit(new FibTask(30)).join());
+                assertTrue(p.awaitQuiescence(LONG_DELAY_MS, MILLISECONDS));
+                assertTrue(p.getStealCount() > 0L);
+            } finally {
+                joinPool(p);
+            }
+        }
+    }
+
+    /**
+     * Affinity-keyed submission rejects null tasks, and tasks
+     * submitted after shutdown
+     */
+    public void testAffinitySubmitRejections() {
+        ForkJoinPool p = new ForkJoinPool(2);
+        try {
+            assertThrows(NullPointerException.class,
+                         () -> p.submit((ForkJoinTask<?>) null, 1));
+            p.shutdown();
+            assertThrows(RejectedExecutionException.class,
+                         () -> p.submit(new FibTask(1), 1));
+        } finally {
+            joinPool(p);
+        }
+    }
+
+    /**
+     * Tasks submitted with affinity keys all run, with the correct
+     * results, and only on the pool's workers
+     */
+    public void testAffinityKeyedSubmission() {
+        final int nKeys = 8, perKey = 100;
+        for (int groups = 1; groups <= 2; ++groups) {
+            final ForkJoinPool p = new ForkJoinPool
+                (4, ForkJoinPool.defaultForkJoinWorkerThreadFactory,
+                 null, false, groups);
+            try {
+                ForkJoinTask<?>[] tasks = new ForkJoinTask<?>[nKeys * perKey];
+                for (int i = 0; i < tasks.length; ++i) {
+                    final int key = i % nKeys;
+                    tasks[i] = p.submit(new RecursiveTask<Integer>() {
+                        protected Integer compute() {
+                            ForkJoinWorkerThread w = (ForkJoinWorkerThread)
+                                Thread.currentThread();
+                            assertSame(p, w.getPool());
+                            return key + new FibTask(10).compute();
+                        }}, key);
+                }
+                for (int i = 0; i < tasks.length; ++i)
+                    assertEquals(i % nKeys + 55, tasks[i].join());
+                assertTrue(p.awaitQuiescence(LONG_DELAY_MS, MILLISECONDS));
+                assertEquals(0L, p.getQueuedSubmissionCount());
+            } finally {
+                joinPool(p);
+            }
+        }
+    }
+
+    /**
+     * In pools with more than 64 workers, affinity keys map to
+     * submission queues beside workers beyond the first 64
+     */
+    public void testAffinityKeysSpanLargePools() throws Exception {
+        if (!testImplementationDetails) return;
+        final int n = 160;
+        final ForkJoinPool p = new ForkJoinPool(n);
+        final CountDownLatch started = new CountDownLatch(n);
+        final CountDownLatch release = new CountDownLatch(1);
+        try {
+            for (int i = 0; i < n; ++i)
+                p.execute(() -> { started.countDown(); await(release); });
+            await(started);
+            java.lang.reflect.Field f =
+                ForkJoinPool.class.getDeclaredField("workQueues");
+            f.setAccessible(true);
+            Object[] ws = (Object[]) f.get(p);
+            java.lang.reflect.Method affinityIndex =
+                ForkJoinPool.class.getDeclaredMethod
+                ("affinityIndex", int.class, ws.getClass(), int.class);
+            affinityIndex.setAccessible(true);
+            int max = 0;
+            for (int key = 0; key < 10000; ++key)
+                max = Math.max(max, (Integer) affinityIndex.invoke
+                               (null, key, ws, ws.length - 1));
+            assertTrue(max > 0x7e);
+        } finally {
+            release.countDown();
+            joinPool(p);
+        }
+    }
+
+    /**
+     * submitWithPriority rejects null tasks, out-of-range levels,
+     * and tasks submitted after shutdown
+     */
+    public void testSubmitWithPriorityRejections() {
+        ForkJoinPool p = new ForkJoinPool(2);
+        try {
+            assertThrows(NullPointerException.class,
+                         () -> p.submitWithPriority(null, 1));
+            assertThrows(IllegalArgumentException.class,
+                         () -> p.submitWithPriority(new FibTask(1), -1),
+                         () -> p.submitWithPriority
+                         (new FibTask(1), ForkJoinPool.MAX_PRIORITY + 1));
+            assertEquals(1, (int) p.submitWithPriority
+                         (new FibTask(2), ForkJoinPool.MAX_PRIORITY).join());
+            p.shutdown();
+            assertThrows(RejectedExecutionException.class,
+                         () -> p.submitWithPriority(new FibTask(1), 1));
+        } finally {
+            joinPool(p);
+        }
+    }
+
+    /**
+     * A worker takes queued tasks of higher priority levels before
+     * those of lower levels
+     */
+    public void testPriorityOrder() {
+        ForkJoinPool p = new ForkJoinPool(1);
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final List<Integer> order = new ArrayList<>();
+        try {
+            ForkJoinTask<?> blocker = p.submit(new CheckedRunnable() {
+                public void realRun() {
+                    started.countDown();
+                    await(release);
+                }});
+            await(started);
+            ForkJoinTask<?>[] tasks = new ForkJoinTask<?>[12];
+            for (int i = 0; i < tasks.length; ++i) {
+                final int level = i % 4;
+                ForkJoinTask<?> task = ForkJoinTask.adapt(new Runnable() {
+                    public void run() {
+                        assertEquals(level, ForkJoinTask.getPriority());
+                        synchronized (order) { order.add(level); }
+                    }});
+                tasks[i] = (level == 0) ? p.submit(task)
+                    : p.submitWithPriority(task, level);
+            }
+            assertEquals(tasks.length, p.getQueuedSubmissionCount());
+            release.countDown();
+            blocker.join();
+            for (ForkJoinTask<?> task : tasks)
+                task.join();
+            synchronized (order) {
+                assertEquals(tasks.length, order.size());
+                for (int i = 1; i < order.size(); ++i)
+                    assertTrue(order.get(i - 1) >= order.get(i));
+            }
+        } finally {
+            release.countDown();
+            joinPool(p);
+        }
+    }
+
+    /**
+     * Subtasks forked by a prioritized task run at its level
+     */
+    public void testPriorityInheritance() {
+        assertEquals(0, ForkJoinTask.getPriority());
+        final ForkJoinPool p = new ForkJoinPool(4);
+        final class CheckedFib extends RecursiveTask<Integer> {
+            final int number, level;
+            CheckedFib(int n, int level) { number = n; this.level = level; }
+            protected Integer compute() {
+                assertEquals(level, ForkJoinTask.getPriority());
+                int n = number;
+                if (n <= 1)
+                    return n;
+                CheckedFib f1 = new CheckedFib(n - 1, level);
+                f1.fork();
+                return new CheckedFib(n - 2, level).compute() + f1.join();
+            }
+        }
+        try {
+            for (int level = 0; level <= ForkJoinPool.MAX_PRIORITY; ++level) {
+                ForkJoinTask<Integer> background = p.submit(new FibTask(25));
+                assertEquals(6765, (int) p.submitWithPriority
+                             (new CheckedFib(20, level), level).join());
+                assertEquals(75025, (int) background.join());
+            }
+            assertEquals(6765, (int) p.submit(new CheckedFib(20, 0)).join());
+        } finally {
+            joinPool(p);
+        }
+    }
+
+    /**
+     * Spin settings default to zero, and can be changed, but not to
+     * negative values
+     */
+    public void testSpinSettings() {
+        ForkJoinPool p = new ForkJoinPool(2);
+        try {
+            assertEquals(0L, p.getMaximumSpinTime(NANOSECONDS));
+            assertEquals(0, p.getHotWorkerCount());
+            p.setMaximumSpinTime(2L, MILLISECONDS);
+            assertEquals(2000000L, p.getMaximumSpinTime(NANOSECONDS));
+            assertEquals(2L, p.getMaximumSpinTime(MILLISECONDS));
+            p.setHotWorkerCount(1);
+            assertEquals(1, p.getHotWorkerCount());
+            assertThrows(IllegalArgumentException.class,
+                         () -> p.setMaximumSpinTime(-1L, MILLISECONDS),
+                         () -> p.setHotWorkerCount(-1));
+            assertEquals(2L, p.getMaximumSpinTime(MILLISECONDS));
+            assertEquals(1, p.getHotWorkerCount());
+        } finally {
+            joinPool(p);
+        }
+    }
+
+    /**
+     * A pool with spinning workers runs bursts of tasks correctly
+     */
+    public void testAdaptiveSpinning() throws Exception {
+        ForkJoinPool p = new ForkJoinPool(2);
+        try {
+            p.setMaximumSpinTime(1L, MILLISECONDS);
+            for (int i = 0; i < 100; ++i) {
+                assertEquals(55, (int) p.submit(new FibTask(10)).get());
+                if (i % 10 == 0)
+                    Thread.sleep(1L);
+            }
+            assertEquals(6765, (int) p.invoke(new FibTask(20)));
+        } finally {
+            joinPool(p);
+        }
+    }
+
+    /**
+     * A hot idle worker spins without parking, and the pool can
+     * still be shut down
+     */
+    public void testHotWorkers() throws Exception {
+        ForkJoinPool p = new ForkJoinPool(1);
+        try {
+            p.setHotWorkerCount(1);
+            assertEquals(1, (int) p.submit(new FibTask(2)).get());
+            assertTrue(p.awaitQuiescence(LONG_DELAY_MS, MILLISECONDS));
+            delay(SHORT_DELAY_MS);
+            assertEquals(0L, p.getMetrics().getParkCount());
+            assertEquals(1, (int) p.submit(new FibTask(1)).get());
+            assertEquals(0L, p.getMetrics().getParkCount());
+        } finally {
+            joinPool(p);
+        }
+    }
+
+    /**
+     * A hot idle worker parks once the hot worker count is reduced
+     */
+    public void testHotWorkersReduced() throws Exception {
+        ForkJoinPool p = new ForkJoinPool(1);
+        try {
+            p.setHotWorkerCount(1);
+            assertEquals(1, (int) p.submit(new FibTask(2)).get());
+            assertTrue(p.awaitQuiescence(LONG_DELAY_MS, MILLISECONDS));
+            delay(SHORT_DELAY_MS);
+            assertEquals(0L, p.getMetrics().getParkCount());
+            p.setHotWorkerCount(0);
+            long startTime = System.nanoTime();
+            while (p.getMetrics().getParkCount() == 0L) {
+                if (millisElapsedSince(startTime) > LONG_DELAY_MS)
+                    fail("hot worker did not park");
+                Thread.yield();
+            }
+            assertEquals(1, (int) p.submit(new FibTask(1)).get());
+        } finally {
+            joinPool(p);
+        }
+    }
+}
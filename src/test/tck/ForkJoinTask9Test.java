@@ -0,0 +1,294 @@
+/*
+ * Written by Doug Lea with assistance from members of JCP JSR-166
+ * Expert Group and released to the public domain, as explained at
+ * http://creativecommons.org/publicdomain/zero/1.0/
+ */
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CountedCompleter;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.Test;
+import junit.framework.TestSuite;
+
+public class ForkJoinTask9Test extends JSR166TestCase {
+    public static void main(String[] args) {
+        main(suite(), args);
+    }
+
+    public static Test suite() {
+        return new TestSuite(ForkJoinTask9Test.class);
+    }
+
+    public static final class FJException extends RuntimeException {
+        FJException() { super(); }
+    }
+
+    /** A task that counts its executions */
+    static final class Counter extends RecursiveAction {
+        final AtomicInteger count;
+        Counter(AtomicInteger count) { this.count = count; }
+        protected void compute() { count.getAndIncrement(); }
+    }
+
+    /**
+     * Forks n Counters, cancels the current task, and checks that
+     * the Counters were cancelled rather than run.
+     */
+    static void forkAndCancel(ForkJoinTask<?> current, int n) {
+        AtomicInteger count = new AtomicInteger();
+        Counter[] tasks = new Counter[n];
+        for (int i = 0; i < n; ++i)
+            tasks[i] = (Counter) new Counter(count).fork();
+        assertFalse(ForkJoinTask.inCancelledScope());
+        assertTrue(current.cancel(false));
+        assertTrue(ForkJoinTask.inCancelledScope());
+        for (Counter task : tasks) {
+            task.quietlyJoin();
+            assertTrue(task.isCancelled());
+        }
+        assertEquals(0, count.get());
+    }
+
+    /**
+     * Cancelling a scope root causes queued members to be cancelled
+     * rather than run
+     */
+    public void testCancelledScopeDropsMembers() {
+        ForkJoinPool p = new ForkJoinPool(1);
+        try {
+            ForkJoinTask<?> root = new CheckedRecursiveAction() {
+                protected void realCompute() {
+                    forkAndCancel(this, 100);
+                }}.asScope();
+            p.submit(root);
+            assertThrows(CancellationException.class, () -> root.join());
+            assertTrue(root.isCancelled());
+        } finally {
+            joinPool(p);
+        }
+    }
+
+    /**
+     * Tasks forked by members join the scope, and scopes nest, so
+     * cancelling an outer root aborts inner scopes
+     */
+    public void testNestedScopes() {
+        ForkJoinPool p = new ForkJoinPool(1);
+        final AtomicInteger count = new AtomicInteger();
+        try {
+            ForkJoinTask<?> root = new CheckedRecursiveAction() {
+                protected void realCompute() {
+                    final ForkJoinTask<?> outer = this;
+                    ForkJoinTask<?> inner = new CheckedRecursiveAction() {
+                        protected void realCompute() {
+                            ForkJoinTask<?> member = new RecursiveAction() {
+                                protected void compute() {
+                                    new Counter(count).fork();
+                                    new Counter(count).fork();
+                                }};
+                            member.invoke();
+                            assertFalse(ForkJoinTask.inCancelledScope());
+                            assertTrue(outer.cancel(false));
+                            assertTrue(ForkJoinTask.inCancelledScope());
+                            helpQuiesce();
+                        }}.asScope();
+                    inner.invoke();
+                }}.asScope();
+            p.submit(root);
+            assertThrows(CancellationException.class, () -> root.join());
+            assertTrue(p.awaitQuiescence(LONG_DELAY_MS, MILLISECONDS));
+            assertEquals(0, count.get());
+        } finally {
+            joinPool(p);
+        }
+    }
+
+    /**
+     * Exceptional completion of a root also aborts its scope
+     */
+    public void testExceptionalRootAbortsScope() {
+        ForkJoinPool p = new ForkJoinPool(1);
+        final AtomicInteger count = new AtomicInteger();
+        try {
+            ForkJoinTask<?> root = new RecursiveAction() {
+                protected void compute() {
+                    for (int i = 0; i < 10; ++i)
+                        new Counter(count).fork();
+                    throw new FJException();
+                }}.asScope();
+            p.submit(root);
+            assertThrows(FJException.class, () -> root.join());
+            assertTrue(p.awaitQuiescence(LONG_DELAY_MS, MILLISECONDS));
+            assertEquals(0, count.get());
+        } finally {
+            joinPool(p);
+        }
+    }
+
+    /**
+     * Tasks submitted to a pool by a member do not join its scope
+     */
+    public void testSubmittedTasksAreNotMembers() {
+        final ForkJoinPool p = new ForkJoinPool(1);
+        final AtomicInteger count = new AtomicInteger();
+        try {
+            final Counter submitted = new Counter(count);
+            ForkJoinTask<?> root = new CheckedRecursiveAction() {
+                protected void realCompute() {
+                    p.submit(submitted);
+                    assertTrue(cancel(false));
+                }}.asScope();
+            p.submit(root);
+            assertThrows(CancellationException.class, () -> root.join());
+            submitted.join();
+            assertTrue(submitted.isCompletedNormally());
+            assertEquals(1, count.get());
+        } finally {
+            joinPool(p);
+        }
+    }
+
+    /**
+     * Tasks outside of any scope are unaffected by cancellation of
+     * other tasks
+     */
+    public void testNoScope() {
+        ForkJoinPool p = new ForkJoinPool(1);
+        final AtomicInteger count = new AtomicInteger();
+        try {
+            ForkJoinTask<?> root = new CheckedRecursiveAction() {
+                protected void realCompute() {
+                    Counter c = new Counter(count);
+                    c.fork();
+                    assertTrue(cancel(false));
+                    assertFalse(ForkJoinTask.inCancelledScope());
+                    c.join();
+                }};
+            p.submit(root);
+            assertThrows(CancellationException.class, () -> root.join());
+            assertEquals(1, count.get());
+            assertFalse(ForkJoinTask.inCancelledScope());
+        } finally {
+            joinPool(p);
+        }
+    }
+
+    /**
+     * Scopes are tracked for tasks invoked by non-worker threads,
+     * and cleared when they complete
+     */
+    public void testExternallyInvokedScope() {
+        final AtomicInteger count = new AtomicInteger();
+        ForkJoinTask<?> root = new CheckedRecursiveAction() {
+            protected void realCompute() {
+                final ForkJoinTask<?> outer = this;
+                new CheckedRecursiveAction() {
+                    protected void realCompute() {
+                        assertFalse(ForkJoinTask.inCancelledScope());
+                        assertTrue(outer.cancel(false));
+                        assertTrue(ForkJoinTask.inCancelledScope());
+                    }}.invoke();
+                assertTrue(ForkJoinTask.inCancelledScope());
+                Counter c = new Counter(count);
+                c.quietlyInvoke();
+                assertTrue(c.isCancelled());
+            }}.asScope();
+        assertFalse(ForkJoinTask.inCancelledScope());
+        root.quietlyInvoke();
+        assertTrue(root.isCancelled());
+        assertFalse(ForkJoinTask.inCancelledScope());
+        assertEquals(0, count.get());
+        new Counter(count).invoke();
+        assertEquals(1, count.get());
+    }
+
+    /**
+     * A root with a deadline is cancelled when it elapses, releasing
+     * joiners and aborting members
+     */
+    public void testScopeDeadline() {
+        ForkJoinPool p = new ForkJoinPool(2);
+        final AtomicInteger count = new AtomicInteger();
+        final CountDownLatch done = new CountDownLatch(1);
+        long startTime = System.nanoTime();
+        try {
+            ForkJoinTask<?> root = new CheckedRecursiveAction() {
+                protected void realCompute() {
+                    long startTime = System.nanoTime();
+                    while (!ForkJoinTask.inCancelledScope()) {
+                        if (millisElapsedSince(startTime) > LONG_DELAY_MS)
+                            fail("timed out waiting for deadline");
+                        Thread.yield();
+                    }
+                    new Counter(count).fork().quietlyJoin();
+                    done.countDown();
+                }}.asScope(timeoutMillis(), MILLISECONDS);
+            p.submit(root);
+            assertThrows(CancellationException.class, () -> root.join());
+            assertTrue(millisElapsedSince(startTime) >= timeoutMillis());
+            await(done);
+            assertEquals(0, count.get());
+        } finally {
+            joinPool(p);
+        }
+    }
+
+    /**
+     * A root completing before its deadline is not cancelled
+     */
+    public void testScopeCompletesBeforeDeadline() throws Exception {
+        ForkJoinPool p = new ForkJoinPool(2);
+        final AtomicInteger count = new AtomicInteger();
+        try {
+            ForkJoinTask<?> root = new RecursiveAction() {
+                protected void compute() {
+                    invokeAll(new Counter(count), new Counter(count));
+                }}.asScope(timeoutMillis(), MILLISECONDS);
+            p.invoke(root);
+            assertEquals(2, count.get());
+            delay(2 * timeoutMillis());
+            assertTrue(root.isCompletedNormally());
+        } finally {
+            joinPool(p);
+        }
+    }
+
+    /**
+     * Queued subtasks of a cancelled CountedCompleter scope are not
+     * run
+     */
+    public void testCountedCompleterScope() {
+        ForkJoinPool p = new ForkJoinPool(1);
+        final AtomicInteger count = new AtomicInteger();
+        try {
+            final class Leaf extends CountedCompleter<Void> {
+                Leaf(CountedCompleter<?> parent) { super(parent); }
+                public void compute() {
+                    count.getAndIncrement();
+                    tryComplete();
+                }
+            }
+            CountedCompleter<Void> root = new CountedCompleter<Void>() {
+                public void compute() {
+                    setPendingCount(10);
+                    for (int i = 0; i < 10; ++i)
+                        new Leaf(this).fork();
+                    cancel(false);
+                }};
+            root.asScope();
+            p.submit(root);
+            assertThrows(CancellationException.class, () -> root.join());
+            assertTrue(p.awaitQuiescence(LONG_DELAY_MS, MILLISECONDS));
+            assertEquals(0, count.get());
+        } finally {
+            joinPool(p);
+        }
+    }
+}
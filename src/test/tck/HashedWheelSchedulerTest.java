@@ -0,0 +1,313 @@
+/*
+ * Written by Doug Lea with assistance from members of JCP JSR-166
+ * Expert Group and released to the public domain, as explained at
+ * http://creativecommons.org/publicdomain/zero/1.0/
+ */
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.HashedWheelScheduler;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.Test;
+import junit.framework.TestSuite;
+
+public class HashedWheelSchedulerTest extends JSR166TestCase {
+    public static void main(String[] args) {
+        main(suite(), args);
+    }
+
+    public static Test suite() {
+        return new TestSuite(HashedWheelSchedulerTest.class);
+    }
+
+    /**
+     * Constructors reject non-positive tick durations and bucket
+     * counts, and null arguments
+     */
+    public void testConstructorRejections() {
+        try {
+            new HashedWheelScheduler(0L, MILLISECONDS, 16);
+            shouldThrow();
+        } catch (IllegalArgumentException success) {}
+        try {
+            new HashedWheelScheduler(1L, MILLISECONDS, 0);
+            shouldThrow();
+        } catch (IllegalArgumentException success) {}
+        try {
+            new HashedWheelScheduler(1L, null, 16);
+            shouldThrow();
+        } catch (NullPointerException success) {}
+        try {
+            new HashedWheelScheduler(1L, MILLISECONDS, 16, null);
+            shouldThrow();
+        } catch (NullPointerException success) {}
+    }
+
+    /**
+     * execute runs a runnable
+     */
+    public void testExecute() {
+        HashedWheelScheduler p = new HashedWheelScheduler();
+        final CountDownLatch done = new CountDownLatch(1);
+        try {
+            p.execute(new CheckedRunnable() {
+                public void realRun() { done.countDown(); }});
+            await(done);
+        } finally {
+            joinPool(p);
+        }
+    }
+
+    /**
+     * A delayed callable runs no sooner than its delay
+     */
+    public void testScheduleCallable() throws Exception {
+        HashedWheelScheduler p = new HashedWheelScheduler();
+        final long startTime = System.nanoTime();
+        try {
+            ScheduledFuture<Boolean> f = p.schedule(
+                new CheckedCallable<Boolean>() {
+                    public Boolean realCall() {
+                        assertTrue(millisElapsedSince(startTime)
+                                   >= timeoutMillis());
+                        return Boolean.TRUE;
+                    }},
+                timeoutMillis(), MILLISECONDS);
+            assertSame(Boolean.TRUE, f.get(LONG_DELAY_MS, MILLISECONDS));
+            assertTrue(millisElapsedSince(startTime) >= timeoutMillis());
+            assertTrue(f.getDelay(NANOSECONDS) <= 0L);
+        } finally {
+            joinPool(p);
+        }
+    }
+
+    /**
+     * Delayed tasks longer than a revolution of the wheel wait for
+     * the remaining rounds, and tasks run in order of their delays
+     */
+    public void testMultipleRevolutions() throws Exception {
+        HashedWheelScheduler p =
+            new HashedWheelScheduler(1L, MILLISECONDS, 4);
+        final long startTime = System.nanoTime();
+        final AtomicInteger order = new AtomicInteger();
+        try {
+            ScheduledFuture<?>[] fs = new ScheduledFuture<?>[4];
+            for (int i = fs.length; i > 0; --i) {
+                final int rank = i;
+                fs[i - 1] = p.schedule(new CheckedRunnable() {
+                    public void realRun() {
+                        assertTrue(millisElapsedSince(startTime)
+                                   >= 10L * rank);
+                        assertEquals(rank, order.incrementAndGet());
+                    }}, 10L * rank, MILLISECONDS);
+            }
+            for (ScheduledFuture<?> f : fs)
+                assertNull(f.get(LONG_DELAY_MS, MILLISECONDS));
+            assertEquals(fs.length, order.get());
+        } finally {
+            joinPool(p);
+        }
+    }
+
+    /**
+     * Cancelled tasks never run, including large numbers of tasks
+     * cancelled shortly after being scheduled
+     */
+    public void testCancel() throws Exception {
+        HashedWheelScheduler p = new HashedWheelScheduler();
+        final AtomicInteger runs = new AtomicInteger();
+        Runnable r = new Runnable() {
+            public void run() { runs.getAndIncrement(); }};
+        try {
+            for (int i = 0; i < 10000; ++i) {
+                ScheduledFuture<?> f = p.schedule(r, timeoutMillis(),
+                                                  MILLISECONDS);
+                assertTrue(f.cancel(false));
+                assertTrue(f.isCancelled());
+                assertTrue(f.isDone());
+            }
+            ScheduledFuture<?> last = p.schedule(r, 2 * timeoutMillis(),
+                                                 MILLISECONDS);
+            last.get(LONG_DELAY_MS, MILLISECONDS);
+            assertEquals(1, runs.get());
+            ScheduledFuture<?> f = p.schedule(r, LONG_DELAY_MS,
+                                              MILLISECONDS);
+            assertTrue(f.cancel(true));
+            try {
+                f.get();
+                shouldThrow();
+            } catch (CancellationException success) {}
+        } finally {
+            joinPool(p);
+        }
+        assertEquals(1, runs.get());
+    }
+
+    /**
+     * scheduleAtFixedRate and scheduleWithFixedDelay execute
+     * repeatedly until cancelled
+     */
+    public void testPeriodic() throws Exception {
+        HashedWheelScheduler p = new HashedWheelScheduler();
+        try {
+            for (int k = 0; k < 2; ++k) {
+                final CountDownLatch done = new CountDownLatch(3);
+                Runnable r = new CheckedRunnable() {
+                    public void realRun() { done.countDown(); }};
+                ScheduledFuture<?> f = (k == 0)
+                    ? p.scheduleAtFixedRate(r, 1L, 1L, MILLISECONDS)
+                    : p.scheduleWithFixedDelay(r, 1L, 1L, MILLISECONDS);
+                await(done);
+                assertTrue(f.cancel(false));
+                assertTrue(f.isCancelled());
+            }
+        } finally {
+            joinPool(p);
+        }
+    }
+
+    /**
+     * Periodic scheduling rejects non-positive periods
+     */
+    public void testPeriodicRejections() {
+        HashedWheelScheduler p = new HashedWheelScheduler();
+        Runnable r = new NoOpRunnable();
+        try {
+            try {
+                p.scheduleAtFixedRate(r, 1L, 0L, MILLISECONDS);
+                shouldThrow();
+            } catch (IllegalArgumentException success) {}
+            try {
+                p.scheduleWithFixedDelay(r, 1L, -1L, MILLISECONDS);
+                shouldThrow();
+            } catch (IllegalArgumentException success) {}
+            try {
+                p.schedule((Runnable) null, 1L, MILLISECONDS);
+                shouldThrow();
+            } catch (NullPointerException success) {}
+            try {
+                p.schedule((Callable<?>) null, 1L, MILLISECONDS);
+                shouldThrow();
+            } catch (NullPointerException success) {}
+        } finally {
+            joinPool(p);
+        }
+    }
+
+    /**
+     * After shutdown, new tasks are rejected, periodic tasks are
+     * cancelled, and delayed tasks still run
+     */
+    public void testShutdown() throws Exception {
+        HashedWheelScheduler p = new HashedWheelScheduler();
+        final CountDownLatch done = new CountDownLatch(1);
+        ScheduledFuture<?> periodic =
+            p.scheduleAtFixedRate(new NoOpRunnable(), LONG_DELAY_MS,
+                                  LONG_DELAY_MS, MILLISECONDS);
+        ScheduledFuture<?> delayed = p.schedule(new CheckedRunnable() {
+            public void realRun() { done.countDown(); }},
+            timeoutMillis(), MILLISECONDS);
+        assertFalse(p.isShutdown());
+        p.shutdown();
+        assertTrue(p.isShutdown());
+        try {
+            p.execute(new NoOpRunnable());
+            shouldThrow();
+        } catch (RejectedExecutionException success) {}
+        assertTrue(p.awaitTermination(LONG_DELAY_MS, MILLISECONDS));
+        assertTrue(p.isTerminated());
+        assertTrue(periodic.isCancelled());
+        assertNull(delayed.get(0L, MILLISECONDS));
+        assertEquals(0L, done.getCount());
+    }
+
+    /**
+     * shutdownNow returns the tasks that never commenced execution,
+     * and interrupts a running task
+     */
+    public void testShutdownNow() throws Exception {
+        HashedWheelScheduler p = new HashedWheelScheduler();
+        final CountDownLatch running = new CountDownLatch(1);
+        final CountDownLatch interrupted = new CountDownLatch(1);
+        p.execute(new CheckedRunnable() {
+            public void realRun() {
+                running.countDown();
+                try {
+                    Thread.sleep(LONG_DELAY_MS);
+                    threadShouldThrow();
+                } catch (InterruptedException success) {
+                    interrupted.countDown();
+                }
+            }});
+        ScheduledFuture<?>[] fs = new ScheduledFuture<?>[3];
+        for (int i = 0; i < fs.length; ++i)
+            fs[i] = p.schedule(new NoOpRunnable(), LONG_DELAY_MS,
+                               MILLISECONDS);
+        await(running);
+        List<Runnable> pending = p.shutdownNow();
+        assertTrue(p.isTerminated());
+        assertEquals(0L, interrupted.getCount());
+        assertEquals(fs.length, pending.size());
+        for (ScheduledFuture<?> f : fs) {
+            assertTrue(pending.contains(f));
+            assertFalse(f.isDone());
+        }
+    }
+
+    /**
+     * A scheduler whose thread was never started terminates
+     * immediately upon shutdown, without creating a thread
+     */
+    public void testShutdownUnstarted() throws Exception {
+        final AtomicInteger threads = new AtomicInteger();
+        ThreadFactory factory = new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                threads.getAndIncrement();
+                return new Thread(r);
+            }};
+        HashedWheelScheduler p =
+            new HashedWheelScheduler(1L, MILLISECONDS, 16, factory);
+        p.shutdown();
+        assertTrue(p.isTerminated());
+        assertTrue(p.awaitTermination(0L, MILLISECONDS));
+        assertTrue(p.shutdownNow().isEmpty());
+        assertEquals(0, threads.get());
+    }
+
+    /**
+     * Tasks scheduled concurrently by many threads each run once
+     */
+    public void testConcurrentScheduling() throws Exception {
+        final HashedWheelScheduler p = new HashedWheelScheduler();
+        final int nThreads = 4, nTasks = 1000;
+        final CountDownLatch done = new CountDownLatch(nThreads * nTasks);
+        final Runnable r = new Runnable() {
+            public void run() { done.countDown(); }};
+        try {
+            Thread[] ts = new Thread[nThreads];
+            for (int i = 0; i < nThreads; ++i)
+                ts[i] = newStartedThread(new CheckedRunnable() {
+                    public void realRun() {
+                        for (int j = 0; j < nTasks; ++j) {
+                            p.schedule(r, j % 8, MILLISECONDS);
+                            p.schedule(r, LONG_DELAY_MS, MILLISECONDS)
+                                .cancel(false);
+                        }
+                    }});
+            for (Thread t : ts)
+                awaitTermination(t);
+            await(done);
+        } finally {
+            joinPool(p);
+        }
+    }
+}
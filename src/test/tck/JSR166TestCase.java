@@ -372,6 +372,21 @@ public class JSR166TestCase extends TestCase {
         // Java9+ test classes
         if (atLeastJava9()) {
             String[] java9TestClassNames = {
+                "CompletableFuture9Test",
+                "ConcurrentCacheTest",
+                "ConcurrentHashMap9Test",
+                "ConcurrentHashSetTest",
+                "ConcurrentIntHashMapTest",
+                "ConcurrentLongHashMapTest",
+                "ConcurrentLongHashSetTest",
+                "ConcurrentLongSkipListMapTest",
+                "ConcurrentReadMostlyHashMapTest",
+                "ConcurrentSkipListMap9Test",
+                "ConcurrentSkipListPriorityQueueTest",
+                "ForkJoinPool9Test",
+                "ForkJoinTask9Test",
+                "HashedWheelSchedulerTest",
+                "TaskScopeTest",
                 "ThreadPoolExecutor9Test",
             };
             addNamedTestClasses(suite, java9TestClassNames);
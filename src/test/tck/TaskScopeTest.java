@@ -0,0 +1,301 @@
+/*
+ * Written by Doug Lea with assistance from members of JCP JSR-166
+ * Expert Group and released to the public domain, as explained at
+ * http://creativecommons.org/publicdomain/zero/1.0/
+ */
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TaskScope;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.Test;
+import junit.framework.TestSuite;
+
+public class TaskScopeTest extends JSR166TestCase {
+    public static void main(String[] args) {
+        main(suite(), args);
+    }
+
+    public static Test suite() {
+        return new TestSuite(TaskScopeTest.class);
+    }
+
+    static class TSException extends RuntimeException {}
+
+    /**
+     * Returns a callable that blocks until interrupted, counting the
+     * number of such callables running in the given counter, and
+     * then throws InterruptedException.
+     */
+    static Callable<Integer> blocker(
+        final CountDownLatch started, final AtomicInteger running) {
+        return () -> {
+            running.getAndIncrement();
+            try {
+                started.countDown();
+                Thread.sleep(LONG_DELAY_MS);
+                throw new AssertionError("not interrupted");
+            } finally {
+                running.getAndDecrement();
+            }
+        };
+    }
+
+    /**
+     * With the default policy, join waits for all subtasks
+     */
+    public void testWaitAll() throws Exception {
+        ExecutorService e = Executors.newFixedThreadPool(2);
+        try (TaskScope scope = new TaskScope(e)) {
+            List<CompletableFuture<Integer>> fs = new ArrayList<>();
+            for (int i = 0; i < 20; ++i) {
+                final int x = i;
+                fs.add(scope.fork(() -> { Thread.yield(); return x; }));
+            }
+            final TSException ex = new TSException();
+            CompletableFuture<Integer> failed =
+                scope.fork(() -> { throw ex; });
+            scope.join();
+            for (int i = 0; i < 20; ++i)
+                assertEquals(i, (int) fs.get(i).getNow(null));
+            assertTrue(failed.isCompletedExceptionally());
+            assertSame(ex, scope.getException());
+            assertFalse(scope.isShutdown());
+        } finally {
+            joinPool(e);
+        }
+    }
+
+    /**
+     * With SHUTDOWN_ON_FAILURE, the first failure cancels and
+     * interrupts siblings, and join returns only once none is
+     * running
+     */
+    public void testShutdownOnFailure() throws Exception {
+        ExecutorService e = Executors.newCachedThreadPool();
+        final AtomicInteger running = new AtomicInteger();
+        final CountDownLatch started = new CountDownLatch(3);
+        final TSException ex = new TSException();
+        try (TaskScope scope = new TaskScope
+             (e, TaskScope.Policy.SHUTDOWN_ON_FAILURE)) {
+            List<CompletableFuture<Integer>> fs = new ArrayList<>();
+            for (int i = 0; i < 3; ++i)
+                fs.add(scope.fork(blocker(started, running)));
+            await(started);
+            scope.fork(() -> { throw ex; });
+            scope.join();
+            assertTrue(scope.isShutdown());
+            assertEquals(0, running.get());
+            assertSame(ex, scope.getException());
+            for (CompletableFuture<Integer> f : fs)
+                assertTrue(f.isCancelled());
+            assertTrue(scope.fork(() -> 1).isCancelled());
+        } finally {
+            joinPool(e);
+        }
+    }
+
+    /**
+     * With SHUTDOWN_ON_SUCCESS, the first result wins, and queued
+     * siblings never run
+     */
+    public void testShutdownOnSuccess() throws Exception {
+        ExecutorService e = Executors.newSingleThreadExecutor();
+        final AtomicInteger ran = new AtomicInteger();
+        try (TaskScope scope = new TaskScope
+             (e, TaskScope.Policy.SHUTDOWN_ON_SUCCESS)) {
+            CompletableFuture<String> first = scope.fork(() -> "first");
+            List<CompletableFuture<Integer>> fs = new ArrayList<>();
+            for (int i = 0; i < 10; ++i)
+                fs.add(scope.fork(() -> ran.incrementAndGet()));
+            scope.join();
+            assertEquals("first", first.getNow(null));
+            assertEquals("first", scope.getResult());
+            assertNull(scope.getException());
+            assertTrue(scope.isShutdown());
+            assertEquals(0, ran.get());
+            for (CompletableFuture<Integer> f : fs)
+                assertTrue(f.isCancelled());
+        } finally {
+            joinPool(e);
+        }
+    }
+
+    /**
+     * A scope is shut down at its deadline, reporting a timeout
+     */
+    public void testDeadline() throws Exception {
+        ExecutorService e = Executors.newCachedThreadPool();
+        final AtomicInteger running = new AtomicInteger();
+        final CountDownLatch started = new CountDownLatch(2);
+        long startTime = System.nanoTime();
+        try (TaskScope scope = new TaskScope
+             (e, TaskScope.Policy.WAIT_ALL, timeoutMillis(), MILLISECONDS)) {
+            CompletableFuture<Integer> f1 =
+                scope.fork(blocker(started, running));
+            CompletableFuture<Integer> f2 =
+                scope.fork(blocker(started, running));
+            scope.join();
+            assertTrue(millisElapsedSince(startTime) >= timeoutMillis());
+            assertTrue(scope.getException() instanceof TimeoutException);
+            assertTrue(f1.isCancelled());
+            assertTrue(f2.isCancelled());
+            assertEquals(0, running.get());
+        } finally {
+            joinPool(e);
+        }
+    }
+
+    /**
+     * A deadline elapsing before any fork reports a timeout, and
+     * later forks are cancelled without running
+     */
+    public void testDeadlineBeforeFork() throws Exception {
+        ExecutorService e = Executors.newCachedThreadPool();
+        final AtomicInteger ran = new AtomicInteger();
+        try (TaskScope scope = new TaskScope
+             (e, TaskScope.Policy.WAIT_ALL, timeoutMillis(), MILLISECONDS)) {
+            long startTime = System.nanoTime();
+            while (!scope.isShutdown()) {
+                if (millisElapsedSince(startTime) > LONG_DELAY_MS)
+                    fail("timed out");
+                Thread.yield();
+            }
+            CompletableFuture<Integer> f =
+                scope.fork(() -> ran.incrementAndGet());
+            scope.join();
+            assertTrue(f.isCancelled());
+            assertTrue(scope.getException() instanceof TimeoutException);
+            assertNull(scope.getResult());
+            assertEquals(0, ran.get());
+        } finally {
+            joinPool(e);
+        }
+    }
+
+    /**
+     * Cancelling the future of a subtask cancels only that subtask
+     */
+    public void testCancelSubtask() throws Exception {
+        ExecutorService e = Executors.newCachedThreadPool();
+        final AtomicInteger running = new AtomicInteger();
+        final CountDownLatch started = new CountDownLatch(1);
+        try (TaskScope scope = new TaskScope
+             (e, TaskScope.Policy.SHUTDOWN_ON_FAILURE)) {
+            CompletableFuture<Integer> f =
+                scope.fork(blocker(started, running));
+            await(started);
+            assertTrue(f.cancel(true));
+            CompletableFuture<Integer> g = scope.fork(() -> 2);
+            scope.join();
+            assertFalse(scope.isShutdown());
+            assertNull(scope.getException());
+            assertEquals(2, (int) g.getNow(null));
+            assertEquals(0, running.get());
+        } finally {
+            joinPool(e);
+        }
+    }
+
+    /**
+     * Subtasks run in a ForkJoinPool are cancellation scope roots, so
+     * tasks they fork are dropped upon shutdown
+     */
+    public void testForkJoinScope() throws Exception {
+        ForkJoinPool p = new ForkJoinPool(2);
+        final AtomicInteger count = new AtomicInteger();
+        final CountDownLatch forked = new CountDownLatch(1);
+        final CountDownLatch cancelled = new CountDownLatch(1);
+        try (TaskScope scope = new TaskScope(p)) {
+            scope.fork(() -> {
+                    List<ForkJoinTask<?>> ts = new ArrayList<>();
+                    for (int i = 0; i < 100; ++i)
+                        ts.add(new RecursiveAction() {
+                                protected void compute() {
+                                    count.getAndIncrement();
+                                }});
+                    forked.countDown();
+                    long startTime = System.nanoTime();
+                    while (!ForkJoinTask.inCancelledScope()) {
+                        if (millisElapsedSince(startTime) > LONG_DELAY_MS)
+                            fail("timed out waiting for cancellation");
+                        Thread.yield();
+                    }
+                    cancelled.countDown();
+                    for (ForkJoinTask<?> t : ts)
+                        t.fork();
+                    for (ForkJoinTask<?> t : ts) {
+                        t.quietlyJoin();
+                        assertTrue(t.isCancelled());
+                    }
+                    return null;
+                });
+            await(forked);
+            scope.shutdown();
+            scope.join();
+            assertEquals(0L, cancelled.getCount());
+            assertEquals(0, count.get());
+        } finally {
+            joinPool(p);
+        }
+    }
+
+    /**
+     * Subtasks forked by subtasks are waited for by join
+     */
+    public void testNestedForks() throws Exception {
+        ForkJoinPool p = new ForkJoinPool(2);
+        final AtomicInteger count = new AtomicInteger();
+        try (final TaskScope scope = new TaskScope(p)) {
+            for (int i = 0; i < 10; ++i)
+                scope.fork(() -> {
+                        for (int j = 0; j < 10; ++j)
+                            scope.fork(() -> count.incrementAndGet());
+                        return count.incrementAndGet();
+                    });
+            scope.join();
+            assertEquals(110, count.get());
+        } finally {
+            joinPool(p);
+        }
+    }
+
+    /**
+     * Constructors and fork reject null arguments
+     */
+    public void testNPE() {
+        ExecutorService e = Executors.newSingleThreadExecutor();
+        try {
+            try {
+                new TaskScope(null);
+                shouldThrow();
+            } catch (NullPointerException success) {}
+            try {
+                new TaskScope(e, null);
+                shouldThrow();
+            } catch (NullPointerException success) {}
+            try {
+                new TaskScope(e, TaskScope.Policy.WAIT_ALL, 1L, null);
+                shouldThrow();
+            } catch (NullPointerException success) {}
+            try (TaskScope scope = new TaskScope(e)) {
+                scope.fork(null);
+                shouldThrow();
+            } catch (NullPointerException success) {}
+        } finally {
+            joinPool(e);
+        }
+    }
+}